@@ -0,0 +1,158 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A recorded link capacity, in the format of the Mahimahi link
+ * emulator: one line per <i>delivery opportunity</i>, i.e., per
+ * packet the link could deliver, holding the time of the opportunity
+ * in milliseconds.  The times do not decrease; the same time may
+ * appear on several lines.  When the end of the file is reached, the
+ * trace repeats, with the last time as its period, the way Mahimahi
+ * does it.
+ * <P>
+ * The file is read front to back in chunks through one direct
+ * buffer, so traces of many hours take no more memory than a short
+ * one.
+ *
+ * @see CapacityTraceRouter
+ */
+public class CapacityTrace {
+	/** Size of the chunks read from the file, in bytes. */
+	private static final int CHUNK = 1 << 20;
+
+	private final FileInputStream stream;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK);
+
+	/** Time of the next opportunity in the current pass, as in the file. */
+	private long next = -1;
+
+	/** Added to the times of the file, one period per pass. */
+	private long offset = 0;
+
+	/** Time of the last opportunity read so far. */
+	private long last = 0;
+
+	/**
+	 * Opens a capacity trace.
+	 *
+	 * @param fileName_ The name of the trace file.
+	 * @throws IOException If the file cannot be read, or holds no opportunities, or its period is zero.
+	 */
+	public CapacityTrace(String fileName_) throws IOException {
+		stream = new FileInputStream(fileName_);
+		channel = stream.getChannel();
+		buffer.flip();
+		if (!readNext()) {
+			throw new IOException("No delivery opportunities in " + fileName_);
+		}
+	}
+
+	/**
+	 * Counts the delivery opportunities before the given time, that
+	 * have not been counted yet.  The times asked for must not decrease.
+	 *
+	 * @param endMillis_ The end of the interval, in milliseconds (exclusive).
+	 * @return Returns the number of opportunities up to the given time.
+	 */
+	public int opportunitiesBefore(long endMillis_) {
+		int count_ = 0;
+		try {
+			while (offset + next < endMillis_) {
+				count_++;
+				if (!readNext()) {
+					// Start the next pass of the trace.
+					if (last == 0) {
+						throw new IllegalStateException("The capacity trace has a period of zero");
+					}
+					offset += last;
+					channel.position(0);
+					buffer.clear();
+					buffer.flip();
+					readNext();
+				}
+			}
+		} catch (IOException e_) {
+			throw new IllegalStateException("Cannot read the capacity trace", e_);
+		}
+		return count_;
+	}
+
+	/**
+	 * Writes the position in the trace into a checkpoint.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		out_.writeLong(channel.position() - buffer.remaining());
+		out_.writeLong(next);
+		out_.writeLong(offset);
+		out_.writeLong(last);
+	}
+
+	/**
+	 * Returns to the position written by {@link #saveState(DataOutput)}.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read, or does not fit this trace.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		long position_ = in_.readLong();
+		if (position_ < 0 || position_ > channel.size()) {
+			throw new IOException("The checkpoint does not fit the trace");
+		}
+		channel.position(position_);
+		buffer.clear();
+		buffer.flip();
+		next = in_.readLong();
+		offset = in_.readLong();
+		last = in_.readLong();
+	}
+
+	/**
+	 * Closes the trace file.
+	 *
+	 * @throws IOException If the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		stream.close();
+	}
+
+	/** Reads the next time of the file.  Returns <code>false</code> at the end. */
+	private boolean readNext() throws IOException {
+		long value_ = 0;
+		boolean digits_ = false;
+		while (true) {
+			if (!buffer.hasRemaining()) {
+				buffer.clear();
+				int read_ = channel.read(buffer);
+				buffer.flip();
+				if (read_ <= 0) {
+					break;
+				}
+			}
+			byte c_ = buffer.get();
+			if (c_ >= '0' && c_ <= '9') {
+				value_ = value_ * 10 + (c_ - '0');
+				digits_ = true;
+			} else if (digits_) {
+				break;
+			}
+		}
+		if (!digits_) {
+			return false;
+		}
+		next = value_;
+		last = value_;
+		return true;
+	}
+}
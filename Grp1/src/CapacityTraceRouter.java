@@ -0,0 +1,342 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A router whose output link has a varying capacity, replayed from a
+ * recorded trace of a cellular or Wi-Fi link (see
+ * {@link CapacityTrace}).
+ * <P>
+ * Every delivery opportunity of the trace lets one packet out of the
+ * router.  The opportunities that fall within a round (RTT) make up
+ * the capacity of that round; those that find no packet waiting are
+ * lost, as on a real link.  Unlike in {@link Router}, the queue is
+ * kept from one round to the next: the packets that cannot be sent
+ * in their round wait in the buffer, oldest first, and those that
+ * find the buffer full are discarded.  A packet sent in a later
+ * round is delivered in the first free place of that round's array,
+ * i.e., after the packets that were sent in that round.
+ * <P>
+ * Background traffic (see {@link #setCrossTraffic(CrossTraffic)})
+ * shares the buffer and the delivery opportunities with the segments,
+ * first come, first served.
+ * <P>
+ * <b>Notice:</b> A queued packet is handed to the next caller of
+ * {@link #forward(TCPSegment[])}, so this router is meant for a
+ * single flow, as in {@link TCPSimulator}.
+ */
+public class CapacityTraceRouter extends Router {
+	/** The delivery opportunities of the output link. */
+	private final CapacityTrace trace;
+
+	/** Length of one round, in microseconds. */
+	private final long rttMicros;
+
+	/** The packets waiting in the buffer, as a ring; it grows when
+	 * the buffer size is raised. */
+	private TCPSegment[] queue;
+	private int head = 0;
+	private int size = 0;
+
+	/** The buffer size, in packets.  It may be changed while a
+	 * simulation runs, from another thread. */
+	private volatile int limit;
+
+	/** The packets that leave the buffer in the current round, until
+	 * they are handed out, and their number. */
+	private TCPSegment[] leaving;
+	private int numLeaving = 0;
+
+	/** Packets that leave ahead of the next arrival in this round. */
+	private int ahead = 0;
+
+	/** Background traffic through this router, if any.  Its packets
+	 * wait in the buffer as <code>null</code> entries. */
+	private CrossTraffic crossTraffic = null;
+
+	/** The current round; it is advanced by {@link #beginRound()}. */
+	private int round = 0;
+
+	/** Delivery opportunities that are still unused in the current round. */
+	private int opportunities = 0;
+
+	/** Delivery opportunities of all the rounds so far. */
+	private long totalOpportunities = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bufferSize_ The given buffer size for the router's queue, in packets.
+	 * @param trace_ The delivery opportunities of the output link.
+	 * @param rttMicros_ The length of one round, in microseconds, to convert the times of the trace.
+	 */
+	public CapacityTraceRouter(int bufferSize_, CapacityTrace trace_, long rttMicros_) {
+		// The mismatch ratio is not used; the trace sets the pace.
+		super(bufferSize_ + 1, bufferSize_);
+		limit = Math.max(bufferSize_, 0);
+		queue = new TCPSegment[limit];
+		leaving = new TCPSegment[limit];
+		trace = trace_;
+		rttMicros = rttMicros_;
+	}
+
+	/**
+	 * Starts a new round, and takes the delivery opportunities of
+	 * the new round from the trace.  The waiting packets that get
+	 * one leave the buffer now, to make room; then the background
+	 * traffic of the round arrives, and is sent, queued or discarded
+	 * like the segments.
+	 */
+	public void beginRound() {
+		super.beginRound();
+		round++;
+		opportunities = trace.opportunitiesBefore(round * rttMicros / 1000L);
+		totalOpportunities += opportunities;
+
+		int delivered_ = 0;
+		numLeaving = Math.min(size, opportunities);
+		opportunities -= numLeaving;
+		for (int j_ = 0; j_ < numLeaving; j_++) {
+			leaving[j_] = queue[head];
+			if (leaving[j_] == null) {
+				delivered_++;
+			}
+			queue[head] = null;
+			head = (head + 1) % queue.length;
+			size--;
+		}
+		ahead = numLeaving;
+		if (crossTraffic != null) {
+			for (int k_ = crossTraffic.nextRound(); k_ > 0; k_--) {
+				if (opportunities > 0) {
+					opportunities--;
+					ahead++;
+					delivered_++;
+				} else if (size < limit) {
+					if (size == queue.length) {
+						resize(size + 1);
+					}
+					queue[(head + size) % queue.length] = null;
+					size++;
+				}
+			}
+			crossTraffic.delivered(delivered_);
+		}
+	}
+
+	/**
+	 * Sends the arriving packets after the waiting ones, for as long
+	 * as there are delivery opportunities left in this round.  The arriving packets that do not get one are queued,
+	 * or discarded if the buffer is full.
+	 * <P>
+	 * The queueing delay of a packet, if recorded, counts all the
+	 * packets that leave ahead of it, in this round and, if it is
+	 * queued, in the rounds after.
+	 *
+	 * @param packets_ The array of packets to be "routed".
+	 */
+	public void forward(TCPSegment[] packets_) {
+		int ahead_ = ahead;
+		for (int i_ = 0; i_ < packets_.length; i_++) {
+			if (packets_[i_] == null) {
+				continue;
+			}
+			if (opportunities > 0) {
+				opportunities--;
+				if (queueDelay != null) {
+					queueDelay.record(ahead_++);
+				}
+				continue;
+			}
+			if (size < limit) {
+				if (size == queue.length) {
+					resize(size + 1);
+				}
+				if (queueDelay != null) {
+					queueDelay.record(ahead_ + size);
+				}
+				queue[(head + size) % queue.length] = packets_[i_];
+				size++;
+			} else {
+				discarded(packets_[i_], "queue");
+			}
+			// Mark the queued or discarded packet with "null"
+			packets_[i_] = null;
+		}
+		ahead = ahead_;
+
+		// The waiting segments that left this round are delivered
+		// with the first call; background packets are not.
+		int free_ = 0;
+		for (int j_ = 0; j_ < numLeaving; j_++) {
+			if (leaving[j_] == null) {
+				continue;
+			}
+			while (free_ < packets_.length && packets_[free_] != null) {
+				free_++;
+			}
+			// With no room left in the array, the packet is lost.
+			if (free_ < packets_.length) {
+				packets_[free_] = leaving[j_];
+			} else {
+				discarded(leaving[j_], "no room");
+			}
+			leaving[j_] = null;
+		}
+		numLeaving = 0;
+	}
+
+	/**
+	 * Accessor for the mean capacity of the output link over the
+	 * rounds so far.
+	 *
+	 * @return Returns the mean transmission capacity per round [in bytes].
+	 */
+	public int getBottleneckCapacity() {
+		if (round == 0) {
+			return 0;
+		}
+		return (int) (totalOpportunities * TCPSimulator.MSS / round);
+	}
+
+	/**
+	 * Accessor for the buffer size of this router.
+	 *
+	 * @return Returns the buffer size, in packets.
+	 */
+	public int getBufferSize() {
+		return limit;
+	}
+
+	/**
+	 * Changes the buffer size of this router, e.g., in the middle of
+	 * a run, from another thread (see {@link SimulationMonitor}).  The
+	 * new size takes effect with the next packet.  Unlike in
+	 * {@link Router}, it is not bounded by a mismatch ratio.  When
+	 * the buffer shrinks, the packets that wait in it stay, but no
+	 * new ones are queued until they fit.
+	 *
+	 * @param bufferSize_ The new buffer size, in packets.
+	 */
+	public void setBufferSize(int bufferSize_) {
+		if (bufferSize_ < 0) {
+			throw new IllegalArgumentException("Not a buffer size: " + bufferSize_);
+		}
+		limit = bufferSize_;
+	}
+
+	/** Moves the waiting packets into a ring of the given length, at
+	 * least the queue length; called by the simulating thread only. */
+	private void resize(int length_) {
+		length_ = Math.max(length_, limit);
+		TCPSegment[] queue_ = new TCPSegment[length_];
+		for (int i_ = 0; i_ < size; i_++) {
+			queue_[i_] = queue[(head + i_) % queue.length];
+		}
+		queue = queue_;
+		head = 0;
+		TCPSegment[] leaving_ = new TCPSegment[length_];
+		System.arraycopy(leaving, 0, leaving_, 0, numLeaving);
+		leaving = leaving_;
+	}
+
+	/**
+	 * Lets background traffic share this router with the segments.
+	 * The packets it sends in a round arrive at the start of the
+	 * round, after the packets that wait from earlier rounds left,
+	 * and take the delivery opportunities and the buffer space that
+	 * remain, first come, first served.  The background packets that
+	 * find the buffer full are neither traced nor counted as drops.
+	 *
+	 * @param crossTraffic_ The traffic, or <code>null</code> for none.
+	 */
+	public void setCrossTraffic(CrossTraffic crossTraffic_) {
+		crossTraffic = crossTraffic_;
+	}
+
+	/**
+	 * Accessor for the number of packets waiting in the buffer.
+	 *
+	 * @return Returns the current queue length, in packets.
+	 */
+	public int getQueueLength() {
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see Router#saveState(java.io.DataOutput)
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		super.saveState(out_);
+		out_.writeInt(round);
+		out_.writeInt(opportunities);
+		out_.writeLong(totalOpportunities);
+		out_.writeInt(size);
+		for (int i_ = 0; i_ < size; i_++) {
+			TCPSegment.save(out_, queue[(head + i_) % queue.length]);
+		}
+		trace.saveState(out_);
+	}
+
+	/* (non-Javadoc)
+	 * @see Router#restoreState(java.io.DataInput)
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		super.restoreState(in_);
+		round = in_.readInt();
+		opportunities = in_.readInt();
+		totalOpportunities = in_.readLong();
+		int size_ = in_.readInt();
+		if (size_ < 0) {
+			throw new IOException("Corrupt checkpoint: queue length " + size_);
+		}
+		size = 0;
+		numLeaving = 0;
+		resize(size_);
+		for (size = 0; size < size_; size++) {
+			queue[size] = TCPSegment.restore(in_);
+		}
+		trace.restoreState(in_);
+	}
+
+	/**
+	 * Replays a capacity trace against a Reno or a Tahoe sender.
+	 *
+	 * @param argv_ Input arguments: the number of iterations, the trace file, and optionally the sender (<code>reno</code> or <code>tahoe</code>, default <code>reno</code>), the RTT in microseconds (default 100000) and the buffer size (default 7).
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 2) {
+			System.err.println("Please enter the number of iterations and the trace file!");
+			System.exit(1);
+		}
+		int numIter_ = Integer.parseInt(argv_[0]);
+		TCPSender sender_ = null;
+		try {
+			sender_ = TraceRouter.newSender((argv_.length > 2) ? argv_[2] : "reno");
+		} catch (IllegalArgumentException e_) {
+			System.err.println(e_.getMessage());
+			System.exit(1);
+		}
+		long rttMicros_ = (argv_.length > 3) ? Long.parseLong(argv_[3]) : 100000L;
+		int bufferSize_ = (argv_.length > 4) ? Integer.parseInt(argv_[4]) : 7;
+
+		CapacityTrace trace_ = null;
+		try {
+			trace_ = new CapacityTrace(argv_[1]);
+		} catch (IOException e_) {
+			System.err.println("Cannot read " + argv_[1] + ": " + e_);
+			System.exit(1);
+		}
+		CapacityTraceRouter router_ = new CapacityTraceRouter(bufferSize_, trace_, rttMicros_);
+		TCPSimulator simulator_ = new TCPSimulator(sender_, router_);
+		simulator_.run(numIter_);
+		System.out.println(
+			"Mean link capacity: " + router_.getBottleneckCapacity() / TCPSimulator.MSS
+			+ " packets per round"
+		);
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads a table written by {@link ColumnarWriter}, one chunk at a
+ * time, e.g., to check an export or to convert it into CSV for tools
+ * that read no other format:
+ * <pre>
+ * java ColumnarReader rounds.col &gt; rounds.csv
+ * </pre>
+ * A file that was cut short, without the end marker, is read up to
+ * its last complete chunk, and {@link #isComplete()} tells so.
+ */
+public class ColumnarReader {
+	private static final byte[] MAGIC = { 'T', 'C', 'P', 'C', 'O', 'L', '0', '1' };
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final String fileName;
+	private final FileChannel channel;
+	private final String table;
+	private final String[] names;
+	private final byte[] types;
+
+	/** The values of the current chunk, one buffer per column. */
+	private final ByteBuffer[] columns;
+
+	/** Number of rows in the current chunk. */
+	private int chunkRows = 0;
+
+	/** Number of rows read so far, with the current chunk. */
+	private long totalRows = 0;
+
+	/** Whether the end marker was read. */
+	private boolean complete = false;
+
+	/** Whether no more chunks can be read. */
+	private boolean ended = false;
+
+	/**
+	 * Constructor; opens the file and reads the schema.
+	 *
+	 * @param file_ The name of the file.
+	 * @throws IOException If the file cannot be read, or is not a table.
+	 */
+	public ColumnarReader(String file_) throws IOException {
+		fileName = file_;
+		channel = new FileInputStream(file_).getChannel();
+		try {
+			byte[] magic_ = new byte[MAGIC.length];
+			read(MAGIC.length).get(magic_);
+			if (!Arrays.equals(magic_, MAGIC)) {
+				throw new IOException(file_ + " is not a columnar table");
+			}
+			table = readString();
+			int count_ = read(4).getInt();
+			if (count_ <= 0) {
+				throw new IOException(file_ + " has " + count_ + " columns");
+			}
+			names = new String[count_];
+			types = new byte[count_];
+			columns = new ByteBuffer[count_];
+			for (int c_ = 0; c_ < count_; c_++) {
+				types[c_] = read(1).get();
+				if (types[c_] < ColumnarWriter.INT32 || types[c_] > ColumnarWriter.FLOAT64) {
+					throw new IOException(file_ + ": unknown type " + types[c_] + " of column " + c_);
+				}
+				names[c_] = readString();
+			}
+		} catch (IOException e_) {
+			channel.close();
+			throw e_;
+		}
+	}
+
+	/**
+	 * Reads the given number of bytes, little-endian.
+	 *
+	 * @throws EOFException If the file ends before.
+	 */
+	private ByteBuffer read(int length_) throws IOException {
+		ByteBuffer buffer_ = ByteBuffer.allocate(length_).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(buffer_);
+		buffer_.flip();
+		return buffer_;
+	}
+
+	private void readFully(ByteBuffer buffer_) throws IOException {
+		while (buffer_.hasRemaining()) {
+			if (channel.read(buffer_) < 0) {
+				throw new EOFException(fileName + " ends within a chunk");
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		int length_ = read(4).getInt();
+		if (length_ < 0 || length_ > channel.size()) {
+			throw new IOException(fileName + ": no string of " + length_ + " bytes");
+		}
+		byte[] bytes_ = new byte[length_];
+		read(length_).get(bytes_);
+		return new String(bytes_, UTF_8);
+	}
+
+	/**
+	 * Accessor for the name of the table.
+	 *
+	 * @return Returns the name of the table, e.g., <code>rounds</code>.
+	 */
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * Accessor for the number of columns.
+	 *
+	 * @return Returns the number of columns.
+	 */
+	public int getColumnCount() {
+		return names.length;
+	}
+
+	/**
+	 * Accessor for the name of a column.
+	 *
+	 * @param column_ The column, starting with zero.
+	 * @return Returns the name of the column.
+	 */
+	public String getColumnName(int column_) {
+		return names[column_];
+	}
+
+	/**
+	 * Accessor for the type of a column.
+	 *
+	 * @param column_ The column, starting with zero.
+	 * @return Returns {@link ColumnarWriter#INT32}, {@link ColumnarWriter#INT64} or {@link ColumnarWriter#FLOAT64}.
+	 */
+	public byte getColumnType(int column_) {
+		return types[column_];
+	}
+
+	/**
+	 * Reads the next chunk, whose values then replace those of the
+	 * previous one.
+	 *
+	 * @return Returns the number of rows in the chunk, or zero after the last one.
+	 * @throws IOException If the file cannot be read, or its end marker is wrong.
+	 */
+	public int nextChunk() throws IOException {
+		chunkRows = 0;
+		if (ended) {
+			return 0;
+		}
+		long start_ = channel.position();
+		try {
+			int rows_ = read(4).getInt();
+			if (rows_ == 0) {
+				ended = true;
+				long written_ = read(8).getLong();
+				if (written_ != totalRows) {
+					throw new IOException(
+						fileName + " ends with " + written_ + " rows, but has " + totalRows
+					);
+				}
+				complete = true;
+				return 0;
+			}
+			if (rows_ < 0 || rows_ > ColumnarWriter.CHUNK_ROWS) {
+				throw new IOException(fileName + ": no chunk of " + rows_ + " rows");
+			}
+			for (int c_ = 0; c_ < columns.length; c_++) {
+				int size_ = rows_ * ((types[c_] == ColumnarWriter.INT32) ? 4 : 8);
+				if (columns[c_] == null || columns[c_].capacity() < size_) {
+					columns[c_] = ByteBuffer.allocate(size_).order(ByteOrder.LITTLE_ENDIAN);
+				}
+				columns[c_].clear();
+				columns[c_].limit(size_);
+				readFully(columns[c_]);
+			}
+			chunkRows = rows_;
+			totalRows += rows_;
+			return rows_;
+		} catch (EOFException e_) {
+			// Cut short: the chunk is not complete, so none of it counts.
+			ended = true;
+			channel.position(start_);
+			return 0;
+		}
+	}
+
+	/**
+	 * Accessor for a value of a column of 32-bit integers.
+	 *
+	 * @param column_ The column, starting with zero.
+	 * @param row_ The row within the current chunk, starting with zero.
+	 * @return Returns the value.
+	 */
+	public int getInt(int column_, int row_) {
+		return columns[column_].getInt(4 * checked(column_, row_, ColumnarWriter.INT32));
+	}
+
+	/**
+	 * Accessor for a value of a column of 64-bit integers.
+	 *
+	 * @param column_ The column, starting with zero.
+	 * @param row_ The row within the current chunk, starting with zero.
+	 * @return Returns the value.
+	 */
+	public long getLong(int column_, int row_) {
+		return columns[column_].getLong(8 * checked(column_, row_, ColumnarWriter.INT64));
+	}
+
+	/**
+	 * Accessor for a value of a column of floating-point numbers.
+	 *
+	 * @param column_ The column, starting with zero.
+	 * @param row_ The row within the current chunk, starting with zero.
+	 * @return Returns the value.
+	 */
+	public double getDouble(int column_, int row_) {
+		return columns[column_].getDouble(8 * checked(column_, row_, ColumnarWriter.FLOAT64));
+	}
+
+	private int checked(int column_, int row_, byte type_) {
+		if (types[column_] != type_) {
+			throw new IllegalArgumentException("Column " + column_ + " is of another type");
+		}
+		if (row_ < 0 || row_ >= chunkRows) {
+			throw new IndexOutOfBoundsException("Row " + row_ + " of " + chunkRows);
+		}
+		return row_;
+	}
+
+	/**
+	 * Accessor for a value of any column, as text.
+	 *
+	 * @param column_ The column, starting with zero.
+	 * @param row_ The row within the current chunk, starting with zero.
+	 * @return Returns the value, as Java prints it.
+	 */
+	public String getText(int column_, int row_) {
+		switch (types[column_]) {
+			case ColumnarWriter.INT32: return Integer.toString(getInt(column_, row_));
+			case ColumnarWriter.INT64: return Long.toString(getLong(column_, row_));
+			default: return Double.toString(getDouble(column_, row_));
+		}
+	}
+
+	/**
+	 * Accessor for the number of rows read so far.
+	 *
+	 * @return Returns the number of rows, with the current chunk.
+	 */
+	public long getRowCount() {
+		return totalRows;
+	}
+
+	/**
+	 * Informs whether the file ends with its end marker, once all its
+	 * chunks are read.
+	 *
+	 * @return Returns <code>false</code> if the file was cut short, or is not read to its end yet.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Writes the remaining rows as CSV, with a header of the column
+	 * names.
+	 *
+	 * @param out_ The stream to write to.
+	 * @return Returns the number of rows written.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public long writeCsv(PrintStream out_) throws IOException {
+		StringBuilder line_ = new StringBuilder();
+		for (int c_ = 0; c_ < names.length; c_++) {
+			line_.append((c_ == 0) ? "" : ",").append(names[c_]);
+		}
+		out_.println(line_);
+		long written_ = 0;
+		int rows_;
+		while ((rows_ = nextChunk()) > 0) {
+			for (int r_ = 0; r_ < rows_; r_++) {
+				line_.setLength(0);
+				for (int c_ = 0; c_ < names.length; c_++) {
+					line_.append((c_ == 0) ? "" : ",").append(getText(c_, r_));
+				}
+				out_.println(line_);
+			}
+			written_ += rows_;
+		}
+		return written_;
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException If the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Prints a table as CSV, and reports on the standard error if
+	 * the file was cut short.
+	 *
+	 * @param argv_ Input argument: the name of the file.
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length != 1) {
+			System.err.println("Usage: ColumnarReader <file>");
+			System.exit(1);
+		}
+		try {
+			ColumnarReader reader_ = new ColumnarReader(argv_[0]);
+			try {
+				long rows_ = reader_.writeCsv(System.out);
+				System.out.flush();
+				if (!reader_.isComplete()) {
+					System.err.println(
+						argv_[0] + " was cut short; read its " + rows_ + " complete rows"
+					);
+				}
+			} finally {
+				reader_.close();
+			}
+		} catch (IOException e_) {
+			System.err.println("Cannot read " + argv_[0] + ": " + e_.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a table of results, e.g., one row per round or per flow,
+ * column by column into a binary file that describes itself, so that
+ * the results of long runs can be loaded into analysis tools without
+ * parsing the text the simulator prints.
+ * <P>
+ * The rows are buffered, one buffer per column, and written a chunk
+ * of {@value #CHUNK_ROWS} rows at a time.  Within a chunk, the values
+ * of every column are contiguous, so a reader can map each of them
+ * straight into an array, e.g., with <code>numpy.frombuffer</code>.
+ * All numbers are little-endian:
+ * <pre>
+ * file   = magic schema chunk* end
+ * magic  = "TCPCOL01"                       (8 bytes)
+ * schema = string(table) int32(columns) column*
+ * column = int8(type) string(name)          (type: 1 int32, 2 int64, 3 float64)
+ * string = int32(bytes) UTF-8 bytes
+ * chunk  = int32(rows &gt; 0), then for each column, rows values of its type
+ * end    = int32(0) int64(total rows)
+ * </pre>
+ * The end marker is only written by {@link #close()}; a file without
+ * it was cut short, but its complete chunks can still be read.
+ * {@link ColumnarReader} reads the format back, or prints it as CSV,
+ * and <code>tcpcol.py</code> loads it in Python without other packages.
+ * <P>
+ * A run resumed from a checkpoint continues the table of the saved
+ * run: {@link #saveState(DataOutput)} writes out the rows so far as
+ * a chunk, which may be shorter than the others, and
+ * {@link #restoreState(DataInput)} drops what was written after it.
+ */
+public class ColumnarWriter {
+	/** Type of a column of 32-bit integers. */
+	public static final byte INT32 = 1;
+
+	/** Type of a column of 64-bit integers. */
+	public static final byte INT64 = 2;
+
+	/** Type of a column of 64-bit floating-point numbers. */
+	public static final byte FLOAT64 = 3;
+
+	/** Rows per chunk. */
+	static final int CHUNK_ROWS = 1 << 16;
+
+	private static final byte[] MAGIC = { 'T', 'C', 'P', 'C', 'O', 'L', '0', '1' };
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final String fileName;
+	private final FileChannel channel;
+	private final byte[] types;
+
+	/** The chunk being filled: its row count, then one buffer per column. */
+	private final ByteBuffer[] chunk;
+
+	/** Number of columns set in the current row. */
+	private int filled = 0;
+
+	/** Number of rows in the current chunk. */
+	private int chunkRows = 0;
+
+	/** Number of rows written before the current chunk. */
+	private long totalRows = 0;
+
+	/** Whether the file is still to be cut at the first chunk written. */
+	private boolean truncate;
+
+	/**
+	 * Constructor; creates the file and writes the schema.
+	 *
+	 * @param file_ The name of the file, overwritten if it exists.
+	 * @param table_ The name of the table, e.g., <code>rounds</code>.
+	 * @param names_ The names of the columns.
+	 * @param types_ The types of the columns: {@link #INT32}, {@link #INT64} or {@link #FLOAT64}.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public ColumnarWriter(String file_, String table_, String[] names_, byte[] types_)
+			throws IOException {
+		this(file_, table_, names_, types_, false);
+	}
+
+	/**
+	 * Constructor; creates the file and writes the schema, or opens
+	 * the file of a saved run to continue it.  Until
+	 * {@link #restoreState(DataInput)}, the rows of the file are
+	 * kept, and they are dropped at the first chunk written if the
+	 * checkpoint has no state of this table.
+	 *
+	 * @param file_ The name of the file, overwritten if it exists, unless resuming.
+	 * @param table_ The name of the table, e.g., <code>rounds</code>.
+	 * @param names_ The names of the columns.
+	 * @param types_ The types of the columns: {@link #INT32}, {@link #INT64} or {@link #FLOAT64}.
+	 * @param resume_ Whether to continue the file, if it holds the same table.
+	 * @throws IOException If the file cannot be written, or holds another table.
+	 */
+	public ColumnarWriter(String file_, String table_, String[] names_, byte[] types_,
+			boolean resume_) throws IOException {
+		if (names_.length != types_.length || names_.length == 0) {
+			throw new IllegalArgumentException(
+				names_.length + " column names for " + types_.length + " types"
+			);
+		}
+		fileName = file_;
+		types = types_.clone();
+		chunk = new ByteBuffer[1 + types.length];
+		chunk[0] = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		int schemaSize_ = MAGIC.length + 8 + table_.length() * 3;
+		for (int c_ = 0; c_ < types.length; c_++) {
+			if (types[c_] < INT32 || types[c_] > FLOAT64) {
+				throw new IllegalArgumentException("Unknown type of column " + names_[c_]);
+			}
+			chunk[1 + c_] = ByteBuffer.allocate(CHUNK_ROWS * width(types[c_]))
+				.order(ByteOrder.LITTLE_ENDIAN);
+			schemaSize_ += 5 + names_[c_].length() * 3;
+		}
+
+		ByteBuffer schema_ = ByteBuffer.allocate(schemaSize_).order(ByteOrder.LITTLE_ENDIAN);
+		schema_.put(MAGIC);
+		putString(schema_, table_);
+		schema_.putInt(types.length);
+		for (int c_ = 0; c_ < types.length; c_++) {
+			schema_.put(types[c_]);
+			putString(schema_, names_[c_]);
+		}
+		schema_.flip();
+		channel = new RandomAccessFile(file_, "rw").getChannel();
+		try {
+			if (resume_ && channel.size() > 0) {
+				ByteBuffer saved_ = ByteBuffer.allocate(schema_.remaining());
+				while (saved_.hasRemaining() && channel.read(saved_) >= 0) {
+					continue;
+				}
+				saved_.flip();
+				if (!saved_.equals(schema_)) {
+					throw new IOException(file_ + " holds another table than " + table_);
+				}
+				truncate = true;
+			} else {
+				channel.truncate(0);
+				writeFully(new ByteBuffer[] { schema_ });
+			}
+		} catch (IOException e_) {
+			channel.close();
+			throw e_;
+		}
+	}
+
+	private static int width(byte type_) {
+		return (type_ == INT32) ? 4 : 8;
+	}
+
+	private static void putString(ByteBuffer buffer_, String string_) {
+		byte[] bytes_ = string_.getBytes(UTF_8);
+		buffer_.putInt(bytes_.length);
+		buffer_.put(bytes_);
+	}
+
+	/**
+	 * Accessor for the name of the file.
+	 *
+	 * @return Returns the name of the file.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Accessor for the number of complete rows so far.
+	 *
+	 * @return Returns the number of rows.
+	 */
+	public long getRowCount() {
+		return totalRows + chunkRows;
+	}
+
+	/**
+	 * Sets the next column of the current row to a 32-bit integer.
+	 * The columns are set in their order.
+	 *
+	 * @param value_ The value.
+	 */
+	public void putInt(int value_) {
+		column(INT32).putInt(value_);
+	}
+
+	/**
+	 * Sets the next column of the current row to a 64-bit integer.
+	 *
+	 * @param value_ The value.
+	 */
+	public void putLong(long value_) {
+		column(INT64).putLong(value_);
+	}
+
+	/**
+	 * Sets the next column of the current row to a floating-point number.
+	 *
+	 * @param value_ The value.
+	 */
+	public void putDouble(double value_) {
+		column(FLOAT64).putDouble(value_);
+	}
+
+	private ByteBuffer column(byte type_) {
+		if (filled == types.length) {
+			throw new IllegalStateException("The row has " + types.length + " columns only");
+		}
+		if (types[filled] != type_) {
+			throw new IllegalArgumentException("Column " + filled + " is of another type");
+		}
+		return chunk[1 + filled++];
+	}
+
+	/**
+	 * Ends the current row, whose columns must all be set, and
+	 * writes the chunk if it is full.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void endRow() throws IOException {
+		if (filled != types.length) {
+			throw new IllegalStateException(
+				"Only " + filled + " of " + types.length + " columns are set"
+			);
+		}
+		filled = 0;
+		if (++chunkRows == CHUNK_ROWS) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the rows buffered so far as one chunk.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	private void flush() throws IOException {
+		if (chunkRows == 0) {
+			return;
+		}
+		if (truncate) {
+			channel.truncate(channel.position());
+			truncate = false;
+		}
+		chunk[0].clear();
+		chunk[0].putInt(chunkRows);
+		for (int b_ = 0; b_ < chunk.length; b_++) {
+			chunk[b_].flip();
+		}
+		writeFully(chunk);
+		for (int b_ = 0; b_ < chunk.length; b_++) {
+			chunk[b_].clear();
+		}
+		totalRows += chunkRows;
+		chunkRows = 0;
+	}
+
+	private void writeFully(ByteBuffer[] buffers_) throws IOException {
+		ByteBuffer last_ = buffers_[buffers_.length - 1];
+		while (last_.hasRemaining()) {
+			channel.write(buffers_);
+		}
+	}
+
+	/**
+	 * Writes the rows so far, and the state of the table into a
+	 * checkpoint: how long the file is, and how many rows it has.
+	 * The current row must not be started.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the file or the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		if (filled != 0) {
+			throw new IllegalStateException("A row is being set");
+		}
+		flush();
+		out_.writeLong(channel.position());
+		out_.writeLong(totalRows);
+	}
+
+	/**
+	 * Returns to the state written by {@link #saveState(DataOutput)},
+	 * discarding whatever was written after the checkpoint.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read, or does not fit the file.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		long position_ = in_.readLong();
+		long rows_ = in_.readLong();
+		if (position_ > channel.size() || position_ < channel.position()) {
+			throw new IOException(fileName + " is shorter than at the checkpoint");
+		}
+		channel.truncate(position_);
+		channel.position(position_);
+		totalRows = rows_;
+		chunkRows = 0;
+		filled = 0;
+		truncate = false;
+	}
+
+	/**
+	 * Writes the buffered rows and the end marker, and closes the
+	 * file.  A row that is not complete is dropped.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			for (int c_ = 0; c_ < filled; c_++) {
+				ByteBuffer column_ = chunk[1 + c_];
+				column_.position(column_.position() - width(types[c_]));
+			}
+			filled = 0;
+			flush();
+			if (truncate) {
+				channel.truncate(channel.position());
+				truncate = false;
+			}
+			ByteBuffer end_ = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			end_.putInt(0);
+			end_.putLong(totalRows);
+			end_.flip();
+			writeFully(new ByteBuffer[] { end_ });
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A series of whole numbers, one per round, kept compressed in the
+ * manner of the time stamps of Facebook's Gorilla: every value is
+ * stored as the change of its difference from the previous value
+ * (the "delta of delta"), in as few bits as that change needs.  The
+ * congestion window, the threshold and the flight size mostly grow by
+ * the same step from round to round, or stay put, so most values take
+ * a bit or two instead of 32.
+ * <P>
+ * The series is cut into blocks of {@value #BLOCK_VALUES} values, each
+ * of which starts afresh with its first value in full, so any value
+ * can be found by decoding one block only.  The encoding of a value
+ * within a block:
+ * <pre>
+ * '0'                            the same difference as before
+ * '10'   + 7 bits                the change, zigzag encoded, below 2^7
+ * '110'  + 12 bits               below 2^12
+ * '1110' + 16 bits               below 2^16
+ * '1111' + 32 bits               any other
+ * </pre>
+ * The widths are those of Gorilla's time stamps, widened for values in
+ * bytes, whose changes are mostly fractions of a segment of
+ * {@link TCPSimulator#MSS} bytes, or whole segments.
+ * The differences wrap around like <code>int</code> arithmetic, so
+ * every value is restored exactly.
+ * <P>
+ * Values are added by one thread, e.g., the simulation; reading while
+ * values are added is not safe.
+ */
+public class CompressedSeries {
+	/** Values per block. */
+	public static final int BLOCK_VALUES = 1024;
+
+	/** The bits of the encoded blocks, one after the other. */
+	private long[] words = new long[64];
+
+	/** Number of bits used so far. */
+	private long numBits = 0;
+
+	/** The bit at which every block starts. */
+	private long[] blockStart = new long[16];
+
+	/** Number of values added so far. */
+	private long size = 0;
+
+	// The encoder's state within the current block.
+	private int previous;
+	private int previousDelta;
+
+	// The block decoded last, for get().
+	private final int[] cache = new int[BLOCK_VALUES];
+	private long cachedBlock = -1;
+
+	/**
+	 * Adds the next value.
+	 *
+	 * @param value_ The value.
+	 */
+	public void add(int value_) {
+		int position_ = (int) (size % BLOCK_VALUES);
+		if (position_ == 0) {
+			int block_ = (int) (size / BLOCK_VALUES);
+			if (block_ == blockStart.length) {
+				long[] larger_ = new long[2 * blockStart.length];
+				System.arraycopy(blockStart, 0, larger_, 0, block_);
+				blockStart = larger_;
+			}
+			blockStart[block_] = numBits;
+			writeBits(value_ & 0xFFFFFFFFL, 32);
+			previousDelta = 0;
+		} else {
+			int delta_ = value_ - previous;
+			int change_ = delta_ - previousDelta;
+			int zigzag_ = (change_ << 1) ^ (change_ >> 31);
+			if (zigzag_ == 0) {
+				writeBits(0x0, 1);
+			} else if ((zigzag_ >>> 7) == 0) {
+				writeBits((0x2L << 7) | zigzag_, 2 + 7);
+			} else if ((zigzag_ >>> 12) == 0) {
+				writeBits((0x6L << 12) | zigzag_, 3 + 12);
+			} else if ((zigzag_ >>> 16) == 0) {
+				writeBits((0xEL << 16) | zigzag_, 4 + 16);
+			} else {
+				writeBits(0xF, 4);
+				writeBits(zigzag_ & 0xFFFFFFFFL, 32);
+			}
+			previousDelta = delta_;
+		}
+		previous = value_;
+		size++;
+	}
+
+	/** Appends the lowest bits of a value, highest first. */
+	private void writeBits(long value_, int count_) {
+		int word_ = (int) (numBits >>> 6);
+		if (word_ + 1 >= words.length) {
+			long[] larger_ = new long[2 * words.length];
+			System.arraycopy(words, 0, larger_, 0, words.length);
+			words = larger_;
+		}
+		int used_ = (int) (numBits & 63);
+		int free_ = 64 - used_;
+		if (count_ <= free_) {
+			words[word_] |= value_ << (free_ - count_);
+		} else {
+			words[word_] |= value_ >>> (count_ - free_);
+			words[word_ + 1] |= value_ << (64 - (count_ - free_));
+		}
+		numBits += count_;
+	}
+
+	/** Reads bits written by writeBits(), at the given bit. */
+	private long readBits(long bit_, int count_) {
+		int word_ = (int) (bit_ >>> 6);
+		int used_ = (int) (bit_ & 63);
+		long value_ = words[word_] << used_;
+		if (used_ + count_ > 64) {
+			value_ |= words[word_ + 1] >>> (64 - used_);
+		}
+		return value_ >>> (64 - count_);
+	}
+
+	/**
+	 * Accessor for the number of values.
+	 *
+	 * @return Returns the number of values added so far.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Accessor for the number of blocks.
+	 *
+	 * @return Returns the number of blocks, the last one possibly not full.
+	 */
+	public int getNumBlocks() {
+		return (int) ((size + BLOCK_VALUES - 1) / BLOCK_VALUES);
+	}
+
+	/**
+	 * Accessor for the size of the encoded values.
+	 *
+	 * @return Returns the number of bytes the values take, without the index of the blocks.
+	 */
+	public long getCompressedBytes() {
+		return (numBits + 7) / 8;
+	}
+
+	/**
+	 * Decodes one block.
+	 *
+	 * @param block_ The block, counting from zero.
+	 * @param values_ Receives the values of the block; at least {@link #BLOCK_VALUES} long.
+	 * @return Returns the number of values in the block.
+	 */
+	public int decodeBlock(int block_, int[] values_) {
+		if (block_ < 0 || block_ >= getNumBlocks()) {
+			throw new IndexOutOfBoundsException("No block " + block_ + " of " + getNumBlocks());
+		}
+		int count_ = (int) Math.min(BLOCK_VALUES, size - (long) block_ * BLOCK_VALUES);
+		long bit_ = blockStart[block_];
+		int value_ = (int) readBits(bit_, 32);
+		bit_ += 32;
+		values_[0] = value_;
+		int delta_ = 0;
+		for (int i_ = 1; i_ < count_; i_++) {
+			int zigzag_;
+			if (readBits(bit_, 1) == 0) {
+				zigzag_ = 0;
+				bit_ += 1;
+			} else if (readBits(bit_, 2) == 0x2) {
+				zigzag_ = (int) readBits(bit_ + 2, 7);
+				bit_ += 2 + 7;
+			} else if (readBits(bit_, 3) == 0x6) {
+				zigzag_ = (int) readBits(bit_ + 3, 12);
+				bit_ += 3 + 12;
+			} else if (readBits(bit_, 4) == 0xE) {
+				zigzag_ = (int) readBits(bit_ + 4, 16);
+				bit_ += 4 + 16;
+			} else {
+				zigzag_ = (int) readBits(bit_ + 4, 32);
+				bit_ += 4 + 32;
+			}
+			delta_ += (zigzag_ >>> 1) ^ -(zigzag_ & 1);
+			value_ += delta_;
+			values_[i_] = value_;
+		}
+		return count_;
+	}
+
+	/**
+	 * Returns one value, by decoding its block.  Values of the same
+	 * full block are found without decoding it again.
+	 *
+	 * @param index_ The index of the value, counting from zero.
+	 * @return Returns the value.
+	 */
+	public int get(long index_) {
+		if (index_ < 0 || index_ >= size) {
+			throw new IndexOutOfBoundsException("No value " + index_ + " of " + size);
+		}
+		long block_ = index_ / BLOCK_VALUES;
+		// The last block may have grown since it was decoded.
+		if (block_ != cachedBlock || block_ == getNumBlocks() - 1) {
+			decodeBlock((int) block_, cache);
+			cachedBlock = block_;
+		}
+		return cache[(int) (index_ % BLOCK_VALUES)];
+	}
+
+	/**
+	 * Writes the series, e.g., into a file.
+	 *
+	 * @param out_ The output.
+	 * @throws IOException If the output cannot be written.
+	 */
+	public void write(DataOutput out_) throws IOException {
+		out_.writeLong(size);
+		out_.writeLong(numBits);
+		int numBlocks_ = getNumBlocks();
+		for (int b_ = 0; b_ < numBlocks_; b_++) {
+			out_.writeLong(blockStart[b_]);
+		}
+		int numWords_ = (int) ((numBits + 63) >>> 6);
+		for (int w_ = 0; w_ < numWords_; w_++) {
+			out_.writeLong(words[w_]);
+		}
+	}
+
+	/**
+	 * Reads a series written by {@link #write(DataOutput)}.  More
+	 * values can be added to it.
+	 *
+	 * @param in_ The input.
+	 * @return Returns the series.
+	 * @throws IOException If the input cannot be read.
+	 */
+	public static CompressedSeries read(DataInput in_) throws IOException {
+		CompressedSeries series_ = new CompressedSeries();
+		series_.size = in_.readLong();
+		series_.numBits = in_.readLong();
+		if (series_.size < 0 || series_.numBits < 0 || series_.numBits > 64L * Integer.MAX_VALUE / 2) {
+			throw new IOException("Not a compressed series");
+		}
+		int numBlocks_ = series_.getNumBlocks();
+		series_.blockStart = new long[Math.max(16, numBlocks_)];
+		for (int b_ = 0; b_ < numBlocks_; b_++) {
+			series_.blockStart[b_] = in_.readLong();
+		}
+		int numWords_ = (int) ((series_.numBits + 63) >>> 6);
+		series_.words = new long[Math.max(64, 2 * numWords_)];
+		for (int w_ = 0; w_ < numWords_; w_++) {
+			series_.words[w_] = in_.readLong();
+		}
+		if (series_.size % BLOCK_VALUES != 0) {
+			// Restore the encoder's state at the end of the last block.
+			int[] last_ = new int[BLOCK_VALUES];
+			int count_ = series_.decodeBlock(numBlocks_ - 1, last_);
+			series_.previous = last_[count_ - 1];
+			series_.previousDelta = (count_ > 1) ? last_[count_ - 1] - last_[count_ - 2] : 0;
+		}
+		return series_;
+	}
+}
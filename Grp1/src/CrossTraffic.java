@@ -0,0 +1,259 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Background traffic that shares a router with the TCP flows, but
+ * does not react to losses, like UDP streams.  It is the sum of any
+ * number of sources of three kinds:
+ * <ul>
+ * <li> constant bit rate, which send the same number of packets in
+ * every round; </li>
+ * <li> on/off, which send at a constant rate while on, and not at
+ * all while off, for periods of Pareto distributed lengths, so the
+ * sum of many of them is self-similar, like measured traffic; </li>
+ * <li> Poisson, which send a Poisson distributed number of packets
+ * in every round. </li>
+ * </ul>
+ * The sources are not simulated one by one.  The constant and Poisson
+ * sources add up to one source of each kind, with the sum of their
+ * rates; the on/off sources only cost work when one of them switches,
+ * so thousands of sources are cheap.  The packets carry no data, and
+ * are only counted: they take their place in the router's queue (see
+ * {@link Router#setCrossTraffic(CrossTraffic)}), and are discarded
+ * there like the segments.
+ * <P>
+ * The traffic depends on the rounds only, not on the TCP flows, so
+ * the same random numbers give the same traffic in every run.
+ */
+public class CrossTraffic {
+	/** Shape of the Pareto distribution of the on and off periods;
+	 * between one and two, the periods have an infinite variance. */
+	public static final double PARETO_SHAPE = 1.5;
+
+	private final SplittableRandom random;
+
+	/** Packets per round of all the constant bit rate sources. */
+	private double cbrRate = 0.0;
+
+	/** Mean packets per round of all the Poisson sources. */
+	private double poissonRate = 0.0;
+
+	/** Packets per round of the on/off sources that are on. */
+	private double onRate = 0.0;
+
+	/** The on/off sources, by the time of their next switch. */
+	private final PriorityQueue<OnOffSource> switches = new PriorityQueue<OnOffSource>(
+		16, new Comparator<OnOffSource>() {
+			public int compare(OnOffSource a_, OnOffSource b_) {
+				return Double.compare(a_.nextSwitch, b_.nextSwitch);
+			}
+		}
+	);
+
+	/** Fraction of a packet sent by the fluid sources, carried over to the next round. */
+	private double carry = 0.0;
+
+	/** Number of rounds so far. */
+	private long rounds = 0;
+
+	// Totals, for the report.
+	private long offered = 0;
+	private long delivered = 0;
+
+	/**
+	 * Constructor, for traffic without any sources yet.
+	 *
+	 * @param random_ The stream of random numbers, used by this traffic only.
+	 */
+	public CrossTraffic(SplittableRandom random_) {
+		random = random_;
+	}
+
+	/**
+	 * Adds a constant bit rate source.
+	 *
+	 * @param packetsPerRound_ The rate, in packets per round; it may be a fraction.
+	 */
+	public void addConstant(double packetsPerRound_) {
+		checkRate(packetsPerRound_);
+		cbrRate += packetsPerRound_;
+	}
+
+	/**
+	 * Adds a Poisson source.
+	 *
+	 * @param packetsPerRound_ The mean rate, in packets per round.
+	 */
+	public void addPoisson(double packetsPerRound_) {
+		checkRate(packetsPerRound_);
+		poissonRate += packetsPerRound_;
+	}
+
+	/**
+	 * Adds an on/off source, with on and off periods of Pareto
+	 * distributed lengths, of shape {@link #PARETO_SHAPE}.  It starts
+	 * on or off at random, in proportion to the mean periods.
+	 *
+	 * @param packetsPerRound_ The rate while on, in packets per round.
+	 * @param meanOn_ The mean length of an on period, in rounds.
+	 * @param meanOff_ The mean length of an off period, in rounds.
+	 */
+	public void addOnOff(double packetsPerRound_, double meanOn_, double meanOff_) {
+		checkRate(packetsPerRound_);
+		if (!(meanOn_ > 0.0) || !(meanOff_ > 0.0)) {
+			throw new IllegalArgumentException(
+				"The mean periods must be positive: " + meanOn_ + ", " + meanOff_
+			);
+		}
+		OnOffSource source_ = new OnOffSource(packetsPerRound_, meanOn_, meanOff_);
+		source_.on = random.nextDouble() < meanOn_ / (meanOn_ + meanOff_);
+		if (source_.on) {
+			onRate += source_.rate;
+		}
+		source_.nextSwitch = rounds + pareto(source_.on ? meanOn_ : meanOff_);
+		switches.add(source_);
+	}
+
+	private static void checkRate(double rate_) {
+		if (!(rate_ >= 0.0) || Double.isInfinite(rate_)) {
+			throw new IllegalArgumentException("Not a rate: " + rate_);
+		}
+	}
+
+	/** Draws a period of the given mean from the Pareto distribution. */
+	private double pareto(double mean_) {
+		double scale_ = mean_ * (PARETO_SHAPE - 1.0) / PARETO_SHAPE;
+		return scale_ / Math.pow(1.0 - random.nextDouble(), 1.0 / PARETO_SHAPE);
+	}
+
+	/**
+	 * Draws a Poisson distributed number: by multiplying uniform
+	 * numbers for small means, and from the normal approximation for
+	 * large ones, where the two hardly differ.
+	 */
+	static int poisson(SplittableRandom random, double mean_) {
+		if (mean_ <= 0.0) {
+			return 0;
+		}
+		if (mean_ > 30.0) {
+			// Box-Muller, with one of the two normal numbers.
+			double normal_ = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()))
+				* Math.cos(2.0 * Math.PI * random.nextDouble());
+			return (int) Math.max(0L, Math.round(mean_ + Math.sqrt(mean_) * normal_));
+		}
+		double limit_ = Math.exp(-mean_);
+		double product_ = random.nextDouble();
+		int count_ = 0;
+		while (product_ > limit_) {
+			product_ *= random.nextDouble();
+			count_++;
+		}
+		return count_;
+	}
+
+	/**
+	 * Moves on to the next round.
+	 *
+	 * @return Returns the number of packets that all the sources send in the round.
+	 */
+	public int nextRound() {
+		double start_ = rounds;
+		double end_ = rounds + 1;
+		double volume_ = cbrRate + onRate;
+		OnOffSource source_;
+		while ((source_ = switches.peek()) != null && source_.nextSwitch < end_) {
+			switches.poll();
+			// Only the rest of the round is sent at the new rate.
+			double rest_ = end_ - Math.max(source_.nextSwitch, start_);
+			source_.on = !source_.on;
+			if (source_.on) {
+				onRate += source_.rate;
+				volume_ += source_.rate * rest_;
+			} else {
+				onRate -= source_.rate;
+				volume_ -= source_.rate * rest_;
+			}
+			source_.nextSwitch += pareto(source_.on ? source_.meanOn : source_.meanOff);
+			switches.add(source_);
+		}
+		if (switches.isEmpty()) {
+			onRate = 0.0;		// no rounding errors left over
+		}
+		carry += Math.max(0.0, volume_);
+		int packets_ = (int) carry;
+		carry -= packets_;
+		packets_ += poisson(random, poissonRate);
+		rounds++;
+		offered += packets_;
+		return packets_;
+	}
+
+	/**
+	 * Skips rounds, e.g., to resume a simulation from a checkpoint
+	 * with the same traffic as the original run had.  The packets of
+	 * the skipped rounds are not counted as offered.
+	 *
+	 * @param rounds_ The number of rounds that should be behind, in total.
+	 * @throws IllegalStateException If more rounds are behind already.
+	 */
+	public void skipTo(long rounds_) {
+		if (rounds_ < rounds) {
+			throw new IllegalStateException(
+				"The traffic is already at round " + rounds + ", past " + rounds_
+			);
+		}
+		while (rounds < rounds_) {
+			nextRound();
+		}
+		offered = 0;
+	}
+
+	/**
+	 * Counts the packets a router let through.
+	 *
+	 * @param packets_ The number of packets of the current round that got through.
+	 */
+	void delivered(int packets_) {
+		delivered += packets_;
+	}
+
+	/**
+	 * Accessor for the number of packets sent.
+	 *
+	 * @return Returns the number of packets sent by all the sources so far.
+	 */
+	public long getOffered() {
+		return offered;
+	}
+
+	/**
+	 * Accessor for the number of packets that got through the router.
+	 *
+	 * @return Returns the number of packets delivered so far.
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/** An on/off source, while it waits for its next switch. */
+	private static class OnOffSource {
+		final double rate;
+		final double meanOn;
+		final double meanOff;
+		boolean on;
+
+		/** The time of the next switch, in rounds. */
+		double nextSwitch;
+
+		OnOffSource(double rate_, double meanOn_, double meanOff_) {
+			rate = rate_;
+			meanOn = meanOn_;
+			meanOff = meanOff_;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The congestion window, the slow start threshold, the flight size
+ * and the effective window of every round, as the sender prints them,
+ * each kept as a {@link CompressedSeries}.  They are compressed while
+ * the simulation runs, so even the trace of a billion rounds fits in
+ * memory, and is saved in a fraction of the space of the raw values.
+ * <P>
+ * A checkpoint of the run holds the trace so far, compressed, so a
+ * resumed run continues the trace of the rounds before.
+ * <P>
+ * From the command line, prints the given rounds of a saved trace:
+ * <pre>
+ * java CwndTrace &lt;file&gt; [&lt;from&gt; &lt;to&gt;]
+ * </pre>
+ * Without the rounds, it prints the size of the trace only.
+ *
+ * @see TCPSimulator#setCwndTrace(CwndTrace)
+ */
+public class CwndTrace {
+	/** Index of the congestion window among the series. */
+	public static final int CONG_WINDOW = 0;
+
+	/** Index of the slow start threshold among the series. */
+	public static final int SS_THRESH = 1;
+
+	/** Index of the flight size among the series. */
+	public static final int FLIGHT_SIZE = 2;
+
+	/** Index of the effective window among the series. */
+	public static final int EFFECTIVE_WINDOW = 3;
+
+	/** Names of the series, by index. */
+	public static final String[] NAMES = { "congWindow", "SSThresh", "flightSize", "effecWin" };
+
+	private static final int MAGIC = 0x54435743;	// "TCWC"
+
+	/** The round of the first values. */
+	private int firstRound;
+
+	private final CompressedSeries[] series;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param firstRound_ The round of the first values, e.g., zero, or the round a run resumes from.
+	 */
+	public CwndTrace(int firstRound_) {
+		firstRound = firstRound_;
+		series = new CompressedSeries[NAMES.length];
+		for (int s_ = 0; s_ < series.length; s_++) {
+			series[s_] = new CompressedSeries();
+		}
+	}
+
+	private CwndTrace(int firstRound_, CompressedSeries[] series_) {
+		firstRound = firstRound_;
+		series = series_;
+	}
+
+	/**
+	 * Adds the values of the next round.
+	 *
+	 * @param congWindow_ The congestion window, in bytes.
+	 * @param ssThresh_ The slow start threshold, in bytes.
+	 * @param flightSize_ The flight size, in bytes.
+	 * @param effecWin_ The effective window, in bytes.
+	 */
+	public void record(int congWindow_, int ssThresh_, int flightSize_, int effecWin_) {
+		series[CONG_WINDOW].add(congWindow_);
+		series[SS_THRESH].add(ssThresh_);
+		series[FLIGHT_SIZE].add(flightSize_);
+		series[EFFECTIVE_WINDOW].add(effecWin_);
+	}
+
+	/**
+	 * Accessor for the round of the first values.
+	 *
+	 * @return Returns the first round.
+	 */
+	public int getFirstRound() {
+		return firstRound;
+	}
+
+	/**
+	 * Accessor for the number of rounds.
+	 *
+	 * @return Returns the number of rounds recorded.
+	 */
+	public long getNumRounds() {
+		return series[CONG_WINDOW].size();
+	}
+
+	/**
+	 * Accessor for one of the series.
+	 *
+	 * @param index_ The index of the series, e.g., {@link #CONG_WINDOW}.
+	 * @return Returns the series; its value <i>i</i> is that of round {@link #getFirstRound()} + <i>i</i>.
+	 */
+	public CompressedSeries getSeries(int index_) {
+		return series[index_];
+	}
+
+	/**
+	 * Accessor for the size of the trace, compressed.
+	 *
+	 * @return Returns the number of bytes the values take.
+	 */
+	public long getCompressedBytes() {
+		long bytes_ = 0;
+		for (int s_ = 0; s_ < series.length; s_++) {
+			bytes_ += series[s_].getCompressedBytes();
+		}
+		return bytes_;
+	}
+
+	/**
+	 * Accessor for the size of the trace, uncompressed.
+	 *
+	 * @return Returns the number of bytes the values take as <code>int</code>s.
+	 */
+	public long getRawBytes() {
+		return 4L * series.length * getNumRounds();
+	}
+
+	/**
+	 * Writes the trace so far into a checkpoint.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		out_.writeInt(firstRound);
+		for (int s_ = 0; s_ < series.length; s_++) {
+			series[s_].write(out_);
+		}
+	}
+
+	/**
+	 * Replaces this trace by the one written by {@link #saveState(DataOutput)},
+	 * so that the values of the next rounds are added to it.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		int firstRound_ = in_.readInt();
+		CompressedSeries[] series_ = new CompressedSeries[series.length];
+		for (int s_ = 0; s_ < series_.length; s_++) {
+			series_[s_] = CompressedSeries.read(in_);
+			if (series_[s_].size() != series_[0].size()) {
+				throw new IOException("The series of the window trace differ in length");
+			}
+		}
+		firstRound = firstRound_;
+		System.arraycopy(series_, 0, series, 0, series.length);
+	}
+
+	/**
+	 * Saves the trace.
+	 *
+	 * @param file_ The name of the file, overwritten if it exists.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void save(String file_) throws IOException {
+		DataOutputStream out_ = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(file_), 1 << 16)
+		);
+		try {
+			out_.writeInt(MAGIC);
+			out_.writeInt(firstRound);
+			out_.writeInt(series.length);
+			for (int s_ = 0; s_ < series.length; s_++) {
+				series[s_].write(out_);
+			}
+		} finally {
+			out_.close();
+		}
+	}
+
+	/**
+	 * Loads a trace saved by {@link #save(String)}.
+	 *
+	 * @param file_ The name of the file.
+	 * @return Returns the trace.
+	 * @throws IOException If the file cannot be read, or is not a trace.
+	 */
+	public static CwndTrace load(String file_) throws IOException {
+		DataInputStream in_ = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file_), 1 << 16)
+		);
+		try {
+			if (in_.readInt() != MAGIC) {
+				throw new IOException("Not a window trace: " + file_);
+			}
+			int firstRound_ = in_.readInt();
+			if (in_.readInt() != NAMES.length) {
+				throw new IOException("Not a window trace: " + file_);
+			}
+			CompressedSeries[] series_ = new CompressedSeries[NAMES.length];
+			for (int s_ = 0; s_ < series_.length; s_++) {
+				series_[s_] = CompressedSeries.read(in_);
+				if (series_[s_].size() != series_[0].size()) {
+					throw new IOException("The series of " + file_ + " differ in length");
+				}
+			}
+			return new CwndTrace(firstRound_, series_);
+		} finally {
+			in_.close();
+		}
+	}
+
+	/**
+	 * Prints the given rounds of a saved trace, or its size.
+	 *
+	 * @param argv_ Input arguments: the file, and optionally the first and the last round.
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length != 1 && argv_.length != 3) {
+			System.err.println("Usage: CwndTrace <file> [<from> <to>]");
+			System.exit(1);
+		}
+		CwndTrace trace_ = null;
+		try {
+			trace_ = load(argv_[0]);
+		} catch (IOException e_) {
+			System.err.println("Cannot read " + argv_[0] + ": " + e_);
+			System.exit(1);
+		}
+		if (argv_.length == 1) {
+			System.out.println(
+				"Rounds " + trace_.firstRound + " to " + (trace_.firstRound + trace_.getNumRounds() - 1)
+				+ ": " + trace_.getCompressedBytes() + " bytes, "
+				+ trace_.getRawBytes() + " uncompressed"
+			);
+			return;
+		}
+		long from_ = Math.max(Long.parseLong(argv_[1]) - trace_.firstRound, 0);
+		long to_ = Math.min(Long.parseLong(argv_[2]) - trace_.firstRound, trace_.getNumRounds() - 1);
+		System.out.println("iter\t" + NAMES[0] + "\t" + NAMES[1] + "\t" + NAMES[2] + "\t" + NAMES[3]);
+		StringBuffer line_ = new StringBuffer();
+		for (long i_ = from_; i_ <= to_; i_++) {
+			line_.setLength(0);
+			line_.append(trace_.firstRound + i_);
+			for (int s_ = 0; s_ < trace_.series.length; s_++) {
+				line_.append('\t').append(trace_.series[s_].get(i_));
+			}
+			System.out.println(line_);
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small web server on the local host that shows the congestion
+ * window, the slow start threshold and the router's queue while a
+ * simulation runs, unlike {@link TcpPlot}, which draws once the run
+ * is over, and needs a desktop.
+ * <P>
+ * The page at <code>/</code> draws the charts; it receives the data
+ * as Server-Sent Events from <code>/events</code>.  The simulation
+ * only stores the state of each round into a ring buffer, which
+ * neither locks nor allocates; a separate thread pushes what is new a
+ * few times per second, as one event, downsampled to at most
+ * {@value #MAX_POINTS} points.  If the viewers cannot keep up, rounds
+ * are skipped, so the simulation is never slowed down by them.
+ *
+ * @see TCPSimulator#setDashboard(DashboardServer)
+ */
+public class DashboardServer {
+	/** Rounds kept in the ring buffer; a power of two. */
+	private static final int RING = 1 << 16;
+
+	/** Most points in one event. */
+	private static final int MAX_POINTS = 200;
+
+	/** Time between two events, in milliseconds. */
+	private static final long PUSH_PERIOD = 250L;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// The ring buffer, one array per value.
+	private final int[] rounds = new int[RING];
+	private final int[] congWindows = new int[RING];
+	private final int[] thresholds = new int[RING];
+	private final int[] queues = new int[RING];
+
+	/** Number of rounds stored so far, published after each round. */
+	private final AtomicLong written = new AtomicLong();
+
+	/** Number of rounds pushed so far; used by the pushing thread only. */
+	private long pushed = 0;
+
+	private final HttpServer server;
+	private final ScheduledExecutorService pusher;
+	private final CopyOnWriteArrayList<OutputStream> clients =
+		new CopyOnWriteArrayList<OutputStream>();
+
+	/**
+	 * Constructor; starts the server.
+	 *
+	 * @param port_ The port on the local host, or 0 for any free port.
+	 * @throws IOException If the server cannot be started.
+	 */
+	public DashboardServer(int port_) throws IOException {
+		server = HttpServer.create(
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), port_), 0
+		);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange_) throws IOException {
+				byte[] page_ = PAGE.getBytes(UTF_8);
+				exchange_.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+				exchange_.sendResponseHeaders(200, page_.length);
+				OutputStream out_ = exchange_.getResponseBody();
+				out_.write(page_);
+				out_.close();
+			}
+		});
+		server.createContext("/events", new HttpHandler() {
+			public void handle(HttpExchange exchange_) throws IOException {
+				exchange_.getResponseHeaders().set("Content-Type", "text/event-stream");
+				exchange_.getResponseHeaders().set("Cache-Control", "no-cache");
+				exchange_.sendResponseHeaders(200, 0);
+				// Kept open; the pushing thread writes to it.
+				clients.add(exchange_.getResponseBody());
+			}
+		});
+		ThreadFactory daemons_ = new ThreadFactory() {
+			public Thread newThread(Runnable r_) {
+				Thread thread_ = new Thread(r_, "dashboard");
+				thread_.setDaemon(true);
+				return thread_;
+			}
+		};
+		server.setExecutor(Executors.newSingleThreadExecutor(daemons_));
+		server.start();
+		pusher = Executors.newSingleThreadScheduledExecutor(daemons_);
+		pusher.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				push();
+			}
+		}, PUSH_PERIOD, PUSH_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Accessor for the port the server listens to.
+	 *
+	 * @return Returns the port on the local host.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stores the state of one round.  It is called by the simulation,
+	 * one round after the other, from a single thread.
+	 *
+	 * @param round_ The round.
+	 * @param congWindow_ The congestion window, in bytes.
+	 * @param ssThresh_ The slow start threshold, in bytes.
+	 * @param queueLength_ The router's queue length, in packets.
+	 */
+	public void record(int round_, int congWindow_, int ssThresh_, int queueLength_) {
+		long n_ = written.get();
+		int i_ = (int) (n_ & (RING - 1));
+		rounds[i_] = round_;
+		congWindows[i_] = congWindow_;
+		thresholds[i_] = ssThresh_;
+		queues[i_] = queueLength_;
+		written.lazySet(n_ + 1);
+	}
+
+	/**
+	 * Sends the rounds stored since the last event to all viewers,
+	 * as one event with at most {@link #MAX_POINTS} points.  Each
+	 * point stands for a stretch of rounds: it has the last round,
+	 * the largest window and queue, and the last threshold.
+	 */
+	private synchronized void push() {
+		long end_ = written.get();
+		if (end_ == pushed) {
+			return;
+		}
+		// The oldest half of the ring may be overwritten meanwhile.
+		long start_ = Math.max(pushed, end_ - RING / 2);
+		pushed = end_;
+		if (clients.isEmpty()) {
+			return;
+		}
+		long stride_ = (end_ - start_ + MAX_POINTS - 1) / MAX_POINTS;
+		StringBuffer event_ = new StringBuffer("data: [");
+		for (long s_ = start_; s_ < end_; s_ += stride_) {
+			int round_ = 0, window_ = 0, thresh_ = 0, queue_ = 0;
+			for (long r_ = s_; r_ < Math.min(s_ + stride_, end_); r_++) {
+				int i_ = (int) (r_ & (RING - 1));
+				round_ = rounds[i_];
+				window_ = Math.max(window_, congWindows[i_]);
+				thresh_ = thresholds[i_];
+				queue_ = Math.max(queue_, queues[i_]);
+			}
+			event_.append((s_ == start_) ? "[" : ",[");
+			event_.append(round_).append(',').append(window_).append(',');
+			event_.append(thresh_).append(',').append(queue_).append(']');
+		}
+		event_.append("]\n\n");
+		byte[] bytes_ = event_.toString().getBytes(UTF_8);
+		for (OutputStream client_ : clients) {
+			try {
+				client_.write(bytes_);
+				client_.flush();
+			} catch (IOException e_) {
+				// The viewer went away.
+				clients.remove(client_);
+				try {
+					client_.close();
+				} catch (IOException ignored_) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pushes the last rounds, then stops the server, and disconnects
+	 * the viewers.
+	 */
+	public void close() {
+		pusher.shutdown();
+		try {
+			pusher.awaitTermination(PUSH_PERIOD, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e_) {
+			Thread.currentThread().interrupt();
+		}
+		push();
+		for (OutputStream client_ : clients) {
+			try {
+				client_.close();
+			} catch (IOException ignored_) {
+			}
+		}
+		server.stop(0);
+	}
+
+	/** The page, which draws the charts from the events. */
+	private static final String PAGE =
+		"<!DOCTYPE html>\n"
+		+ "<html><head><meta charset=\"utf-8\"><title>TCP Simulator</title>\n"
+		+ "<style>body{font-family:sans-serif;margin:1em}canvas{border:1px solid #ccc;display:block;margin-bottom:1em}</style>\n"
+		+ "</head><body>\n"
+		+ "<h3>Congestion window (red) and SSThresh (blue), bytes</h3><canvas id=\"w\" width=\"900\" height=\"300\"></canvas>\n"
+		+ "<h3>Router queue, packets</h3><canvas id=\"q\" width=\"900\" height=\"150\"></canvas>\n"
+		+ "<p id=\"s\">Waiting for the simulation...</p>\n"
+		+ "<script>\n"
+		+ "var pts=[],MAX=2000;\n"
+		+ "function draw(id,series){var c=document.getElementById(id),g=c.getContext('2d');\n"
+		+ " g.clearRect(0,0,c.width,c.height);if(pts.length<2)return;\n"
+		+ " var x0=pts[0][0],x1=pts[pts.length-1][0],y1=1;\n"
+		+ " series.forEach(function(s){pts.forEach(function(p){y1=Math.max(y1,p[s[0]]);});});\n"
+		+ " series.forEach(function(s){g.strokeStyle=s[1];g.beginPath();\n"
+		+ "  pts.forEach(function(p,k){var x=(p[0]-x0)/Math.max(1,x1-x0)*c.width,y=c.height-p[s[0]]/y1*(c.height-10);\n"
+		+ "   if(k)g.lineTo(x,y);else g.moveTo(x,y);});g.stroke();});}\n"
+		+ "var es=new EventSource('events');\n"
+		+ "es.onmessage=function(e){pts=pts.concat(JSON.parse(e.data));\n"
+		+ " if(pts.length>MAX)pts=pts.filter(function(p,k){return k%2==0||k==pts.length-1;});\n"
+		+ " draw('w',[[1,'red'],[2,'blue']]);draw('q',[[3,'green']]);\n"
+		+ " var p=pts[pts.length-1];document.getElementById('s').textContent='Round '+p[0]+', window '+p[1]+', SSThresh '+p[2]+', queue '+p[3];};\n"
+		+ "es.onerror=function(){document.getElementById('s').textContent+=' (disconnected)';es.close();};\n"
+		+ "</script></body></html>\n";
+}
@@ -0,0 +1,253 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact log of the decisions a router took in every round, which
+ * a {@link ReplayRouter} can take again, exactly, without the router:
+ * which packets were dropped and which went through, whether by the
+ * queue, by random numbers or by a trace, and where the packets that
+ * came out of turn (e.g., delayed ones) were delivered.  The sender
+ * and the receiver are deterministic, so a run that replays the log
+ * repeats the recorded run exactly.
+ * <P>
+ * A record per round holds one bit per packet that entered the
+ * router, set if the packet went through in its place, a hash of the
+ * sequence numbers of these packets together with their bits, and
+ * the few packets that were delivered elsewhere, with their place.
+ * The hash lets a replay notice at once when other packets than the
+ * recorded ones arrive, even as many of them.  Records
+ * are prefixed with their length, so a replay can skip to a round
+ * quickly, e.g., to go on from a checkpoint of a long run.
+ * <P>
+ * A checkpoint of the recording run holds the position in the log,
+ * so a run resumed from it appends to the same log (see
+ * {@link #saveState(DataOutput)}).
+ * <P>
+ * The log is meant for a single flow, as in {@link TCPSimulator},
+ * which records one round per call of {@link Router#relay(TCPSegment[])}.
+ */
+public class DecisionLog {
+	/** Identifies a decision log ("TCPD"), and its format version. */
+	static final int MAGIC = 0x54435044;
+	static final int VERSION = 2;
+
+	/** Start value of the hash of a round (FNV-1a offset basis). */
+	static final int HASH_START = 0x811c9dc5;
+
+	private final FileChannel channel;
+	private final DataOutputStream out;
+
+	/** The body of the current record, before its length is known. */
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+
+	/** The round of the next record, or -1 before the first. */
+	private int nextRound = -1;
+
+	/** The capacity in the last record; records hold the change only. */
+	private int lastCapacity = 0;
+
+	/**
+	 * Constructor.  Creates the log file, or overwrites it.
+	 *
+	 * @param fileName_ The name of the log file.
+	 * @throws IOException If the file cannot be created.
+	 */
+	public DecisionLog(String fileName_) throws IOException {
+		this(fileName_, false);
+	}
+
+	/**
+	 * Opens a log, either a new one or one to be continued from a
+	 * checkpoint.
+	 *
+	 * @param fileName_ The name of the log file.
+	 * @param resume_ If <code>true</code>, the file is kept as it is, for {@link #restoreState(DataInput)}; otherwise it is overwritten.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public DecisionLog(String fileName_, boolean resume_) throws IOException {
+		channel = new RandomAccessFile(fileName_, "rw").getChannel();
+		out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		if (!resume_) {
+			channel.truncate(0);
+		}
+	}
+
+	/**
+	 * Records the decisions of the router in one round.  The rounds
+	 * must follow one another; the first one need not be round one,
+	 * e.g., when recording a run resumed from a checkpoint.
+	 *
+	 * @param round_ The round.
+	 * @param sent_ The packets as they entered the router.
+	 * @param relayed_ The same array after the router; <code>null</code> where nothing was delivered.
+	 * @param capacity_ The bottleneck capacity of the router after this round, in bytes.
+	 * @throws IOException If the log cannot be written.
+	 */
+	public void record(int round_, TCPSegment[] sent_, TCPSegment[] relayed_,
+			int capacity_) throws IOException {
+		if (nextRound == -1) {
+			// A resumed run that did not record before starts a new log.
+			channel.truncate(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(round_);
+		} else if (round_ != nextRound) {
+			throw new IllegalArgumentException(
+				"Round " + round_ + " recorded, " + nextRound + " expected"
+			);
+		}
+		nextRound = round_ + 1;
+
+		record.reset();
+		writeVarInt(recordOut, zigzag(capacity_ - lastCapacity));
+		lastCapacity = capacity_;
+		int arrivals_ = 0;
+		int extras_ = 0;
+		for (int i_ = 0; i_ < sent_.length; i_++) {
+			if (sent_[i_] != null) {
+				arrivals_++;
+			}
+			if (relayed_[i_] != null && relayed_[i_] != sent_[i_]) {
+				extras_++;
+			}
+		}
+		writeVarInt(recordOut, arrivals_);
+		int hash_ = HASH_START;
+		for (int i_ = 0; i_ < sent_.length; i_++) {
+			if (sent_[i_] != null) {
+				hash_ = hash(hash_, sent_[i_], relayed_[i_] == sent_[i_]);
+			}
+		}
+		recordOut.writeInt(hash_);
+		int bits_ = 0;
+		int numBits_ = 0;
+		for (int i_ = 0; i_ < sent_.length; i_++) {
+			if (sent_[i_] == null) {
+				continue;
+			}
+			if (relayed_[i_] == sent_[i_]) {
+				bits_ |= 1 << numBits_;
+			}
+			if (++numBits_ == 8) {
+				recordOut.writeByte(bits_);
+				bits_ = numBits_ = 0;
+			}
+		}
+		if (numBits_ > 0) {
+			recordOut.writeByte(bits_);
+		}
+		writeVarInt(recordOut, extras_);
+		for (int i_ = 0; i_ < relayed_.length; i_++) {
+			if (relayed_[i_] != null && relayed_[i_] != sent_[i_]) {
+				writeVarInt(recordOut, i_);
+				TCPSegment.save(recordOut, relayed_[i_]);
+			}
+		}
+		writeVarInt(out, record.size());
+		record.writeTo(out);
+	}
+
+	/**
+	 * Writes out the records so far, and writes the position in the
+	 * log into a checkpoint.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the log or the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		out.flush();
+		out_.writeLong(channel.position());
+		out_.writeInt(nextRound);
+		out_.writeInt(lastCapacity);
+	}
+
+	/**
+	 * Returns to the position written by {@link #saveState(DataOutput)},
+	 * discarding whatever was recorded after the checkpoint.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read, or does not fit the log.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		long position_ = in_.readLong();
+		if (position_ > channel.size()) {
+			throw new IOException("The decision log is shorter than at the checkpoint");
+		}
+		channel.truncate(position_);
+		channel.position(position_);
+		nextRound = in_.readInt();
+		lastCapacity = in_.readInt();
+	}
+
+	/**
+	 * Writes out the records and closes the log.
+	 *
+	 * @throws IOException If the log cannot be written.
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Adds a packet that entered the router, and whether it went
+	 * through in its place, to the hash of a round (FNV-1a).
+	 */
+	static int hash(int hash_, TCPSegment packet_, boolean relayed_) {
+		hash_ = (hash_ ^ packet_.seqNum) * 0x01000193;
+		return (hash_ ^ (relayed_ ? 1 : 0)) * 0x01000193;
+	}
+
+	/** Writes a non-negative number in seven-bit groups, least significant first. */
+	static void writeVarInt(DataOutput out_, int value_) throws IOException {
+		while ((value_ & ~0x7F) != 0) {
+			out_.writeByte((value_ & 0x7F) | 0x80);
+			value_ >>>= 7;
+		}
+		out_.writeByte(value_);
+	}
+
+	/** Reads a number written by {@link #writeVarInt(DataOutput, int)}. */
+	static int readVarInt(DataInput in_) throws IOException {
+		int value_ = 0;
+		for (int shift_ = 0; shift_ < 32; shift_ += 7) {
+			int b_ = in_.readUnsignedByte();
+			value_ |= (b_ & 0x7F) << shift_;
+			if ((b_ & 0x80) == 0) {
+				return value_;
+			}
+		}
+		throw new IOException("Malformed number in the decision log");
+	}
+
+	/** The number of bytes {@link #writeVarInt(DataOutput, int)} writes for a number. */
+	static int varIntSize(int value_) {
+		int size_ = 1;
+		while ((value_ & ~0x7F) != 0) {
+			value_ >>>= 7;
+			size_++;
+		}
+		return size_;
+	}
+
+	/** Maps small negative numbers to small positive ones. */
+	static int zigzag(int value_) {
+		return (value_ << 1) ^ (value_ >> 31);
+	}
+
+	/** Reverses {@link #zigzag(int)}. */
+	static int unzigzag(int value_) {
+		return (value_ >>> 1) ^ -(value_ & 1);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+/**
+ * One TCP connection of a {@link Topology}: a sender, a receiver,
+ * and the static route of router indices that the data segments
+ * take between the two.  As in {@link TCPSimulator}, the
+ * acknowledgements bypass the routers, so they are never dropped;
+ * they are only delayed by the same propagation delay as the data.
+ * <P>
+ * The segments of one round travel along the whole path in one
+ * array, which every router modifies in place.  Because a batch may
+ * still be on its way while the sender fills the next one, the flow
+ * keeps a small ring of arrays, one slot per round in flight.
+ * Slots are reused once the receiver (or the sender, for the ACKs)
+ * has consumed them, so no arrays are allocated while running.
+ * The same holds for the {@link Topology.Batch}es that carry the
+ * segments over the links with a delay.
+ *
+ * @see Topology
+ */
+public class Flow {
+	/** Index of this flow in its topology. */
+	final int id;
+
+	/** The sending host of this flow. */
+	final TCPSender sender;
+
+	/** The receiving host of this flow. */
+	final TCPReceiver receiver;
+
+	/** Router indices, in the order the data segments visit them. */
+	final int[] path;
+
+	/** Propagation delay of the link into each hop, in rounds.
+	 * The first hop is attached directly to the sender, so
+	 * <code>hopDelay[0]</code> is always zero. */
+	final int[] hopDelay;
+
+	/** One-way propagation delay from the sender to the receiver,
+	 * i.e., the sum of {@link #hopDelay}, in rounds. */
+	final int pathDelay;
+
+	/** Data segment arrays in flight, indexed by the sending round. */
+	private final TCPSegment[][] segRing;
+
+	/** Acknowledgement arrays in flight, indexed by the round in
+	 * which the acknowledged data were sent. */
+	private final TCPSegment[][] ackRing;
+
+	/** Batches in flight over the link into each hop, indexed by
+	 * the sending round; <code>null</code> for hops without delay. */
+	private final Topology.Batch[][] batchRing;
+
+	/** Receive window advertised with each acknowledgement array. */
+	private final int[] rcvWindowRing;
+
+	/** Stands in for the acknowledgements while the first ones
+	 * are still on their way back to the sender. */
+	private final TCPSegment[] noAcks = new TCPSegment[TCPSimulator.MAX_WIN];
+
+	/** The receive window, as last seen by the sender. */
+	private int rcvWindow;
+
+	/**
+	 * Constructor.  Use {@link Topology#addFlow(TCPSender, TCPReceiver, int[])}
+	 * rather than calling this directly.
+	 *
+	 * @param id_ Index of this flow in its topology.
+	 * @param sender_ The sending host.
+	 * @param receiver_ The receiving host.
+	 * @param path_ Router indices from the sender to the receiver.
+	 * @param hopDelay_ Propagation delay into each hop, in rounds.
+	 */
+	Flow(int id_, TCPSender sender_, TCPReceiver receiver_,
+			int[] path_, int[] hopDelay_) {
+		id = id_;
+		sender = sender_;
+		receiver = receiver_;
+		path = path_;
+		hopDelay = hopDelay_;
+
+		int delay_ = 0;
+		for (int i_ = 0; i_ < hopDelay.length; i_++) {
+			delay_ += hopDelay[i_];
+		}
+		pathDelay = delay_;
+
+		// Data sent in round r reach the receiver in round r + D,
+		// and are acknowledged to the sender in round r + 2D + 1.
+		// The data ring is as large as the ACK ring, because the
+		// sender may run up to D rounds ahead of the receiver when
+		// they are simulated by different threads (LogicalProcess).
+		segRing = new TCPSegment[2 * pathDelay + 2][TCPSimulator.MAX_WIN];
+		ackRing = new TCPSegment[2 * pathDelay + 2][TCPSimulator.MAX_WIN];
+		rcvWindowRing = new int[ackRing.length];
+		rcvWindow = receiver.getRcvWindow();
+
+		// A batch waits for its hop no longer than its segments are
+		// in flight, so it can share the slot of the data ring.
+		batchRing = new Topology.Batch[hopDelay.length][];
+		for (int k_ = 0; k_ < hopDelay.length; k_++) {
+			if (hopDelay[k_] > 0) {
+				batchRing[k_] = new Topology.Batch[segRing.length];
+				for (int s_ = 0; s_ < segRing.length; s_++) {
+					batchRing[k_][s_] = new Topology.Batch(this, k_);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lets the sender process the acknowledgements that reach it
+	 * in the given round, and send the new segments.
+	 *
+	 * @param iter_ The current round, starting with one.
+	 * @return Returns the array of the newly sent segments, which enters the first hop.
+	 */
+	TCPSegment[] send(int iter_) {
+		int outcome_ = TCPSimulator.SUCCESS;
+		if (iter_ != 1) {
+			int sentIn_ = iter_ - 2 * pathDelay - 1;
+			if (sentIn_ >= 1) {
+				int slot_ = sentIn_ % ackRing.length;
+				rcvWindow = rcvWindowRing[slot_];
+				outcome_ = sender.processAcks(ackRing[slot_]);
+			} else {
+				outcome_ = sender.processAcks(noAcks);
+			}
+		}
+		TCPSegment[] segments_ = segRing[iter_ % segRing.length];
+		sender.send(segments_, rcvWindow, outcome_, iter_ - 1, null);
+		return segments_;
+	}
+
+	/**
+	 * Takes the batch that carries the given segments over the link
+	 * into the given hop.  The batch is reused for the segments sent
+	 * <code>2 * pathDelay + 2</code> rounds later, by which time it
+	 * has long been forwarded.
+	 *
+	 * @param hop_ The position on the path of the router the segments are headed to; its link must have a delay.
+	 * @param segments_ The segments.
+	 * @param due_ The round in which the segments arrive at the hop.
+	 * @return Returns the batch, filled in.
+	 */
+	Topology.Batch batch(int hop_, TCPSegment[] segments_, int due_) {
+		int sentIn_ = due_;
+		for (int k_ = 0; k_ <= hop_; k_++) {
+			sentIn_ -= hopDelay[k_];
+		}
+		Topology.Batch batch_ = batchRing[hop_][sentIn_ % segRing.length];
+		batch_.segments = segments_;
+		batch_.due = due_;
+		return batch_;
+	}
+
+	/**
+	 * Lets the receiver take the segments that made it through the
+	 * last hop, and generate the acknowledgements.
+	 *
+	 * @param segments_ The segments that survived the path.
+	 * @param iter_ The current round, in which the segments arrive.
+	 */
+	void receive(TCPSegment[] segments_, int iter_) {
+		int slot_ = (iter_ - pathDelay) % ackRing.length;
+		rcvWindowRing[slot_] = receiver.receive(segments_, ackRing[slot_]);
+	}
+
+	/**
+	 * Accessor for the sending host.
+	 *
+	 * @return Returns the sender of this flow.
+	 */
+	public TCPSender getSender() {
+		return sender;
+	}
+
+	/**
+	 * Accessor for the route of this flow.
+	 *
+	 * @return Returns the router indices, from the sender to the receiver.
+	 */
+	public int[] getPath() {
+		return path;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * An empirical distribution of flow sizes, given by points of its
+ * cumulative distribution function (CDF): the sizes, increasing, and
+ * the fraction of the flows that are at most that large.  Sizes
+ * between two points are interpolated linearly, as in the empirical
+ * random variables of ns-2, whose CDF files this class reads.
+ * <P>
+ * Two distributions that are commonly used to evaluate data center
+ * transports are built in, with sizes in segments of
+ * {@link TCPSimulator#MSS} bytes:
+ * <ul>
+ * <li> {@link #WEB_SEARCH}, measured by the authors of DCTCP, where
+ * most of the bytes are in flows of a megabyte or more; </li>
+ * <li> {@link #DATA_MINING}, measured by the authors of VL2, where
+ * half of the flows are a single segment, and a few flows of up to a
+ * gigabyte carry almost all of the bytes. </li>
+ * </ul>
+ */
+public class FlowSizeDistribution {
+	/** The web search workload, as pairs of the size in segments and the CDF. */
+	public static final double[][] WEB_SEARCH = {
+		{ 1, 0.0 }, { 6, 0.15 }, { 13, 0.2 }, { 19, 0.3 }, { 33, 0.4 }, { 53, 0.53 },
+		{ 133, 0.6 }, { 667, 0.7 }, { 1333, 0.8 }, { 3333, 0.9 }, { 6667, 0.97 }, { 20000, 1.0 }
+	};
+
+	/** The data mining workload, as pairs of the size in segments and the CDF. */
+	public static final double[][] DATA_MINING = {
+		{ 1, 0.0 }, { 1, 0.5 }, { 2, 0.6 }, { 3, 0.7 }, { 7, 0.8 }, { 267, 0.9 },
+		{ 2107, 0.95 }, { 66667, 0.99 }, { 666667, 1.0 }
+	};
+
+	/** The sizes of the points, in bytes. */
+	private final double[] sizes;
+
+	/** The CDF at the points. */
+	private final double[] fractions;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param points_ Pairs of a size and the CDF at that size, both non-decreasing, and the last CDF one.
+	 * @param bytesPerUnit_ The bytes per unit of the sizes, e.g., {@link TCPSimulator#MSS} for sizes in segments.
+	 */
+	public FlowSizeDistribution(double[][] points_, int bytesPerUnit_) {
+		if (points_.length == 0 || points_[points_.length - 1][1] != 1.0) {
+			throw new IllegalArgumentException("The CDF must end at one");
+		}
+		sizes = new double[points_.length];
+		fractions = new double[points_.length];
+		for (int p_ = 0; p_ < points_.length; p_++) {
+			sizes[p_] = points_[p_][0] * bytesPerUnit_;
+			fractions[p_] = points_[p_][1];
+			if (!(sizes[p_] >= 1.0) || !(fractions[p_] >= 0.0)
+					|| (p_ > 0 && (sizes[p_] < sizes[p_ - 1] || fractions[p_] < fractions[p_ - 1]))) {
+				throw new IllegalArgumentException("Not a CDF at point " + p_);
+			}
+		}
+		if (sizes[sizes.length - 1] > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Flows of more than " + Integer.MAX_VALUE + " bytes");
+		}
+	}
+
+	/**
+	 * Reads a distribution from a file in the format of ns-2: one
+	 * point per line, with the size first and the CDF last; a middle
+	 * column, as in the files of pFabric, is ignored.  Empty lines and
+	 * lines starting with <code>#</code> are skipped.
+	 *
+	 * @param file_ The name of the file.
+	 * @param bytesPerUnit_ The bytes per unit of the sizes in the file.
+	 * @return Returns the distribution.
+	 * @throws IOException If the file cannot be read, or holds no CDF.
+	 */
+	public static FlowSizeDistribution load(String file_, int bytesPerUnit_) throws IOException {
+		ArrayList<double[]> points_ = new ArrayList<double[]>();
+		BufferedReader in_ = new BufferedReader(new FileReader(file_));
+		try {
+			String line_;
+			while ((line_ = in_.readLine()) != null) {
+				line_ = line_.trim();
+				if (line_.length() == 0 || line_.startsWith("#")) {
+					continue;
+				}
+				String[] columns_ = line_.split("\\s+");
+				try {
+					points_.add(new double[] {
+						Double.parseDouble(columns_[0]),
+						Double.parseDouble(columns_[columns_.length - 1])
+					});
+				} catch (NumberFormatException e_) {
+					throw new IOException("Not a point of a CDF: " + line_);
+				}
+			}
+		} finally {
+			in_.close();
+		}
+		try {
+			return new FlowSizeDistribution(points_.toArray(new double[points_.size()][]), bytesPerUnit_);
+		} catch (IllegalArgumentException e_) {
+			throw new IOException(file_ + ": " + e_.getMessage());
+		}
+	}
+
+	/**
+	 * Draws a flow size.
+	 *
+	 * @param random_ The random numbers to draw from.
+	 * @return Returns the size, in bytes; at least one.
+	 */
+	public int next(SplittableRandom random_) {
+		double u_ = random_.nextDouble();
+		int p_ = 0;
+		while (fractions[p_] <= u_ && p_ < fractions.length - 1) {
+			p_++;
+		}
+		if (p_ == 0) {
+			return (int) sizes[0];
+		}
+		double width_ = fractions[p_] - fractions[p_ - 1];
+		double size_ = sizes[p_ - 1] + (sizes[p_] - sizes[p_ - 1]) * (u_ - fractions[p_ - 1]) / width_;
+		return (int) Math.max(1L, Math.round(size_));
+	}
+
+	/**
+	 * Computes the mean flow size, the integral of the interpolated CDF.
+	 *
+	 * @return Returns the mean size, in bytes.
+	 */
+	public double getMean() {
+		double mean_ = sizes[0] * fractions[0];
+		for (int p_ = 1; p_ < sizes.length; p_++) {
+			mean_ += (fractions[p_] - fractions[p_ - 1]) * (sizes[p_] + sizes[p_ - 1]) / 2.0;
+		}
+		return mean_;
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An alternative way to run the simulator, with one thread per
+ * sender and one per receiver of every flow.  Instead of being
+ * driven round by round, like in {@link TCPSimulator#run(int)},
+ * each host is a plain loop that blocks on its own channels:
+ * <ul>
+ * <li> the sender waits for the acknowledgements, processes them,
+ * and sends the next segments; </li>
+ * <li> the receiver waits for the segments, and returns the
+ * acknowledgements. </li>
+ * </ul>
+ * The flows share one {@link Router}, which is run by the calling
+ * thread.  In every round, it relays the segments of all running
+ * flows, in the order of the flows, so the result does not depend
+ * on how the threads are scheduled.
+ * <P>
+ * Every flow transfers a limited number of bytes (see
+ * {@link TCPSender#setFlowSize(int)}) and ends when they are all
+ * acknowledged; its threads then quit.  On a JVM with virtual
+ * threads (Java 21 and later), every host runs on a virtual thread,
+ * so hundreds of thousands of flows are cheap and are spread over
+ * all the cores.  Elsewhere, platform threads are used instead.
+ */
+public class FlowThreadSimulator {
+	/** Stands for "no more segments" on a channel. */
+	private static final TCPSegment[] END = new TCPSegment[0];
+
+	/** The bottleneck shared by all the flows. */
+	private final Router router;
+
+	/** Creates the threads of the senders and the receivers. */
+	private final ThreadFactory threads;
+
+	/** The flows that have not started yet, in the order of their start. */
+	private final ArrayList<FlowTask> pending = new ArrayList<FlowTask>();
+
+	/** Completion times of the flows that have finished so far, in rounds. */
+	private int[] completionTimes = new int[16];
+
+	/** Number of flows that have finished so far. */
+	private int numFinished = 0;
+
+	/** Table of the finished flows, if they are exported. */
+	private ColumnarWriter flowExport = null;
+
+	/** The reporting level of the hosts and the router. */
+	private volatile int reportingLevel = TCPSimulator.currentReportingLevel;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mismatchRatio_ The given mismatch ratio between the transmission speeds on the input and output links.
+	 * @param bufferSize_ The given buffer size for the router's queue.
+	 * @see Router
+	 */
+	public FlowThreadSimulator(int mismatchRatio_, int bufferSize_) {
+		router = new Router(mismatchRatio_, bufferSize_);
+		threads = flowThreadFactory();
+	}
+
+	/**
+	 * Adds a flow, which will start in the given round.  Flows must
+	 * be added in the order of their start.
+	 *
+	 * @param sender_ The sending host of the flow.
+	 * @param receiver_ The receiving host of the flow.
+	 * @param start_ The round in which the flow sends its first segments, starting with one.
+	 * @param flowSize_ The number of bytes the flow transfers.
+	 */
+	public void addFlow(TCPSender sender_, TCPReceiver receiver_, int start_, int flowSize_) {
+		if (!pending.isEmpty() && pending.get(pending.size() - 1).start > start_) {
+			throw new IllegalArgumentException("Flows must be added in the order of their start");
+		}
+		sender_.setFlowSize(flowSize_);
+		pending.add(new FlowTask(pending.size() + numFinished, sender_, receiver_, start_));
+	}
+
+	/**
+	 * Sets the reporting level of this simulator only, for all its
+	 * threads; other simulators keep theirs.
+	 *
+	 * @param level_ The reporting level(s), a combination of the <code>TCPSimulator.REPORTING_LEVEL_</code> flags.
+	 */
+	public void setReportingLevel(int level_) {
+		reportingLevel = level_;
+	}
+
+	/**
+	 * Lets this simulator write a summary of every flow, as it
+	 * finishes, into a columnar file, for analysis tools.  The caller
+	 * remains responsible for closing the file after the run.
+	 *
+	 * @param flowExport_ The table, created by {@link #createFlowExport(String)}, or <code>null</code> for none.
+	 */
+	public void setFlowExport(ColumnarWriter flowExport_) {
+		flowExport = flowExport_;
+	}
+
+	/**
+	 * Creates a columnar file for the summaries of the flows: the
+	 * flow, the rounds in which it started and finished, its
+	 * completion time in rounds, and the bytes it transmitted,
+	 * retransmissions included.
+	 *
+	 * @param file_ The name of the file, overwritten if it exists.
+	 * @return Returns the table, to pass to {@link #setFlowExport(ColumnarWriter)}.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static ColumnarWriter createFlowExport(String file_) throws IOException {
+		byte i_ = ColumnarWriter.INT32;
+		return new ColumnarWriter(file_, "flows",
+			new String[] { "flow", "start", "finish", "completion_rounds", "bytes_transmitted" },
+			new byte[] { i_, i_, i_, i_, ColumnarWriter.INT64 }
+		);
+	}
+
+	/**
+	 * Runs until all flows have finished, and reports their
+	 * completion times.
+	 *
+	 * @return Returns the number of rounds that were run.
+	 */
+	public int run() {
+		int outerLevel_ = TCPSimulator.setThreadReportingLevel(reportingLevel);
+		try {
+			return simulate();
+		} finally {
+			TCPSimulator.setThreadReportingLevel(outerLevel_);
+		}
+	}
+
+	/** The body of {@link #run()}, in the reporting level of this simulator. */
+	private int simulate() {
+		ArrayList<FlowTask> running_ = new ArrayList<FlowTask>();
+		ArrayList<FlowTask> stillRunning_ = new ArrayList<FlowTask>();
+		int next_ = 0;
+		int iter_ = 0;
+		while (next_ < pending.size() || !running_.isEmpty()) {
+			iter_++;
+			while (next_ < pending.size() && pending.get(next_).start <= iter_) {
+				FlowTask flow_ = pending.get(next_);
+				pending.set(next_++, null);
+				flow_.start = iter_;
+				threads.newThread(flow_.senderLoop(reportingLevel)).start();
+				threads.newThread(flow_.receiverLoop(reportingLevel)).start();
+				running_.add(flow_);
+			}
+
+			router.beginRound();
+			stillRunning_.clear();
+			for (int f_ = 0; f_ < running_.size(); f_++) {
+				FlowTask flow_ = running_.get(f_);
+				TCPSegment[] segments_ = take(flow_.toRouter);
+				if (segments_ == END) {
+					put(flow_.toReceiver, END);
+					if (flow_.failure != null) {
+						throw new IllegalStateException(
+							"Flow " + flow_.id + " failed", flow_.failure
+						);
+					}
+					if (numFinished == completionTimes.length) {
+						int[] larger_ = new int[2 * completionTimes.length];
+						System.arraycopy(completionTimes, 0, larger_, 0, numFinished);
+						completionTimes = larger_;
+					}
+					completionTimes[numFinished++] = iter_ - flow_.start;
+					if (flowExport != null) {
+						exportFlow(flow_, iter_);
+					}
+					continue;
+				}
+				router.forward(segments_);
+				put(flow_.toReceiver, segments_);
+				stillRunning_.add(flow_);
+			}
+			ArrayList<FlowTask> swap_ = running_;
+			running_ = stillRunning_;
+			stillRunning_ = swap_;
+		}
+		pending.clear();
+		report();
+		return iter_;
+	}
+
+	private void exportFlow(FlowTask flow_, int finish_) {
+		flowExport.putInt(flow_.id);
+		flowExport.putInt(flow_.start);
+		flowExport.putInt(finish_);
+		flowExport.putInt(finish_ - flow_.start);
+		flowExport.putLong(flow_.sender.getTotalBytesTransmitted());
+		try {
+			flowExport.endRow();
+		} catch (IOException e_) {
+			System.err.println("Export stopped: " + e_);
+			flowExport = null;
+		}
+	}
+
+	/**
+	 * Reports the number of finished flows and their completion
+	 * times, in rounds (RTTs).
+	 */
+	protected void report() {
+		long total_ = 0;
+		int max_ = 0;
+		for (int f_ = 0; f_ < numFinished; f_++) {
+			total_ += completionTimes[f_];
+			max_ = Math.max(max_, completionTimes[f_]);
+		}
+		System.out.println("Flows finished: " + numFinished);
+		if (numFinished > 0) {
+			System.out.println(
+				"Flow completion time: mean " + (total_ / (float) numFinished)
+				+ " rounds, max " + max_ + " rounds"
+			);
+		}
+	}
+
+	/**
+	 * Returns a factory of virtual threads if this JVM has them, and
+	 * of platform daemon threads otherwise.  Reflection keeps the
+	 * simulator buildable for older Java versions.
+	 *
+	 * @return Returns the factory for the threads of the hosts.
+	 */
+	static ThreadFactory flowThreadFactory() {
+		try {
+			Object builder_ = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory_ = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory_.invoke(builder_);
+		} catch (Exception e_) {
+			return new ThreadFactory() {
+				public Thread newThread(Runnable r_) {
+					Thread thread_ = new Thread(r_);
+					thread_.setDaemon(true);
+					return thread_;
+				}
+			};
+		}
+	}
+
+	private static TCPSegment[] take(BlockingQueue<TCPSegment[]> channel_) {
+		try {
+			return channel_.take();
+		} catch (InterruptedException e_) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting on a channel", e_);
+		}
+	}
+
+	private static void put(BlockingQueue<TCPSegment[]> channel_, TCPSegment[] segments_) {
+		try {
+			channel_.put(segments_);
+		} catch (InterruptedException e_) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting on a channel", e_);
+		}
+	}
+
+	/**
+	 * One flow: its hosts, their channels, and its lifetime.
+	 * A flow has only one array of segments and one of
+	 * acknowledgements; the sender does not send again before it
+	 * has the acknowledgements, so by then both are free again.
+	 */
+	static class FlowTask {
+		final int id;
+		final TCPSender sender;
+		final TCPReceiver receiver;
+
+		/** Segments from the sender to the router. */
+		final BlockingQueue<TCPSegment[]> toRouter = new ArrayBlockingQueue<TCPSegment[]>(1);
+
+		/** Segments from the router to the receiver. */
+		final BlockingQueue<TCPSegment[]> toReceiver = new ArrayBlockingQueue<TCPSegment[]>(1);
+
+		/** Acknowledgements from the receiver to the sender. */
+		final BlockingQueue<TCPSegment[]> toSender = new ArrayBlockingQueue<TCPSegment[]>(1);
+
+		final TCPSegment[] segments = new TCPSegment[TCPSimulator.MAX_WIN];
+		final TCPSegment[] acks = new TCPSegment[TCPSimulator.MAX_WIN];
+
+		/** The receive window sent along with {@link #acks}. */
+		volatile int rcvWindow;
+
+		/** The round in which this flow starts. */
+		int start;
+
+		/** What stopped one of the hosts, if anything did. */
+		volatile Throwable failure;
+
+		FlowTask(int id_, TCPSender sender_, TCPReceiver receiver_, int start_) {
+			id = id_;
+			sender = sender_;
+			receiver = receiver_;
+			start = start_;
+			rcvWindow = receiver.getRcvWindow();
+		}
+
+		Runnable senderLoop(final int level_) {
+			return new Runnable() {
+				public void run() {
+					TCPSimulator.setThreadReportingLevel(level_);
+					try {
+						int rcvWindow_ = rcvWindow;
+						for (int iter_ = 0; ; iter_++) {
+							int outcome_ = TCPSimulator.SUCCESS;
+							if (iter_ > 0) {
+								TCPSegment[] acks_ = take(toSender);
+								if (failure != null) {
+									break;
+								}
+								outcome_ = sender.processAcks(acks_);
+								rcvWindow_ = rcvWindow;
+							}
+							if (sender.isFinished()) {
+								break;
+							}
+							sender.send(segments, rcvWindow_, outcome_, iter_, null);
+							put(toRouter, segments);
+						}
+					} catch (RuntimeException e_) {
+						failure = e_;
+					}
+					put(toRouter, END);
+				}
+			};
+		}
+
+		Runnable receiverLoop(final int level_) {
+			return new Runnable() {
+				public void run() {
+					TCPSimulator.setThreadReportingLevel(level_);
+					TCPSegment[] segments_;
+					while ((segments_ = take(toReceiver)) != END) {
+						try {
+							rcvWindow = receiver.receive(segments_, acks);
+						} catch (RuntimeException e_) {
+							failure = e_;
+						}
+						put(toSender, acks);
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * Runs the given number of flows of the given size, starting the
+	 * given number of new flows in every round.
+	 *
+	 * @param argv_ Input arguments: the number of flows, the flow size in bytes, and optionally the flows started per round (default 1), the mismatch ratio (default 10), the router buffer size (default 7) and the name of a columnar file to export the flows into.
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 2) {
+			System.err.println("Please enter the number of flows and the flow size!");
+			System.exit(1);
+		}
+		int numFlows_ = Integer.parseInt(argv_[0]);
+		int flowSize_ = Integer.parseInt(argv_[1]);
+		int perRound_ = (argv_.length > 2) ? Integer.parseInt(argv_[2]) : 1;
+		int mismatchRatio_ = (argv_.length > 3) ? Integer.parseInt(argv_[3]) : 10;
+		int bufferSize_ = (argv_.length > 4) ? Integer.parseInt(argv_[4]) : 7;
+
+		FlowThreadSimulator simulator_ =
+			new FlowThreadSimulator(mismatchRatio_, bufferSize_);
+		// The per-iteration tables of many flows would be unreadable.
+		simulator_.setReportingLevel(0);
+		for (int f_ = 0; f_ < numFlows_; f_++) {
+			simulator_.addFlow(
+				new TCPSenderReno(), new TCPReceiver(), 1 + f_ / perRound_, flowSize_
+			);
+		}
+		ColumnarWriter flowExport_ = null;
+		if (argv_.length > 5) {
+			try {
+				flowExport_ = createFlowExport(argv_[5]);
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + argv_[5] + ": " + e_);
+				System.exit(1);
+			}
+			simulator_.setFlowExport(flowExport_);
+		}
+		int rounds_ = simulator_.run();
+		System.out.println("Rounds: " + rounds_);
+		if (flowExport_ != null) {
+			try {
+				flowExport_.close();
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + argv_[5] + ": " + e_);
+			}
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.util.Arrays;
+
+/**
+ * A fast approximation of {@link TCPSimulator}: instead of simulating
+ * every segment, the congestion window of an AIMD sender and the
+ * queue of the {@link Router} are treated as continuous quantities
+ * (a <i>fluid</i>) and their differential equations are solved with
+ * a fixed-step Euler integrator.  One configuration takes some
+ * microseconds, so wide parameter sweeps become cheap.
+ * <P>
+ * Time is measured in rounds (RTTs) and the window in segments.
+ * In every round, the router delivers <i>d(W)</i> of the <i>W</i>
+ * segments sent, by the same rule as {@link Router}: all of them up
+ * to the buffer size, and then one of every <i>mismatchRatio</i>
+ * beyond the mismatch ratio.  The rest is lost, and the sender learns
+ * about the losses one round later.  Until then, the window grows:
+ * <P><CENTER>
+ * <code> dW/dt = W &#183; ln 2 </code> &nbsp; in slow start,<BR>
+ * <code> dW/dt = 1 </code> &nbsp; in congestion avoidance.
+ * </CENTER>
+ * <P>
+ * The response to a loss follows {@link TCPSenderReno} as this
+ * simulator runs it, rather than textbook Reno.  The fast
+ * retransmission halves the window, and so does the loss that the
+ * next round suffers; the sender spends {@link #RECOVERY_ROUNDS}
+ * rounds with about {@link #RECOVERY_WINDOW} segments in flight,
+ * and goes on in congestion avoidance from a quarter of the window
+ * at the loss, but no fewer than {@link #MIN_WINDOW} segments.  Slow
+ * start ends at the first loss, or at the initial slow start
+ * threshold.
+ * <P>
+ * The sender of this simulator has no retransmission timer, so it
+ * only notices a loss from three duplicate acknowledgements.  With a
+ * buffer of fewer than {@link #MIN_BUFFER} segments, too few of them
+ * arrive, and the sender mostly probes with one-byte segments; the
+ * model does not cover that.  For larger buffers, the cross-check
+ * mode of {@link #main(String[])} finds the model within
+ * {@link #MAX_ERROR} of the utilization of the packet-level
+ * simulator, and reports the largest difference.
+ */
+public class FluidModel {
+	/** Default integration step, in rounds. */
+	public static final double DEFAULT_STEP = 1.0 / 16.0;
+
+	/** Rounds a loss takes to recover from. */
+	public static final double RECOVERY_ROUNDS = 2.0;
+
+	/** Segments in flight while recovering from a loss. */
+	public static final double RECOVERY_WINDOW = 2.0;
+
+	/** The smallest window after a loss, in segments (the sender's two MSS). */
+	public static final double MIN_WINDOW = 2.0;
+
+	/** The smallest buffer, in segments, for which the model holds. */
+	public static final int MIN_BUFFER = 3;
+
+	/**
+	 * The largest difference in utilization from {@link TCPSimulator}
+	 * with a {@link TCPSenderReno}, over buffers of {@link #MIN_BUFFER}
+	 * or more, mismatch ratios from 10 to 40, and runs of 1000 to 20000
+	 * rounds.  Shorter runs depend more on the first slow start, which
+	 * the model follows less closely.
+	 */
+	public static final double MAX_ERROR = 0.07;
+
+	private static final double LN2 = Math.log(2.0);
+
+	private final int mismatchRatio;
+
+	/** The router's buffer size, after the router's own adjustment. */
+	private final int bufferSize;
+
+	/** Integration step, in rounds. */
+	private final double step;
+
+	/**
+	 * Constructor, for the same parameters as {@link Router}.
+	 *
+	 * @param mismatchRatio_ The given mismatch ratio between the transmission speeds on the input and output links.
+	 * @param bufferSize_ The given buffer size for the router's queue.
+	 * @param step_ The integration step, in rounds; see {@link #DEFAULT_STEP}.
+	 */
+	public FluidModel(int mismatchRatio_, int bufferSize_, double step_) {
+		if (step_ <= 0.0 || step_ > 1.0) {
+			throw new IllegalArgumentException("The step must be within (0, 1] rounds: " + step_);
+		}
+		mismatchRatio = mismatchRatio_;
+		// Let the router enforce its constraint, so both models agree.
+		bufferSize = new Router(mismatchRatio_, bufferSize_).getBottleneckCapacity()
+			/ TCPSimulator.MSS - 1;
+		step = step_;
+	}
+
+	/**
+	 * Segments delivered by the router in a round in which the
+	 * given number of segments arrive.
+	 *
+	 * @param window_ The number of segments sent in the round.
+	 * @return Returns the number of segments that get through.
+	 */
+	double delivered(double window_) {
+		if (window_ <= bufferSize) {
+			return window_;
+		}
+		if (window_ <= mismatchRatio) {
+			return bufferSize;
+		}
+		return bufferSize + (window_ - mismatchRatio) / mismatchRatio;
+	}
+
+	/**
+	 * Integrates the model over the given number of rounds.
+	 *
+	 * @param num_iter_ The number of rounds.
+	 * @return Returns the estimates.
+	 */
+	public Result solve(int num_iter_) {
+		int perRound_ = (int) Math.round(1.0 / step);
+		double h_ = 1.0 / perRound_;
+		// The loss rates of the last round, for the delayed feedback.
+		double[] losses_ = new double[perRound_];
+
+		double ssThresh_ = 65535.0 / TCPSimulator.MSS;
+		double window_ = 1.0;
+		boolean slowStart_ = true;
+		// Rounds left of the recovery from a loss.
+		double recovery_ = 0.0;
+		double sumDelivered_ = 0.0;
+		double sumLost_ = 0.0;
+		double sumSent_ = 0.0;
+		double sumQueue_ = 0.0;
+		double maxQueue_ = 0.0;
+		double sumWindow_ = 0.0;
+
+		int steps_ = num_iter_ * perRound_;
+		for (int k_ = 0; k_ < steps_; k_++) {
+			double sent_ = (recovery_ > 0.0) ? RECOVERY_WINDOW : window_;
+			double delivered_ = delivered(sent_);
+			double lost_ = sent_ - delivered_;
+			// One segment is being transmitted, the others wait.
+			double queue_ = Math.max(0.0, delivered_ - 1.0);
+
+			sumSent_ += sent_ * h_;
+			sumDelivered_ += delivered_ * h_;
+			sumLost_ += lost_ * h_;
+			sumQueue_ += queue_ * h_;
+			sumWindow_ += sent_ * h_;
+			maxQueue_ = Math.max(maxQueue_, queue_);
+
+			int slot_ = k_ % perRound_;
+			double feedback_ = losses_[slot_];	// from one round ago
+			losses_[slot_] = lost_;
+
+			if (recovery_ > 0.0) {
+				recovery_ -= h_;
+				if (recovery_ <= 0.0) {
+					window_ = Math.max(MIN_WINDOW, window_ / 4.0);
+				}
+				continue;
+			}
+			if (feedback_ > 0.0) {
+				// The losses of the round before are recovered from as one.
+				slowStart_ = false;
+				recovery_ = RECOVERY_ROUNDS;
+				Arrays.fill(losses_, 0.0);
+				continue;
+			}
+			if (slowStart_) {
+				window_ += h_ * window_ * LN2;
+				if (window_ >= ssThresh_) {
+					slowStart_ = false;
+				}
+			} else {
+				window_ += h_;
+			}
+			window_ = Math.max(1.0, Math.min(window_, TCPSimulator.MAX_WIN));
+		}
+		return new Result(
+			sumDelivered_ / ((bufferSize + 1) * (double) num_iter_),
+			(sumSent_ > 0.0) ? sumLost_ / sumSent_ : 0.0,
+			sumWindow_ / num_iter_,
+			sumQueue_ / num_iter_,
+			maxQueue_
+		);
+	}
+
+	/**
+	 * The estimates of one configuration.  Windows and queues are
+	 * in segments.
+	 */
+	public static class Result {
+		/** Delivered segments, as a fraction of the bottleneck capacity. */
+		public final double utilization;
+
+		/** Lost segments, as a fraction of the segments sent. */
+		public final double lossRate;
+
+		public final double meanWindow;
+		public final double meanQueue;
+		public final double maxQueue;
+
+		Result(double utilization_, double lossRate_, double meanWindow_,
+				double meanQueue_, double maxQueue_) {
+			utilization = utilization_;
+			lossRate = lossRate_;
+			meanWindow = meanWindow_;
+			meanQueue = meanQueue_;
+			maxQueue = maxQueue_;
+		}
+	}
+
+	/**
+	 * Sweeps the buffer sizes from one up to below the mismatch ratio,
+	 * and reports the estimates of each configuration along with the
+	 * time it took.  In the cross-check mode, the packet-level
+	 * simulator is run with a {@link TCPSenderReno} for the same
+	 * configuration, and the difference in utilization is reported;
+	 * buffers below {@link #MIN_BUFFER}, which the model does not
+	 * cover, are marked, and the largest difference over the others
+	 * ends the report.
+	 *
+	 * @param argv_ Input arguments: the number of iterations, and optionally the mismatch ratio (default 10) and <code>check</code> for the cross-check mode.
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 1) {
+			System.err.println("Please enter the number of iterations!");
+			System.exit(1);
+		}
+		int numIter_ = Integer.parseInt(argv_[0]);
+		int mismatchRatio_ = (argv_.length > 1) ? Integer.parseInt(argv_[1]) : 10;
+		boolean check_ = (argv_.length > 2) && argv_[2].equalsIgnoreCase("check");
+
+		System.out.println(
+			"Buffer\tUtil\tLoss\tWindow\tQueue\tMaxQ\tMicros"
+			+ (check_ ? "\tPacket\tDiff" : "")
+		);
+		double maxDiff_ = 0.0;
+		for (int buffer_ = 1; buffer_ < mismatchRatio_; buffer_++) {
+			long start_ = System.nanoTime();
+			Result fluid_ =
+				new FluidModel(mismatchRatio_, buffer_, DEFAULT_STEP).solve(numIter_);
+			long micros_ = (System.nanoTime() - start_) / 1000L;
+
+			StringBuffer line_ = new StringBuffer();
+			line_.append(buffer_).append('\t')
+				.append(percent(fluid_.utilization)).append('\t')
+				.append(percent(fluid_.lossRate)).append('\t')
+				.append(round(fluid_.meanWindow)).append('\t')
+				.append(round(fluid_.meanQueue)).append('\t')
+				.append(round(fluid_.maxQueue)).append('\t')
+				.append(micros_);
+			if (check_) {
+				TCPSimulator simulator_ = new TCPSimulator(
+					new TCPSenderReno(), new Router(mismatchRatio_, buffer_)
+				);
+				// The packet-level run should only return its utilization.
+				simulator_.setReportingLevel(0);
+				float packet_ = simulator_.run(numIter_);
+				line_.append('\t').append(percent(packet_))
+					.append('\t').append(percent(fluid_.utilization - packet_));
+				if (buffer_ < MIN_BUFFER) {
+					line_.append("\t(not modelled)");
+				} else {
+					maxDiff_ = Math.max(maxDiff_, Math.abs(fluid_.utilization - packet_));
+				}
+			}
+			System.out.println(line_);
+		}
+		if (check_) {
+			System.out.println(
+				"Largest difference for buffers of " + MIN_BUFFER + " or more: "
+				+ percent(maxDiff_)
+			);
+		}
+	}
+
+	private static String percent(double fraction_) {
+		return Math.round(fraction_ * 100.0) + "%";
+	}
+
+	private static double round(double value_) {
+		return Math.round(value_ * 10.0) / 10.0;
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative whole numbers, with buckets whose width
+ * grows with the value, as in HdrHistogram: the values below
+ * 2 &#215; {@value #SUB_BUCKETS} have a bucket each, and every
+ * power of two above is split into {@value #SUB_BUCKETS} buckets of
+ * equal width.  A bucket is therefore never wider than 1/{@value #SUB_BUCKETS}
+ * of its values, and all the values a <code>long</code> can hold fit
+ * into a few hundred buckets.
+ * <P>
+ * Recording a value neither allocates nor locks, so a histogram can
+ * be shared by the simulators that run on several threads.  Reading
+ * it while values are recorded gives a consistent enough snapshot for
+ * a report, but not an exact one.
+ *
+ * @see MetricsRegistry
+ */
+public class Histogram {
+	/** Number of bits, and of buckets, within one power of two. */
+	private static final int SUB_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Enough buckets for any non-negative <code>long</code>. */
+	private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(-1L);
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value_ The value; negative values count as zero.
+	 */
+	public void record(long value_) {
+		if (value_ < 0) {
+			value_ = 0;
+		}
+		counts.incrementAndGet(bucketOf(value_));
+		count.increment();
+		sum.add(value_);
+		long m_;
+		while (value_ < (m_ = min.get()) && !min.compareAndSet(m_, value_)) {
+			// another thread changed it meanwhile, try again
+		}
+		while (value_ > (m_ = max.get()) && !max.compareAndSet(m_, value_)) {
+			// another thread changed it meanwhile, try again
+		}
+	}
+
+	/** The index of the bucket of a non-negative value. */
+	static int bucketOf(long value_) {
+		if (value_ < 2 * SUB_BUCKETS) {
+			return (int) value_;
+		}
+		int shift_ = 63 - Long.numberOfLeadingZeros(value_) - SUB_BITS;
+		return (shift_ + 1) * SUB_BUCKETS + (int) (value_ >>> shift_) - SUB_BUCKETS;
+	}
+
+	/**
+	 * The highest value that falls into a bucket.
+	 *
+	 * @param bucket_ The index of the bucket.
+	 * @return Returns the upper bound of the bucket, inclusive.
+	 */
+	static long upperBound(int bucket_) {
+		if (bucket_ < 2 * SUB_BUCKETS) {
+			return bucket_;
+		}
+		int shift_ = bucket_ / SUB_BUCKETS - 1;
+		long first_ = (long) (bucket_ % SUB_BUCKETS + SUB_BUCKETS) << shift_;
+		return first_ + (1L << shift_) - 1;
+	}
+
+	/**
+	 * Accessor for the number of buckets; most of them stay empty.
+	 *
+	 * @return Returns the number of buckets.
+	 */
+	public int getNumBuckets() {
+		return NUM_BUCKETS;
+	}
+
+	/**
+	 * Accessor for the number of values recorded in a bucket.
+	 *
+	 * @param bucket_ The index of the bucket.
+	 * @return Returns the number of values in the bucket.
+	 */
+	public long getCount(int bucket_) {
+		return counts.get(bucket_);
+	}
+
+	/**
+	 * Accessor for the number of values recorded.
+	 *
+	 * @return Returns the number of values.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Accessor for the sum of the values recorded.
+	 *
+	 * @return Returns the sum of the values.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Accessor for the smallest value recorded.
+	 *
+	 * @return Returns the smallest value, or zero if there is none.
+	 */
+	public long getMin() {
+		long min_ = min.get();
+		return (min_ == Long.MAX_VALUE) ? 0 : min_;
+	}
+
+	/**
+	 * Accessor for the largest value recorded.
+	 *
+	 * @return Returns the largest value, or zero if there is none.
+	 */
+	public long getMax() {
+		return Math.max(0, max.get());
+	}
+
+	/**
+	 * Accessor for the mean of the values recorded.
+	 *
+	 * @return Returns the mean, or zero if there are no values.
+	 */
+	public double getMean() {
+		long count_ = getCount();
+		return (count_ == 0) ? 0.0 : getSum() / (double) count_;
+	}
+
+	/**
+	 * Estimates a quantile: the upper bound of the bucket that holds
+	 * it, but not above the largest value recorded.
+	 *
+	 * @param fraction_ The fraction of the values at or below the quantile, e.g., 0.99.
+	 * @return Returns the quantile, or zero if there are no values.
+	 */
+	public long getQuantile(double fraction_) {
+		long total_ = 0;
+		for (int b_ = 0; b_ < NUM_BUCKETS; b_++) {
+			total_ += counts.get(b_);
+		}
+		if (total_ == 0) {
+			return 0;
+		}
+		long rank_ = Math.max(1, (long) Math.ceil(fraction_ * total_));
+		long seen_ = 0;
+		for (int b_ = 0; b_ < NUM_BUCKETS; b_++) {
+			seen_ += counts.get(b_);
+			if (seen_ >= rank_) {
+				return Math.min(upperBound(b_), getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+/**
+ * A unidirectional link between two routers of a {@link Topology}.
+ * The link itself never drops packets; it only delays them.  The
+ * bottleneck is always the router at the receiving end of the link.
+ * <P>
+ * The propagation delay is given in transmission rounds (iterations).
+ * A delay of zero means that the packets reach the next router in
+ * the same round, which is how the original
+ * <code> SENDER <-> ROUTER <-> RECEIVER </code> chain behaves.
+ *
+ * @see Topology
+ */
+public class Link {
+	/** Index of the upstream router, as returned by {@link Topology#addRouter(int, int)}. */
+	public final int from;
+
+	/** Index of the downstream router, as returned by {@link Topology#addRouter(int, int)}. */
+	public final int to;
+
+	/** Propagation delay of this link, in rounds (RTT/iteration units). */
+	public final int delay;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param from_ Index of the upstream router.
+	 * @param to_ Index of the downstream router.
+	 * @param delay_ Propagation delay, in rounds; must not be negative.
+	 */
+	public Link(int from_, int to_, int delay_) {
+		if (delay_ < 0) {
+			throw new IllegalArgumentException("Negative link delay: " + delay_);
+		}
+		from = from_;
+		to = to_;
+		delay = delay_;
+	}
+}
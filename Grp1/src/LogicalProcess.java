@@ -0,0 +1,92 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.util.ArrayList;
+
+/**
+ * A partition of a {@link Topology}: a set of routers, together with
+ * the flows whose first hop is one of them, simulated by one thread.
+ * <P>
+ * Routers that are connected by a link without delay always belong
+ * to the same logical process.  Everything that leaves a logical
+ * process therefore travels over a link with a delay of at least
+ * one round, and the smallest such delay is the <i>lookahead</i>:
+ * the number of rounds every logical process can simulate on its
+ * own before it may receive anything from the others.  The logical
+ * processes run a window of that many rounds, then wait for each
+ * other at a barrier, and then take in the segments that the others
+ * sent to them (see {@link SpscQueue}).  This is the classic
+ * conservative synchronization, and it gives exactly the same result
+ * as the sequential run.
+ *
+ * @see Topology#run(int, int)
+ */
+public class LogicalProcess {
+	/** Index of this logical process. */
+	final int index;
+
+	/** Indices of the routers of this logical process, ascending. */
+	int[] routers;
+
+	/** The flows whose first hop is one of {@link #routers}, ordered by flow index. */
+	Flow[] flows;
+
+	/** Queues of the segments sent to this logical process,
+	 * one per sending logical process (<code>null</code> for itself). */
+	SpscQueue<Topology.Batch>[] inbox;
+
+	/** Queues of the segments sent by this logical process,
+	 * one per receiving logical process (<code>null</code> for itself). */
+	SpscQueue<Topology.Batch>[] outbox;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index_ Index of this logical process.
+	 */
+	LogicalProcess(int index_) {
+		index = index_;
+	}
+
+	/**
+	 * Index of the flow that sends first in the given round, among
+	 * the flows of this logical process.  The sending order rotates
+	 * over all the flows of the topology, and each logical process
+	 * follows the same rotation.
+	 *
+	 * @param iter_ The current round.
+	 * @param numFlows_ The number of flows in the whole topology.
+	 * @return Returns the position in {@link #flows} to start from.
+	 */
+	int firstFlow(int iter_, int numFlows_) {
+		int first_ = iter_ % numFlows_;
+		int lo_ = 0;
+		int hi_ = flows.length;
+		while (lo_ < hi_) {
+			int mid_ = (lo_ + hi_) >>> 1;
+			if (flows[mid_].id < first_) {
+				lo_ = mid_ + 1;
+			} else {
+				hi_ = mid_;
+			}
+		}
+		return (lo_ == flows.length) ? 0 : lo_;
+	}
+
+	/**
+	 * Helper to collect the flows of this logical process.
+	 *
+	 * @param flows_ All the flows of the topology.
+	 * @param owner_ The logical process of every router.
+	 */
+	void collectFlows(ArrayList<Flow> flows_, int[] owner_) {
+		ArrayList<Flow> mine_ = new ArrayList<Flow>();
+		for (int f_ = 0; f_ < flows_.size(); f_++) {
+			if (owner_[flows_.get(f_).path[0]] == index) {
+				mine_.add(flows_.get(f_));
+			}
+		}
+		flows = mine_.toArray(new Flow[mine_.size()]);
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A recorded per-packet loss and delay pattern, read from disk as a
+ * stream.  Each record tells the fate of one packet: whether it was
+ * lost, and how much it was delayed.  The file is memory-mapped one
+ * window at a time, so traces of many gigabytes are read with a
+ * constant amount of memory.  When the end is reached, the trace
+ * starts over.
+ * <P>
+ * Two formats are understood:
+ * <ul>
+ * <li> <b>Text</b>: one packet per line, as
+ * <code>&lt;time_us&gt; &lt;lost&gt; [&lt;delay_us&gt;]</code>,
+ * separated by blanks or commas, where <i>lost</i> is <code>1</code>
+ * for a lost packet and <code>0</code> otherwise.  The time stamp and
+ * the delay may have a fraction (e.g., <code>1520.75</code>) or an
+ * exponent; the delay is rounded to whole microseconds.  Everything
+ * from a <code>#</code> to the end of the line is a comment, and
+ * empty lines are skipped.  The time stamp is not used; it is there
+ * to make the trace readable.  A line that does not fit the format
+ * stops the trace with an error that tells its number. </li>
+ * <li> <b>pcap</b> (recognized by its magic number): every captured
+ * IPv4/TCP packet with payload is one record, and it counts as lost
+ * if it is marked with DSCP CS1, as done by {@link PcapWriter} (and
+ * by capture setups that mark the drops the same way).  A single
+ * capture cannot tell the delays, so they are zero. </li>
+ * </ul>
+ *
+ * @see TraceRouter
+ */
+public class LossTrace {
+	/** Size of the mapped window of the file, in bytes. */
+	private static final long WINDOW = 64L << 20;
+
+	/** Longest text line or pcap record that is accepted, in bytes. */
+	private static final int MAX_RECORD = 1 << 16;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final boolean pcap;
+
+	/** Byte order of the pcap file. */
+	private ByteOrder pcapOrder = ByteOrder.LITTLE_ENDIAN;
+
+	/** Link-layer header length of the pcap file, in bytes. */
+	private int linkHeader = 0;
+
+	/** File offset of the first record. */
+	private long firstRecord = 0;
+
+	private MappedByteBuffer map;
+
+	/** File offset of the mapped window. */
+	private long mapStart = 0;
+
+	/** Longest number on a text line, in characters. */
+	private static final int MAX_NUMBER = 64;
+
+	/** The numbers on the current text line. */
+	private final double[] fields = new double[3];
+
+	/** The characters of the current number on a text line. */
+	private final byte[] number = new byte[MAX_NUMBER];
+
+	/** The fate of the current packet. */
+	private boolean lost;
+	private long delayMicros;
+
+	/**
+	 * Opens a trace file.
+	 *
+	 * @param fileName_ The name of the trace file, text or pcap.
+	 * @throws IOException If the file cannot be read, or contains no records.
+	 */
+	public LossTrace(String fileName_) throws IOException {
+		file = new RandomAccessFile(fileName_, "r");
+		channel = file.getChannel();
+		size = channel.size();
+		remap(0);
+
+		// Microsecond or nanosecond time stamps, in either byte order.
+		map.order(ByteOrder.BIG_ENDIAN);
+		int magic_ = (map.remaining() >= 4) ? map.getInt(0) : 0;
+		boolean big_ = (magic_ == 0xa1b2c3d4) || (magic_ == 0xa1b23c4d);
+		pcap = big_ || (magic_ == 0xd4c3b2a1) || (magic_ == 0x4d3cb2a1);
+		if (pcap) {
+			pcapOrder = big_ ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			map.order(pcapOrder);
+			if (map.limit() < 24) {
+				throw new IOException("Truncated pcap header in " + fileName_);
+			}
+			int linkType_ = map.getInt(20);
+			if (linkType_ == 1) {
+				linkHeader = 14;		// Ethernet
+			} else if (linkType_ != 101 && linkType_ != 228) {
+				throw new IOException("Unsupported pcap link type " + linkType_);
+			}
+			firstRecord = 24;
+			remap(firstRecord);
+		}
+		if (!next()) {
+			throw new IOException("No records in " + fileName_);
+		}
+		rewind();
+	}
+
+	/**
+	 * Advances to the fate of the next packet.  Starts over at the
+	 * end of the trace.
+	 */
+	public void advance() {
+		try {
+			if (!next()) {
+				rewind();
+				next();
+			}
+		} catch (IOException e_) {
+			throw new IllegalStateException("Cannot read the trace", e_);
+		}
+	}
+
+	/**
+	 * Informs whether the current packet was lost.
+	 *
+	 * @return Returns <code>true</code> if the current packet was lost.
+	 */
+	public boolean isLost() {
+		return lost;
+	}
+
+	/**
+	 * Accessor for the delay of the current packet.
+	 *
+	 * @return Returns the delay of the current packet, in microseconds.
+	 */
+	public long getDelayMicros() {
+		return delayMicros;
+	}
+
+	/**
+	 * Closes the trace file.
+	 *
+	 * @throws IOException If the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		map = null;
+		file.close();
+	}
+
+	/**
+	 * Writes the position in the trace into a checkpoint.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		out_.writeLong(mapStart + map.position());
+		out_.writeBoolean(lost);
+		out_.writeLong(delayMicros);
+	}
+
+	/**
+	 * Returns to the position written by {@link #saveState(DataOutput)}.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read, or does not fit this trace.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		long position_ = in_.readLong();
+		if (position_ < firstRecord || position_ > size) {
+			throw new IOException("The checkpoint does not fit the trace");
+		}
+		remap(position_);
+		lost = in_.readBoolean();
+		delayMicros = in_.readLong();
+	}
+
+	private void rewind() throws IOException {
+		remap(firstRecord);
+	}
+
+	/** Maps the window that starts at the given file offset. */
+	private void remap(long start_) throws IOException {
+		mapStart = start_;
+		map = channel.map(
+			FileChannel.MapMode.READ_ONLY, start_, Math.min(WINDOW, size - start_)
+		);
+		map.order(pcapOrder);
+	}
+
+	/** Makes sure the next record is within the window, if there is one. */
+	private void ensure(int length_) throws IOException {
+		if (map.remaining() < length_ && mapStart + map.limit() < size) {
+			remap(mapStart + map.position());
+		}
+	}
+
+	/** Reads the next record.  Returns <code>false</code> at the end. */
+	private boolean next() throws IOException {
+		return pcap ? nextPacket() : nextLine();
+	}
+
+	private boolean nextPacket() throws IOException {
+		while (true) {
+			ensure(16);
+			if (map.remaining() < 16) {
+				return false;
+			}
+			int captured_ = map.getInt(map.position() + 8);
+			if (captured_ < 0 || captured_ > MAX_RECORD) {
+				throw new IOException("Corrupt pcap record at " + (mapStart + map.position()));
+			}
+			ensure(16 + captured_);
+			if (map.remaining() < 16 + captured_) {
+				return false;
+			}
+			int ip_ = map.position() + 16 + linkHeader;
+			map.position(map.position() + 16 + captured_);
+
+			// Only IPv4/TCP packets that carry data are records.
+			if (captured_ < linkHeader + 40 || (map.get(ip_) & 0xF0) != 0x40
+					|| map.get(ip_ + 9) != 6) {
+				continue;
+			}
+			int ipHeader_ = (map.get(ip_) & 0x0F) * 4;
+			int total_ = ((map.get(ip_ + 2) & 0xFF) << 8) | (map.get(ip_ + 3) & 0xFF);
+			int tcpHeader_ = ((map.get(ip_ + ipHeader_ + 12) & 0xF0) >> 4) * 4;
+			if (total_ - ipHeader_ - tcpHeader_ <= 0) {
+				continue;
+			}
+			lost = ((map.get(ip_ + 1) & 0xFF) >> 2) == PcapWriter.DSCP_DROPPED;
+			delayMicros = 0;
+			return true;
+		}
+	}
+
+	private boolean nextLine() throws IOException {
+		while (true) {
+			ensure(MAX_RECORD);
+			if (!map.hasRemaining()) {
+				return false;
+			}
+			// Parse the numbers; skip comments and empty lines.
+			long start_ = mapStart + map.position();
+			int count_ = 0;
+			int length_ = 0;
+			boolean comment_ = false;
+			while (true) {
+				byte c_ = map.hasRemaining() ? map.get() : (byte) '\n';
+				if (c_ == '\n' || c_ == '#' || c_ == ' ' || c_ == '\t'
+						|| c_ == '\r' || c_ == ',') {
+					if (length_ > 0) {
+						if (count_ == fields.length) {
+							throw new IOException(where(start_) + "more than " + fields.length + " fields");
+						}
+						fields[count_++] = parseNumber(length_, start_);
+						length_ = 0;
+					}
+					if (c_ == '\n') {
+						break;
+					}
+					comment_ |= (c_ == '#');
+				} else if (!comment_) {
+					if (length_ == MAX_NUMBER) {
+						throw new IOException(where(start_) + "number too long");
+					}
+					number[length_++] = c_;
+				}
+			}
+			if (count_ == 0) {
+				continue;
+			}
+			if (count_ < 2) {
+				throw new IOException(where(start_) + "expected <time_us> <lost> [<delay_us>]");
+			}
+			if (fields[1] != 0.0 && fields[1] != 1.0) {
+				throw new IOException(where(start_) + "lost must be 0 or 1");
+			}
+			lost = fields[1] != 0.0;
+			delayMicros = (count_ >= 3) ? Math.round(fields[2]) : 0;
+			return true;
+		}
+	}
+
+	/**
+	 * Parses the characters in {@link #number}: plain digits without
+	 * creating a string, anything else as a <code>double</code>.
+	 */
+	private double parseNumber(int length_, long lineStart_) throws IOException {
+		long value_ = 0;
+		int i_ = 0;
+		while (i_ < length_ && i_ < 18 && number[i_] >= '0' && number[i_] <= '9') {
+			value_ = value_ * 10 + (number[i_++] - '0');
+		}
+		if (i_ == length_) {
+			return value_;
+		}
+		String text_ = new String(number, 0, length_, StandardCharsets.US_ASCII);
+		double parsed_;
+		try {
+			parsed_ = Double.parseDouble(text_);
+		} catch (NumberFormatException e_) {
+			throw new IOException(where(lineStart_) + "not a number: " + text_);
+		}
+		if (!(parsed_ >= 0.0) || Double.isInfinite(parsed_)) {
+			throw new IOException(where(lineStart_) + "not a non-negative number: " + text_);
+		}
+		return parsed_;
+	}
+
+	/**
+	 * The start of an error message about the text line that starts
+	 * at the given file offset.  The lines are only counted here, so
+	 * reading a trace does not need to.
+	 */
+	private String where(long lineStart_) throws IOException {
+		long line_ = 1;
+		for (long offset_ = 0; offset_ < lineStart_; offset_ += WINDOW) {
+			MappedByteBuffer window_ = channel.map(
+				FileChannel.MapMode.READ_ONLY, offset_, Math.min(WINDOW, lineStart_ - offset_)
+			);
+			while (window_.hasRemaining()) {
+				if (window_.get() == '\n') {
+					line_++;
+				}
+			}
+		}
+		return "Trace line " + line_ + ": ";
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and histograms, which the simulator, its router and
+ * anything else can record into, and which are written out as JSON
+ * or in the text format of Prometheus at the end of a run.
+ * <P>
+ * The counters are striped ({@link LongAdder}) and the histograms do
+ * not lock either (see {@link Histogram}), so one registry can take
+ * the records of all the replications of a sweep, running on many
+ * threads.  The metrics are looked up by name once, when a simulator
+ * is set up; recording into them then allocates nothing, so the
+ * metrics can stay on in long runs and sweeps.
+ */
+public class MetricsRegistry {
+	/** Prefix of the metric names in the Prometheus format. */
+	private static final String PREFIX = "tcpsim_";
+
+	private final ConcurrentHashMap<String, LongAdder> counters =
+		new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentHashMap<String, Histogram> histograms =
+		new ConcurrentHashMap<String, Histogram>();
+
+	/**
+	 * Looks up a counter, and creates it if needed.
+	 *
+	 * @param name_ The name, of letters, digits and underscores, e.g., <code>segments_sent_total</code>.
+	 * @return Returns the counter.
+	 */
+	public LongAdder counter(String name_) {
+		LongAdder counter_ = counters.get(name_);
+		if (counter_ == null) {
+			checkName(name_);
+			LongAdder previous_ = counters.putIfAbsent(name_, counter_ = new LongAdder());
+			if (previous_ != null) {
+				counter_ = previous_;
+			}
+		}
+		return counter_;
+	}
+
+	/**
+	 * Looks up a histogram, and creates it if needed.
+	 *
+	 * @param name_ The name, of letters, digits and underscores, ending with the unit, e.g., <code>rtt_rounds</code>.
+	 * @return Returns the histogram.
+	 */
+	public Histogram histogram(String name_) {
+		Histogram histogram_ = histograms.get(name_);
+		if (histogram_ == null) {
+			checkName(name_);
+			Histogram previous_ = histograms.putIfAbsent(name_, histogram_ = new Histogram());
+			if (previous_ != null) {
+				histogram_ = previous_;
+			}
+		}
+		return histogram_;
+	}
+
+	private static void checkName(String name_) {
+		if (!name_.matches("[a-zA-Z_][a-zA-Z0-9_]*")) {
+			throw new IllegalArgumentException("Not a metric name: " + name_);
+		}
+	}
+
+	/**
+	 * Writes all the metrics as a JSON object, with the counters, and
+	 * for each histogram its count, sum, extremes, mean, quantiles
+	 * and non-empty buckets (by upper bound).
+	 *
+	 * @param file_ The file, overwritten if it exists.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void writeJson(File file_) throws IOException {
+		PrintWriter out_ = open(file_);
+		try {
+			out_.println("{");
+			out_.println("  \"counters\": {");
+			Iterator<Map.Entry<String, LongAdder>> c_ = sorted(counters).entrySet().iterator();
+			while (c_.hasNext()) {
+				Map.Entry<String, LongAdder> e_ = c_.next();
+				out_.println("    \"" + e_.getKey() + "\": " + e_.getValue().sum()
+					+ (c_.hasNext() ? "," : ""));
+			}
+			out_.println("  },");
+			out_.println("  \"histograms\": {");
+			Iterator<Map.Entry<String, Histogram>> h_ = sorted(histograms).entrySet().iterator();
+			while (h_.hasNext()) {
+				Map.Entry<String, Histogram> e_ = h_.next();
+				Histogram histogram_ = e_.getValue();
+				out_.println("    \"" + e_.getKey() + "\": {");
+				out_.println("      \"count\": " + histogram_.getCount()
+					+ ", \"sum\": " + histogram_.getSum()
+					+ ", \"min\": " + histogram_.getMin()
+					+ ", \"max\": " + histogram_.getMax()
+					+ ", \"mean\": " + histogram_.getMean() + ",");
+				out_.println("      \"p50\": " + histogram_.getQuantile(0.50)
+					+ ", \"p90\": " + histogram_.getQuantile(0.90)
+					+ ", \"p99\": " + histogram_.getQuantile(0.99)
+					+ ", \"p999\": " + histogram_.getQuantile(0.999) + ",");
+				StringBuffer buckets_ = new StringBuffer();
+				for (int b_ = 0; b_ < histogram_.getNumBuckets(); b_++) {
+					long count_ = histogram_.getCount(b_);
+					if (count_ != 0) {
+						buckets_.append((buckets_.length() == 0) ? "" : ", ");
+						buckets_.append("\"" + Histogram.upperBound(b_) + "\": " + count_);
+					}
+				}
+				out_.println("      \"buckets\": {" + buckets_ + "}");
+				out_.println("    }" + (h_.hasNext() ? "," : ""));
+			}
+			out_.println("  }");
+			out_.println("}");
+		} finally {
+			out_.close();
+		}
+		if (out_.checkError()) {
+			throw new IOException("Cannot write " + file_);
+		}
+	}
+
+	/**
+	 * Writes all the metrics in the text exposition format of
+	 * Prometheus, e.g., for the textfile collector of its node
+	 * exporter.  The histograms have cumulative buckets, for the
+	 * non-empty buckets only.
+	 *
+	 * @param file_ The file, overwritten if it exists.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void writePrometheus(File file_) throws IOException {
+		PrintWriter out_ = open(file_);
+		try {
+			for (Map.Entry<String, LongAdder> e_ : sorted(counters).entrySet()) {
+				String name_ = PREFIX + e_.getKey();
+				out_.println("# TYPE " + name_ + " counter");
+				out_.println(name_ + " " + e_.getValue().sum());
+			}
+			for (Map.Entry<String, Histogram> e_ : sorted(histograms).entrySet()) {
+				String name_ = PREFIX + e_.getKey();
+				Histogram histogram_ = e_.getValue();
+				out_.println("# TYPE " + name_ + " histogram");
+				long cumulative_ = 0;
+				for (int b_ = 0; b_ < histogram_.getNumBuckets(); b_++) {
+					long count_ = histogram_.getCount(b_);
+					if (count_ != 0) {
+						cumulative_ += count_;
+						out_.println(name_ + "_bucket{le=\"" + Histogram.upperBound(b_)
+							+ "\"} " + cumulative_);
+					}
+				}
+				out_.println(name_ + "_bucket{le=\"+Inf\"} " + cumulative_);
+				out_.println(name_ + "_sum " + histogram_.getSum());
+				out_.println(name_ + "_count " + cumulative_);
+			}
+		} finally {
+			out_.close();
+		}
+		if (out_.checkError()) {
+			throw new IOException("Cannot write " + file_);
+		}
+	}
+
+	private static PrintWriter open(File file_) throws IOException {
+		return new PrintWriter(
+			new OutputStreamWriter(new FileOutputStream(file_), Charset.forName("UTF-8"))
+		);
+	}
+
+	private static <T> TreeMap<String, T> sorted(Map<String, T> map_) {
+		return new TreeMap<String, T>(map_);
+	}
+}
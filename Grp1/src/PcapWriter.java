@@ -0,0 +1,293 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the simulated traffic into a capture file in the libpcap
+ * format, so that it can be examined with Wireshark (including its
+ * tcptrace-style stream graphs) or any other packet analyzer.
+ * <P>
+ * Every data segment and every acknowledgement becomes a synthetic
+ * IPv4/TCP packet between host 10.0.0.1 (the sender) and host
+ * 10.0.0.2 (the receiver), with the segment's sequence number, the
+ * acknowledgement number and the receive window.  Only the 40 bytes
+ * of headers are captured, but the IP length tells the real size.
+ * The payload is all zeros, so the checksums are still correct.
+ * <P>
+ * The capture point is the sender.  A data segment that the router
+ * discards is still captured, because the sender did send it, but it
+ * is marked with DSCP 8 (CS1); in Wireshark, the drops are shown by
+ * the filter <code>ip.dsfield.dscp == 8</code>.
+ * <P>
+ * Time is simulated: each round lasts one RTT of the given length.
+ * The segments of a round are sent during its first half, and the
+ * acknowledgements arrive during its second half.
+ * <P>
+ * The packets are collected in a large direct buffer and written to
+ * the file in big chunks, so even large captures slow the
+ * simulation down very little.
+ */
+public class PcapWriter {
+	/** Link type of raw IPv4 packets, without link-layer headers. */
+	private static final int LINKTYPE_RAW = 101;
+
+	/** Captured length of every packet: IPv4 header plus TCP header. */
+	private static final int HEADERS = 40;
+
+	/** Size of a record: record header plus the captured bytes. */
+	private static final int RECORD = 16 + HEADERS;
+
+	/** DSCP value that marks the segments discarded by a router. */
+	public static final int DSCP_DROPPED = 8;
+
+	private static final int TCP_ACK = 0x10;
+	private static final int TCP_PSH = 0x08;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	/** Length of one round, in microseconds. */
+	private final long rttMicros;
+
+	/** IPv4 identification of the next packet, per direction. */
+	private int ipIdData = 0;
+	private int ipIdAck = 0;
+
+	/**
+	 * Opens the capture file, and writes its header.
+	 *
+	 * @param fileName_ The name of the capture file, overwritten if it exists.
+	 * @param rttMicros_ The simulated length of one round (RTT), in microseconds.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public PcapWriter(String fileName_, long rttMicros_) throws IOException {
+		this(fileName_, rttMicros_, false);
+	}
+
+	/**
+	 * Opens a capture file, either a new one or one to be continued
+	 * from a checkpoint.
+	 *
+	 * @param fileName_ The name of the capture file.
+	 * @param rttMicros_ The simulated length of one round (RTT), in microseconds.
+	 * @param resume_ If <code>true</code>, the file is kept as it is, for {@link #restoreState(DataInput)}; otherwise it is overwritten.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public PcapWriter(String fileName_, long rttMicros_, boolean resume_) throws IOException {
+		channel = new RandomAccessFile(fileName_, "rw").getChannel();
+		buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		rttMicros = rttMicros_;
+		if (!resume_) {
+			startAnew();
+		}
+	}
+
+	/**
+	 * Drops whatever the file holds, and starts it with the header
+	 * again; for a file opened for resuming, when the checkpoint has
+	 * no capture to continue.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	void startAnew() throws IOException {
+		buffer.clear();
+		channel.truncate(0);
+		channel.position(0);
+		ipIdData = 0;
+		ipIdAck = 0;
+
+		buffer.putInt(0xa1b2c3d4);		// magic number, microsecond timestamps
+		buffer.putShort((short) 2);		// version 2.4
+		buffer.putShort((short) 4);
+		buffer.putInt(0);				// GMT offset
+		buffer.putInt(0);				// timestamp accuracy
+		buffer.putInt(65535);			// snapshot length
+		buffer.putInt(LINKTYPE_RAW);
+	}
+
+	/**
+	 * Captures one round of a flow: the segments the sender sent
+	 * (marking those the router discarded), and the acknowledgements
+	 * the receiver returned.
+	 *
+	 * @param iter_ The round, starting with zero.
+	 * @param flow_ Index of the flow, which selects the TCP source port.
+	 * @param sent_ The segments as sent by the sender.
+	 * @param relayed_ The same segments after the router; <code>null</code> where discarded.
+	 * @param acks_ The acknowledgements generated by the receiver.
+	 * @param rcvWindow_ The receive window advertised with the acknowledgements.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void writeRound(int iter_, int flow_, TCPSegment[] sent_,
+			TCPSegment[] relayed_, TCPSegment[] acks_, int rcvWindow_)
+			throws IOException {
+		long start_ = iter_ * rttMicros;
+		long gap_ = rttMicros / (2 * Math.max(sent_.length, acks_.length));
+		for (int i_ = 0; i_ < sent_.length; i_++) {
+			if (sent_[i_] != null) {
+				writeSegment(
+					start_ + i_ * gap_, flow_, sent_[i_], relayed_[i_] == null
+				);
+			}
+		}
+		for (int i_ = 0; i_ < acks_.length; i_++) {
+			if (acks_[i_] != null) {
+				writeAck(start_ + rttMicros / 2 + i_ * gap_, flow_, acks_[i_], rcvWindow_);
+			}
+		}
+	}
+
+	/**
+	 * Captures a data segment.
+	 *
+	 * @param timeMicros_ The simulated time, in microseconds.
+	 * @param flow_ Index of the flow, which selects the TCP source port.
+	 * @param segment_ The data segment.
+	 * @param dropped_ Whether a router discarded the segment.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void writeSegment(long timeMicros_, int flow_, TCPSegment segment_,
+			boolean dropped_) throws IOException {
+		writePacket(
+			timeMicros_, dropped_ ? DSCP_DROPPED : 0, ipIdData++,
+			0x0a000001, 0x0a000002, 40000 + flow_, 80,
+			segment_.seqNum, 0, TCP_ACK | TCP_PSH, 65535, segment_.length
+		);
+	}
+
+	/**
+	 * Captures an acknowledgement.
+	 *
+	 * @param timeMicros_ The simulated time, in microseconds.
+	 * @param flow_ Index of the flow, which selects the TCP destination port.
+	 * @param ack_ The acknowledgement segment; its sequence number is the next byte expected.
+	 * @param rcvWindow_ The advertised receive window, in bytes.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void writeAck(long timeMicros_, int flow_, TCPSegment ack_,
+			int rcvWindow_) throws IOException {
+		// There is no window scaling without a SYN, so the
+		// window is clamped to the largest unscaled value.
+		writePacket(
+			timeMicros_, 0, ipIdAck++,
+			0x0a000002, 0x0a000001, 80, 40000 + flow_,
+			0, ack_.seqNum, TCP_ACK, Math.min(rcvWindow_, 65535), 0
+		);
+	}
+
+	/**
+	 * Writes out everything that is still buffered, and writes the
+	 * position in the file into a checkpoint.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the file or the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		flush();
+		out_.writeLong(channel.position());
+		out_.writeInt(ipIdData);
+		out_.writeInt(ipIdAck);
+	}
+
+	/**
+	 * Returns to the position written by {@link #saveState(DataOutput)},
+	 * discarding whatever was captured after the checkpoint.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read, or does not fit the file.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		long position_ = in_.readLong();
+		if (position_ > channel.size()) {
+			throw new IOException("The capture file is shorter than at the checkpoint");
+		}
+		buffer.clear();
+		channel.truncate(position_);
+		channel.position(position_);
+		ipIdData = in_.readInt();
+		ipIdAck = in_.readInt();
+	}
+
+	/**
+	 * Writes out everything that is still buffered, and closes the file.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	private void writePacket(long timeMicros_, int dscp_, int ipId_,
+			int srcAddr_, int dstAddr_, int srcPort_, int dstPort_,
+			int seq_, int ack_, int flags_, int window_, int payload_)
+			throws IOException {
+		if (buffer.remaining() < RECORD) {
+			flush();
+		}
+		// Record header, in the file's byte order.
+		buffer.putInt((int) (timeMicros_ / 1000000L));
+		buffer.putInt((int) (timeMicros_ % 1000000L));
+		buffer.putInt(HEADERS);
+		buffer.putInt(HEADERS + payload_);
+
+		// The packet itself, in network byte order.
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		int ip_ = buffer.position();
+		buffer.put((byte) 0x45);
+		buffer.put((byte) (dscp_ << 2));
+		buffer.putShort((short) (HEADERS + payload_));
+		buffer.putShort((short) ipId_);
+		buffer.putShort((short) 0x4000);		// don't fragment
+		buffer.put((byte) 64);					// TTL
+		buffer.put((byte) 6);					// TCP
+		buffer.putShort((short) 0);				// checksum, below
+		buffer.putInt(srcAddr_);
+		buffer.putInt(dstAddr_);
+		buffer.putShort(ip_ + 10, (short) checksum(ip_, 20, 0));
+
+		int tcp_ = buffer.position();
+		buffer.putShort((short) srcPort_);
+		buffer.putShort((short) dstPort_);
+		buffer.putInt(seq_);
+		buffer.putInt(ack_);
+		buffer.put((byte) (5 << 4));			// data offset: 5 words
+		buffer.put((byte) flags_);
+		buffer.putShort((short) window_);
+		buffer.putShort((short) 0);				// checksum, below
+		buffer.putShort((short) 0);				// urgent pointer
+		// Pseudo-header: addresses, protocol, TCP length.
+		long pseudo_ = ((srcAddr_ >>> 16) & 0xFFFF) + (srcAddr_ & 0xFFFF)
+			+ ((dstAddr_ >>> 16) & 0xFFFF) + (dstAddr_ & 0xFFFF)
+			+ 6 + 20 + payload_;
+		buffer.putShort(tcp_ + 16, (short) checksum(tcp_, 20, pseudo_));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** Internet checksum of the given bytes of the buffer. */
+	private int checksum(int from_, int length_, long sum_) {
+		for (int i_ = from_; i_ < from_ + length_; i_ += 2) {
+			sum_ += buffer.getShort(i_) & 0xFFFF;
+		}
+		while ((sum_ >>> 16) != 0) {
+			sum_ = (sum_ & 0xFFFF) + (sum_ >>> 16);
+		}
+		return (int) (~sum_ & 0xFFFF);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
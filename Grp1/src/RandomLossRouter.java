@@ -0,0 +1,135 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * A router whose output link also loses packets at random, e.g.,
+ * because of bit errors on a wireless hop.  The queue is still the
+ * bottleneck, with the same dropping rule as in {@link Router}; each
+ * packet that gets through the queue is then lost with the given
+ * probability, independently of the others.
+ * <P>
+ * The random numbers are seeded from a {@link SplittableRandom}
+ * stream of the caller's choosing, so that a run can be repeated
+ * exactly, and independent replications get independent streams.
+ * The router draws them with its own SplitMix64 generator, whose
+ * whole state is one <code>long</code>, so a checkpoint saves the
+ * state itself and restoring takes constant time, however many
+ * packets went through before.
+ */
+public class RandomLossRouter extends Router {
+	/** Probability that a packet is lost on the output link.  It may
+	 * be changed while a simulation runs, from another thread. */
+	private volatile double lossProbability;
+
+	/** Weyl sequence increment of SplitMix64, the odd integer closest to 2^64 / phi. */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/** State of the random number generator (SplitMix64). */
+	private long seed;
+
+	/** Number of packets lost on the output link. */
+	private long randomLosses = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mismatchRatio_ The given mismatch ratio between the transmission speeds on the input and output links.
+	 * @param bufferSize_ The given buffer size for the router's queue.
+	 * @param lossProbability_ The probability that a packet is lost on the output link.
+	 * @param random_ The stream of random numbers to seed this router from; one number is taken.
+	 */
+	public RandomLossRouter(int mismatchRatio_, int bufferSize_,
+			double lossProbability_, SplittableRandom random_) {
+		super(mismatchRatio_, bufferSize_);
+		if (lossProbability_ < 0.0 || lossProbability_ > 1.0) {
+			throw new IllegalArgumentException("Not a probability: " + lossProbability_);
+		}
+		lossProbability = lossProbability_;
+		seed = random_.nextLong();
+	}
+
+	/**
+	 * Relays the packets through the queue, then loses each packet
+	 * that got through with the given probability.
+	 *
+	 * @param packets_ The array of packets to be "routed".
+	 */
+	public void forward(TCPSegment[] packets_) {
+		super.forward(packets_);
+		for (int i_ = 0; i_ < packets_.length; i_++) {
+			if (packets_[i_] == null) {
+				continue;
+			}
+			if (nextDouble() < lossProbability) {
+				randomLosses++;
+				discarded(packets_[i_], "random");
+				packets_[i_] = null;
+			}
+		}
+	}
+
+	/** The next uniform random number in [0, 1), as SplitMix64 makes it. */
+	private double nextDouble() {
+		long z_ = (seed += GOLDEN_GAMMA);
+		z_ = (z_ ^ (z_ >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z_ = (z_ ^ (z_ >>> 27)) * 0x94d049bb133111ebL;
+		z_ = z_ ^ (z_ >>> 31);
+		return (z_ >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Accessor for the probability of a random loss.
+	 *
+	 * @return Returns the probability that a packet is lost on the output link.
+	 */
+	public double getLossProbability() {
+		return lossProbability;
+	}
+
+	/**
+	 * Changes the probability of a random loss, e.g., in the middle
+	 * of a run, from another thread (see {@link SimulationMonitor}).
+	 * It takes effect with the next packet.
+	 *
+	 * @param lossProbability_ The new probability that a packet is lost on the output link.
+	 */
+	public void setLossProbability(double lossProbability_) {
+		if (lossProbability_ < 0.0 || lossProbability_ > 1.0) {
+			throw new IllegalArgumentException("Not a probability: " + lossProbability_);
+		}
+		lossProbability = lossProbability_;
+	}
+
+	/**
+	 * Accessor for the number of packets lost at random.
+	 *
+	 * @return Returns the number of packets lost on the output link.
+	 */
+	public long getRandomLosses() {
+		return randomLosses;
+	}
+
+	/* (non-Javadoc)
+	 * @see Router#saveState(java.io.DataOutput)
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		super.saveState(out_);
+		out_.writeLong(randomLosses);
+		out_.writeLong(seed);
+	}
+
+	/* (non-Javadoc)
+	 * @see Router#restoreState(java.io.DataInput)
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		super.restoreState(in_);
+		randomLosses = in_.readLong();
+		seed = in_.readLong();
+	}
+}
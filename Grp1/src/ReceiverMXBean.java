@@ -0,0 +1,20 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+/**
+ * The live state of a {@link TCPReceiver}, for JConsole and other JMX
+ * clients.
+ *
+ * @see SimulationMonitor
+ */
+public interface ReceiverMXBean {
+	/** @return Returns the number of out-of-sequence segments buffered. */
+	int getReorderBufferDepth();
+
+	/** @return Returns the next byte expected in sequence. */
+	int getNextByteExpected();
+
+	/** @return Returns the receive window, in bytes. */
+	int getRcvWindow();
+}
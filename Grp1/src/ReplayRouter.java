@@ -0,0 +1,186 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * A router that takes again the decisions recorded in a
+ * {@link DecisionLog}, instead of taking its own.  It needs neither
+ * the random numbers nor the traces of the recorded router, so a
+ * stretch of a long run, e.g., a loss episode, can be replayed from
+ * a checkpoint (see {@link TCPSimulator#resume(String)}), with more
+ * reporting than the recorded run could afford.
+ * <P>
+ * The packets that arrive must be the recorded ones; if their number
+ * or their sequence numbers differ, the replay has diverged from the
+ * recorded run, e.g., because the sender is different, and the router
+ * reports so with an {@link IllegalStateException} in the first round
+ * that differs.  A log that does not start with round one, e.g., of
+ * a resumed run, can only be replayed from a checkpoint of a round it
+ * holds.
+ */
+public class ReplayRouter extends Router {
+	private final String fileName;
+	private final DataInputStream in;
+
+	/** The round of the first record. */
+	private final int firstRound;
+
+	/** The round of the next record. */
+	private int nextRound;
+
+	/** The bottleneck capacity in the last record, in bytes. */
+	private int capacity = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fileName_ The name of the log file.
+	 * @throws IOException If the file cannot be read, or is not a decision log.
+	 */
+	public ReplayRouter(String fileName_) throws IOException {
+		super(2, 1);
+		fileName = fileName_;
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName_)));
+		if (in.readInt() != DecisionLog.MAGIC) {
+			in.close();
+			throw new IOException(fileName_ + " is not a decision log");
+		}
+		int version_ = in.readInt();
+		if (version_ != DecisionLog.VERSION) {
+			in.close();
+			throw new IOException(
+				fileName_ + " is a decision log of version " + version_
+				+ "; only version " + DecisionLog.VERSION + " can be replayed"
+			);
+		}
+		firstRound = nextRound = in.readInt();
+	}
+
+	/**
+	 * Accessor for the first round of the log.
+	 *
+	 * @return Returns the round of the first record.
+	 */
+	public int getFirstRound() {
+		return firstRound;
+	}
+
+	/**
+	 * Skips the records up to the given round, so that the next call
+	 * of {@link #forward(TCPSegment[])} replays that round.
+	 *
+	 * @param round_ The round to replay next.
+	 * @throws IOException If the log cannot be read, or does not hold the round.
+	 */
+	public void skipTo(int round_) throws IOException {
+		if (round_ < firstRound) {
+			throw new IOException(
+				fileName + " starts with round " + firstRound + ", so it can only be replayed"
+				+ " from a checkpoint of round " + (firstRound - 1) + " or later"
+			);
+		}
+		if (round_ < nextRound) {
+			throw new IOException(
+				fileName + " is replayed up to round " + (nextRound - 1) + " already"
+			);
+		}
+		while (nextRound < round_) {
+			int length_ = DecisionLog.readVarInt(in);
+			int change_ = DecisionLog.readVarInt(in);
+			capacity += DecisionLog.unzigzag(change_);
+			length_ -= DecisionLog.varIntSize(change_);
+			while (length_ > 0) {
+				int skipped_ = in.skipBytes(length_);
+				if (skipped_ == 0) {
+					in.readByte();		// EOFException at the end of the log
+					skipped_ = 1;
+				}
+				length_ -= skipped_;
+			}
+			nextRound++;
+		}
+	}
+
+	/**
+	 * Drops and delivers the packets as recorded for the next round.
+	 *
+	 * @param packets_ The array of packets to be "routed".
+	 */
+	public void forward(TCPSegment[] packets_) {
+		try {
+			DecisionLog.readVarInt(in);		// the length, to skip only
+			capacity += DecisionLog.unzigzag(DecisionLog.readVarInt(in));
+			int arrivals_ = DecisionLog.readVarInt(in);
+			int recordedHash_ = in.readInt();
+			int hash_ = DecisionLog.HASH_START;
+			int bits_ = 0;
+			int numBits_ = 0;
+			for (int i_ = 0; i_ < packets_.length; i_++) {
+				if (packets_[i_] == null) {
+					continue;
+				}
+				if (numBits_ == arrivals_) {
+					throw diverged("more packets arrived than recorded");
+				}
+				if ((numBits_ & 7) == 0) {
+					bits_ = in.readUnsignedByte();
+				}
+				boolean relayed_ = (bits_ & (1 << (numBits_ & 7))) != 0;
+				hash_ = DecisionLog.hash(hash_, packets_[i_], relayed_);
+				if (!relayed_) {
+					discarded(packets_[i_], "replay");
+					packets_[i_] = null;
+				}
+				numBits_++;
+			}
+			if (numBits_ != arrivals_) {
+				throw diverged("fewer packets arrived than recorded");
+			}
+			if (hash_ != recordedHash_) {
+				throw diverged("other packets arrived than recorded");
+			}
+			int extras_ = DecisionLog.readVarInt(in);
+			for (int j_ = 0; j_ < extras_; j_++) {
+				int slot_ = DecisionLog.readVarInt(in);
+				if (packets_[slot_] != null) {
+					throw diverged("a recorded delivery found its place taken");
+				}
+				packets_[slot_] = TCPSegment.restore(in);
+			}
+		} catch (IOException e_) {
+			throw new IllegalStateException(
+				"Cannot replay round " + nextRound + " from " + fileName, e_
+			);
+		}
+		nextRound++;
+	}
+
+	private IllegalStateException diverged(String why_) {
+		return new IllegalStateException(
+			"The replay diverged in round " + nextRound + ": " + why_
+		);
+	}
+
+	/**
+	 * Accessor for the bottleneck capacity of the recorded router.
+	 *
+	 * @return Returns the recorded capacity, as of the last round replayed [in bytes].
+	 */
+	public int getBottleneckCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Closes the log.
+	 *
+	 * @throws IOException If the log cannot be closed.
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+}
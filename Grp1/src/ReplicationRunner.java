@@ -0,0 +1,312 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent replications of a {@link Scenario} on a pool of
+ * threads, and estimates the mean utilization, goodput and loss rate
+ * with 95 % confidence intervals.
+ * <P>
+ * Every replication has its own sender, receiver, router and
+ * simulator, and its own stream of random numbers.  The streams are
+ * split from one root {@link SplittableRandom} in the order of the
+ * replications, before any of them starts, so the results depend
+ * only on the seed, not on the number of threads or on how they are
+ * scheduled.
+ * <P>
+ * The replications run silently: the reporting level of their
+ * simulators is zero, whatever the level of other simulators.
+ */
+public class ReplicationRunner {
+	/** Student's t quantiles for 95 % confidence, for 1 to 30 degrees of freedom. */
+	private static final double[] T_95 = {
+		12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+		2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+		2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+	};
+
+	private final Scenario scenario;
+	private final int numThreads;
+
+	/** The metrics all the replications record into, if any. */
+	private MetricsRegistry metrics = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param scenario_ The scenario to replicate.
+	 * @param numThreads_ The number of threads to run the replications on.
+	 */
+	public ReplicationRunner(Scenario scenario_, int numThreads_) {
+		if (numThreads_ < 1) {
+			throw new IllegalArgumentException("At least one thread is needed: " + numThreads_);
+		}
+		scenario = scenario_;
+		numThreads = numThreads_;
+	}
+
+	/**
+	 * Lets all the replications record into the given metrics.
+	 *
+	 * @param metrics_ The metrics, or <code>null</code> for none.
+	 * @see TCPSimulator#setMetrics(MetricsRegistry)
+	 */
+	public void setMetrics(MetricsRegistry metrics_) {
+		metrics = metrics_;
+	}
+
+	/**
+	 * Runs the given number of replications.
+	 *
+	 * @param replications_ The number of replications, at least two for an interval.
+	 * @param seed_ The seed of the root random stream.
+	 * @return Returns the estimates over all replications.
+	 */
+	public Summary run(int replications_, long seed_) {
+		SplittableRandom root_ = new SplittableRandom(seed_);
+		ArrayList<Callable<double[]>> tasks_ = new ArrayList<Callable<double[]>>();
+		for (int r_ = 0; r_ < replications_; r_++) {
+			tasks_.add(replication(root_.split()));
+		}
+
+		double[][] results_ = new double[replications_][];
+		ExecutorService pool_ = Executors.newFixedThreadPool(numThreads);
+		try {
+			ArrayList<Future<double[]>> futures_ = new ArrayList<Future<double[]>>();
+			for (int r_ = 0; r_ < replications_; r_++) {
+				futures_.add(pool_.submit(tasks_.get(r_)));
+			}
+			for (int r_ = 0; r_ < replications_; r_++) {
+				results_[r_] = futures_.get(r_).get();
+			}
+		} catch (InterruptedException e_) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a replication", e_);
+		} catch (ExecutionException e_) {
+			throw new IllegalStateException("A replication failed", e_.getCause());
+		} finally {
+			pool_.shutdownNow();
+		}
+		return new Summary(
+			replications_, estimate(results_, 0), estimate(results_, 1), estimate(results_, 2)
+		);
+	}
+
+	/**
+	 * Runs the given number of replications, unless their estimates
+	 * are in the given cache already.  New estimates are added to the
+	 * cache; if that fails, they are still returned.
+	 *
+	 * @param replications_ The number of replications, at least two for an interval.
+	 * @param seed_ The seed of the root random stream.
+	 * @param cache_ The cache of results.
+	 * @return Returns the estimates over all replications.
+	 */
+	public Summary run(int replications_, long seed_, ResultCache cache_) {
+		String key_ = ResultCache.key(scenario, seed_, replications_);
+		Properties cached_ = cache_.get(key_);
+		if (cached_ != null) {
+			return Summary.load(cached_);
+		}
+		Summary summary_ = run(replications_, seed_);
+		Properties metrics_ = new Properties();
+		summary_.store(metrics_);
+		try {
+			cache_.put(key_, metrics_, null);
+		} catch (IOException e_) {
+			System.err.println("Cannot cache the results: " + e_);
+		}
+		return summary_;
+	}
+
+	/**
+	 * One replication, with its own network elements and random stream.
+	 * Its result is the utilization, the goodput in bytes per round,
+	 * and the loss rate.
+	 */
+	private Callable<double[]> replication(final SplittableRandom random_) {
+		return new Callable<double[]>() {
+			public double[] call() {
+				Router router_ = scenario.newRouter(random_);
+				TCPSimulator simulator_ = new TCPSimulator(scenario.newSender(), router_);
+				simulator_.setReportingLevel(0);
+				if (metrics != null) {
+					simulator_.setMetrics(metrics);
+				}
+				double utilization_ = simulator_.run(scenario.iterations);
+				return new double[] {
+					utilization_,
+					utilization_ * router_.getBottleneckCapacity(),
+					simulator_.getLossRate()
+				};
+			}
+		};
+	}
+
+	/** The mean and confidence interval of one column of the results. */
+	private static Estimate estimate(double[][] results_, int column_) {
+		int n_ = results_.length;
+		double sum_ = 0.0;
+		for (int r_ = 0; r_ < n_; r_++) {
+			sum_ += results_[r_][column_];
+		}
+		double mean_ = sum_ / n_;
+		if (n_ < 2) {
+			return new Estimate(mean_, Double.POSITIVE_INFINITY);
+		}
+		double squares_ = 0.0;
+		for (int r_ = 0; r_ < n_; r_++) {
+			double d_ = results_[r_][column_] - mean_;
+			squares_ += d_ * d_;
+		}
+		return new Estimate(mean_, t95(n_ - 1) * Math.sqrt(squares_ / (n_ - 1) / n_));
+	}
+
+	/**
+	 * Student's t quantile for a two-sided 95 % interval.
+	 *
+	 * @param df_ The degrees of freedom, at least one.
+	 * @return Returns the quantile; approximated beyond 30 degrees of freedom.
+	 */
+	static double t95(int df_) {
+		if (df_ <= T_95.length) {
+			return T_95[df_ - 1];
+		}
+		return 1.960 + 2.5 / df_;
+	}
+
+	/** A mean and the half-width of its 95 % confidence interval. */
+	public static class Estimate {
+		public final double mean;
+		public final double halfWidth;
+
+		Estimate(double mean_, double halfWidth_) {
+			mean = mean_;
+			halfWidth = halfWidth_;
+		}
+	}
+
+	/** The estimates over the replications of a scenario. */
+	public static class Summary {
+		public final int replications;
+		public final Estimate utilization;
+
+		/** Goodput, in bytes per round. */
+		public final Estimate goodput;
+
+		public final Estimate lossRate;
+
+		Summary(int replications_, Estimate utilization_, Estimate goodput_,
+				Estimate lossRate_) {
+			replications = replications_;
+			utilization = utilization_;
+			goodput = goodput_;
+			lossRate = lossRate_;
+		}
+
+		/**
+		 * Writes these estimates into a set of metrics.
+		 *
+		 * @param metrics_ The metrics, e.g., of a {@link ResultCache} entry.
+		 */
+		public void store(Properties metrics_) {
+			metrics_.setProperty("replications", Integer.toString(replications));
+			store(metrics_, "utilization", utilization);
+			store(metrics_, "goodput", goodput);
+			store(metrics_, "lossRate", lossRate);
+		}
+
+		/**
+		 * Reads the estimates written by {@link #store(Properties)}.
+		 *
+		 * @param metrics_ The metrics.
+		 * @return Returns the estimates.
+		 */
+		public static Summary load(Properties metrics_) {
+			return new Summary(
+				Integer.parseInt(metrics_.getProperty("replications")),
+				load(metrics_, "utilization"),
+				load(metrics_, "goodput"),
+				load(metrics_, "lossRate")
+			);
+		}
+
+		private static void store(Properties metrics_, String name_, Estimate e_) {
+			metrics_.setProperty(name_ + ".mean", Double.toString(e_.mean));
+			metrics_.setProperty(name_ + ".halfWidth", Double.toString(e_.halfWidth));
+		}
+
+		private static Estimate load(Properties metrics_, String name_) {
+			return new Estimate(
+				Double.parseDouble(metrics_.getProperty(name_ + ".mean")),
+				Double.parseDouble(metrics_.getProperty(name_ + ".halfWidth"))
+			);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return "Replications: " + replications
+				+ "\nUtilization: " + percent(utilization)
+				+ "\nGoodput: " + Math.round(goodput.mean) + " +/- "
+				+ Math.round(goodput.halfWidth) + " bytes/round"
+				+ "\nLoss rate: " + percent(lossRate);
+		}
+
+		private static String percent(Estimate e_) {
+			return Math.round(e_.mean * 1000.0) / 10.0 + " % +/- "
+				+ Math.round(e_.halfWidth * 1000.0) / 10.0 + " %";
+		}
+	}
+
+	/**
+	 * Runs replications of a scenario and reports the estimates.
+	 *
+	 * @param argv_ Input arguments: the number of replications and of iterations, and optionally the random loss rate (default 0.01), the seed (default 1), the number of threads (default: one per processor), the sender (<code>reno</code> or <code>tahoe</code>, default <code>reno</code>) and a file name prefix to write the metrics of all replications into, as <code>.json</code> and <code>.prom</code>.
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 2) {
+			System.err.println("Please enter the number of replications and of iterations!");
+			System.exit(1);
+		}
+		int replications_ = Integer.parseInt(argv_[0]);
+		int numIter_ = Integer.parseInt(argv_[1]);
+		double lossRate_ = (argv_.length > 2) ? Double.parseDouble(argv_[2]) : 0.01;
+		long seed_ = (argv_.length > 3) ? Long.parseLong(argv_[3]) : 1L;
+		int numThreads_ = (argv_.length > 4) ? Integer.parseInt(argv_[4])
+			: Runtime.getRuntime().availableProcessors();
+		String sender_ = (argv_.length > 5) ? argv_[5] : "reno";
+		String metricsFile_ = (argv_.length > 6) ? argv_[6] : null;
+
+		Scenario scenario_ = new Scenario(sender_, 10, 7, lossRate_, numIter_);
+		ReplicationRunner runner_ = new ReplicationRunner(scenario_, numThreads_);
+		MetricsRegistry metrics_ = (metricsFile_ != null) ? new MetricsRegistry() : null;
+		runner_.setMetrics(metrics_);
+		long start_ = System.nanoTime();
+		Summary summary_ = runner_.run(replications_, seed_);
+		long millis_ = (System.nanoTime() - start_) / 1000000L;
+		System.out.println("Scenario: " + scenario_);
+		System.out.println(summary_);
+		System.out.println("Elapsed: " + millis_ + " ms on " + numThreads_ + " threads");
+		if (metrics_ != null) {
+			try {
+				metrics_.writeJson(new File(metricsFile_ + ".json"));
+				metrics_.writePrometheus(new File(metricsFile_ + ".prom"));
+			} catch (IOException e_) {
+				System.err.println("Cannot write the metrics: " + e_);
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * A cache of simulation results on the local disk, so that a sweep
+ * that is run again only computes the points it has not seen.
+ * <P>
+ * The cache is content-addressed: the key of a result is the SHA-256
+ * hash of a canonical description of everything that determines it
+ * (see {@link #key(Scenario, long, int)}).  A result is a set of
+ * summary metrics, stored as <code>&lt;key&gt;.properties</code>, and
+ * optionally a trace file (e.g., a capture), stored next to it as
+ * <code>&lt;key&gt;.trace</code>.  Files are written under a temporary
+ * name and then renamed, so a reader never sees half a result, even
+ * if several sweeps share the directory.
+ * <P>
+ * The total size of the cache is bounded: when a new result makes it
+ * too large, the results used least recently are evicted until it
+ * fits again.  The time of last use is the modification time of the
+ * metrics file, which {@link #get(String)} updates.
+ */
+public class ResultCache {
+	private static final String METRICS = ".properties";
+	private static final String TRACE = ".trace";
+
+	/** Bumped whenever the simulator changes in a way that changes results. */
+	private static final String VERSION = "2";
+
+	private final File directory;
+
+	/** Largest total size of the cached files, in bytes. */
+	private final long maxBytes;
+
+	/**
+	 * Constructor.  Creates the directory if needed.
+	 *
+	 * @param directory_ The directory of the cache.
+	 * @param maxBytes_ The largest total size of the cached files, in bytes.
+	 * @throws IOException If the directory cannot be created.
+	 */
+	public ResultCache(File directory_, long maxBytes_) throws IOException {
+		if (!directory_.isDirectory() && !directory_.mkdirs()) {
+			throw new IOException("Cannot create the cache directory " + directory_);
+		}
+		directory = directory_;
+		maxBytes = maxBytes_;
+	}
+
+	/**
+	 * Computes the key of the results of a scenario.
+	 *
+	 * @param scenario_ The scenario.
+	 * @param seed_ The seed of the random numbers.
+	 * @param replications_ The number of replications.
+	 * @return Returns the key, as 64 hexadecimal digits.
+	 */
+	public static String key(Scenario scenario_, long seed_, int replications_) {
+		String canonical_ = "version=" + VERSION + ";" + scenario_.canonicalForm()
+			+ ";seed=" + seed_ + ";replications=" + replications_;
+		try {
+			byte[] hash_ = MessageDigest.getInstance("SHA-256")
+				.digest(canonical_.getBytes(Charset.forName("UTF-8")));
+			StringBuffer hex_ = new StringBuffer();
+			for (int i_ = 0; i_ < hash_.length; i_++) {
+				hex_.append(Character.forDigit((hash_[i_] >> 4) & 0xF, 16));
+				hex_.append(Character.forDigit(hash_[i_] & 0xF, 16));
+			}
+			return hex_.toString();
+		} catch (NoSuchAlgorithmException e_) {
+			throw new IllegalStateException("SHA-256 is not available", e_);
+		}
+	}
+
+	/**
+	 * Looks up the metrics of a result, and marks it as used.
+	 *
+	 * @param key_ The key of the result.
+	 * @return Returns the metrics, or <code>null</code> if the result is not cached.
+	 */
+	public Properties get(String key_) {
+		File file_ = new File(directory, key_ + METRICS);
+		Properties metrics_ = new Properties();
+		try {
+			InputStream in_ = new FileInputStream(file_);
+			try {
+				metrics_.load(in_);
+			} finally {
+				in_.close();
+			}
+		} catch (IOException e_) {
+			return null;		// not cached, or evicted meanwhile
+		}
+		file_.setLastModified(System.currentTimeMillis());
+		return metrics_;
+	}
+
+	/**
+	 * Accessor for the trace file of a result.
+	 *
+	 * @param key_ The key of the result.
+	 * @return Returns the trace file, or <code>null</code> if there is none.
+	 */
+	public File getTrace(String key_) {
+		File file_ = new File(directory, key_ + TRACE);
+		return file_.isFile() ? file_ : null;
+	}
+
+	/**
+	 * Stores a result, and evicts the results used least recently if
+	 * the cache has become too large.
+	 *
+	 * @param key_ The key of the result.
+	 * @param metrics_ The summary metrics.
+	 * @param trace_ A trace file to copy into the cache, or <code>null</code>.
+	 * @throws IOException If the result cannot be written.
+	 */
+	public void put(String key_, Properties metrics_, File trace_) throws IOException {
+		// The trace first, so the metrics never refer to a missing trace.
+		if (trace_ != null) {
+			File temp_ = File.createTempFile("tmp-" + key_, ".tmp", directory);
+			Files.copy(trace_.toPath(), temp_.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			moveInto(temp_, new File(directory, key_ + TRACE));
+		}
+		File temp_ = File.createTempFile("tmp-" + key_, ".tmp", directory);
+		OutputStream out_ = new FileOutputStream(temp_);
+		try {
+			metrics_.store(out_, null);
+		} finally {
+			out_.close();
+		}
+		moveInto(temp_, new File(directory, key_ + METRICS));
+		evict();
+	}
+
+	private static void moveInto(File temp_, File target_) throws IOException {
+		try {
+			Files.move(temp_.toPath(), target_.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e_) {
+			temp_.delete();
+			throw e_;
+		}
+	}
+
+	/** Deletes the results used least recently, until the cache fits. */
+	private void evict() {
+		File[] files_ = directory.listFiles();
+		if (files_ == null) {
+			return;
+		}
+		long total_ = 0;
+		int numResults_ = 0;
+		for (int i_ = 0; i_ < files_.length; i_++) {
+			total_ += files_[i_].length();
+			if (files_[i_].getName().endsWith(METRICS)) {
+				files_[numResults_++] = files_[i_];
+			}
+		}
+		if (total_ <= maxBytes) {
+			return;
+		}
+		File[] results_ = Arrays.copyOf(files_, numResults_);
+		final long[] used_ = new long[numResults_];
+		Integer[] order_ = new Integer[numResults_];
+		for (int i_ = 0; i_ < numResults_; i_++) {
+			// Read once: the times may change while sorting.
+			used_[i_] = results_[i_].lastModified();
+			order_[i_] = Integer.valueOf(i_);
+		}
+		Arrays.sort(order_, new Comparator<Integer>() {
+			public int compare(Integer a_, Integer b_) {
+				return Long.compare(used_[a_.intValue()], used_[b_.intValue()]);
+			}
+		});
+		for (int i_ = 0; i_ < numResults_ && total_ > maxBytes; i_++) {
+			File metrics_ = results_[order_[i_].intValue()];
+			String name_ = metrics_.getName();
+			File trace_ = new File(
+				directory, name_.substring(0, name_.length() - METRICS.length()) + TRACE
+			);
+			total_ -= metrics_.length() + trace_.length();
+			metrics_.delete();
+			trace_.delete();
+		}
+	}
+}
@@ -4,6 +4,10 @@
  * Rutgers University, Department of Electrical and Computer Engineering
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * This class is a simple simulation of a network router.
  * Expressly crafted to "route" TCP packets.  What it does it to
@@ -43,8 +47,25 @@ public class Router {
 	 * will be discarded.
 	 * <P>
 	 * To support a meaningful experimentation, the value of this
-	 * variable is forced to be smaller than {@link int #mismatchRatio}. */
-	private int bufferSize;
+	 * variable is forced to be smaller than {@link int #mismatchRatio}.
+	 * It may be changed while a simulation runs, from another thread. */
+	private volatile int bufferSize;
+
+	/** Number of packets that arrived at this router so far in the
+	 * current round, from all flows and over all links. */
+	private int arrivals = 0;
+
+	/** Number of packets that got through so far in the current round. */
+	private int admitted = 0;
+
+	/** Queueing delays of the packets that get through, if recorded. */
+	protected Histogram queueDelay = null;
+
+	/** Trace of the discarded packets, if recorded. */
+	private TraceStore trace = null;
+
+	/** Background traffic through this router, if any. */
+	private CrossTraffic crossTraffic = null;
 
 	/**
 	 * Constructor silently enforces that this router does introduce
@@ -90,6 +111,45 @@ public class Router {
 		return (bufferSize + 1) * TCPSimulator.MSS;
 	}
 
+	/**
+	 * Accessor for the buffer size of this router.
+	 * 
+	 * @return Returns the buffer size, in packets.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Changes the buffer size of this router, e.g., in the middle of
+	 * a run, from another thread (see {@link SimulationMonitor}).  The
+	 * new size takes effect with the next packet, and is forced to be
+	 * smaller than the mismatch ratio, as in the constructor.
+	 * <P>
+	 * <b>Notice:</b> The utilization that {@link TCPSimulator} reports
+	 * is relative to the capacity at the end of the run.
+	 * 
+	 * @param bufferSize_ The new buffer size, in packets.
+	 */
+	public void setBufferSize(int bufferSize_) {
+		if (bufferSize_ < 0) {
+			throw new IllegalArgumentException("Not a buffer size: " + bufferSize_);
+		}
+		bufferSize = Math.min(bufferSize_, mismatchRatio - 1);
+	}
+
+	/**
+	 * Accessor for the number of packets in the queue.  This router
+	 * empties its queue in every round, so this is the number of
+	 * packets it let through so far in the current round, up to the
+	 * buffer size.
+	 * 
+	 * @return Returns the current queue length, in packets.
+	 */
+	public int getQueueLength() {
+		return Math.min(admitted, bufferSize);
+	}
+
 	/**
 	 * Lets the first {@link int #bufferSize} packets pass
 	 * unaffected and discards the rest up to {@link int #mismatchRatio}.
@@ -105,35 +165,176 @@ public class Router {
 	 * will be passed.  The rest are discarded.
 	 * The discarded packets are marked with <code>null</code> in
 	 * the <code>packets_</code> array.
+	 * <P>
+	 * This is the single-flow case: the given packets are the only
+	 * ones that arrive at this router in the current round.
 	 * 
 	 * @param packets_ The array of packets to be "routed".
+	 * @see #forward(TCPSegment[])
 	 */
 	public void relay(TCPSegment[] packets_) {
-		// Process the first bunch of the packets.
-		// The router can buffer up to "bufferSize" packets,
-		// so all packets in excess of this value but up to
-		// the "mismatchRatio" will be discarded.
-		// In our example, bufferSize=7 so the 8th, 9th, and 10th
-		// packets of the first bunch of 10 (=mismatch_ratio)
-		// will be discarded.
-		for (int i = bufferSize; i < mismatchRatio; i++) {
-			// Mark the discarded packet with "null"
-			packets_[i] = null;
+		beginRound();
+		forward(packets_);
+	}
+
+	/**
+	 * Starts a new transmission round (RTT cycle).  The router's
+	 * queue drains once per round, so the count of packets that
+	 * arrived so far in this round is reset to zero.
+	 */
+	public void beginRound() {
+		arrivals = 0;
+		admitted = 0;
+		if (crossTraffic != null) {
+			int delivered_ = 0;
+			for (int k_ = crossTraffic.nextRound(); k_ > 0; k_--) {
+				if (admit(arrivals++)) {
+					admitted++;
+					delivered_++;
+				}
+			}
+			crossTraffic.delivered(delivered_);
 		}
+	}
 
-		// Arbitrarily decide to let pass the 2nd packet of each
-		// of the subsequent bunches of "mismatchRatio" packets.
-		// The index is "1" because indexes go from 0, 1, 2, ...
-		// and "1" is the 2nd.
-		int idx_let_pass_ = 1;
+	/**
+	 * Lets background traffic share this router with the TCP flows.
+	 * The packets it sends in a round arrive at the start of the
+	 * round, as the load that the segments find in the buffer, and
+	 * are admitted or discarded by the same rule as the segments.
+	 * Random losses on the output link, if any, spare them, and they
+	 * are neither traced nor counted as drops.
+	 * 
+	 * @param crossTraffic_ The traffic, or <code>null</code> for none.
+	 */
+	public void setCrossTraffic(CrossTraffic crossTraffic_) {
+		crossTraffic = crossTraffic_;
+	}
+
+	/**
+	 * Lets this router record the queueing delay of every packet it
+	 * lets through into the histogram <code>queue_delay_slots</code>
+	 * of the given metrics.  The delay is counted in transmission
+	 * slots of the output link: it is the number of packets that
+	 * leave ahead of the packet, in the same round.
+	 * 
+	 * @param metrics_ The metrics.
+	 * @see TCPSimulator#setMetrics(MetricsRegistry)
+	 */
+	public void setMetrics(MetricsRegistry metrics_) {
+		queueDelay = metrics_.histogram("queue_delay_slots");
+	}
+
+	/**
+	 * Lets this router record every packet it discards into the
+	 * given trace.
+	 * 
+	 * @param trace_ The trace, or <code>null</code> for none.
+	 * @see TCPSimulator#setTrace(TraceStore)
+	 */
+	public void setTrace(TraceStore trace_) {
+		trace = trace_;
+	}
+
+	/**
+	 * Reports a packet that this router discards, to the flight
+	 * recorder and to the trace, if any.  Subclasses call it for
+	 * every packet they discard.
+	 * 
+	 * @param packet_ The discarded packet.
+	 * @param cause_ Why it is discarded, one of {@link TraceStore#CAUSES}.
+	 */
+	protected void discarded(TCPSegment packet_, String cause_) {
+		SimulatorEvents.drop(packet_, cause_);
+		if (trace != null) {
+			trace.drop(packet_, cause_);
+		}
+	}
 
-		// Now, process all the remaining bunches, discarding all
-		// the packets but the 2nd of each bunch.
-		for (int i = mismatchRatio; i < packets_.length; i++) {
-			if ((i % mismatchRatio) != idx_let_pass_) {
+	/**
+	 * Relays the packets that arrive at this router in the current
+	 * round, <i>in addition</i> to those that already arrived in the
+	 * same round (possibly belonging to other flows, or coming over
+	 * other links).  This is what lets several flows share one
+	 * bottleneck, and lets one flow traverse a chain of routers.
+	 * <P>
+	 * The dropping rule is the same as in {@link #relay(TCPSegment[])},
+	 * but it is applied to the <i>arrival order</i> of the packets
+	 * within the round, rather than to the array index.  Packets that
+	 * were already discarded upstream (<code>null</code>) never
+	 * arrive here, so they do not occupy a position in the queue.
+	 * The array is modified in place and can be handed on to the
+	 * next hop as it is, without copying.
+	 * 
+	 * @param packets_ The array of packets to be "routed".
+	 */
+	public void forward(TCPSegment[] packets_) {
+		for (int i = 0; i < packets_.length; i++) {
+			if (packets_[i] == null) {
+				continue;
+			}
+			if (!admit(arrivals++)) {
 				// Mark the discarded packet with "null"
+				discarded(packets_[i], "queue");
 				packets_[i] = null;
+			} else {
+				if (queueDelay != null) {
+					queueDelay.record(admitted);
+				}
+				admitted++;
 			}
 		}
 	}
+
+	/**
+	 * Decides whether the packet that arrived as the given one
+	 * in the current round gets through.
+	 * <P>
+	 * The router can buffer up to "bufferSize" packets, so all
+	 * packets in excess of this value but up to the "mismatchRatio"
+	 * will be discarded.  In our example, bufferSize=7 so the 8th,
+	 * 9th, and 10th packets of the first bunch of 10 (=mismatch_ratio)
+	 * will be discarded.  Of all the remaining bunches of
+	 * "mismatchRatio" packets, we arbitrarily decide to let pass
+	 * the 2nd packet of each bunch and discard all the others.
+	 * 
+	 * @param arrival_ The arrival order of the packet in this round, starting with zero.
+	 * @return Returns <code>true</code> if the packet is relayed, <code>false</code> if it is discarded.
+	 */
+	protected boolean admit(int arrival_) {
+		if (arrival_ < bufferSize) {
+			return true;
+		}
+		if (arrival_ < mismatchRatio) {
+			return false;
+		}
+		// The index is "1" because indexes go from 0, 1, 2, ...
+		// and "1" is the 2nd.
+		int idx_let_pass_ = 1;
+		return (arrival_ % mismatchRatio) == idx_let_pass_;
+	}
+
+	/**
+	 * Writes the state of this router into a checkpoint.  The
+	 * parameters given to the constructor are not part of it; the
+	 * router to restore must be created with the same ones.
+	 * Subclasses with more state must extend this method and
+	 * {@link #restoreState(DataInput)} alike.
+	 * 
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		out_.writeInt(arrivals);
+	}
+
+	/**
+	 * Restores the state written by {@link #saveState(DataOutput)}.
+	 * 
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		arrivals = in_.readInt();
+	}
 }
@@ -0,0 +1,46 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+/**
+ * The live state of a {@link Router}, for JConsole and other JMX
+ * clients, with the parameters that can be changed in the middle of
+ * a run.
+ *
+ * @see SimulationMonitor
+ */
+public interface RouterMXBean {
+	/** @return Returns the class of the router, e.g., <code>TraceRouter</code>. */
+	String getType();
+
+	/** @return Returns the current queue length, in packets. */
+	int getQueueLength();
+
+	/** @return Returns the buffer size, in packets. */
+	int getBufferSize();
+
+	/**
+	 * @param bufferSize_ The new buffer size, in packets.
+	 * @see Router#setBufferSize(int)
+	 */
+	void setBufferSize(int bufferSize_);
+
+	/** @return Returns the bottleneck capacity, in bytes per round. */
+	int getBottleneckCapacity();
+
+	/** @return Returns the probability of a random loss; zero if this router has no random losses. */
+	double getLossProbability();
+
+	/** @return Returns <code>true</code> if this router has random losses, so that their probability can be changed. */
+	boolean isLossProbabilityAdjustable();
+
+	/**
+	 * Changes the probability of a random loss, if this router has
+	 * random losses; other routers are left as they are.
+	 *
+	 * @param lossProbability_ The new probability of a random loss.
+	 * @return Returns <code>false</code> if this router has no random losses.
+	 * @see RandomLossRouter#setLossProbability(double)
+	 */
+	boolean changeLossProbability(double lossProbability_);
+}
@@ -0,0 +1,96 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.util.SplittableRandom;
+
+/**
+ * The parameters of one simulated configuration: which sender, the
+ * router's queue, the random loss on its output link, and the number
+ * of rounds.  A scenario creates fresh network elements for every
+ * run, so runs of the same scenario share nothing.
+ */
+public class Scenario {
+	/** The sender: <code>reno</code> or <code>tahoe</code>. */
+	public final String sender;
+
+	public final int mismatchRatio;
+	public final int bufferSize;
+
+	/** Probability that a packet is lost at random after the queue. */
+	public final double lossRate;
+
+	/** Number of rounds (iterations) of a run. */
+	public final int iterations;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sender_ The sender: <code>reno</code> or <code>tahoe</code>.
+	 * @param mismatchRatio_ The given mismatch ratio between the transmission speeds on the input and output links.
+	 * @param bufferSize_ The given buffer size for the router's queue.
+	 * @param lossRate_ The probability that a packet is lost at random after the queue.
+	 * @param iterations_ The number of rounds of a run.
+	 */
+	public Scenario(String sender_, int mismatchRatio_, int bufferSize_,
+			double lossRate_, int iterations_) {
+		if (!sender_.equalsIgnoreCase("reno") && !sender_.equalsIgnoreCase("tahoe")) {
+			throw new IllegalArgumentException("Unknown sender: " + sender_);
+		}
+		sender = sender_.toLowerCase();
+		mismatchRatio = mismatchRatio_;
+		bufferSize = bufferSize_;
+		lossRate = lossRate_;
+		iterations = iterations_;
+	}
+
+	/**
+	 * Creates a new sender of this scenario.
+	 *
+	 * @return Returns a sender in its initial state.
+	 */
+	public TCPSender newSender() {
+		return sender.equals("tahoe") ? new TCPSenderTahoe() : new TCPSenderReno();
+	}
+
+	/**
+	 * Creates a new router of this scenario.
+	 *
+	 * @param random_ The stream of random numbers for the router's losses.
+	 * @return Returns a router in its initial state.
+	 */
+	public Router newRouter(SplittableRandom random_) {
+		if (lossRate > 0.0) {
+			return new RandomLossRouter(mismatchRatio, bufferSize, lossRate, random_);
+		}
+		return new Router(mismatchRatio, bufferSize);
+	}
+
+	/**
+	 * A canonical description of this scenario: the classes of the
+	 * sender and the router, the router's parameters, the loss model
+	 * and the number of rounds.  Scenarios that would give the same
+	 * results have the same canonical form.
+	 *
+	 * @return Returns the canonical form, as <code>name=value</code> pairs separated by semicolons.
+	 * @see ResultCache#key(Scenario, long, int)
+	 */
+	public String canonicalForm() {
+		return "sender=" + newSender().getClass().getName()
+			+ ";router=" + newRouter(new SplittableRandom(0L)).getClass().getName()
+			+ ";mismatch=" + mismatchRatio
+			// The buffer size as the router adjusts it.
+			+ ";buffer=" + (new Router(mismatchRatio, bufferSize).getBottleneckCapacity()
+				/ TCPSimulator.MSS - 1)
+			+ ";loss=" + ((lossRate > 0.0) ? "bernoulli(" + lossRate + ")" : "none")
+			+ ";iterations=" + iterations;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return sender + ", mismatch " + mismatchRatio + ", buffer " + bufferSize
+			+ ", loss " + lossRate + ", " + iterations + " rounds";
+	}
+}
@@ -0,0 +1,1993 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.awt.GraphicsEnvironment;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.jfree.data.xy.XYSeries;
+
+/**
+ * Checks that the parts of the simulator that must agree with each
+ * other do: that a resumed run ends in the same state as a run that
+ * was never stopped, and so on.  Each check prints one line; if any
+ * failed, the program exits with status one, so it can be run after
+ * every change:
+ * <pre>
+ * java SelfCheck
+ * </pre>
+ * The files the checks write go into a temporary directory, which is
+ * removed at the end.
+ */
+public class SelfCheck {
+	/** The directory of the files written by the checks. */
+	private final File dir;
+
+	/** The number of checks that failed so far. */
+	private int failures = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dir_ The directory to write files into.
+	 */
+	public SelfCheck(File dir_) {
+		dir = dir_;
+	}
+
+	/** Reports the outcome of one check. */
+	private void check(String name_, boolean passed_) {
+		System.out.println((passed_ ? "ok     " : "FAILED ") + name_);
+		if (!passed_) {
+			failures++;
+		}
+	}
+
+	/** The name of a file in the directory of the checks. */
+	private String file(String name_) {
+		return new File(dir, name_).getPath();
+	}
+
+	/**
+	 * Creates the simulators of a checkpoint check, all alike except
+	 * for the given random stream.  The simulator that resumes may
+	 * leave the settings that are in the checkpoint at their defaults.
+	 */
+	private static abstract class Setup {
+		abstract TCPSimulator create(SplittableRandom random_, boolean resuming_);
+
+		/** Sets up what a simulator may be given after resuming. */
+		void resumed(TCPSimulator simulator_) {
+		}
+	}
+
+	/**
+	 * Runs a simulator for all the rounds, and another one to the
+	 * given round, where it is checkpointed and resumed by a third
+	 * one; the two runs must end with the same result and the same
+	 * checkpoint.  The resumed simulator gets a different random
+	 * stream, so that all the randomness must come from the checkpoint.
+	 */
+	private void resume(String name_, Setup setup_, int round_, int numIter_) throws IOException {
+		String full_ = file(name_ + ".full"), half_ = file(name_ + ".half"),
+			resumed_ = file(name_ + ".resumed");
+
+		TCPSimulator whole_ = setup_.create(new SplittableRandom(1L), false);
+		whole_.setCheckpoint(full_, numIter_);
+		float expected_ = whole_.run(numIter_);
+
+		TCPSimulator first_ = setup_.create(new SplittableRandom(1L), false);
+		first_.setCheckpoint(half_, round_);
+		first_.run(round_);
+		TCPSimulator second_ = setup_.create(new SplittableRandom(2L), true);
+		second_.resume(half_);
+		setup_.resumed(second_);
+		second_.setCheckpoint(resumed_, numIter_);
+		float actual_ = second_.run(numIter_);
+
+		check("resume " + name_ + " at round " + round_ + ": same utilization",
+			expected_ == actual_);
+		check("resume " + name_ + " at round " + round_ + ": same checkpoint",
+			Arrays.equals(Files.readAllBytes(new File(full_).toPath()),
+				Files.readAllBytes(new File(resumed_).toPath())));
+	}
+
+	/** Checks checkpoints and resuming. */
+	private void checkpoints() throws IOException {
+		resume("reno", new Setup() {
+			TCPSimulator create(SplittableRandom random_, boolean resuming_) {
+				return new TCPSimulator(new TCPSenderReno(), new Router(10, 7));
+			}
+		}, 1500, 3000);
+		resume("tahoe", new Setup() {
+			TCPSimulator create(SplittableRandom random_, boolean resuming_) {
+				return new TCPSimulator(new TCPSenderTahoe(), new Router(10, 7));
+			}
+		}, 1500, 3000);
+		resume("random-loss", new Setup() {
+			TCPSimulator create(SplittableRandom random_, boolean resuming_) {
+				return new TCPSimulator(new TCPSenderReno(),
+					new RandomLossRouter(10, 7, 0.02, random_));
+			}
+		}, 1234, 3000);
+		// The checkpoint must bring the window and the handshake, also
+		// right after the round of the handshake.
+		Setup iw10_ = new Setup() {
+			TCPSimulator create(SplittableRandom random_, boolean resuming_) {
+				TCPSender sender_ = new TCPSenderReno();
+				if (!resuming_) {
+					sender_.setInitialWindow(TCPSender.IW10);
+					sender_.setHandshake(true);
+				}
+				return new TCPSimulator(sender_, new RandomLossRouter(10, 7, 0.02, random_));
+			}
+		};
+		resume("iw10-handshake", iw10_, 1, 500);
+		resume("iw10-handshake", iw10_, 250, 500);
+
+		String missing_ = file("missing.ckpt");
+		boolean rejected_ = false;
+		try {
+			new TCPSimulator(10, 7).resume(missing_);
+		} catch (IOException e_) {
+			rejected_ = true;
+		}
+		check("resume from a missing checkpoint fails", rejected_);
+	}
+
+	/** A file that a run writes, and that a resumed run must continue. */
+	private static abstract class Output {
+		/**
+		 * Opens the file for a simulator.
+		 *
+		 * @param simulator_ The simulator, not yet run or resumed.
+		 * @param file_ The name of the file.
+		 * @param resume_ Whether the simulator is going to resume.
+		 */
+		abstract void open(TCPSimulator simulator_, String file_, boolean resume_) throws IOException;
+
+		/** Ends the file after the run. */
+		abstract void close() throws IOException;
+	}
+
+	/**
+	 * Runs a simulator with an output through, and another one that is
+	 * checkpointed and runs on for a while, as if it had been stopped
+	 * later; a third one resumes from the checkpoint, and must leave
+	 * the same file as the first.  Resuming from a checkpoint of a run
+	 * without the output fails if the output is required, and starts
+	 * a new file otherwise.
+	 */
+	private void continued(String name_, Output output_, int round_, int numIter_,
+			boolean required_) throws IOException {
+		String full_ = file(name_ + ".full"), continued_ = file(name_ + ".continued"),
+			checkpoint_ = file(name_ + ".ckpt"), saved_ = file(name_ + ".saved");
+
+		TCPSimulator whole_ = lossyRun(new TCPSenderReno(), new SplittableRandom(9L));
+		output_.open(whole_, full_, false);
+		whole_.run(numIter_);
+		output_.close();
+
+		TCPSimulator first_ = lossyRun(new TCPSenderReno(), new SplittableRandom(9L));
+		output_.open(first_, continued_, false);
+		// Checkpointed at round_ only, and stopped later.
+		first_.setCheckpoint(checkpoint_, round_);
+		first_.run(round_ + 300);
+		Files.copy(new File(checkpoint_).toPath(), new File(saved_).toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+		TCPSimulator second_ = lossyRun(new TCPSenderReno(), new SplittableRandom(9L));
+		output_.open(second_, continued_, true);
+		second_.resume(saved_);
+		second_.run(numIter_);
+		output_.close();
+
+		check("resume " + name_ + " at round " + round_ + ": the file continues",
+			Arrays.equals(Files.readAllBytes(new File(full_).toPath()),
+				Files.readAllBytes(new File(continued_).toPath())));
+
+		// Nothing to continue in a checkpoint of a run without the file.
+		TCPSimulator plain_ = lossyRun(new TCPSenderReno(), new SplittableRandom(9L));
+		plain_.setCheckpoint(checkpoint_, round_);
+		plain_.run(round_);
+		TCPSimulator other_ = lossyRun(new TCPSenderReno(), new SplittableRandom(9L));
+		output_.open(other_, file(name_ + ".other"), true);
+		boolean rejected_ = false;
+		try {
+			other_.resume(checkpoint_);
+		} catch (IOException e_) {
+			rejected_ = true;
+		}
+		if (required_)
+			check("resume " + name_ + " without it in the checkpoint fails", rejected_);
+		else
+			check("resume " + name_ + " without it in the checkpoint starts anew", !rejected_);
+	}
+
+	/** Checks that resumed runs continue their output files. */
+	private void outputsResume() throws IOException {
+		continued("trace", new Output() {
+			TraceStore trace_;
+
+			void open(TCPSimulator simulator_, String file_, boolean resume_) throws IOException {
+				trace_ = new TraceStore(file_, resume_);
+				simulator_.setTrace(trace_);
+			}
+
+			void close() throws IOException {
+				trace_.close();
+			}
+		}, 1000, 2500, true);
+		continued("cwnd", new Output() {
+			CwndTrace cwndTrace_;
+			String file_;
+
+			void open(TCPSimulator simulator_, String file_, boolean resume_) {
+				cwndTrace_ = new CwndTrace(simulator_.getFirstRound());
+				simulator_.setCwndTrace(cwndTrace_);
+				this.file_ = file_;
+			}
+
+			void close() throws IOException {
+				cwndTrace_.save(file_);
+			}
+		}, 1000, 2500, true);
+		continued("log", new Output() {
+			DecisionLog log_;
+
+			void open(TCPSimulator simulator_, String file_, boolean resume_) throws IOException {
+				log_ = new DecisionLog(file_, resume_);
+				simulator_.setDecisionLog(log_);
+			}
+
+			void close() throws IOException {
+				log_.close();
+			}
+		}, 1000, 2500, false);
+		continued("pcap", new Output() {
+			PcapWriter pcap_;
+
+			void open(TCPSimulator simulator_, String file_, boolean resume_) throws IOException {
+				pcap_ = new PcapWriter(file_, 100000L, resume_);
+				simulator_.setPcapWriter(pcap_);
+			}
+
+			void close() throws IOException {
+				pcap_.close();
+			}
+		}, 1000, 2500, false);
+		// The checkpoint of the run without a capture, over an old file.
+		String other_ = file("pcap.other");
+		Files.copy(new File(file("pcap.full")).toPath(), new File(other_).toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+		TCPSimulator resumed_ = lossyRun(new TCPSenderReno(), new SplittableRandom(9L));
+		PcapWriter pcap_ = new PcapWriter(other_, 100000L, true);
+		resumed_.setPcapWriter(pcap_);
+		resumed_.resume(file("pcap.ckpt"));
+		resumed_.run(1100);
+		pcap_.close();
+		long[] counts_ = readPcap(other_);
+		check("resume pcap: a new capture starts with its header",
+			counts_ != null && counts_[0] > 0 && counts_[2] <= 100 * TCPSimulator.MAX_WIN);
+	}
+
+	/** Checks the header and the records of a capture. */
+	private void pcap() throws IOException {
+		String file_ = file("run.pcap");
+		TCPSimulator simulator_ = new TCPSimulator(new TCPSenderReno(), new Router(10, 7));
+		simulator_.setReportingLevel(0);
+		PcapWriter pcap_ = new PcapWriter(file_, 100000L);
+		simulator_.setPcapWriter(pcap_);
+		simulator_.run(500);
+		pcap_.close();
+		long[] counts_ = readPcap(file_);
+		check("pcap: the header and the records are well formed", counts_ != null);
+		check("pcap: a record per segment, and the drops marked",
+			counts_ != null && counts_[0] > 0 && counts_[1] > 0 && counts_[2] > 0
+			&& counts_[1] / (double) counts_[0] == simulator_.getLossRate());
+	}
+
+	/**
+	 * Reads a capture of raw IPv4 packets, checking its header, the
+	 * lengths and the order of the records, and the IP checksums.
+	 *
+	 * @return Returns the number of data segments, of those marked as dropped, and of ACKs; or <code>null</code> if the file is malformed.
+	 */
+	private static long[] readPcap(String file_) throws IOException {
+		ByteBuffer in_ = ByteBuffer.wrap(Files.readAllBytes(new File(file_).toPath()))
+			.order(ByteOrder.LITTLE_ENDIAN);
+		if (in_.remaining() < 24 || in_.getInt(0) != 0xa1b2c3d4 || in_.getShort(4) != 2
+				|| in_.getShort(6) != 4 || in_.getInt(20) != 101) {
+			return null;
+		}
+		long[] counts_ = new long[3];
+		long last_ = 0;
+		for (int at_ = 24; at_ < in_.limit(); at_ += 16 + 40) {
+			if (at_ + 16 + 40 > in_.limit() || in_.getInt(at_ + 8) != 40) {
+				return null;
+			}
+			long time_ = in_.getInt(at_) * 1000000L + in_.getInt(at_ + 4);
+			int ip_ = at_ + 16;
+			long sum_ = 0;
+			for (int i_ = 0; i_ < 20; i_ += 2) {
+				sum_ += ((in_.get(ip_ + i_) & 0xFF) << 8) | (in_.get(ip_ + i_ + 1) & 0xFF);
+			}
+			while ((sum_ >>> 16) != 0) {
+				sum_ = (sum_ & 0xFFFF) + (sum_ >>> 16);
+			}
+			if (time_ < last_ || sum_ != 0xFFFF) {
+				return null;
+			}
+			last_ = time_;
+			boolean data_ = in_.get(ip_ + 15) == 1;		// from 10.0.0.1
+			if (data_) {
+				counts_[0]++;
+				if ((in_.get(ip_ + 1) & 0xFF) >> 2 == PcapWriter.DSCP_DROPPED) {
+					counts_[1]++;
+				}
+			} else {
+				counts_[2]++;
+			}
+		}
+		return counts_;
+	}
+
+	/** A sender and a router with random losses and background traffic. */
+	private static TCPSimulator lossyRun(TCPSender sender_, SplittableRandom random_) {
+		Router router_ = new RandomLossRouter(10, 7, 0.01, random_);
+		TCPSimulator simulator_ = new TCPSimulator(sender_, router_);
+		CrossTraffic crossTraffic_ = new CrossTraffic(random_.split());
+		crossTraffic_.addPoisson(2.0);
+		simulator_.setCrossTraffic(crossTraffic_);
+		return simulator_;
+	}
+
+	/** Whether two runs ended alike. */
+	private static boolean sameRun(TCPSimulator a_, float aUtilization_,
+			TCPSimulator b_, float bUtilization_) {
+		return aUtilization_ == bUtilization_ && a_.getLossRate() == b_.getLossRate()
+			&& a_.getMeanRtt() == b_.getMeanRtt();
+	}
+
+	/** Background traffic of all kinds, the same in every simulator. */
+	private static CrossTraffic crossTraffic() {
+		CrossTraffic crossTraffic_ = new CrossTraffic(new SplittableRandom(8L));
+		crossTraffic_.addConstant(0.5);
+		crossTraffic_.addPoisson(1.0);
+		crossTraffic_.addOnOff(3.0, 20.0, 60.0);
+		return crossTraffic_;
+	}
+
+	/**
+	 * Checks that runs with background traffic are resumed exactly,
+	 * whether the traffic is set before or after resuming, through a
+	 * router and through a capacity trace.
+	 */
+	private void crossTrafficResume() throws IOException {
+		resume("cross-traffic", new Setup() {
+			TCPSimulator create(SplittableRandom random_, boolean resuming_) {
+				TCPSimulator simulator_ = new TCPSimulator(new TCPSenderReno(),
+					new RandomLossRouter(10, 7, 0.005, random_));
+				simulator_.setCrossTraffic(crossTraffic());
+				return simulator_;
+			}
+		}, 1111, 3000);
+		resume("cross-traffic-after", new Setup() {
+			TCPSimulator create(SplittableRandom random_, boolean resuming_) {
+				TCPSimulator simulator_ = new TCPSimulator(new TCPSenderReno(), new Router(10, 7));
+				if (!resuming_) {
+					simulator_.setCrossTraffic(crossTraffic());
+				}
+				return simulator_;
+			}
+
+			void resumed(TCPSimulator simulator_) {
+				simulator_.setCrossTraffic(crossTraffic());
+			}
+		}, 1111, 3000);
+
+		// A link of one or two packets per millisecond, with pauses.
+		final String link_ = file("link.trace");
+		PrintStream out_ = new PrintStream(link_);
+		for (int ms_ = 1; ms_ <= 1000; ms_++) {
+			for (int p_ = (ms_ % 50 < 10) ? 0 : 1 + ms_ % 2; p_ > 0; p_--) {
+				out_.println(ms_);
+			}
+		}
+		out_.close();
+		resume("capacity-trace", new Setup() {
+			TCPSimulator create(SplittableRandom random_, boolean resuming_) {
+				try {
+					TCPSimulator simulator_ = new TCPSimulator(new TCPSenderReno(),
+						new CapacityTraceRouter(7, new CapacityTrace(link_), 20000L));
+					simulator_.setCrossTraffic(crossTraffic());
+					return simulator_;
+				} catch (IOException e_) {
+					throw new IllegalStateException(e_);
+				}
+			}
+		}, 777, 2000);
+	}
+
+	/**
+	 * Checks that a replay of a decision log repeats the recorded run,
+	 * also from a checkpoint, and that it notices when it diverges.
+	 */
+	private void replay() throws IOException {
+		int numIter_ = 3000;
+		String log_ = file("replay.log"), half_ = file("replay.ckpt");
+		TCPSimulator recorded_ = lossyRun(new TCPSenderReno(), new SplittableRandom(5L));
+		DecisionLog decisionLog_ = new DecisionLog(log_);
+		recorded_.setDecisionLog(decisionLog_);
+		recorded_.setCheckpoint(half_, numIter_ / 2);
+		float expected_ = recorded_.run(numIter_);
+		decisionLog_.close();
+
+		TCPSimulator replayed_ = new TCPSimulator(new TCPSenderReno(), new ReplayRouter(log_));
+		float actual_ = replayed_.run(numIter_);
+		check("replay: same run", sameRun(recorded_, expected_, replayed_, actual_));
+
+		// The checkpoint was overwritten at the end; take it again.
+		TCPSimulator first_ = lossyRun(new TCPSenderReno(), new SplittableRandom(5L));
+		first_.setCheckpoint(half_, numIter_ / 2);
+		first_.run(numIter_ / 2);
+		TCPSimulator resumed_ = new TCPSimulator(new TCPSenderReno(), new ReplayRouter(log_));
+		resumed_.resume(half_);
+		actual_ = resumed_.run(numIter_);
+		check("replay: same run from a checkpoint",
+			sameRun(recorded_, expected_, resumed_, actual_));
+
+		// A log of a resumed run starts with the round after the checkpoint.
+		String late_ = file("late.log");
+		TCPSimulator lateRecorded_ = lossyRun(new TCPSenderReno(), new SplittableRandom(5L));
+		decisionLog_ = new DecisionLog(late_);
+		lateRecorded_.setDecisionLog(decisionLog_);
+		lateRecorded_.resume(half_);
+		lateRecorded_.run(numIter_);
+		decisionLog_.close();
+		ReplayRouter lateRouter_ = new ReplayRouter(late_);
+		check("replay: a log of a resumed run starts with its first round",
+			lateRouter_.getFirstRound() == numIter_ / 2 + 1);
+		String why_ = "";
+		try {
+			new TCPSimulator(new TCPSenderReno(), lateRouter_).run(numIter_);
+		} catch (IllegalStateException e_) {
+			why_ = e_.getMessage();
+		} finally {
+			lateRouter_.close();
+		}
+		check("replay: a log of a resumed run is rejected from the start",
+			why_.contains("starts with round " + (numIter_ / 2 + 1)));
+		TCPSimulator lateResumed_ = new TCPSimulator(new TCPSenderReno(), new ReplayRouter(late_));
+		lateResumed_.resume(half_);
+		actual_ = lateResumed_.run(numIter_);
+		check("replay: a log of a resumed run from the checkpoint",
+			sameRun(recorded_, expected_, lateResumed_, actual_));
+
+		TCPSimulator other_ = new TCPSimulator(new TCPSenderTahoe(), new ReplayRouter(log_));
+		check("replay: another sender diverges", diverges(other_, numIter_));
+
+		// As many packets as recorded, but not the same ones.
+		String round_ = file("round.log");
+		TCPSegment[] sent_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		TCPSegment[] relayed_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		for (int i_ = 0; i_ < 3; i_++) {
+			sent_[i_] = relayed_[i_] = new TCPSegment(i_ * TCPSimulator.MSS, TCPSimulator.MSS, false);
+		}
+		relayed_[1] = null;
+		decisionLog_ = new DecisionLog(round_);
+		decisionLog_.record(1, sent_, relayed_, 10 * TCPSimulator.MSS);
+		decisionLog_.close();
+		TCPSegment[] arrived_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		for (int i_ = 0; i_ < 3; i_++) {
+			arrived_[i_] = new TCPSegment((i_ + 5) * TCPSimulator.MSS, TCPSimulator.MSS, false);
+		}
+		ReplayRouter router_ = new ReplayRouter(round_);
+		boolean noticed_ = false;
+		try {
+			router_.forward(arrived_);
+		} catch (IllegalStateException e_) {
+			noticed_ = true;
+		} finally {
+			router_.close();
+		}
+		check("replay: other packets diverge", noticed_);
+	}
+
+	/** Whether a replaying simulator finds that it diverged. */
+	private static boolean diverges(TCPSimulator simulator_, int numIter_) {
+		try {
+			simulator_.run(numIter_);
+		} catch (IllegalStateException e_) {
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks that the buckets of a histogram cover all the values
+	 * without gaps or overlaps, and are as narrow as promised, and
+	 * that its quantiles are close to the exact ones.
+	 */
+	private void histogram() {
+		Histogram histogram_ = new Histogram();
+		int numBuckets_ = histogram_.getNumBuckets();
+		boolean edges_ = Histogram.bucketOf(0) == 0 && Histogram.upperBound(0) == 0
+			&& Histogram.upperBound(numBuckets_ - 1) == Long.MAX_VALUE
+			&& Histogram.bucketOf(Long.MAX_VALUE) == numBuckets_ - 1;
+		boolean narrow_ = true;
+		for (int b_ = 1; b_ < numBuckets_; b_++) {
+			long lower_ = Histogram.upperBound(b_ - 1) + 1;
+			long upper_ = Histogram.upperBound(b_);
+			edges_ &= upper_ >= lower_ && Histogram.bucketOf(lower_) == b_
+				&& Histogram.bucketOf(upper_) == b_;
+			narrow_ &= (upper_ - lower_ + 1) * Histogram.SUB_BUCKETS <= Math.max(lower_, Histogram.SUB_BUCKETS);
+		}
+		check("histogram: buckets follow one another", edges_);
+		check("histogram: buckets within 1/" + Histogram.SUB_BUCKETS + " of their values", narrow_);
+
+		SplittableRandom random_ = new SplittableRandom(6L);
+		boolean bounds_ = true;
+		for (int n_ = 0; n_ < 100000; n_++) {
+			long value_ = random_.nextLong(Long.MAX_VALUE) >>> random_.nextInt(63);
+			int bucket_ = Histogram.bucketOf(value_);
+			bounds_ &= value_ <= Histogram.upperBound(bucket_)
+				&& (bucket_ == 0 || value_ > Histogram.upperBound(bucket_ - 1));
+		}
+		check("histogram: values within their bucket", bounds_);
+
+		for (int v_ = 1; v_ <= 10000; v_++) {
+			histogram_.record(v_);
+		}
+		histogram_.record(-5);
+		boolean quantiles_ = histogram_.getCount() == 10001 && histogram_.getMin() == 0
+			&& histogram_.getMax() == 10000 && histogram_.getQuantile(1.0) == 10000;
+		double[] fractions_ = { 0.01, 0.5, 0.9, 0.99, 0.999 };
+		for (int f_ = 0; f_ < fractions_.length; f_++) {
+			long exact_ = (long) Math.ceil(fractions_[f_] * 10001) - 1;
+			long estimate_ = histogram_.getQuantile(fractions_[f_]);
+			quantiles_ &= estimate_ >= exact_
+				&& estimate_ <= exact_ + exact_ / Histogram.SUB_BUCKETS;
+		}
+		check("histogram: quantiles", quantiles_);
+	}
+
+	/**
+	 * Checks that the index of a trace finds the events of any window
+	 * of rounds, and of any type, over many blocks, also when it is
+	 * rebuilt for a trace that was cut short, and that the episodes
+	 * are found from the postings alone.
+	 */
+	private void traceIndex() throws IOException {
+		String full_ = file("events.trace"), cut_ = file("cut.trace"),
+			erased_ = file("erased.trace");
+		int numRounds_ = 20000;
+		// The round and the type of every record, as written.
+		int[] rounds_ = new int[2 * numRounds_];
+		int[] types_ = new int[2 * numRounds_];
+		int numRecords_ = 0;
+		TraceStore trace_ = new TraceStore(full_);
+		for (int r_ = 1; r_ <= numRounds_; r_++) {
+			trace_.setRound(r_);
+			int type_ = (r_ % 10 == 0) ? TraceStore.DROP
+				: (r_ >= 5001 && r_ <= 5004) || r_ == 15001 || r_ == 15003 ? TraceStore.TIMEOUT
+				: -1;
+			if (type_ >= 0) {
+				trace_.record(type_, r_, 0);
+				rounds_[numRecords_] = r_;
+				types_[numRecords_++] = type_;
+			}
+			trace_.record(TraceStore.ROUND, r_ % 50, 7);
+			rounds_[numRecords_] = r_;
+			types_[numRecords_++] = TraceStore.ROUND;
+		}
+		trace_.close();
+		byte[] bytes_ = Files.readAllBytes(new File(full_).toPath());
+		Files.write(new File(cut_).toPath(),
+			Arrays.copyOf(bytes_, 8 + numRecords_ * TraceStore.RECORD_BYTES));
+		Arrays.fill(bytes_, 8, 8 + numRecords_ * TraceStore.RECORD_BYTES, (byte) 0);
+		Files.write(new File(erased_).toPath(), bytes_);
+		int[][] episodes_ = {
+			{ TraceStore.TIMEOUT, 1 }, { TraceStore.TIMEOUT, 2 }, { TraceStore.DROP, 9 },
+			{ TraceStore.DROP, 10 }, { TraceStore.DUP_ACKS, 1 }, { TraceStore.ROUND, 1 }
+		};
+
+		String[] files_ = { full_, cut_ };
+		for (int f_ = 0; f_ < files_.length; f_++) {
+			String name_ = "trace" + ((f_ == 0) ? "" : " cut short") + ": ";
+			TraceQuery query_ = new TraceQuery(files_[f_]);
+			try {
+				check(name_ + "records", query_.getNumRecords() == numRecords_
+					&& numRecords_ > 4 * TraceStore.BLOCK_RECORDS);
+				int[][] windows_ = {
+					{ 1, numRounds_ }, { 0, 0 }, { 1, 1 }, { 3700, 3800 }, { 3723, 3723 },
+					{ 4000, 12000 }, { numRounds_, numRounds_ + 5 }, { 30000, 40000 }, { 9, 8 }
+				};
+				boolean windowsFound_ = true;
+				SplittableRandom random_ = new SplittableRandom(7L);
+				for (int w_ = 0; w_ < windows_.length + 200; w_++) {
+					int from_, to_;
+					if (w_ < windows_.length) {
+						from_ = windows_[w_][0];
+						to_ = windows_[w_][1];
+					} else {
+						from_ = random_.nextInt(1, numRounds_);
+						to_ = from_ + random_.nextInt(3000);
+					}
+					long expected_ = 0;
+					for (int i_ = 0; i_ < numRecords_; i_++) {
+						if (rounds_[i_] >= from_ && rounds_[i_] <= to_) {
+							expected_++;
+						}
+					}
+					LineCounter lines_ = new LineCounter();
+					windowsFound_ &= query_.window(from_, to_, new PrintStream(lines_)) == expected_
+						&& lines_.lines == expected_;
+				}
+				check(name_ + "windows", windowsFound_);
+				check(name_ + "episodes", sameEpisodes(query_, episodes_, rounds_, types_, numRecords_));
+			} finally {
+				query_.close();
+			}
+		}
+		// The records are zeros, but the postings are still there.
+		TraceQuery query_ = new TraceQuery(erased_);
+		try {
+			check("trace: episodes without the records",
+				sameEpisodes(query_, episodes_, rounds_, types_, numRecords_));
+		} finally {
+			query_.close();
+		}
+	}
+
+	/** Whether a trace gives the episodes of a scan of what was written. */
+	private static boolean sameEpisodes(TraceQuery query_, int[][] episodes_,
+			int[] rounds_, int[] types_, int numRecords_) throws IOException {
+		for (int e_ = 0; e_ < episodes_.length; e_++) {
+			int type_ = episodes_[e_][0], gap_ = episodes_[e_][1];
+			StringBuffer expected_ = new StringBuffer();
+			int count_ = 0;
+			int first_ = 0, last_ = 0, events_ = 0;
+			for (int i_ = 0; i_ <= numRecords_; i_++) {
+				if (i_ < numRecords_ && types_[i_] != type_) {
+					continue;
+				}
+				if (events_ > 0 && (i_ == numRecords_ || rounds_[i_] - last_ > gap_)) {
+					expected_.append(first_ + "\t" + last_ + "\t" + events_ + "\n");
+					count_++;
+					events_ = 0;
+				}
+				if (i_ == numRecords_) {
+					break;
+				}
+				if (events_ == 0) {
+					first_ = rounds_[i_];
+				}
+				last_ = rounds_[i_];
+				events_++;
+			}
+			ByteArrayOutputStream printed_ = new ByteArrayOutputStream();
+			PrintStream out_ = new PrintStream(printed_);
+			if (query_.episodes(type_, gap_, out_) != count_) {
+				return false;
+			}
+			out_.flush();
+			if (!printed_.toString().replace("\r", "").equals(expected_.toString())) {
+				return false;
+			}
+		}
+		try {
+			query_.episodes(TraceStore.DROP, 0, System.out);
+			return false;
+		} catch (IllegalArgumentException e_) {
+			return true;
+		}
+	}
+
+	/** Counts the lines written to it. */
+	private static class LineCounter extends OutputStream {
+		long lines = 0;
+
+		public void write(int b_) {
+			if (b_ == '\n') {
+				lines++;
+			}
+		}
+	}
+
+	/**
+	 * Values for a compressed series that take all the codes of its
+	 * changes: steps like a window, constant and linear runs, small
+	 * noise, and arbitrary values up to the extremes of an int, whose
+	 * differences wrap around.
+	 */
+	private static int[] seriesValues(int count_) {
+		SplittableRandom random_ = new SplittableRandom(3L);
+		int[] values_ = new int[count_];
+		for (int i_ = 0; i_ < count_; i_++) {
+			switch ((i_ / 700) % 5) {
+			case 0:
+				values_[i_] = (i_ % 97) * TCPSimulator.MSS;
+				break;
+			case 1:
+				values_[i_] = 42;
+				break;
+			case 2:
+				values_[i_] = 1000 + 3 * i_ + random_.nextInt(-40, 40);
+				break;
+			case 3:
+				values_[i_] = random_.nextInt(-70000, 70000);
+				break;
+			default:
+				values_[i_] = (i_ % 3 == 0) ? Integer.MIN_VALUE
+					: (i_ % 3 == 1) ? Integer.MAX_VALUE : random_.nextInt();
+			}
+		}
+		return values_;
+	}
+
+	/** Checks that a compressed series gives back what was added to it. */
+	private void compressedSeries() throws IOException {
+		int[] values_ = seriesValues(5 * CompressedSeries.BLOCK_VALUES + 321);
+		CompressedSeries series_ = new CompressedSeries();
+		for (int i_ = 0; i_ < values_.length; i_++) {
+			series_.add(values_[i_]);
+		}
+		check("series: size", series_.size() == values_.length);
+		check("series: all values", sameValues(series_, values_, values_.length));
+
+		boolean blocks_ = series_.getNumBlocks() == 6;
+		int[] block_ = new int[CompressedSeries.BLOCK_VALUES];
+		for (int b_ = 0; b_ < series_.getNumBlocks(); b_++) {
+			int first_ = b_ * CompressedSeries.BLOCK_VALUES;
+			int count_ = series_.decodeBlock(b_, block_);
+			blocks_ &= count_ == Math.min(CompressedSeries.BLOCK_VALUES, values_.length - first_)
+				&& Arrays.equals(Arrays.copyOf(block_, count_),
+					Arrays.copyOfRange(values_, first_, first_ + count_));
+		}
+		check("series: decoded blocks", blocks_);
+
+		SplittableRandom random_ = new SplittableRandom(4L);
+		boolean any_ = true;
+		for (int n_ = 0; n_ < 2000; n_++) {
+			int i_ = random_.nextInt(values_.length);
+			any_ &= series_.get(i_) == values_[i_];
+		}
+		check("series: values in any order", any_);
+
+		boolean outside_ = false;
+		try {
+			series_.get(values_.length);
+		} catch (IndexOutOfBoundsException e_) {
+			outside_ = true;
+		}
+		check("series: no value past the end", outside_);
+
+		// Written with a partial last block, read back, and added to:
+		// the copy must go on like the original.
+		ByteArrayOutputStream bytes_ = new ByteArrayOutputStream();
+		series_.write(new DataOutputStream(bytes_));
+		CompressedSeries copy_ = CompressedSeries.read(
+			new DataInputStream(new ByteArrayInputStream(bytes_.toByteArray()))
+		);
+		check("series: read back", copy_.size() == values_.length
+			&& sameValues(copy_, values_, values_.length));
+		int[] more_ = seriesValues(values_.length + 2000);
+		for (int i_ = values_.length; i_ < more_.length; i_++) {
+			series_.add(more_[i_]);
+			copy_.add(more_[i_]);
+		}
+		check("series: added to after reading", copy_.size() == more_.length
+			&& sameValues(copy_, more_, more_.length)
+			&& copy_.getCompressedBytes() == series_.getCompressedBytes());
+	}
+
+	/** Whether the first values of a series are the given ones. */
+	private static boolean sameValues(CompressedSeries series_, int[] values_, int count_) {
+		for (int i_ = 0; i_ < count_; i_++) {
+			if (series_.get(i_) != values_[i_]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Runs a task while the default reporting level reports
+	 * everything, and returns what it printed.
+	 */
+	private static String printed(Runnable task_) {
+		int outerLevel_ = TCPSimulator.currentReportingLevel;
+		PrintStream out_ = System.out;
+		ByteArrayOutputStream printed_ = new ByteArrayOutputStream();
+		try {
+			TCPSimulator.currentReportingLevel = TCPSimulator.REPORTING_LEVEL_0
+				| TCPSimulator.REPORTING_LEVEL_1 | TCPSimulator.REPORTING_LEVEL_2;
+			System.setOut(new PrintStream(printed_, true));
+			task_.run();
+		} finally {
+			System.setOut(out_);
+			TCPSimulator.currentReportingLevel = outerLevel_;
+		}
+		return printed_.toString();
+	}
+
+	/** Checks the workload of short flows. */
+	private void shortFlows() {
+		final ShortFlowWorkload workload_ = new ShortFlowWorkload(
+			new Router(10, 7),
+			new FlowSizeDistribution(FlowSizeDistribution.WEB_SEARCH, TCPSimulator.MSS),
+			0.01, new SplittableRandom(3L)
+		);
+		workload_.setReportingLevel(0);
+		String printed_ = printed(new Runnable() {
+			public void run() {
+				workload_.run(2000);
+			}
+		});
+		check("short flows: nothing printed at level 0", printed_.isEmpty() && workload_.getNumArrived() > 0);
+
+		long counted_ = 0;
+		int unfinished_ = 0;
+		for (int b_ = 0; b_ < ShortFlowWorkload.BUCKET_LIMITS.length; b_++) {
+			counted_ += workload_.getCompletionTimes(b_).getCount();
+			unfinished_ += workload_.getNumUnfinished(b_);
+		}
+		check("short flows: every flow finished or reported unfinished",
+			unfinished_ == workload_.getNumActive() && unfinished_ > 0
+			&& counted_ + unfinished_ == workload_.getNumArrived());
+	}
+
+	/**
+	 * Checks a topology against the simulator, the delay of its links,
+	 * its bottlenecks, and the paths it takes.
+	 */
+	private void topology() {
+		// One router and one flow: the chain of the simulator.
+		Topology single_ = new Topology();
+		TCPSender sender_ = new TCPSenderReno();
+		single_.addFlow(sender_, new TCPReceiver(), new int[] { single_.addRouter(10, 7) });
+		single_.setReportingLevel(0);
+		quiet(single_, 1000);
+		TCPSender reference_ = new TCPSenderReno();
+		TCPSimulator simulator_ = new TCPSimulator(reference_, new Router(10, 7));
+		simulator_.setReportingLevel(0);
+		simulator_.run(1000);
+		check("topology: one hop transmits as the simulator",
+			sender_.getTotalBytesTransmitted() == reference_.getTotalBytesTransmitted());
+
+		// Links of 2 and 3 rounds: the first ACK takes 2 * 5 + 1 rounds.
+		int delay_ = 5;
+		boolean early_ = false;
+		for (int k_ = 2 * delay_ + 1; k_ <= 2 * delay_ + 2; k_++) {
+			Topology chain_ = new Topology();
+			int[] path_ = chain(chain_, new int[] { 7, 7, 7 });
+			TCPSender delayed_ = new TCPSenderReno();
+			chain_.addFlow(delayed_, new TCPReceiver(), path_);
+			chain_.setReportingLevel(0);
+			quiet(chain_, k_);
+			early_ |= delayed_.getTotalBytesTransmitted()
+				!= ((k_ == 2 * delay_ + 1) ? 0 : TCPSimulator.MSS);
+		}
+		check("topology: a segment is acknowledged after the delay of its path", !early_);
+
+		// No flow gets more than the tightest bottleneck on its path.
+		Topology chain_ = new Topology();
+		int[] path_ = chain(chain_, new int[] { 7, 3, 7 });
+		int[][] paths_ = { path_, { path_[0] }, { path_[1], path_[2] }, { path_[2] } };
+		TCPSender[] senders_ = new TCPSender[paths_.length];
+		for (int f_ = 0; f_ < paths_.length; f_++) {
+			senders_[f_] = new TCPSenderReno();
+			chain_.addFlow(senders_[f_], new TCPReceiver(), paths_[f_]);
+		}
+		chain_.setReportingLevel(0);
+		int rounds_ = 2000;
+		quiet(chain_, rounds_);
+		boolean within_ = true;
+		long[] perRouter_ = new long[path_.length];
+		for (int f_ = 0; f_ < paths_.length; f_++) {
+			long bytes_ = senders_[f_].getTotalBytesTransmitted();
+			for (int k_ = 0; k_ < paths_[f_].length; k_++) {
+				perRouter_[paths_[f_][k_]] += bytes_;
+			}
+		}
+		for (int r_ = 0; r_ < path_.length; r_++) {
+			within_ &= perRouter_[r_] <= (long) rounds_ * chain_.getRouter(r_).getBottleneckCapacity();
+		}
+		check("topology: no router carries more than its capacity",
+			within_ && senders_[1].getTotalBytesTransmitted() > 0);
+
+		boolean unlinked_ = false;
+		try {
+			chain_.addFlow(new TCPSenderReno(), new TCPReceiver(), new int[] { path_[2], path_[0] });
+		} catch (IllegalArgumentException e_) {
+			unlinked_ = true;
+		}
+		boolean twice_ = false;
+		try {
+			chain_.connect(path_[1], path_[0], 1);
+			chain_.addFlow(new TCPSenderReno(), new TCPReceiver(), new int[] { path_[0], path_[1], path_[0] });
+		} catch (IllegalArgumentException e_) {
+			twice_ = true;
+		}
+		check("topology: a path without links, or through a router twice, is rejected",
+			unlinked_ && twice_);
+	}
+
+	/**
+	 * Checks that a topology gives the same flows on 1, 2 and 4
+	 * threads, and keeps routers linked without delay together.
+	 */
+	private void topologyWorkers() {
+		int[][] results_ = new int[3][];
+		int[] partitions_ = new int[3];
+		boolean together_ = true;
+		for (int w_ = 0; w_ < results_.length; w_++) {
+			// Six routers: 0-1 without delay, the others 1 to 4 rounds apart.
+			Topology topology_ = new Topology();
+			int[] path_ = chain(topology_, new int[] { 7, 5, 7, 3, 7 });
+			int extra_ = topology_.addRouter(10, 7);
+			topology_.connect(extra_, path_[0], 0);
+			int[][] paths_ = {
+				{ extra_, path_[0], path_[1] }, { path_[0] }, { path_[1], path_[2], path_[3] },
+				{ path_[2] }, { path_[3], path_[4] }, { path_[4] }, { extra_ }
+			};
+			TCPSender[] senders_ = new TCPSender[paths_.length];
+			for (int f_ = 0; f_ < paths_.length; f_++) {
+				senders_[f_] = new TCPSenderReno();
+				topology_.addFlow(senders_[f_], new TCPReceiver(), paths_[f_]);
+			}
+			topology_.setReportingLevel(0);
+			int workers_ = 1 << w_;
+			LogicalProcess[] lps_ = topology_.partition(workers_);
+			partitions_[w_] = lps_.length;
+			for (int p_ = 0; p_ < lps_.length; p_++) {
+				int[] routers_ = lps_[p_].routers;
+				boolean hasExtra_ = false;
+				boolean hasFirst_ = false;
+				for (int r_ = 0; r_ < routers_.length; r_++) {
+					hasExtra_ |= routers_[r_] == extra_;
+					hasFirst_ |= routers_[r_] == path_[0];
+				}
+				together_ &= hasExtra_ == hasFirst_;
+			}
+			quiet(topology_, 1500, workers_);
+			results_[w_] = new int[2 * paths_.length];
+			for (int f_ = 0; f_ < paths_.length; f_++) {
+				results_[w_][2 * f_] = senders_[f_].getTotalBytesTransmitted();
+				results_[w_][2 * f_ + 1] = senders_[f_].congWindow;
+			}
+		}
+		check("topology: " + partitions_[1] + " and " + partitions_[2] + " logical processes",
+			partitions_[0] == 1 && partitions_[1] == 2 && partitions_[2] == 4);
+		check("topology: routers linked without delay run together", together_);
+		check("topology: the same flows on 1, 2 and 4 threads",
+			Arrays.equals(results_[0], results_[1]) && Arrays.equals(results_[0], results_[2]));
+	}
+
+	/**
+	 * Adds a chain of routers with the given buffers, linked by delays
+	 * of 2, 3, ... rounds, to a topology.
+	 *
+	 * @return Returns the path through the chain.
+	 */
+	private static int[] chain(Topology topology_, int[] buffers_) {
+		int[] path_ = new int[buffers_.length];
+		for (int r_ = 0; r_ < path_.length; r_++) {
+			path_[r_] = topology_.addRouter(10, buffers_[r_]);
+			if (r_ > 0) {
+				topology_.connect(path_[r_ - 1], path_[r_], r_ + 1);
+			}
+		}
+		return path_;
+	}
+
+	/** Runs a topology, without its report. */
+	private static void quiet(Topology topology_, int rounds_) {
+		quiet(topology_, rounds_, 1);
+	}
+
+	/** Runs a topology on up to the given number of threads, without its report. */
+	private static void quiet(final Topology topology_, final int rounds_, final int workers_) {
+		printed(new Runnable() {
+			public void run() {
+				topology_.run(rounds_, workers_);
+			}
+		});
+	}
+
+	/** Checks that a topology keeps to its own reporting level, on every thread. */
+	private void topologyLevel() {
+		final Topology topology_ = new Topology();
+		int[] path_ = new int[3];
+		for (int r_ = 0; r_ < path_.length; r_++) {
+			path_[r_] = topology_.addRouter(10, 7);
+			if (r_ > 0) {
+				topology_.connect(path_[r_ - 1], path_[r_], 2);
+			}
+		}
+		for (int r_ = 0; r_ < path_.length; r_++) {
+			topology_.addFlow(new TCPSenderReno(), new TCPReceiver(), new int[] { path_[r_] });
+		}
+		topology_.setReportingLevel(0);
+		String printed_ = printed(new Runnable() {
+			public void run() {
+				topology_.run(500, 3);
+			}
+		});
+		// The rule, the headline and a line per flow.
+		check("topology: only the report printed at level 0, on 3 threads",
+			printed_.split(System.lineSeparator()).length == 2 + path_.length);
+	}
+
+	/** Checks that the emulator moves the data over the loopback interface. */
+	private void socketEmulator() {
+		final TCPSender sender_ = new TCPSenderReno();
+		final SocketEmulator emulator_ = new SocketEmulator(sender_, new TCPReceiver(), 10, 7, 1000L);
+		emulator_.setReportingLevel(0);
+		final IOException[] failure_ = new IOException[1];
+		String printed_ = printed(new Runnable() {
+			public void run() {
+				try {
+					emulator_.run(200);
+				} catch (IOException e_) {
+					failure_[0] = e_;
+				}
+			}
+		});
+		check("socket emulator: runs over the loopback interface", failure_[0] == null);
+		check("socket emulator: moves data", sender_.getTotalBytesTransmitted() > 10 * TCPSimulator.MSS);
+		check("socket emulator: only the report printed at level 0",
+			printed_.split(System.lineSeparator()).length == 5);
+
+		// Rounds far shorter than a round takes: most intervals pass
+		// before their round can start, and are skipped.
+		final SocketEmulator late_ = new SocketEmulator(new TCPSenderReno(), new TCPReceiver(), 10, 7, 1L);
+		late_.setReportingLevel(0);
+		long start_ = System.nanoTime();
+		printed(new Runnable() {
+			public void run() {
+				try {
+					late_.run(200);
+				} catch (IOException e_) {
+					failure_[0] = e_;
+				}
+			}
+		});
+		long intervals_ = (System.nanoTime() - start_) / 1000L;
+		check("socket emulator: late round intervals are skipped, not caught up",
+			failure_[0] == null && late_.getSkippedRounds() > 0
+			&& late_.getSkippedRounds() + 200 <= intervals_ + 1);
+	}
+
+	/**
+	 * Checks the flows of a {@link FlowThreadSimulator} against the
+	 * same flows run in turn, in every round, by one thread; and that
+	 * the simulator keeps to its own reporting level.
+	 */
+	private void flowThreads() {
+		int[] starts_ = { 1, 1, 3, 10 };
+		int flowSize_ = 100000;
+		final FlowThreadSimulator threaded_ = new FlowThreadSimulator(10, 7);
+		for (int f_ = 0; f_ < starts_.length; f_++) {
+			threaded_.addFlow(new TCPSenderReno(), new TCPReceiver(), starts_[f_], flowSize_);
+		}
+		threaded_.setReportingLevel(0);
+		final int[] rounds_ = new int[1];
+		String printed_ = printed(new Runnable() {
+			public void run() {
+				rounds_[0] = threaded_.run();
+			}
+		});
+
+		Router router_ = new Router(10, 7);
+		TCPSender[] senders_ = new TCPSender[starts_.length];
+		TCPReceiver[] receivers_ = new TCPReceiver[starts_.length];
+		TCPSegment[][] segments_ = new TCPSegment[starts_.length][TCPSimulator.MAX_WIN];
+		TCPSegment[][] acks_ = new TCPSegment[starts_.length][TCPSimulator.MAX_WIN];
+		int[] rcvWindows_ = new int[starts_.length];
+		int[] sent_ = new int[starts_.length];
+		int[] finish_ = new int[starts_.length];
+		int running_ = starts_.length;
+		int iter_ = 0;
+		while (running_ > 0) {
+			iter_++;
+			router_.beginRound();
+			for (int f_ = 0; f_ < starts_.length; f_++) {
+				if (starts_[f_] > iter_ || finish_[f_] != 0) {
+					continue;
+				}
+				if (senders_[f_] == null) {
+					senders_[f_] = new TCPSenderReno();
+					senders_[f_].setFlowSize(flowSize_);
+					receivers_[f_] = new TCPReceiver();
+					rcvWindows_[f_] = receivers_[f_].getRcvWindow();
+				}
+				int outcome_ = (sent_[f_] > 0) ? senders_[f_].processAcks(acks_[f_]) : TCPSimulator.SUCCESS;
+				if (senders_[f_].isFinished()) {
+					finish_[f_] = iter_;
+					running_--;
+					continue;
+				}
+				senders_[f_].send(segments_[f_], rcvWindows_[f_], outcome_, sent_[f_]++, null);
+				router_.forward(segments_[f_]);
+				rcvWindows_[f_] = receivers_[f_].receive(segments_[f_], acks_[f_]);
+			}
+		}
+		long total_ = 0;
+		int max_ = 0;
+		for (int f_ = 0; f_ < starts_.length; f_++) {
+			total_ += finish_[f_] - starts_[f_];
+			max_ = Math.max(max_, finish_[f_] - starts_[f_]);
+		}
+		String n_ = System.lineSeparator();
+		check("flow threads: as many rounds as the flows in turn", rounds_[0] == iter_);
+		check("flow threads: the completion times of the flows in turn, and nothing else printed",
+			printed_.equals(
+				"Flows finished: " + starts_.length + n_
+				+ "Flow completion time: mean " + (total_ / (float) starts_.length)
+				+ " rounds, max " + max_ + " rounds" + n_
+			));
+	}
+
+	/**
+	 * Sends the given number of segments through a router in its
+	 * first round, and none after.
+	 *
+	 * @return Returns the segments that pass in each round, by number.
+	 */
+	private static String[] forwarded(Router router_, int count_, int numRounds_) {
+		TCPSegment[] segments_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		String[] rounds_ = new String[numRounds_];
+		for (int round_ = 0; round_ < numRounds_; round_++) {
+			router_.beginRound();
+			for (int i_ = 0; i_ < segments_.length; i_++) {
+				segments_[i_] = (round_ == 0 && i_ < count_)
+					? new TCPSegment(i_ * TCPSimulator.MSS, TCPSimulator.MSS) : null;
+			}
+			router_.forward(segments_);
+			StringBuilder passed_ = new StringBuilder();
+			for (int i_ = 0; i_ < segments_.length; i_++) {
+				if (segments_[i_] != null) {
+					passed_.append(segments_[i_].seqNum / TCPSimulator.MSS).append(';');
+				}
+			}
+			rounds_[round_] = passed_.toString();
+		}
+		return rounds_;
+	}
+
+	/** Writes a text file in the directory of the checks. */
+	private String textFile(String name_, String text_) throws IOException {
+		String file_ = file(name_);
+		Files.write(new File(file_).toPath(), text_.getBytes("US-ASCII"));
+		return file_;
+	}
+
+	/** The message of the error that reading a whole trace ends with, if any. */
+	private static String traceError(String file_) {
+		try {
+			LossTrace trace_ = new LossTrace(file_);
+			try {
+				for (int i_ = 0; i_ < 10; i_++) {
+					trace_.advance();
+				}
+			} finally {
+				trace_.close();
+			}
+			return "";
+		} catch (IOException e_) {
+			return e_.getMessage();
+		} catch (IllegalStateException e_) {
+			return e_.getCause().getMessage();
+		}
+	}
+
+	/** Checks the loss traces and the trace-driven routers. */
+	private void traceDriven() throws IOException {
+		// Comments, commas, decimals and exponents; then the start again.
+		LossTrace trace_ = new LossTrace(textFile("trace.txt",
+			"# time_us lost delay_us\n\n0 0\n10.5, 1, 0\n20 0 1520.75\n3e1 0 2.5e3  # late\n"));
+		StringBuilder read_ = new StringBuilder();
+		for (int i_ = 0; i_ < 5; i_++) {
+			trace_.advance();
+			read_.append(trace_.isLost() ? "lost " : "").append(trace_.getDelayMicros()).append(';');
+		}
+		trace_.close();
+		check("trace-driven: a text trace is read, and read again from its start",
+			read_.toString().equals("0;lost 0;1521;2500;0;"));
+		check("trace-driven: a bad line is reported with its number",
+			traceError(textFile("bad.txt", "0 0\n# next\n1 2\n")).startsWith("Trace line 3: "));
+		check("trace-driven: a line without the lost field is rejected",
+			traceError(textFile("short.txt", "0 0\n1\n")).startsWith("Trace line 2: "));
+		check("trace-driven: a trace without records is rejected",
+			traceError(textFile("empty.txt", "# nothing\n\n")).startsWith("No records"));
+
+		// The first segment is lost, and the third, 250 ms late with an
+		// RTT of 100 ms, comes two rounds later.
+		LossTrace routed_ = new LossTrace(textFile("router.txt", "0 1\n1 0\n2 0 250000\n3 0\n"));
+		TraceRouter router_ = new TraceRouter(10, 7, routed_, 100000L);
+		String[] rounds_ = forwarded(router_, 4, 3);
+		routed_.close();
+		check("trace-driven: the router drops what the trace loses",
+			rounds_[0].equals("1;3;") && router_.getTraceLosses() == 1);
+		check("trace-driven: the router delays by whole rounds",
+			rounds_[1].isEmpty() && rounds_[2].equals("2;") && router_.getTraceDelays() == 1);
+
+		boolean rejected_ = false;
+		try {
+			TraceRouter.newSender("vegas");
+		} catch (IllegalArgumentException e_) {
+			rejected_ = true;
+		}
+		check("trace-driven: an unknown sender is rejected", rejected_);
+		check("trace-driven: senders by name, in any case",
+			TraceRouter.newSender("Tahoe") instanceof TCPSenderTahoe
+			&& TraceRouter.newSender("reno") instanceof TCPSenderReno);
+	}
+
+	/** Checks the capacity traces and their router. */
+	private void capacityTrace() throws IOException {
+		// Opportunities at 0, 5, 5, 9 and 10 ms; then again from 10 ms.
+		String link_ = textFile("link.txt", "0\n5\n5\n9\n10\n");
+		CapacityTrace trace_ = new CapacityTrace(link_);
+		int[] counts_ = {
+			trace_.opportunitiesBefore(5), trace_.opportunitiesBefore(10),
+			trace_.opportunitiesBefore(20), trace_.opportunitiesBefore(30)
+		};
+		int later_ = trace_.opportunitiesBefore(1030);
+		trace_.close();
+		check("capacity-trace: opportunities are counted up to each time",
+			Arrays.equals(counts_, new int[] { 1, 3, 5, 5 }));
+		check("capacity-trace: the trace repeats with its last time as the period", later_ == 500);
+
+		String why_ = "";
+		try {
+			new CapacityTrace(textFile("nolink.txt", "\n"));
+		} catch (IOException e_) {
+			why_ = e_.getMessage();
+		}
+		check("capacity-trace: a trace without opportunities is rejected",
+			why_.startsWith("No delivery opportunities"));
+		why_ = "";
+		trace_ = new CapacityTrace(textFile("zerolink.txt", "0\n0\n"));
+		try {
+			trace_.opportunitiesBefore(1);
+		} catch (IllegalStateException e_) {
+			why_ = e_.getMessage();
+		} finally {
+			trace_.close();
+		}
+		check("capacity-trace: a period of zero is rejected", why_.contains("period of zero"));
+
+		// Four opportunities in each round of 10 ms, and room for four
+		// more: of ten segments, four leave, four wait and two are lost.
+		trace_ = new CapacityTrace(link_);
+		String[] rounds_ = forwarded(new CapacityTraceRouter(4, trace_, 10000L), 10, 3);
+		trace_.close();
+		check("capacity-trace: the router delivers one segment per opportunity",
+			rounds_[0].equals("0;1;2;3;") && rounds_[1].equals("4;5;6;7;") && rounds_[2].isEmpty());
+	}
+
+	/** Checks the timer and the window growth of the Tahoe sender. */
+	private void tahoe() {
+		TCPSenderTahoe sender_ = new TCPSenderTahoe();
+		TCPSegment[] segments_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		TCPSegment[] noAcks_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		sender_.send(segments_, 65535, TCPSimulator.SUCCESS, 0, null);
+		int rounds_ = 0;
+		int outcome_;
+		do {
+			outcome_ = sender_.processAcks(noAcks_);
+			rounds_++;
+		} while (outcome_ != TCPSimulator.TIMEOUT && rounds_ < 10);
+		check("tahoe: the timer expires " + TCPSender.TIMER_DEFAULT + " rounds without ACKs",
+			rounds_ == TCPSender.TIMER_DEFAULT);
+
+		// One MSS per window's worth of ACKs, and nothing more.
+		sender_ = new TCPSenderTahoe();
+		sender_.sendMode = TCPSender.CONG_AVOID;
+		sender_.congWindow = 4 * TCPSimulator.MSS;
+		sender_.processAcksCongestionAvoidance(new TCPSegment(TCPSimulator.MSS, 0, true));
+		check("tahoe: congestion avoidance adds MSS * MSS / window per ACK",
+			sender_.congWindow == 4 * TCPSimulator.MSS + TCPSimulator.MSS / 4);
+	}
+
+	/** The number of segments a sender put into the array. */
+	private static int numSent(TCPSegment[] segments_) {
+		int count_ = 0;
+		for (int i_ = 0; i_ < segments_.length; i_++) {
+			if (segments_[i_] != null) {
+				count_++;
+			}
+		}
+		return count_;
+	}
+
+	/** Checks the initial window of RFC 6928 and the handshake. */
+	private void initialWindow() {
+		TCPSegment[] segments_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		TCPSenderReno sender_ = new TCPSenderReno();
+		sender_.send(segments_, 65535, TCPSimulator.SUCCESS, 1, null);
+		check("initial window: one segment by default", numSent(segments_) == 1);
+		sender_ = new TCPSenderReno();
+		sender_.setInitialWindow(TCPSender.IW10);
+		sender_.send(segments_, 65535, TCPSimulator.SUCCESS, 1, null);
+		check("initial window: IW10 sends ten segments in the first round",
+			numSent(segments_) == 10 && segments_[9].seqNum == 9 * TCPSimulator.MSS);
+
+		// The handshake spends the first round, then IW10 goes out.
+		TCPSenderTahoe tahoe_ = new TCPSenderTahoe();
+		tahoe_.setInitialWindow(TCPSender.IW10);
+		tahoe_.setHandshake(true);
+		tahoe_.send(segments_, 65535, TCPSimulator.SUCCESS, 1, null);
+		int first_ = numSent(segments_);
+		tahoe_.send(segments_, 65535, TCPSimulator.SUCCESS, 2, null);
+		check("initial window: the handshake spends the first round",
+			first_ == 0 && numSent(segments_) == 10);
+		tahoe_.reset();
+		check("initial window: a reset keeps the window for the next flow",
+			tahoe_.congWindow == 10 * TCPSimulator.MSS);
+		tahoe_.send(segments_, 65535, TCPSimulator.SUCCESS, 3, null);
+		check("initial window: a reset keeps the handshake for the next flow", numSent(segments_) == 0);
+
+		// No ACKs: after the timeout, the loss window of one segment.
+		tahoe_ = new TCPSenderTahoe();
+		tahoe_.setInitialWindow(TCPSender.IW10);
+		tahoe_.send(segments_, 65535, TCPSimulator.SUCCESS, 1, null);
+		TCPSegment[] noAcks_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		int outcome_ = TCPSimulator.SUCCESS;
+		for (int round_ = 0; round_ < 10 && outcome_ != TCPSimulator.TIMEOUT; round_++) {
+			outcome_ = tahoe_.processAcks(noAcks_);
+		}
+		check("initial window: a timeout drops to one segment, not to the initial window",
+			outcome_ == TCPSimulator.TIMEOUT && tahoe_.congWindow == TCPSimulator.MSS
+			&& tahoe_.SSThresh == 5 * TCPSimulator.MSS);
+
+		boolean rejected_ = false;
+		try {
+			new TCPSenderReno().setInitialWindow(0);
+		} catch (IllegalArgumentException e_) {
+			rejected_ = true;
+		}
+		check("initial window: an empty window is rejected", rejected_);
+	}
+
+	/** Checks the tail of a short flow with the Reno sender. */
+	private void reno() {
+		// Two and a half segments, all lost: nothing is resent until
+		// the timer expires, then the oldest segment, and no more.
+		TCPSenderReno sender_ = new TCPSenderReno();
+		sender_.setFlowSize(5 * TCPSimulator.MSS / 2);
+		sender_.congWindow = 4 * TCPSimulator.MSS;
+		TCPSegment[] segments_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		TCPSegment[] noAcks_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		sender_.send(segments_, 65535, TCPSimulator.SUCCESS, 0, null);
+		check("reno: the last segment ends with the flow",
+			segments_[2] != null && segments_[2].length == TCPSimulator.MSS / 2 && segments_[3] == null);
+		int rounds_ = 0;
+		int silent_ = 0;
+		int outcome_;
+		do {
+			outcome_ = sender_.processAcks(noAcks_);
+			sender_.send(segments_, 65535, outcome_, ++rounds_, null);
+			if (outcome_ != TCPSimulator.TIMEOUT && segments_[0] == null) {
+				silent_++;
+			}
+		} while (outcome_ != TCPSimulator.TIMEOUT && rounds_ < 10);
+		check("reno: a lost tail times out after " + TCPSender.TIMER_DEFAULT + " rounds",
+			rounds_ == TCPSender.TIMER_DEFAULT && silent_ == rounds_ - 1);
+		check("reno: the timeout resends the oldest segment only",
+			segments_[0] != null && segments_[0].seqNum == 0
+			&& segments_[0].length == TCPSimulator.MSS && segments_[1] == null);
+		check("reno: the timeout collapses the window",
+			sender_.congWindow == TCPSimulator.MSS && sender_.SSThresh == 2 * TCPSimulator.MSS
+			&& sender_.sendMode == TCPSender.SLOW_START);
+
+		// A fast retransmit of the last segment is no longer than it.
+		sender_ = new TCPSenderReno();
+		sender_.setFlowSize(5 * TCPSimulator.MSS / 2);
+		sender_.lastByteSent = sender_.flowSize - 1;
+		sender_.lastByteAcked = 2 * TCPSimulator.MSS - 1;
+		sender_.send(segments_, 65535, TCPSimulator.DUP_ACKx3, 1, null);
+		check("reno: a fast retransmit ends with the flow",
+			segments_[0].seqNum == 2 * TCPSimulator.MSS && segments_[0].length == TCPSimulator.MSS / 2);
+
+		// A bulk transfer keeps the original model, without a timer.
+		sender_ = new TCPSenderReno();
+		sender_.send(segments_, 65535, TCPSimulator.SUCCESS, 0, null);
+		boolean timedOut_ = false;
+		for (int i_ = 0; i_ < 10; i_++) {
+			timedOut_ |= sender_.processAcks(noAcks_) == TCPSimulator.TIMEOUT;
+		}
+		check("reno: no timeouts in a bulk transfer", !timedOut_);
+	}
+
+	/** Checks that a columnar table reads back, also across a resume. */
+	private void columnar() throws IOException {
+		String[] names_ = { "i", "l", "d" };
+		byte[] types_ = { ColumnarWriter.INT32, ColumnarWriter.INT64, ColumnarWriter.FLOAT64 };
+		int rows_ = ColumnarWriter.CHUNK_ROWS + 100;
+		int saved_ = 1000;
+		String file_ = file("table.col");
+
+		// Crashed after the checkpoint, then resumed from it.
+		ColumnarWriter writer_ = new ColumnarWriter(file_, "t", names_, types_);
+		ByteArrayOutputStream state_ = new ByteArrayOutputStream();
+		for (int r_ = 0; r_ < saved_ + 500; r_++) {
+			if (r_ == saved_) {
+				writer_.saveState(new DataOutputStream(state_));
+			}
+			putRow(writer_, (r_ < saved_) ? r_ : -r_);
+		}
+		writer_.saveState(new DataOutputStream(new ByteArrayOutputStream()));
+		writer_ = new ColumnarWriter(file_, "t", names_, types_, true);
+		writer_.restoreState(new DataInputStream(new ByteArrayInputStream(state_.toByteArray())));
+		for (int r_ = saved_; r_ < rows_; r_++) {
+			putRow(writer_, r_);
+		}
+		writer_.close();
+
+		ColumnarReader reader_ = new ColumnarReader(file_);
+		boolean same_ = reader_.getTable().equals("t") && reader_.getColumnCount() == 3
+			&& reader_.getColumnName(2).equals("d")
+			&& reader_.getColumnType(1) == ColumnarWriter.INT64;
+		long row_ = 0;
+		int chunk_;
+		while ((chunk_ = reader_.nextChunk()) > 0) {
+			for (int r_ = 0; r_ < chunk_; r_++, row_++) {
+				same_ &= reader_.getInt(0, r_) == row_
+					&& reader_.getLong(1, r_) == row_ << 32
+					&& reader_.getDouble(2, r_) == row_ / 4.0;
+			}
+		}
+		same_ &= row_ == rows_ && reader_.isComplete();
+		reader_.close();
+		check("columnar: the rows read back, resumed from a checkpoint", same_);
+
+		boolean rejected_ = false;
+		try {
+			new ColumnarWriter(file_, "t", new String[] { "i" },
+				new byte[] { ColumnarWriter.INT32 }, true).close();
+		} catch (IOException e_) {
+			rejected_ = true;
+		}
+		check("columnar: another table is not continued", rejected_);
+
+		// Cut short within the last chunk.
+		String cut_ = file("cut.col");
+		byte[] bytes_ = Files.readAllBytes(new File(file_).toPath());
+		Files.write(new File(cut_).toPath(), Arrays.copyOf(bytes_, bytes_.length - 20));
+		reader_ = new ColumnarReader(cut_);
+		while (reader_.nextChunk() > 0) {
+			continue;
+		}
+		check("columnar: a file cut short reads up to its last chunk",
+			!reader_.isComplete() && reader_.getRowCount() == saved_);
+		reader_.close();
+	}
+
+	private static void putRow(ColumnarWriter writer_, long value_) throws IOException {
+		writer_.putInt((int) value_);
+		writer_.putLong(value_ << 32);
+		writer_.putDouble(value_ / 4.0);
+		writer_.endRow();
+	}
+
+	/** Checks the steady-state estimator on values of a known shape. */
+	private void steadyState() {
+		// A ramp of 200 rounds, then noise around 100.
+		SplittableRandom random_ = new SplittableRandom(5L);
+		SteadyState steady_ = new SteadyState(0.01);
+		int rounds_ = 0;
+		while (!steady_.add((rounds_ < 200) ? rounds_ / 2.0 : 100.0 + random_.nextDouble(-10.0, 10.0))
+				&& rounds_ < 100000) {
+			rounds_++;
+		}
+		check("steady state: converges after a warm-up",
+			steady_.isConverged() && Math.abs(steady_.getMean() - 100.0) < 1.0
+			&& steady_.getWarmupRounds() >= 150 && steady_.getWarmupRounds() <= 250);
+
+		// A level shift late in the run: the transient may not be over,
+		// so the estimate made before it is dropped.
+		steady_ = new SteadyState(1e-9);
+		boolean estimated_ = false;
+		boolean cleared_ = false;
+		boolean stale_ = false;
+		for (int r_ = 0; r_ < 4000; r_++) {
+			steady_.add(((r_ < 1000) ? 100.0 : 1000.0) + random_.nextDouble(-10.0, 10.0));
+			if (steady_.hasEstimate()) {
+				estimated_ = true;
+			} else if (estimated_) {
+				cleared_ = true;
+				stale_ |= steady_.getMean() != 0.0 || steady_.getWarmupRounds() != 0
+					|| steady_.getHalfWidth() != Double.POSITIVE_INFINITY;
+			}
+		}
+		check("steady state: precision not reached, no stale estimate",
+			cleared_ && !stale_ && !steady_.isConverged());
+	}
+
+	/** Checks the MXBeans of a run: read, steered, and unregistered. */
+	private void monitor() throws JMException {
+		MBeanServer server_ = ManagementFactory.getPlatformMBeanServer();
+		ObjectName simulatorName_ = new ObjectName("tcpsim:type=Simulator,name=" + ObjectName.quote("selfcheck"));
+		ObjectName routerName_ = new ObjectName("tcpsim:type=Router,name=" + ObjectName.quote("selfcheck"));
+		Router router_ = new Router(10, 7);
+		TCPSimulator simulator_ = new TCPSimulator(new TCPSenderReno(), router_);
+		simulator_.setReportingLevel(0);
+		SimulationMonitor monitor_ = simulator_.monitor("selfcheck");
+		try {
+			simulator_.run(100);
+			check("monitor: the round and the buffer read through JMX",
+				((Integer) server_.getAttribute(simulatorName_, "Round")).intValue() > 0
+				&& ((Integer) server_.getAttribute(routerName_, "BufferSize")).intValue() == 7);
+			server_.setAttribute(routerName_, new Attribute("BufferSize", Integer.valueOf(4)));
+			check("monitor: the buffer set through JMX", router_.getBufferSize() == 4);
+
+			boolean taken_ = false;
+			try {
+				simulator_.monitor("selfcheck");
+			} catch (JMException e_) {
+				taken_ = true;
+			}
+			check("monitor: a name is taken once", taken_);
+		} finally {
+			monitor_.close();
+		}
+		check("monitor: close unregisters the MXBeans",
+			!server_.isRegistered(simulatorName_) && !server_.isRegistered(routerName_));
+	}
+
+	/** Checks that replications depend on the seed only, and their intervals. */
+	private void replications() {
+		Scenario scenario_ = new Scenario("reno", 10, 7, 0.01, 500);
+		ReplicationRunner.Summary one_ = new ReplicationRunner(scenario_, 1).run(8, 7L);
+		ReplicationRunner.Summary four_ = new ReplicationRunner(scenario_, 4).run(8, 7L);
+		check("replications: the same on one thread and on four",
+			one_.toString().equals(four_.toString())
+			&& one_.utilization.mean == four_.utilization.mean
+			&& one_.utilization.halfWidth == four_.utilization.halfWidth
+			&& one_.lossRate.halfWidth == four_.lossRate.halfWidth);
+
+		// The same replications, one after the other, by hand.
+		SplittableRandom root_ = new SplittableRandom(7L);
+		double[] utilization_ = new double[8];
+		double sum_ = 0.0;
+		for (int r_ = 0; r_ < utilization_.length; r_++) {
+			TCPSimulator simulator_ =
+				new TCPSimulator(scenario_.newSender(), scenario_.newRouter(root_.split()));
+			simulator_.setReportingLevel(0);
+			utilization_[r_] = simulator_.run(scenario_.iterations);
+			sum_ += utilization_[r_];
+		}
+		double mean_ = sum_ / utilization_.length;
+		double squares_ = 0.0;
+		for (int r_ = 0; r_ < utilization_.length; r_++) {
+			squares_ += (utilization_[r_] - mean_) * (utilization_[r_] - mean_);
+		}
+		double halfWidth_ = 2.365 * Math.sqrt(squares_ / 7 / 8);
+		check("replications: the streams are split in the order of the replications",
+			one_.utilization.mean == mean_);
+		check("replications: the interval has Student's t with 7 degrees of freedom",
+			Math.abs(one_.utilization.halfWidth - halfWidth_) < 1e-12 && halfWidth_ > 0.0);
+		check("replications: another seed, other results",
+			new ReplicationRunner(scenario_, 4).run(8, 8L).utilization.mean != mean_);
+		check("replications: no interval from one replication",
+			Double.isInfinite(new ReplicationRunner(scenario_, 1).run(1, 7L).utilization.halfWidth));
+		check("replications: t quantiles decrease towards 1.96",
+			ReplicationRunner.t95(1) == 12.706 && ReplicationRunner.t95(30) == 2.042
+			&& ReplicationRunner.t95(31) < 2.042 && ReplicationRunner.t95(1000) > 1.96);
+
+		Properties stored_ = new Properties();
+		one_.store(stored_);
+		ReplicationRunner.Summary loaded_ = ReplicationRunner.Summary.load(stored_);
+		check("replications: a summary is stored and loaded",
+			loaded_.toString().equals(one_.toString())
+			&& loaded_.goodput.halfWidth == one_.goodput.halfWidth);
+	}
+
+	/** Checks the keys, the entries and the eviction of the result cache. */
+	private void resultCache() throws IOException {
+		Scenario scenario_ = new Scenario("reno", 10, 7, 0.01, 500);
+		String key_ = ResultCache.key(scenario_, 7L, 8);
+		check("result cache: a key is 64 hexadecimal digits, the same each time",
+			key_.matches("[0-9a-f]{64}") && key_.equals(ResultCache.key(scenario_, 7L, 8))
+			&& key_.equals(ResultCache.key(new Scenario("Reno", 10, 7, 0.01, 500), 7L, 8)));
+		check("result cache: everything that changes results changes the key",
+			!key_.equals(ResultCache.key(scenario_, 8L, 8))
+			&& !key_.equals(ResultCache.key(scenario_, 7L, 9))
+			&& !key_.equals(ResultCache.key(new Scenario("tahoe", 10, 7, 0.01, 500), 7L, 8))
+			&& !key_.equals(ResultCache.key(new Scenario("reno", 10, 8, 0.01, 500), 7L, 8))
+			&& !key_.equals(ResultCache.key(new Scenario("reno", 10, 7, 0.02, 500), 7L, 8))
+			&& !key_.equals(ResultCache.key(new Scenario("reno", 10, 7, 0.01, 501), 7L, 8)));
+
+		File directory_ = new File(file("cache"));
+		ResultCache cache_ = new ResultCache(directory_, Long.MAX_VALUE);
+		try {
+			Properties metrics_ = new Properties();
+			metrics_.setProperty("utilization.mean", "0.5");
+			File trace_ = new File(textFile("cached.trace", "0 1\n"));
+			check("result cache: nothing is found before it is put",
+				cache_.get(key_) == null && cache_.getTrace(key_) == null);
+			cache_.put(key_, metrics_, trace_);
+			Properties found_ = cache_.get(key_);
+			File foundTrace_ = cache_.getTrace(key_);
+			check("result cache: the metrics and the trace are found after they are put",
+				found_ != null && found_.equals(metrics_) && foundTrace_ != null
+				&& Arrays.equals(Files.readAllBytes(foundTrace_.toPath()),
+					Files.readAllBytes(trace_.toPath())));
+			check("result cache: no temporary files are left",
+				directory_.list().length == 2);
+
+			// The replications take their summary from the cache.
+			Properties summary_ = new Properties();
+			new ReplicationRunner(scenario_, 1).run(2, 7L).store(summary_);
+			summary_.setProperty("utilization.mean", "0.25");
+			cache_.put(key_, summary_, null);
+			check("result cache: replications that are cached are not run",
+				new ReplicationRunner(scenario_, 1).run(8, 7L, cache_).utilization.mean == 0.25);
+			String other_ = ResultCache.key(scenario_, 9L, 2);
+			ReplicationRunner.Summary run_ = new ReplicationRunner(scenario_, 1).run(2, 9L, cache_);
+			check("result cache: replications that are run are cached",
+				cache_.get(other_) != null
+				&& ReplicationRunner.Summary.load(cache_.get(other_)).toString().equals(run_.toString()));
+		} finally {
+			deleteDirectory(directory_);
+		}
+
+		// Room for two results: the one used least recently goes first.
+		directory_ = new File(file("small-cache"));
+		try {
+			Properties metrics_ = new Properties();
+			metrics_.setProperty("utilization.mean", "0.5");
+			cache_ = new ResultCache(directory_, Long.MAX_VALUE);
+			cache_.put("a", metrics_, null);
+			long size_ = new File(directory_, "a.properties").length();
+			cache_ = new ResultCache(directory_, 2 * size_ + size_ / 2);
+			cache_.put("b", metrics_, null);
+			long now_ = System.currentTimeMillis();
+			new File(directory_, "a.properties").setLastModified(now_ - 20000);
+			new File(directory_, "b.properties").setLastModified(now_ - 10000);
+			cache_.get("a");
+			cache_.put("c", metrics_, null);
+			check("result cache: the result used least recently is evicted",
+				cache_.get("a") != null && cache_.get("b") == null && cache_.get("c") != null);
+		} finally {
+			deleteDirectory(directory_);
+		}
+	}
+
+	/** Removes a directory that holds files only. */
+	private static void deleteDirectory(File directory_) {
+		File[] files_ = directory_.listFiles();
+		if (files_ != null) {
+			for (int f_ = 0; f_ < files_.length; f_++) {
+				files_[f_].delete();
+			}
+		}
+		directory_.delete();
+	}
+
+	/** Checks the throughput models against values worked out by hand. */
+	private void throughputModel() {
+		// With p = 0.015, sqrt(3 / 2p) = 10 and sqrt(2p / 3) = 0.1.
+		double mss_ = TCPSimulator.MSS;
+		check("throughput model: Mathis",
+			Math.abs(ThroughputModel.mathis(mss_, 2.0, 0.015) - 5.0 * mss_) < 1e-9);
+		check("throughput model: Padhye without timeouts is Mathis",
+			Math.abs(ThroughputModel.padhye(mss_, 2.0, 0.015, 0.0, 1, 64.0) - 5.0 * mss_) < 1e-9);
+		// 3 sqrt(3p / 8) = 0.225, so the timeouts add
+		// 4 * 0.225 * 0.015 * (1 + 32 * 0.015^2) = 0.0135972 rounds.
+		check("throughput model: Padhye with timeouts",
+			Math.abs(ThroughputModel.padhye(mss_, 1.0, 0.015, 4.0, 1, 64.0) - mss_ / 0.1135972) < 1e-6);
+		check("throughput model: Padhye with delayed ACKs",
+			Math.abs(ThroughputModel.padhye(mss_, 1.0, 0.0075, 0.0, 2, 64.0) - 10.0 * mss_) < 1e-9);
+		check("throughput model: Padhye is limited by the window",
+			ThroughputModel.padhye(mss_, 1.0, 0.015, 4.0, 1, 4.0) == 4.0 * mss_);
+	}
+
+	/** Checks the flight recorder events against the run they record. */
+	private void flightRecorder() throws IOException {
+		String file_ = file("run.jfr");
+		Recording recording_ = new Recording();
+		recording_.enable("tcpsim.Round");
+		recording_.enable("tcpsim.CongestionWindow");
+		recording_.enable("tcpsim.ModeSwitch");
+		recording_.enable("tcpsim.LossDetected");
+		recording_.enable("tcpsim.Drop");
+		TCPSenderReno sender_ = new TCPSenderReno();
+		TCPSimulator simulator_ = new TCPSimulator(sender_,
+			new RandomLossRouter(10, 7, 0.01, new SplittableRandom(3L)));
+		simulator_.setReportingLevel(0);
+		recording_.start();
+		try {
+			simulator_.run(300);
+		} finally {
+			recording_.stop();
+			recording_.dump(new File(file_).toPath());
+			recording_.close();
+		}
+
+		boolean[] rounds_ = new boolean[300];
+		int numRounds_ = 0;
+		long sent_ = 0;
+		long lost_ = 0;
+		int drops_ = 0;
+		int losses_ = 0;
+		long windowChanges_ = 0;
+		boolean switches_ = true;
+		List<RecordedEvent> events_ = RecordingFile.readAllEvents(new File(file_).toPath());
+		for (int e_ = 0; e_ < events_.size(); e_++) {
+			RecordedEvent event_ = events_.get(e_);
+			String name_ = event_.getEventType().getName();
+			if (name_.equals("tcpsim.Round")) {
+				int round_ = event_.getInt("round");
+				if (round_ >= 0 && round_ < rounds_.length && !rounds_[round_]) {
+					rounds_[round_] = true;
+					numRounds_++;
+				}
+				sent_ += event_.getInt("sent");
+				lost_ += event_.getInt("lost");
+			} else if (name_.equals("tcpsim.Drop")) {
+				drops_++;
+			} else if (name_.equals("tcpsim.LossDetected")) {
+				losses_++;
+			} else if (name_.equals("tcpsim.CongestionWindow")) {
+				windowChanges_ += event_.getInt("congWindow") - event_.getInt("previous");
+			} else if (name_.equals("tcpsim.ModeSwitch")) {
+				switches_ &= !event_.getString("from").equals(event_.getString("to"));
+			}
+		}
+		check("flight recorder: one event for each round", numRounds_ == 300);
+		check("flight recorder: the rounds add up to the loss rate",
+			sent_ > 0 && lost_ / (double) sent_ == simulator_.getLossRate());
+		check("flight recorder: one drop event for each lost segment", lost_ > 0 && drops_ == lost_);
+		check("flight recorder: the losses are detected", losses_ > 0);
+		check("flight recorder: the window changes add up to the last window",
+			TCPSimulator.MSS + windowChanges_ == sender_.congWindow);
+		check("flight recorder: a mode switch changes the mode", switches_);
+	}
+
+	/** Reads what a URL sends until it closes, or until it times out. */
+	private static String fetch(HttpURLConnection connection_) throws IOException {
+		connection_.setReadTimeout(10000);
+		InputStream in_ = connection_.getInputStream();
+		try {
+			ByteArrayOutputStream bytes_ = new ByteArrayOutputStream();
+			byte[] buffer_ = new byte[4096];
+			int read_;
+			while ((read_ = in_.read(buffer_)) >= 0) {
+				bytes_.write(buffer_, 0, read_);
+			}
+			return bytes_.toString("UTF-8");
+		} finally {
+			in_.close();
+		}
+	}
+
+	/** Checks the page and the events of the dashboard. */
+	private void dashboard() throws IOException {
+		DashboardServer dashboard_ = new DashboardServer(0);
+		String base_ = "http://localhost:" + dashboard_.getPort();
+		String events_ = "";
+		try {
+			check("dashboard: a free port is taken for port 0", dashboard_.getPort() > 0);
+			HttpURLConnection page_ = (HttpURLConnection) new URL(base_ + "/").openConnection();
+			String html_ = fetch(page_);
+			check("dashboard: the page is served",
+				page_.getResponseCode() == 200 && page_.getContentType().startsWith("text/html")
+				&& html_.contains("EventSource('events')"));
+
+			HttpURLConnection stream_ = (HttpURLConnection) new URL(base_ + "/events").openConnection();
+			stream_.setReadTimeout(10000);
+			check("dashboard: the events are a stream",
+				stream_.getResponseCode() == 200
+				&& stream_.getContentType().equals("text/event-stream"));
+			// Let the viewer be registered before the rounds are stored.
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException e_) {
+				Thread.currentThread().interrupt();
+			}
+			for (int round_ = 0; round_ < 1000; round_++) {
+				dashboard_.record(round_, (round_ % 50 + 1) * TCPSimulator.MSS, 2048, round_ % 8);
+			}
+			dashboard_.close();
+			dashboard_ = null;
+			events_ = fetch(stream_);
+		} finally {
+			if (dashboard_ != null) {
+				dashboard_.close();
+			}
+		}
+
+		// data: [[round,window,threshold,queue],...] per event.
+		String[] lines_ = events_.split("\n\n");
+		boolean wellFormed_ = events_.endsWith("\n\n");
+		int lastRound_ = -1;
+		int maxWindow_ = 0;
+		int maxQueue_ = 0;
+		for (int l_ = 0; l_ < lines_.length && wellFormed_; l_++) {
+			wellFormed_ = lines_[l_].startsWith("data: [[") && lines_[l_].endsWith("]]");
+			if (!wellFormed_) {
+				break;
+			}
+			String[] points_ = lines_[l_].substring(8, lines_[l_].length() - 2).split("\\],\\[");
+			wellFormed_ = points_.length <= 200;
+			for (int p_ = 0; p_ < points_.length && wellFormed_; p_++) {
+				String[] values_ = points_[p_].split(",");
+				int round_ = Integer.parseInt(values_[0]);
+				wellFormed_ = values_.length == 4 && round_ > lastRound_
+					&& Integer.parseInt(values_[2]) == 2048;
+				lastRound_ = round_;
+				maxWindow_ = Math.max(maxWindow_, Integer.parseInt(values_[1]));
+				maxQueue_ = Math.max(maxQueue_, Integer.parseInt(values_[3]));
+			}
+		}
+		check("dashboard: events of at most 200 points, in the order of the rounds",
+			events_.length() > 0 && wellFormed_);
+		check("dashboard: close pushes the last round, and ends the stream", lastRound_ == 999);
+		check("dashboard: downsampling keeps the peaks",
+			maxWindow_ == 50 * TCPSimulator.MSS && maxQueue_ == 7);
+	}
+
+	/** Whether a series holds the given points, as (x, y) pairs. */
+	private static boolean holds(XYSeries series_, int... points_) {
+		if (series_.getItemCount() != points_.length / 2) {
+			return false;
+		}
+		for (int i_ = 0; i_ < series_.getItemCount(); i_++) {
+			if (series_.getX(i_).intValue() != points_[2 * i_]
+					|| series_.getY(i_).intValue() != points_[2 * i_ + 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the series of the chart, and the buffer of its live mode.
+	 * No chart is shown, so the checks also run without a desktop.
+	 */
+	private void tcpPlot() {
+		TcpPlot plot_ = new TcpPlot();
+		for (int round_ = 0; round_ < 3; round_++) {
+			plot_.plotTcp(round_, 1000 * round_, 100 * round_, 10 * round_, round_);
+		}
+		check("plot: each round is added to the series",
+			holds(plot_.congWindow, 0, 0, 1, 1000, 2, 2000) && holds(plot_.eff, 0, 0, 1, 100, 2, 200)
+			&& holds(plot_.flight, 0, 0, 1, 10, 2, 20) && holds(plot_.ssthresh, 0, 0, 1, 1, 2, 2));
+
+		// Five rounds into a window of three: the oldest two are dropped.
+		final TcpPlot live_ = new TcpPlot();
+		live_.bufferLive(3);
+		for (int round_ = 0; round_ < 5; round_++) {
+			live_.plotTcp(round_, 1000 * round_, 100 * round_, 10 * round_, round_);
+		}
+		boolean buffered_ = live_.congWindow.getItemCount() == 0;
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					live_.flushLive();
+					live_.flushLive();
+				}
+			});
+		} catch (InterruptedException e_) {
+			Thread.currentThread().interrupt();
+		} catch (InvocationTargetException e_) {
+			throw new IllegalStateException("Cannot move the points into the series", e_.getCause());
+		}
+		check("plot: the live mode buffers the rounds until the next frame", buffered_);
+		check("plot: a frame adds the last window of rounds, once",
+			holds(live_.congWindow, 2, 2000, 3, 3000, 4, 4000) && holds(live_.eff, 2, 200, 3, 300, 4, 400)
+			&& holds(live_.flight, 2, 20, 3, 30, 4, 40) && holds(live_.ssthresh, 2, 2, 3, 3, 4, 4));
+
+		boolean rejected_ = false;
+		try {
+			new TcpPlot().startLive(0, 10);
+		} catch (IllegalArgumentException e_) {
+			rejected_ = true;
+		}
+		check("plot: an empty window is rejected", rejected_);
+		check("plot: the live mode needs a desktop",
+			TcpPlot.canShowLive() == !GraphicsEnvironment.isHeadless());
+	}
+
+	/** Checks the fluid model against the packet-level simulator. */
+	private void fluidModel() {
+		double maxDiff_ = 0.0;
+		for (int buffer_ = FluidModel.MIN_BUFFER; buffer_ < 10; buffer_++) {
+			FluidModel.Result fluid_ =
+				new FluidModel(10, buffer_, FluidModel.DEFAULT_STEP).solve(2000);
+			TCPSimulator simulator_ =
+				new TCPSimulator(new TCPSenderReno(), new Router(10, buffer_));
+			simulator_.setReportingLevel(0);
+			float packet_ = simulator_.run(2000);
+			maxDiff_ = Math.max(maxDiff_, Math.abs(fluid_.utilization - packet_));
+		}
+		check("fluid model: within its error of the simulator", maxDiff_ <= FluidModel.MAX_ERROR);
+	}
+
+	/** Removes the directory of the checks and its files. */
+	private void clean() {
+		deleteDirectory(dir);
+	}
+
+	/**
+	 * Runs all the checks.
+	 *
+	 * @param argv_ Input arguments: none.
+	 */
+	public static void main(String[] argv_) throws IOException {
+		TCPSimulator.currentReportingLevel = 0;
+		SelfCheck checks_ = new SelfCheck(Files.createTempDirectory("selfcheck").toFile());
+		try {
+			checks_.checkpoints();
+			checks_.compressedSeries();
+			checks_.replay();
+			checks_.histogram();
+			checks_.traceIndex();
+			checks_.crossTrafficResume();
+			checks_.outputsResume();
+			checks_.pcap();
+			checks_.traceDriven();
+			checks_.capacityTrace();
+			checks_.tahoe();
+			checks_.reno();
+			checks_.initialWindow();
+			checks_.columnar();
+			checks_.steadyState();
+			checks_.monitor();
+			checks_.throughputModel();
+			checks_.replications();
+			checks_.resultCache();
+			checks_.flightRecorder();
+			checks_.dashboard();
+			checks_.tcpPlot();
+			checks_.fluidModel();
+			checks_.flowThreads();
+			checks_.shortFlows();
+			checks_.socketEmulator();
+			checks_.topology();
+			checks_.topologyWorkers();
+			checks_.topologyLevel();
+		} catch (Exception e_) {
+			checks_.check("no exception: " + e_, false);
+			e_.printStackTrace();
+		} finally {
+			checks_.clean();
+		}
+		System.out.println((checks_.failures == 0) ? "All checks passed"
+			: checks_.failures + " checks failed");
+		if (checks_.failures != 0) {
+			System.exit(1);
+		}
+	}
+}
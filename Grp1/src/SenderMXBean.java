@@ -0,0 +1,26 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+/**
+ * The live state of a {@link TCPSender}, for JConsole and other JMX
+ * clients.
+ *
+ * @see SimulationMonitor
+ */
+public interface SenderMXBean {
+	/** @return Returns the congestion window, in bytes. */
+	int getCongWindow();
+
+	/** @return Returns the slow start threshold, in bytes. */
+	int getSSThresh();
+
+	/** @return Returns the sending mode, e.g., <code>SLOW_START</code>. */
+	String getSendMode();
+
+	/** @return Returns the number of bytes sent but not yet acknowledged. */
+	int getFlightSize();
+
+	/** @return Returns the number of bytes acknowledged so far. */
+	int getTotalBytesTransmitted();
+}
@@ -0,0 +1,451 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+
+/**
+ * A workload of many flows that come and go: flows arrive at the
+ * router as a Poisson process, transfer a number of bytes drawn from
+ * a {@link FlowSizeDistribution}, and are torn down when all their
+ * bytes are acknowledged.  Every flow has its own sender and
+ * receiver; all share one {@link Router}.  The simulation is driven
+ * round by round, like {@link TCPSimulator#run(int)}, on the calling
+ * thread only.
+ * <P>
+ * The hosts and the segment arrays of a finished flow are reset and
+ * kept for the next flow that arrives, so the memory used depends on
+ * how many flows run at once, not on how many have run: millions of
+ * flows take no more than the first thousand.  The completion times
+ * are kept the same way, in a {@link Histogram} per range of flow
+ * sizes (see {@link #BUCKET_LIMITS}), and reported as percentiles.
+ * The flows still running at the end are reported apart, by range
+ * of sizes, with how long they have run: leaving them out of the
+ * percentiles alone would favor the flows that finish fast.
+ * <P>
+ * From the command line:
+ * <pre>
+ * java ShortFlowWorkload [-iw &lt;segments&gt;] [-handshake] &lt;rounds&gt; &lt;load&gt; [&lt;cdf&gt; [&lt;mismatch&gt; &lt;buffer&gt;]]
+ * </pre>
+ * where the load is the fraction of the bottleneck capacity that the
+ * arriving flows offer, and the CDF is <code>websearch</code> (the
+ * default), <code>datamining</code>, or the name of a file for
+ * {@link FlowSizeDistribution#load(String, int)}, with sizes in
+ * segments.  The options give every flow a larger initial window,
+ * e.g., 10 segments, and a handshake before its data (see
+ * {@link TCPSender#setInitialWindow(int)} and
+ * {@link TCPSender#setHandshake(boolean)}).
+ */
+public class ShortFlowWorkload {
+	/** Upper limits of the ranges of flow sizes that are reported apart, in bytes. */
+	public static final int[] BUCKET_LIMITS = { 10 * 1024, 100 * 1024, 1024 * 1024, Integer.MAX_VALUE };
+
+	/** Names of the ranges of flow sizes. */
+	private static final String[] BUCKET_NAMES = { "<= 10KB", "10KB-100KB", "100KB-1MB", "> 1MB" };
+
+	/** Seed of the random numbers of the command line runs. */
+	private static final long WORKLOAD_SEED = 1L;
+
+	/** The bottleneck shared by all the flows. */
+	private final Router router;
+
+	private final FlowSizeDistribution sizes;
+	private final SplittableRandom random;
+
+	/** The random numbers for the order of service, split from
+	 * {@link #random}, so that the arrivals do not depend on it. */
+	private final SplittableRandom order;
+
+	/** Mean number of flows that arrive per round. */
+	private final double arrivalRate;
+
+	/** The flows that are running, in the order they arrived; they
+	 * are served from a random one on in every round. */
+	private Flow[] active = new Flow[64];
+	private int numActive = 0;
+
+	/** Finished flows, kept for the flows to come. */
+	private final ArrayDeque<Flow> pool = new ArrayDeque<Flow>();
+
+	/** Completion times of the finished flows, in rounds, by range of sizes. */
+	private final Histogram[] completionTimes = new Histogram[BUCKET_LIMITS.length];
+
+	private long numArrived = 0;
+	private long numCreated = 0;
+	private int maxActive = 0;
+
+	/** The last round run. */
+	private int lastRound = 0;
+
+	/** The initial window of every flow, in segments. */
+	private int initialWindow = 1;
+
+	/** Whether every flow starts with a handshake. */
+	private boolean handshake = false;
+
+	/** The reporting level of the hosts and the router. */
+	private volatile int reportingLevel = TCPSimulator.currentReportingLevel;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param router_ The router shared by all the flows.
+	 * @param sizes_ The distribution of the flow sizes.
+	 * @param arrivalRate_ The mean number of flows that arrive per round; it may be a fraction.
+	 * @param random_ The stream of random numbers, used by this workload only.
+	 */
+	public ShortFlowWorkload(Router router_, FlowSizeDistribution sizes_, double arrivalRate_,
+			SplittableRandom random_) {
+		if (!(arrivalRate_ >= 0.0) || Double.isInfinite(arrivalRate_)) {
+			throw new IllegalArgumentException("Not a rate: " + arrivalRate_);
+		}
+		router = router_;
+		sizes = sizes_;
+		arrivalRate = arrivalRate_;
+		random = random_;
+		order = random_.split();
+		for (int b_ = 0; b_ < completionTimes.length; b_++) {
+			completionTimes[b_] = new Histogram();
+		}
+	}
+
+	/**
+	 * Computes the arrival rate at which the flows offer the given
+	 * fraction of the bottleneck capacity of a router.
+	 *
+	 * @param router_ The router.
+	 * @param sizes_ The distribution of the flow sizes.
+	 * @param load_ The fraction of the capacity, e.g., 0.5.
+	 * @return Returns the mean number of flows per round.
+	 */
+	public static double arrivalRateFor(Router router_, FlowSizeDistribution sizes_, double load_) {
+		return load_ * router_.getBottleneckCapacity() / sizes_.getMean();
+	}
+
+	/**
+	 * Creates the sender of a new flow; the workload keeps and reuses
+	 * it for later flows.  Override this to run another TCP version.
+	 *
+	 * @return Returns a new sender.
+	 */
+	protected TCPSender newSender() {
+		return new TCPSenderReno();
+	}
+
+	/**
+	 * Sets the initial window of the flows that start from now on.
+	 *
+	 * @param segments_ The initial window, in segments.
+	 * @see TCPSender#setInitialWindow(int)
+	 */
+	public void setInitialWindow(int segments_) {
+		initialWindow = segments_;
+	}
+
+	/**
+	 * Sets whether the flows that start from now on set up their
+	 * connection first.
+	 *
+	 * @param handshake_ Whether to model the handshake.
+	 * @see TCPSender#setHandshake(boolean)
+	 */
+	public void setHandshake(boolean handshake_) {
+		handshake = handshake_;
+	}
+
+	/**
+	 * Sets the reporting level of this workload only; other
+	 * simulators keep theirs.
+	 *
+	 * @param level_ The reporting level(s), a combination of the <code>TCPSimulator.REPORTING_LEVEL_</code> flags.
+	 */
+	public void setReportingLevel(int level_) {
+		reportingLevel = level_;
+	}
+
+	/**
+	 * Runs the given number of rounds, in which the flows arrive.
+	 * The flows that have not finished by then have no completion
+	 * time; {@link #report()} counts them apart.
+	 * <P>
+	 * The router takes the segments of the flows one flow after the
+	 * other, so the flows first in line have the best chance to get
+	 * through the queue.  Every round starts with another flow, drawn
+	 * from a stream split from the random numbers of the workload,
+	 * and goes on in the order of arrival from there, so no flow is
+	 * favored for long.
+	 *
+	 * @param rounds_ The number of rounds.
+	 */
+	public void run(int rounds_) {
+		int outerLevel_ = TCPSimulator.setThreadReportingLevel(reportingLevel);
+		try {
+			simulate(rounds_);
+		} finally {
+			TCPSimulator.setThreadReportingLevel(outerLevel_);
+		}
+	}
+
+	/** The body of {@link #run(int)}, in the reporting level of this workload. */
+	private void simulate(int rounds_) {
+		for (int iter_ = 1; iter_ <= rounds_; iter_++) {
+			for (int k_ = CrossTraffic.poisson(random, arrivalRate); k_ > 0; k_--) {
+				start(iter_);
+			}
+			maxActive = Math.max(maxActive, numActive);
+
+			router.beginRound();
+			int first_ = (numActive > 1) ? order.nextInt(numActive) : 0;
+			boolean finished_ = false;
+			for (int f_ = 0; f_ < numActive; f_++) {
+				int i_ = first_ + f_;
+				if (i_ >= numActive) {
+					i_ -= numActive;
+				}
+				Flow flow_ = active[i_];
+				int outcome_ = TCPSimulator.SUCCESS;
+				if (flow_.start < iter_) {
+					outcome_ = flow_.sender.processAcks(flow_.acks);
+				}
+				if (flow_.sender.isFinished()) {
+					finish(flow_, iter_);
+					active[i_] = null;
+					finished_ = true;
+					continue;
+				}
+				flow_.sender.send(flow_.segments, flow_.rcvWindow, outcome_, iter_ - flow_.start, null);
+				router.forward(flow_.segments);
+				flow_.rcvWindow = flow_.receiver.receive(flow_.segments, flow_.acks);
+			}
+			if (finished_) {
+				// Close the gaps, keeping the order of arrival.
+				int kept_ = 0;
+				for (int f_ = 0; f_ < numActive; f_++) {
+					if (active[f_] != null) {
+						active[kept_++] = active[f_];
+					}
+				}
+				for (int f_ = kept_; f_ < numActive; f_++) {
+					active[f_] = null;
+				}
+				numActive = kept_;
+			}
+			lastRound = iter_;
+		}
+	}
+
+	/** Starts a flow in the given round, with hosts from the pool if there are any. */
+	private void start(int iter_) {
+		Flow flow_ = pool.poll();
+		if (flow_ == null) {
+			flow_ = new Flow(newSender(), new TCPReceiver());
+			numCreated++;
+		}
+		flow_.size = sizes.next(random);
+		flow_.start = iter_;
+		flow_.sender.setFlowSize(flow_.size);
+		flow_.sender.setInitialWindow(initialWindow);
+		flow_.sender.setHandshake(handshake);
+		flow_.rcvWindow = flow_.receiver.getRcvWindow();
+		if (numActive == active.length) {
+			Flow[] larger_ = new Flow[2 * active.length];
+			System.arraycopy(active, 0, larger_, 0, numActive);
+			active = larger_;
+		}
+		active[numActive++] = flow_;
+		numArrived++;
+	}
+
+	/** Records the completion time of a flow, and returns its state to the pool. */
+	private void finish(Flow flow_, int iter_) {
+		completionTimes[bucket(flow_.size)].record(iter_ - flow_.start);
+		flow_.sender.reset();
+		flow_.receiver.reset();
+		for (int s_ = 0; s_ < TCPSimulator.MAX_WIN; s_++) {
+			flow_.segments[s_] = null;
+			flow_.acks[s_] = null;
+		}
+		pool.add(flow_);
+	}
+
+	/** Returns the range of a flow size, an index into {@link #BUCKET_LIMITS}. */
+	private static int bucket(int size_) {
+		int b_ = 0;
+		while (size_ > BUCKET_LIMITS[b_]) {
+			b_++;
+		}
+		return b_;
+	}
+
+	/**
+	 * Accessor for the completion times of one range of flow sizes.
+	 *
+	 * @param bucket_ The range, an index into {@link #BUCKET_LIMITS}.
+	 * @return Returns the histogram of the completion times, in rounds.
+	 */
+	public Histogram getCompletionTimes(int bucket_) {
+		return completionTimes[bucket_];
+	}
+
+	/**
+	 * Accessor for the number of flows that arrived.
+	 *
+	 * @return Returns the number of flows started so far.
+	 */
+	public long getNumArrived() {
+		return numArrived;
+	}
+
+	/**
+	 * Accessor for the number of flows still running.
+	 *
+	 * @return Returns the number of flows that have not finished.
+	 */
+	public int getNumActive() {
+		return numActive;
+	}
+
+	/**
+	 * Accessor for the number of flows of one range of sizes that are
+	 * still running.
+	 *
+	 * @param bucket_ The range, an index into {@link #BUCKET_LIMITS}.
+	 * @return Returns the number of flows that have not finished.
+	 */
+	public int getNumUnfinished(int bucket_) {
+		int count_ = 0;
+		for (int f_ = 0; f_ < numActive; f_++) {
+			if (bucket(active[f_].size) == bucket_) {
+				count_++;
+			}
+		}
+		return count_;
+	}
+
+	/**
+	 * Reports the completion times of the finished flows, in rounds
+	 * (RTTs), by range of flow sizes, and next to them the flows still
+	 * running: how many, and the longest time they have run so far,
+	 * which their completion times will exceed.
+	 */
+	public void report() {
+		long finished_ = 0;
+		for (int b_ = 0; b_ < completionTimes.length; b_++) {
+			finished_ += completionTimes[b_].getCount();
+		}
+		System.out.println(
+			"Flows arrived: " + numArrived + ", finished: " + finished_
+			+ ", still running: " + numActive
+		);
+		System.out.println(
+			"Most flows at once: " + maxActive + ", hosts created: " + numCreated
+		);
+		int[] running_ = new int[BUCKET_LIMITS.length];
+		int[] age_ = new int[BUCKET_LIMITS.length];
+		for (int f_ = 0; f_ < numActive; f_++) {
+			int b_ = bucket(active[f_].size);
+			running_[b_]++;
+			age_[b_] = Math.max(age_[b_], lastRound - active[f_].start + 1);
+		}
+		System.out.println("Flow completion time [rounds], and the flows still running:");
+		System.out.println("Flows\tMean\tp50\tp90\tp99\tMax\tRunning\tAge\tSize");
+		for (int b_ = 0; b_ < completionTimes.length; b_++) {
+			Histogram fct_ = completionTimes[b_];
+			System.out.println(
+				fct_.getCount() + "\t" + ((float) fct_.getMean())
+				+ "\t" + fct_.getQuantile(0.5) + "\t" + fct_.getQuantile(0.9)
+				+ "\t" + fct_.getQuantile(0.99) + "\t" + fct_.getMax()
+				+ "\t" + running_[b_] + "\t" + age_[b_]
+				+ "\t" + BUCKET_NAMES[b_]
+			);
+		}
+	}
+
+	/**
+	 * One flow: its hosts, their segment arrays, and its size and
+	 * start.  A flow has only one array of segments and one of
+	 * acknowledgements, as in {@link FlowThreadSimulator}.
+	 */
+	private static class Flow {
+		final TCPSender sender;
+		final TCPReceiver receiver;
+		final TCPSegment[] segments = new TCPSegment[TCPSimulator.MAX_WIN];
+		final TCPSegment[] acks = new TCPSegment[TCPSimulator.MAX_WIN];
+
+		/** The receive window sent along with {@link #acks}. */
+		int rcvWindow;
+
+		/** The number of bytes the flow transfers. */
+		int size;
+
+		/** The round in which this flow started. */
+		int start;
+
+		Flow(TCPSender sender_, TCPReceiver receiver_) {
+			sender = sender_;
+			receiver = receiver_;
+		}
+	}
+
+	/**
+	 * Runs a workload; see the class description.
+	 *
+	 * @param argv_ Input arguments: optionally <code>-iw &lt;segments&gt;</code> and <code>-handshake</code>, then the number of rounds, the load, and optionally the CDF of the flow sizes, the mismatch ratio (default 10) and the router buffer size (default 7).
+	 */
+	public static void main(String[] argv_) {
+		int initialWindow_ = 1;
+		boolean handshake_ = false;
+		int a_ = 0;
+		for (; a_ < argv_.length && argv_[a_].startsWith("-"); a_++) {
+			if (argv_[a_].equals("-iw") && a_ + 1 < argv_.length) {
+				initialWindow_ = Integer.parseInt(argv_[++a_]);
+			} else if (argv_[a_].equals("-handshake")) {
+				handshake_ = true;
+			} else {
+				break;
+			}
+		}
+		if (argv_.length - a_ < 2) {
+			System.err.println(
+				"Usage: ShortFlowWorkload [-iw <segments>] [-handshake] <rounds> <load> [<cdf> [<mismatch> <buffer>]]"
+			);
+			System.exit(1);
+		}
+		int rounds_ = Integer.parseInt(argv_[a_]);
+		double load_ = Double.parseDouble(argv_[a_ + 1]);
+		String cdf_ = (argv_.length > a_ + 2) ? argv_[a_ + 2] : "websearch";
+		int mismatchRatio_ = (argv_.length > a_ + 3) ? Integer.parseInt(argv_[a_ + 3]) : 10;
+		int bufferSize_ = (argv_.length > a_ + 4) ? Integer.parseInt(argv_[a_ + 4]) : 7;
+
+		FlowSizeDistribution sizes_ = null;
+		if (cdf_.equals("websearch")) {
+			sizes_ = new FlowSizeDistribution(FlowSizeDistribution.WEB_SEARCH, TCPSimulator.MSS);
+		} else if (cdf_.equals("datamining")) {
+			sizes_ = new FlowSizeDistribution(FlowSizeDistribution.DATA_MINING, TCPSimulator.MSS);
+		} else {
+			try {
+				sizes_ = FlowSizeDistribution.load(cdf_, TCPSimulator.MSS);
+			} catch (IOException e_) {
+				System.err.println("Cannot read " + cdf_ + ": " + e_);
+				System.exit(1);
+			}
+		}
+
+		Router router_ = new Router(mismatchRatio_, bufferSize_);
+		double rate_ = arrivalRateFor(router_, sizes_, load_);
+		System.out.println(
+			"Mean flow size: " + Math.round(sizes_.getMean()) + " bytes, "
+			+ rate_ + " flows per round"
+		);
+		ShortFlowWorkload workload_ =
+			new ShortFlowWorkload(router_, sizes_, rate_, new SplittableRandom(WORKLOAD_SEED));
+		workload_.setInitialWindow(initialWindow_);
+		workload_.setHandshake(handshake_);
+		// The per-iteration tables of many flows would be unreadable.
+		workload_.setReportingLevel(0);
+		workload_.run(rounds_);
+		workload_.report();
+	}
+}
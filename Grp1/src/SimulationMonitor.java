@@ -0,0 +1,210 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes a running simulation through JMX, so that a long run can be
+ * watched, and steered, from JConsole or another JMX client, without
+ * restarting it.  It registers four MXBeans in the platform MBean
+ * server, under the domain <code>tcpsim</code>, with the given name:
+ * <ul>
+ * <li> <code>type=Simulator</code>: the round, loss rate and mean RTT,
+ * and the reporting level of this simulator, which can be changed
+ * (see {@link SimulatorMXBean}); </li>
+ * <li> <code>type=Sender</code>: the congestion window, threshold,
+ * sending mode and flight size (see {@link SenderMXBean}); </li>
+ * <li> <code>type=Receiver</code>: the depth of the reorder buffer
+ * (see {@link ReceiverMXBean}); </li>
+ * <li> <code>type=Router</code>: the queue length, and the buffer size
+ * and random loss rate, which can be changed; the latter only if the
+ * router has random losses (see {@link RouterMXBean}). </li>
+ * </ul>
+ * The values are read without synchronizing with the simulation, so
+ * they may be a round old, or from the middle of a round.  The values
+ * that can be changed take effect from the next packet on.
+ *
+ * @see TCPSimulator#monitor(String)
+ */
+public class SimulationMonitor {
+	private static final String DOMAIN = "tcpsim";
+
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	private final ObjectName[] names;
+
+	/**
+	 * Constructor; registers the MXBeans.
+	 *
+	 * @param name_ The name of the simulation, unique within this virtual machine.
+	 * @param simulator_ The simulator.
+	 * @param sender_ Its sender.
+	 * @param receiver_ Its receiver.
+	 * @param router_ Its router.
+	 * @throws JMException If the MXBeans cannot be registered, e.g., because the name is taken.
+	 */
+	SimulationMonitor(String name_, TCPSimulator simulator_, TCPSender sender_,
+			TCPReceiver receiver_, Router router_) throws JMException {
+		String quoted_ = ObjectName.quote(name_);
+		names = new ObjectName[] {
+			new ObjectName(DOMAIN + ":type=Simulator,name=" + quoted_),
+			new ObjectName(DOMAIN + ":type=Sender,name=" + quoted_),
+			new ObjectName(DOMAIN + ":type=Receiver,name=" + quoted_),
+			new ObjectName(DOMAIN + ":type=Router,name=" + quoted_)
+		};
+		Object[] beans_ = {
+			new SimulatorBean(simulator_), new SenderBean(sender_),
+			new ReceiverBean(receiver_), new RouterBean(router_)
+		};
+		int registered_ = 0;
+		try {
+			for (; registered_ < names.length; registered_++) {
+				server.registerMBean(beans_[registered_], names[registered_]);
+			}
+		} catch (JMException e_) {
+			while (registered_-- > 0) {
+				server.unregisterMBean(names[registered_]);
+			}
+			throw e_;
+		}
+	}
+
+	/**
+	 * Unregisters the MXBeans.
+	 *
+	 * @throws JMException If the MXBeans cannot be unregistered.
+	 */
+	public void close() throws JMException {
+		for (int i_ = 0; i_ < names.length; i_++) {
+			if (server.isRegistered(names[i_])) {
+				server.unregisterMBean(names[i_]);
+			}
+		}
+	}
+
+	private static class SimulatorBean implements SimulatorMXBean {
+		private final TCPSimulator simulator;
+
+		SimulatorBean(TCPSimulator simulator_) {
+			simulator = simulator_;
+		}
+
+		public int getRound() {
+			return simulator.getRound();
+		}
+
+		public double getLossRate() {
+			return simulator.getLossRate();
+		}
+
+		public double getMeanRtt() {
+			return simulator.getMeanRtt();
+		}
+
+		public int getReportingLevel() {
+			return simulator.getReportingLevel();
+		}
+
+		public void setReportingLevel(int level_) {
+			simulator.setReportingLevel(level_);
+		}
+	}
+
+	private static class SenderBean implements SenderMXBean {
+		private final TCPSender sender;
+
+		SenderBean(TCPSender sender_) {
+			sender = sender_;
+		}
+
+		public int getCongWindow() {
+			return sender.congWindow;
+		}
+
+		public int getSSThresh() {
+			return sender.SSThresh;
+		}
+
+		public String getSendMode() {
+			return sender.getModeName(sender.sendMode);
+		}
+
+		public int getFlightSize() {
+			return sender.lastByteSent - sender.lastByteAcked;
+		}
+
+		public int getTotalBytesTransmitted() {
+			return sender.getTotalBytesTransmitted();
+		}
+	}
+
+	private static class ReceiverBean implements ReceiverMXBean {
+		private final TCPReceiver receiver;
+
+		ReceiverBean(TCPReceiver receiver_) {
+			receiver = receiver_;
+		}
+
+		public int getReorderBufferDepth() {
+			return receiver.lastBufferedIdx + 1;
+		}
+
+		public int getNextByteExpected() {
+			return receiver.nextByteExpected;
+		}
+
+		public int getRcvWindow() {
+			return receiver.getRcvWindow();
+		}
+	}
+
+	private static class RouterBean implements RouterMXBean {
+		private final Router router;
+
+		RouterBean(Router router_) {
+			router = router_;
+		}
+
+		public String getType() {
+			return router.getClass().getName();
+		}
+
+		public int getQueueLength() {
+			return router.getQueueLength();
+		}
+
+		public int getBufferSize() {
+			return router.getBufferSize();
+		}
+
+		public void setBufferSize(int bufferSize_) {
+			router.setBufferSize(bufferSize_);
+		}
+
+		public int getBottleneckCapacity() {
+			return router.getBottleneckCapacity();
+		}
+
+		public double getLossProbability() {
+			if (router instanceof RandomLossRouter) {
+				return ((RandomLossRouter) router).getLossProbability();
+			}
+			return 0.0;
+		}
+
+		public boolean isLossProbabilityAdjustable() {
+			return router instanceof RandomLossRouter;
+		}
+
+		public boolean changeLossProbability(double lossProbability_) {
+			if (!isLossProbabilityAdjustable()) {
+				return false;
+			}
+			((RandomLossRouter) router).setLossProbability(lossProbability_);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events of the simulator, so that its
+ * congestion control can be followed in JDK Mission Control along
+ * with the garbage collections and the CPU profile of a long run,
+ * e.g., one started with
+ * <code>java -XX:StartFlightRecording=filename=run.jfr TCPSimulator 1000000</code>.
+ * <P>
+ * The events are independent of {@link TCPSimulator#currentReportingLevel}.
+ * When they are not being recorded, creating one costs next to
+ * nothing: the JIT compiler removes the object, and the fields are
+ * only filled in if {@link Event#shouldCommit()} says so.  None of
+ * them records a stack trace.
+ * <P>
+ * The events happen within a {@link Round} of the same thread, which
+ * tells the simulated time.
+ */
+public class SimulatorEvents {
+	private SimulatorEvents() {
+	}
+
+	/** One transmission round, from its start to the received ACKs. */
+	@Name("tcpsim.Round")
+	@Label("Round")
+	@Category("TCP Simulator")
+	@StackTrace(false)
+	public static class Round extends Event {
+		@Label("Round")
+		public int round;
+
+		@Label("Segments Sent")
+		public int sent;
+
+		@Label("Segments Lost")
+		public int lost;
+	}
+
+	/** A change of the congestion window or the slow start threshold. */
+	@Name("tcpsim.CongestionWindow")
+	@Label("Congestion Window")
+	@Category("TCP Simulator")
+	@StackTrace(false)
+	public static class CongestionWindow extends Event {
+		@Label("Window")
+		@DataAmount
+		public int congWindow;
+
+		@Label("Previous Window")
+		@DataAmount
+		public int previous;
+
+		@Label("SSThresh")
+		@DataAmount
+		public int ssThresh;
+
+		@Label("Mode")
+		public String mode;
+	}
+
+	/** A switch of the sending mode, e.g., from slow start to congestion avoidance. */
+	@Name("tcpsim.ModeSwitch")
+	@Label("Mode Switch")
+	@Category("TCP Simulator")
+	@StackTrace(false)
+	public static class ModeSwitch extends Event {
+		@Label("From")
+		public String from;
+
+		@Label("To")
+		public String to;
+
+		@Label("Window")
+		@DataAmount
+		public int congWindow;
+	}
+
+	/** A loss detected by the sender, through three duplicate ACKs or a timeout. */
+	@Name("tcpsim.LossDetected")
+	@Label("Loss Detected")
+	@Category("TCP Simulator")
+	@StackTrace(false)
+	public static class LossDetected extends Event {
+		@Label("Cause")
+		@Description("Three duplicate ACKs, or a timeout")
+		public String cause;
+
+		@Label("Window")
+		@Description("The congestion window after the reaction")
+		@DataAmount
+		public int congWindow;
+
+		@Label("SSThresh")
+		@DataAmount
+		public int ssThresh;
+	}
+
+	/** A segment discarded by a router. */
+	@Name("tcpsim.Drop")
+	@Label("Drop")
+	@Category("TCP Simulator")
+	@StackTrace(false)
+	public static class Drop extends Event {
+		@Label("Sequence Number")
+		public int seqNum;
+
+		@Label("Cause")
+		@Description("The queue, a random loss, or a trace")
+		public String cause;
+	}
+
+	/** A change of the number of out-of-sequence segments a receiver buffers. */
+	@Name("tcpsim.ReorderBuffer")
+	@Label("Reorder Buffer")
+	@Category("TCP Simulator")
+	@StackTrace(false)
+	public static class ReorderBuffer extends Event {
+		@Label("Segments")
+		public int depth;
+
+		@Label("Next Byte Expected")
+		public int nextByteExpected;
+	}
+
+	/**
+	 * Emits a {@link Drop} event.
+	 *
+	 * @param segment_ The discarded segment.
+	 * @param cause_ Why it was discarded.
+	 */
+	static void drop(TCPSegment segment_, String cause_) {
+		Drop event_ = new Drop();
+		if (event_.shouldCommit()) {
+			event_.seqNum = segment_.seqNum;
+			event_.cause = cause_;
+			event_.commit();
+		}
+	}
+}
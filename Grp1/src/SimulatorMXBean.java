@@ -0,0 +1,30 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+/**
+ * The progress of a {@link TCPSimulator} run, for JConsole and other
+ * JMX clients, with its reporting level, which can be changed in the
+ * middle of a run.
+ *
+ * @see SimulationMonitor
+ */
+public interface SimulatorMXBean {
+	/** @return Returns the last round run. */
+	int getRound();
+
+	/** @return Returns the fraction of the data segments the router discarded so far. */
+	double getLossRate();
+
+	/** @return Returns the mean RTT so far, in rounds. */
+	double getMeanRtt();
+
+	/** @return Returns the reporting level of this simulator, a combination of the <code>REPORTING_LEVEL_</code> bits. */
+	int getReportingLevel();
+
+	/**
+	 * @param level_ The new reporting level; it applies to this simulator only.
+	 * @see TCPSimulator#setReportingLevel(int)
+	 */
+	void setReportingLevel(int level_);
+}
@@ -0,0 +1,430 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+/**
+ * Emulation mode: the same sender and receiver as in
+ * {@link TCPSimulator}, but their segments travel as real UDP
+ * datagrams over the loopback interface, in wall-clock time.
+ * <P>
+ * Three non-blocking datagram channels stand for the sender host,
+ * the bottleneck and the receiver host:
+ * <P><CENTER>
+ * <code> SENDER -> SHAPER -> RECEIVER -> SENDER </code>
+ * </CENTER>
+ * <P>The shaper takes the place of the {@link Router}: it forwards
+ * the data segments at the rate of the router's bottleneck capacity
+ * per round, queues up to the router's buffer size of segments, and
+ * discards the rest.  As in the simulator, acknowledgements go
+ * straight back to the sender.  The socket buffers of the operating
+ * system may drop datagrams too, which is then just another loss.
+ * <P>
+ * A round is a fixed wall-clock interval.  At the start of each
+ * round, the sender processes the acknowledgements received during
+ * the previous one and sends its next segments.  If the emulator
+ * falls behind by a whole round or more, e.g., when the thread was
+ * not scheduled, the intervals it missed are skipped and counted
+ * rather than caught up with rounds back to back, which would send
+ * their segments in one burst.  All three hosts
+ * are served by one thread and one {@link Selector}: every time the
+ * selector wakes up, each readable channel is drained completely and
+ * every datagram that may be sent is written out, which batches the
+ * system calls as far as Java allows.
+ * <P>
+ * Every data datagram carries a 12-byte header (sequence number,
+ * length, flags) followed by the segment's payload of zeros, so the
+ * loopback carries the same number of bytes as a real transfer.
+ * A datagram that a socket has no buffer space for is not sent: the
+ * segments of the sender and the ACKs of the receiver are then lost,
+ * and counted, while the shaper keeps its datagram queued until the
+ * socket can take it.
+ */
+public class SocketEmulator {
+	/** Size of the datagram header, in bytes. */
+	static final int HEADER = 12;
+
+	/** Header flag: the datagram is an acknowledgement. */
+	static final int FLAG_ACK = 1;
+
+	private final TCPSender sender;
+	private final TCPReceiver receiver;
+	private final Shaper shaper;
+
+	/** Length of one round, in nanoseconds. */
+	private final long roundNanos;
+
+	/** Datagrams written by the sender, and those that reached the shaper. */
+	private long dataSent = 0;
+	private long dataAtShaper = 0;
+
+	/** Segments and ACKs that found no buffer space in the sending socket. */
+	private long dataUnsent = 0;
+	private long acksUnsent = 0;
+
+	/** Round intervals that passed before the emulator could start them. */
+	private long skippedRounds = 0;
+
+	/** The reporting level of the hosts. */
+	private volatile int reportingLevel = TCPSimulator.currentReportingLevel;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sender_ The sending host.
+	 * @param receiver_ The receiving host.
+	 * @param mismatchRatio_ The given mismatch ratio between the transmission speeds on the input and output links.
+	 * @param bufferSize_ The given buffer size for the shaper's queue, in segments.
+	 * @param roundMicros_ The length of one round (RTT), in microseconds.
+	 * @see Router
+	 */
+	public SocketEmulator(TCPSender sender_, TCPReceiver receiver_,
+			int mismatchRatio_, int bufferSize_, long roundMicros_) {
+		sender = sender_;
+		receiver = receiver_;
+		roundNanos = roundMicros_ * 1000L;
+		// The router works out the capacity, with the same rule as
+		// in the simulator (bufferSize < mismatchRatio).
+		Router router_ = new Router(mismatchRatio_, bufferSize_);
+		int capacity_ = router_.getBottleneckCapacity();
+		shaper = new Shaper(
+			capacity_ / TCPSimulator.MSS - 1, capacity_ / (double) roundNanos
+		);
+	}
+
+	/**
+	 * Sets the reporting level of this emulator only; other
+	 * simulators keep theirs.
+	 *
+	 * @param level_ The reporting level(s), a combination of the <code>TCPSimulator.REPORTING_LEVEL_</code> flags.
+	 */
+	public void setReportingLevel(int level_) {
+		reportingLevel = level_;
+	}
+
+	/**
+	 * Accessor for the number of round intervals skipped because the
+	 * emulator fell behind the wall clock.
+	 *
+	 * @return Returns the number of skipped intervals, in the last run.
+	 */
+	public long getSkippedRounds() {
+		return skippedRounds;
+	}
+
+	/**
+	 * Runs the emulation for the given number of rounds.  Reports
+	 * the goodput and the losses at the end.
+	 *
+	 * @param num_iter_ The number of rounds to run.
+	 * @throws IOException If the loopback sockets cannot be opened or used.
+	 */
+	public void run(int num_iter_) throws IOException {
+		int outerLevel_ = TCPSimulator.setThreadReportingLevel(reportingLevel);
+		try {
+			emulate(num_iter_);
+		} finally {
+			TCPSimulator.setThreadReportingLevel(outerLevel_);
+		}
+	}
+
+	/** The body of {@link #run(int)}, in the reporting level of this emulator. */
+	private void emulate(int num_iter_) throws IOException {
+		Selector selector_ = Selector.open();
+		DatagramChannel senderCh_ = open(selector_);
+		DatagramChannel shaperCh_ = open(selector_);
+		DatagramChannel receiverCh_ = open(selector_);
+		SocketAddress senderAddr_ = senderCh_.socket().getLocalSocketAddress();
+		SocketAddress shaperAddr_ = shaperCh_.socket().getLocalSocketAddress();
+		SocketAddress receiverAddr_ = receiverCh_.socket().getLocalSocketAddress();
+
+		ByteBuffer in_ = ByteBuffer.allocateDirect(HEADER + TCPSimulator.MSS);
+		ByteBuffer out_ = ByteBuffer.allocateDirect(HEADER + TCPSimulator.MSS);
+		TCPSegment[] segments_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		TCPSegment[] acks_ = new TCPSegment[TCPSimulator.MAX_WIN];
+		TCPSegment[] oneSegment_ = new TCPSegment[1];
+		TCPSegment[] oneAck_ = new TCPSegment[1];
+		int numAcks_ = 0;
+		int rcvWindow_ = receiver.getRcvWindow();
+
+		long start_ = System.nanoTime();
+		long nextRound_ = start_;
+		int iter_ = 0;
+		skippedRounds = 0;
+		try {
+			while (true) {
+				long now_ = System.nanoTime();
+				if (now_ >= nextRound_) {
+					if (iter_ == num_iter_) {
+						break;
+					}
+					iter_++;
+					long late_ = (now_ - nextRound_) / roundNanos;
+					if (late_ > 0) {
+						// Start this round now, in the current interval.
+						skippedRounds += late_;
+						nextRound_ += late_ * roundNanos;
+					}
+					nextRound_ += roundNanos;
+					int outcome_ = TCPSimulator.SUCCESS;
+					if (iter_ != 1) {
+						outcome_ = sender.processAcks(acks_);
+					}
+					for (int i_ = 0; i_ < acks_.length; i_++) {
+						acks_[i_] = null;
+					}
+					numAcks_ = 0;
+					sender.send(segments_, rcvWindow_, outcome_, iter_ - 1, null);
+					for (int i_ = 0; i_ < segments_.length; i_++) {
+						if (segments_[i_] != null) {
+							encode(segments_[i_], 0, out_);
+							if (senderCh_.send(out_, shaperAddr_) == 0) {
+								dataUnsent++;
+							} else {
+								dataSent++;
+							}
+						}
+					}
+				}
+
+				if (!shaper.release(now_, shaperCh_, receiverAddr_)) {
+					// Woken up when the socket has room again.
+					shaperCh_.keyFor(selector_).interestOps(
+						SelectionKey.OP_READ | SelectionKey.OP_WRITE
+					);
+				}
+
+				// Sleep until the next round or the next release, at most.
+				long wait_ = Math.min(nextRound_, shaper.nextRelease(now_)) - System.nanoTime();
+				if (wait_ >= 1000000L) {
+					selector_.select(wait_ / 1000000L);
+				} else {
+					selector_.selectNow();
+				}
+
+				Iterator<SelectionKey> keys_ = selector_.selectedKeys().iterator();
+				while (keys_.hasNext()) {
+					SelectionKey key_ = keys_.next();
+					DatagramChannel ch_ = (DatagramChannel) key_.channel();
+					keys_.remove();
+					if (key_.isWritable()) {
+						key_.interestOps(SelectionKey.OP_READ);
+						shaper.blocked = false;
+					}
+					in_.clear();
+					while (ch_.receive(in_) != null) {
+						in_.flip();
+						if (ch_ == shaperCh_) {
+							dataAtShaper++;
+							shaper.enqueue(in_);
+						} else if (ch_ == receiverCh_) {
+							oneSegment_[0] = decode(in_);
+							rcvWindow_ = receiver.receive(oneSegment_, oneAck_);
+							if (oneAck_[0] != null) {
+								encode(oneAck_[0], rcvWindow_, out_);
+								if (receiverCh_.send(out_, senderAddr_) == 0) {
+									acksUnsent++;
+								}
+							}
+						} else {
+							int window_ = in_.getInt(8) >>> 8;
+							TCPSegment ack_ = decode(in_);
+							if (numAcks_ < acks_.length) {
+								acks_[numAcks_++] = ack_;
+								rcvWindow_ = window_;
+							}
+						}
+						in_.clear();
+					}
+				}
+			}
+		} finally {
+			senderCh_.close();
+			shaperCh_.close();
+			receiverCh_.close();
+			selector_.close();
+		}
+		report(System.nanoTime() - start_);
+	}
+
+	/**
+	 * Reports the goodput and where segments were lost.
+	 *
+	 * @param elapsed_ The wall-clock duration of the run, in nanoseconds.
+	 */
+	protected void report(long elapsed_) {
+		long bytes_ = sender.getTotalBytesTransmitted();
+		double seconds_ = elapsed_ / 1e9;
+		System.out.println(
+			"================================================================"
+		);
+		System.out.println("Elapsed: " + Math.round(seconds_ * 1000.0) + " ms");
+		System.out.println(
+			"Goodput: " + Math.round(bytes_ / seconds_ / 1e4) / 100.0 + " MB/s ("
+			+ bytes_ + " bytes)"
+		);
+		System.out.println(
+			"Datagrams sent: " + dataSent
+			+ ", lost in sockets: " + (dataSent - dataAtShaper)
+			+ ", dropped by shaper: " + shaper.dropped
+		);
+		System.out.println(
+			"Not sent for lack of socket buffer: " + dataUnsent + " segments, "
+			+ acksUnsent + " ACKs; round intervals skipped: " + skippedRounds
+		);
+	}
+
+	private static DatagramChannel open(Selector selector_) throws IOException {
+		DatagramChannel ch_ = DatagramChannel.open();
+		ch_.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		ch_.configureBlocking(false);
+		ch_.register(selector_, SelectionKey.OP_READ);
+		return ch_;
+	}
+
+	/**
+	 * Writes a segment into the buffer, ready to be sent.
+	 * The flags word carries the receive window of an ACK in
+	 * its upper 24 bits.
+	 *
+	 * @param segment_ The segment.
+	 * @param window_ The receive window, for an ACK.
+	 * @param buf_ The buffer, overwritten.
+	 */
+	static void encode(TCPSegment segment_, int window_, ByteBuffer buf_) {
+		buf_.clear();
+		buf_.putInt(segment_.seqNum);
+		buf_.putInt(segment_.length);
+		buf_.putInt((window_ << 8) | (segment_.ack ? FLAG_ACK : 0));
+		if (!segment_.ack) {
+			// The payload; its content is irrelevant.
+			buf_.position(HEADER + segment_.length);
+		}
+		buf_.flip();
+	}
+
+	/**
+	 * Reads a segment from a received datagram.
+	 *
+	 * @param buf_ The received datagram.
+	 * @return Returns the segment.
+	 */
+	static TCPSegment decode(ByteBuffer buf_) {
+		return new TCPSegment(
+			buf_.getInt(0), buf_.getInt(4), (buf_.getInt(8) & FLAG_ACK) != 0
+		);
+	}
+
+	/**
+	 * A token-bucket shaper with a drop-tail queue of fixed length.
+	 * The queued datagrams are kept in pre-allocated direct buffers.
+	 */
+	static class Shaper {
+		private final ByteBuffer[] queue;
+		private int head = 0;
+		private int size = 0;
+
+		/** Bytes per nanosecond. */
+		private final double rate;
+
+		/** Bytes that may be sent right now; at most one segment's worth. */
+		private double tokens = TCPSimulator.MSS;
+		private long lastRefill = System.nanoTime();
+
+		/** Datagrams that found the queue full. */
+		long dropped = 0;
+
+		/** Whether the socket had no room for the datagram at the head. */
+		boolean blocked = false;
+
+		Shaper(int bufferSize_, double rate_) {
+			// One segment is being transmitted, the others wait.
+			queue = new ByteBuffer[bufferSize_ + 1];
+			for (int i_ = 0; i_ < queue.length; i_++) {
+				queue[i_] = ByteBuffer.allocateDirect(HEADER + TCPSimulator.MSS);
+			}
+			rate = rate_;
+		}
+
+		void enqueue(ByteBuffer datagram_) {
+			if (size == queue.length) {
+				dropped++;
+				return;
+			}
+			ByteBuffer slot_ = queue[(head + size) % queue.length];
+			slot_.clear();
+			slot_.put(datagram_);
+			slot_.flip();
+			size++;
+		}
+
+		/**
+		 * Sends the queued datagrams that the tokens allow.
+		 *
+		 * @return Returns <code>false</code> if the socket had no room, so the datagram at the head waits.
+		 */
+		boolean release(long now_, DatagramChannel ch_, SocketAddress to_) throws IOException {
+			tokens = Math.min(
+				TCPSimulator.MSS, tokens + (now_ - lastRefill) * rate
+			);
+			lastRefill = now_;
+			if (blocked) {
+				return true;
+			}
+			while (size > 0 && tokens >= queue[head].remaining() - HEADER) {
+				ByteBuffer slot_ = queue[head];
+				int length_ = slot_.remaining() - HEADER;
+				if (ch_.send(slot_, to_) == 0) {
+					blocked = true;
+					return false;
+				}
+				tokens -= length_;
+				head = (head + 1) % queue.length;
+				size--;
+			}
+			return true;
+		}
+
+		long nextRelease(long now_) {
+			if (size == 0 || blocked) {
+				return Long.MAX_VALUE;
+			}
+			double missing_ = (queue[head].remaining() - HEADER) - tokens;
+			return now_ + Math.max(0L, (long) (missing_ / rate));
+		}
+	}
+
+	/**
+	 * Runs the emulation.
+	 *
+	 * @param argv_ Input arguments: the number of rounds, and optionally the round length in microseconds (default 1000).
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 1) {
+			System.err.println("Please enter the number of iterations!");
+			System.exit(1);
+		}
+		int numIter_ = Integer.parseInt(argv_[0]);
+		long roundMicros_ = (argv_.length > 1) ? Long.parseLong(argv_[1]) : 1000L;
+
+		SocketEmulator emulator_ = new SocketEmulator(
+			new TCPSenderReno(), new TCPReceiver(), 10, 7, roundMicros_
+		);
+		// Printing would distort the timing.
+		emulator_.setReportingLevel(0);
+		try {
+			emulator_.run(numIter_);
+		} catch (IOException e_) {
+			System.err.println("Emulation failed: " + e_);
+			System.exit(1);
+		}
+	}
+}
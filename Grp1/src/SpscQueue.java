@@ -0,0 +1,75 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue for exactly one producer thread and
+ * one consumer thread.  The producer only writes the tail and the
+ * consumer only writes the head; each publishes its progress with
+ * an ordered store, which is all the synchronization needed.
+ * <P>
+ * Used to pass the segments that cross from one
+ * {@link LogicalProcess} to another.
+ *
+ * @param <E> The type of the queued elements.
+ */
+public class SpscQueue<E> {
+	private final Object[] buffer;
+	private final int mask;
+
+	/** Next position to read; written by the consumer only. */
+	private final AtomicLong head = new AtomicLong(0);
+
+	/** Next position to write; written by the producer only. */
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity_ The minimum number of elements the queue can hold; rounded up to a power of two.
+	 */
+	public SpscQueue(int capacity_) {
+		int size_ = 1;
+		while (size_ < capacity_) {
+			size_ <<= 1;
+		}
+		buffer = new Object[size_];
+		mask = size_ - 1;
+	}
+
+	/**
+	 * Appends an element.  Called by the producer thread only.
+	 *
+	 * @param element_ The element to append; must not be <code>null</code>.
+	 * @return Returns <code>false</code> if the queue is full, <code>true</code> otherwise.
+	 */
+	public boolean offer(E element_) {
+		long tail_ = tail.get();
+		if (tail_ - head.get() == buffer.length) {
+			return false;
+		}
+		buffer[(int) tail_ & mask] = element_;
+		tail.lazySet(tail_ + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the oldest element.  Called by the consumer thread only.
+	 *
+	 * @return Returns the oldest element, or <code>null</code> if the queue is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long head_ = head.get();
+		if (head_ == tail.get()) {
+			return null;
+		}
+		int idx_ = (int) head_ & mask;
+		E element_ = (E) buffer[idx_];
+		buffer[idx_] = null;
+		head.lazySet(head_ + 1);
+		return element_;
+	}
+}
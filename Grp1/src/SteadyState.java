@@ -0,0 +1,249 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Online estimator of the steady-state mean of a per-round measure,
+ * such as the goodput of a sender.  It removes the warm-up transient
+ * (slow start, in our case) and tells when the estimate is precise
+ * enough for the run to stop.
+ * <P>
+ * The values are averaged in groups of {@link #MSER_BATCH} rounds.
+ * The warm-up is found with the MSER-5 rule: it is the number of
+ * groups <i>d</i> that minimizes
+ * <P><CENTER>
+ * <code> sum<sub>i &#8805; d</sub> (x<sub>i</sub> - mean<sub>d</sub>)<sup>2</sup> / (n - d)<sup>2</sup> </code>
+ * </CENTER>
+ * <P>over the first half of the <i>n</i> groups; a minimum right at
+ * the half means that the transient may not be over yet.
+ * The groups after the warm-up are then split into
+ * {@link #NUM_BATCHES} batches, whose means give a 95 % confidence
+ * interval.  The estimate has <i>converged</i> once the half-width
+ * of the interval is within the requested fraction of the mean.
+ * <P>
+ * The warm-up is estimated again as the values come in, so the
+ * estimator costs little more than storing one number per group.
+ * An evaluation that finds no estimate, because the transient may
+ * not be over or too few groups follow it, clears the previous one:
+ * it was made from fewer values, with a warm-up now known to be
+ * wrong.
+ */
+public class SteadyState {
+	/** Number of rounds averaged into one group (the 5 of MSER-5). */
+	public static final int MSER_BATCH = 5;
+
+	/** Number of batches for the confidence interval. */
+	public static final int NUM_BATCHES = 20;
+
+	/** Fewest groups per batch; shorter batches are too correlated. */
+	private static final int MIN_GROUPS_PER_BATCH = 2;
+
+	/** Student's t quantile for 95 % confidence and NUM_BATCHES - 1 degrees of freedom. */
+	private static final double T_95 = 2.093;
+
+	/** Requested half-width of the interval, as a fraction of the mean. */
+	private final double precision;
+
+	/** Means of the complete groups. */
+	private double[] groups = new double[64];
+	private int numGroups = 0;
+
+	/** Sum and count of the values of the group being filled. */
+	private double partialSum = 0.0;
+	private int partialCount = 0;
+
+	/** Number of groups at which the estimate is evaluated next. */
+	private int nextEvaluation = NUM_BATCHES * MIN_GROUPS_PER_BATCH;
+
+	private int warmupGroups = 0;
+	private double mean = 0.0;
+	private double halfWidth = Double.POSITIVE_INFINITY;
+	private boolean converged = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param precision_ The requested half-width of the 95 % confidence interval, as a fraction of the mean (e.g., 0.02).
+	 */
+	public SteadyState(double precision_) {
+		if (precision_ <= 0.0) {
+			throw new IllegalArgumentException("The precision must be positive: " + precision_);
+		}
+		precision = precision_;
+	}
+
+	/**
+	 * Adds the value of the next round.
+	 *
+	 * @param value_ The measure in this round.
+	 * @return Returns <code>true</code> once the estimate has converged.
+	 */
+	public boolean add(double value_) {
+		partialSum += value_;
+		if (++partialCount < MSER_BATCH) {
+			return converged;
+		}
+		if (numGroups == groups.length) {
+			double[] larger_ = new double[2 * groups.length];
+			System.arraycopy(groups, 0, larger_, 0, numGroups);
+			groups = larger_;
+		}
+		groups[numGroups++] = partialSum / MSER_BATCH;
+		partialSum = 0.0;
+		partialCount = 0;
+		if (numGroups >= nextEvaluation) {
+			evaluate();
+			// Every tenth of the run, so the total work stays small.
+			nextEvaluation = numGroups + Math.max(1, numGroups / 10);
+		}
+		return converged;
+	}
+
+	/** Finds the warm-up, and the mean and interval after it. */
+	private void evaluate() {
+		// MSER: suffix sums from the end, the minimum over the first half.
+		double sum_ = 0.0;
+		double sumSquares_ = 0.0;
+		double best_ = Double.POSITIVE_INFINITY;
+		int bestD_ = 0;
+		for (int d_ = numGroups - 1; d_ >= 0; d_--) {
+			sum_ += groups[d_];
+			sumSquares_ += groups[d_] * groups[d_];
+			int n_ = numGroups - d_;
+			double statistic_ = (sumSquares_ - sum_ * sum_ / n_) / ((double) n_ * n_);
+			if (d_ <= numGroups / 2 && statistic_ <= best_) {
+				best_ = statistic_;
+				bestD_ = d_;
+			}
+		}
+		if (bestD_ > 0 && bestD_ == numGroups / 2) {
+			clear();		// the transient may not be over
+			return;
+		}
+		warmupGroups = bestD_;
+
+		// Batch means over the groups after the warm-up; the oldest
+		// leftover groups are left out.
+		int perBatch_ = (numGroups - warmupGroups) / NUM_BATCHES;
+		if (perBatch_ < MIN_GROUPS_PER_BATCH) {
+			clear();
+			return;
+		}
+		int first_ = numGroups - perBatch_ * NUM_BATCHES;
+		double total_ = 0.0;
+		double totalSquares_ = 0.0;
+		for (int b_ = 0; b_ < NUM_BATCHES; b_++) {
+			double batch_ = 0.0;
+			for (int g_ = 0; g_ < perBatch_; g_++) {
+				batch_ += groups[first_ + b_ * perBatch_ + g_];
+			}
+			batch_ /= perBatch_;
+			total_ += batch_;
+			totalSquares_ += batch_ * batch_;
+		}
+		mean = total_ / NUM_BATCHES;
+		double variance_ = Math.max(0.0,
+			(totalSquares_ - NUM_BATCHES * mean * mean) / (NUM_BATCHES - 1));
+		halfWidth = T_95 * Math.sqrt(variance_ / NUM_BATCHES);
+		converged = (mean > 0.0) && (halfWidth <= precision * mean);
+	}
+
+	/** Drops the estimate, as before the first one. */
+	private void clear() {
+		warmupGroups = 0;
+		mean = 0.0;
+		halfWidth = Double.POSITIVE_INFINITY;
+		converged = false;
+	}
+
+	/**
+	 * Writes the values seen so far and the current estimate into a
+	 * checkpoint.  The requested precision is not part of it.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		out_.writeInt(numGroups);
+		for (int i_ = 0; i_ < numGroups; i_++) {
+			out_.writeDouble(groups[i_]);
+		}
+		out_.writeDouble(partialSum);
+		out_.writeInt(partialCount);
+		out_.writeInt(nextEvaluation);
+		out_.writeInt(warmupGroups);
+		out_.writeDouble(mean);
+		out_.writeDouble(halfWidth);
+		out_.writeBoolean(converged);
+	}
+
+	/**
+	 * Restores the state written by {@link #saveState(DataOutput)}.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		numGroups = in_.readInt();
+		groups = new double[Math.max(64, Integer.highestOneBit(Math.max(1, numGroups)) * 2)];
+		for (int i_ = 0; i_ < numGroups; i_++) {
+			groups[i_] = in_.readDouble();
+		}
+		partialSum = in_.readDouble();
+		partialCount = in_.readInt();
+		nextEvaluation = in_.readInt();
+		warmupGroups = in_.readInt();
+		mean = in_.readDouble();
+		halfWidth = in_.readDouble();
+		converged = in_.readBoolean();
+	}
+
+	/**
+	 * Informs whether the estimate is precise enough.
+	 *
+	 * @return Returns <code>true</code> if the requested precision was reached.
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * Informs whether there is an estimate, precise enough or not.
+	 *
+	 * @return Returns <code>false</code> before the first estimate, and if the last evaluation found none.
+	 */
+	public boolean hasEstimate() {
+		return halfWidth != Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Accessor for the estimated steady-state mean.
+	 *
+	 * @return Returns the mean after the warm-up, or zero if there is no estimate.
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Accessor for the half-width of the 95 % confidence interval.
+	 *
+	 * @return Returns the half-width, or infinity if there is no estimate.
+	 */
+	public double getHalfWidth() {
+		return halfWidth;
+	}
+
+	/**
+	 * Accessor for the estimated length of the warm-up.
+	 *
+	 * @return Returns the number of rounds discarded as warm-up, or zero if there is no estimate.
+	 */
+	public int getWarmupRounds() {
+		return warmupGroups * MSER_BATCH;
+	}
+}
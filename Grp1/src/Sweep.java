@@ -0,0 +1,63 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Sweeps a grid of router buffer sizes and random loss rates, with
+ * replications at every point, and prints one line per point.  The
+ * results are kept in a {@link ResultCache}, so running the sweep
+ * again, or a sweep over an overlapping grid, only computes the new
+ * points.
+ */
+public class Sweep {
+	/**
+	 * Runs the sweep.
+	 *
+	 * @param argv_ Input arguments: the number of replications and of iterations, the cache directory, and optionally the loss rates and the buffer sizes as comma-separated lists (default <code>0,0.01</code> and <code>1,...,9</code>), the seed (default 1) and the cache size in megabytes (default 64).
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 3) {
+			System.err.println("Please enter the number of replications, of iterations, and the cache directory!");
+			System.exit(1);
+		}
+		int replications_ = Integer.parseInt(argv_[0]);
+		int numIter_ = Integer.parseInt(argv_[1]);
+		String[] losses_ = ((argv_.length > 3) ? argv_[3] : "0,0.01").split(",");
+		String[] buffers_ = ((argv_.length > 4) ? argv_[4] : "1,2,3,4,5,6,7,8,9").split(",");
+		long seed_ = (argv_.length > 5) ? Long.parseLong(argv_[5]) : 1L;
+		long maxBytes_ = ((argv_.length > 6) ? Long.parseLong(argv_[6]) : 64L) << 20;
+
+		ResultCache cache_ = null;
+		try {
+			cache_ = new ResultCache(new File(argv_[2]), maxBytes_);
+		} catch (IOException e_) {
+			System.err.println("Cannot open the cache: " + e_);
+			System.exit(1);
+		}
+		int numThreads_ = Runtime.getRuntime().availableProcessors();
+		long start_ = System.nanoTime();
+		System.out.println("Loss\tBuffer\tUtil\t+/-\tGoodput\tLoss rate");
+		for (int l_ = 0; l_ < losses_.length; l_++) {
+			for (int b_ = 0; b_ < buffers_.length; b_++) {
+				Scenario scenario_ = new Scenario(
+					"reno", 10, Integer.parseInt(buffers_[b_].trim()),
+					Double.parseDouble(losses_[l_].trim()), numIter_
+				);
+				ReplicationRunner.Summary summary_ = new ReplicationRunner(
+					scenario_, numThreads_
+				).run(replications_, seed_, cache_);
+				System.out.println(
+					scenario_.lossRate + "\t" + scenario_.bufferSize
+					+ "\t" + Math.round(summary_.utilization.mean * 1000.0) / 10.0
+					+ "\t" + Math.round(summary_.utilization.halfWidth * 1000.0) / 10.0
+					+ "\t" + Math.round(summary_.goodput.mean)
+					+ "\t" + Math.round(summary_.lossRate.mean * 1000.0) / 10.0
+				);
+			}
+		}
+		System.out.println("Elapsed: " + (System.nanoTime() - start_) / 1000000L + " ms");
+	}
+}
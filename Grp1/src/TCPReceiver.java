@@ -5,6 +5,10 @@
  * <P> Copyright (c) 2005 Rutgers University
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * This class implements a simple TCP receiver.
  * <P>
@@ -20,9 +24,11 @@
  */
 public class TCPReceiver {
 	/** The receiver buffer to buffer the segments that arrive
-	 * out-of-sequence. */
+	 * out-of-sequence.  It starts small and doubles whenever it
+	 * fills up, so that many receivers fit in memory at once and
+	 * long runs still have room for all the segments they need. */
 	protected TCPSegment[] rcvBuffer =
-		new TCPSegment[50000]; //changed to the buffer size to be able to have more iterations
+		new TCPSegment[TCPSimulator.MAX_WIN];
 
 	/** The field records the last byte received in-sequence.
 	 * Recall that the bytes are numbered from zero, so the sequence
@@ -43,6 +49,9 @@ public class TCPReceiver {
 	 * zero value indexes the first element of the array. */
 	protected int lastBufferedIdx = -1;
 
+	/** The number of buffered segments last reported to the flight recorder. */
+	private int recordedDepth = 0;
+
 	/**
 	 * Constructor.
 	 */
@@ -100,8 +109,13 @@ public class TCPReceiver {
 
 				// Check if the segment arrived in-sequence.
 				// Recall that we're expecting the segment with
-				// sequence number equal "nextByteExpected"
-				if (segments_[i_].seqNum == nextByteExpected) {
+				// sequence number equal "nextByteExpected"; a
+				// retransmitted segment may also start earlier, as
+				// long as it brings some bytes that are new.
+				if (
+					(segments_[i_].seqNum <= nextByteExpected) &&
+					(segments_[i_].seqNum + segments_[i_].length > nextByteExpected)
+				) {
 
 					// Set the expected seq. num. to the next segment.
 					nextByteExpected =
@@ -145,6 +159,15 @@ public class TCPReceiver {
 			// initialized with "null" for all.
 		} //ends the 2nd for() loop
 
+		if (lastBufferedIdx + 1 != recordedDepth) {
+			recordedDepth = lastBufferedIdx + 1;
+			SimulatorEvents.ReorderBuffer event_ = new SimulatorEvents.ReorderBuffer();
+			if (event_.shouldCommit()) {
+				event_.depth = recordedDepth;
+				event_.nextByteExpected = nextByteExpected;
+				event_.commit();
+			}
+		}
 		return rcvWindow;
 	}
 
@@ -157,15 +180,37 @@ public class TCPReceiver {
 	 * @return Returns the acknowledgement segment for the input data segment.
 	 */
 	protected TCPSegment outOfSequenceSegment(TCPSegment segment_) {
+		// A segment that carries nothing new (e.g., it was still in
+		// flight when the sender retransmitted it) is not buffered,
+		// only acknowledged.
+		if (segment_.seqNum < nextByteExpected) {
+			return new TCPSegment(nextByteExpected, 1, true);
+		}
+
 		// Bufer the out-of-sequence segment.
-		// Notice that we assume implicitly that all currently
-		// buffered segments have lower sequence number than the one
-		// that is presently being buffered.
-		// Also, we assume that all buffered segments are ordered in
-		// the ascending order of their sequence number.
+		// All buffered segments are kept in the ascending order of
+		// their sequence number.  Usually, the segment being buffered
+		// has the highest sequence number so far, but with several
+		// rounds in flight (see Topology) this need not be so.
+		int idx_ = lastBufferedIdx + 1;
+		while ((idx_ > 0) && (rcvBuffer[idx_ - 1].seqNum >= segment_.seqNum)) {
+			if (rcvBuffer[idx_ - 1].seqNum == segment_.seqNum) {
+				// Already buffered.
+				return new TCPSegment(nextByteExpected, 1, true);
+			}
+			idx_--;
+		}
+		if (lastBufferedIdx + 1 == rcvBuffer.length) {
+			TCPSegment[] larger_ = new TCPSegment[2 * rcvBuffer.length];
+			System.arraycopy(rcvBuffer, 0, larger_, 0, rcvBuffer.length);
+			rcvBuffer = larger_;
+		}
+		System.arraycopy(
+			rcvBuffer, idx_, rcvBuffer, idx_ + 1, lastBufferedIdx + 1 - idx_
+		);
 		lastBufferedIdx++;
-		rcvBuffer[lastBufferedIdx] = segment_;
-		lastByteRecvd = segment_.seqNum + segment_.length - 1;
+		rcvBuffer[idx_] = segment_;
+		lastByteRecvd = Math.max(lastByteRecvd, segment_.seqNum + segment_.length - 1);
 
 		// Because we just buffered one segment, we need to
 		// reduce the size of the receive window by the
@@ -200,11 +245,14 @@ public class TCPReceiver {
 			// Check if the previously buffered out-of-sequence segment
 			// is presently in-sequence, so can be removed from the
 			// buffer:
-			if (rcvBuffer[0].seqNum == nextByteExpected) {
+			// (A segment that starts earlier overlaps with a
+			// retransmission that has just filled the gap.)
+			if (rcvBuffer[0].seqNum <= nextByteExpected) {
 
 				// Remove the segment from the buffer:
-				nextByteExpected =
-					rcvBuffer[0].seqNum + rcvBuffer[0].length;
+				nextByteExpected = Math.max(
+					nextByteExpected, rcvBuffer[0].seqNum + rcvBuffer[0].length
+				);
 
 				// Because we removed one segment from the buffer, we need
 				// to _reclaim_ the freed buffer space, and increase the
@@ -242,4 +290,64 @@ public class TCPReceiver {
 			}
 		}
 	}
+
+	/**
+	 * Returns this receiver to its initial state, so that it can
+	 * receive another flow.  A buffer that grew is given up, so that
+	 * a receiver that is used again and again does not keep the
+	 * largest buffer it ever needed.
+	 */
+	public void reset() {
+		if (rcvBuffer.length > TCPSimulator.MAX_WIN) {
+			rcvBuffer = new TCPSegment[TCPSimulator.MAX_WIN];
+		} else {
+			for (int i_ = 0; i_ <= lastBufferedIdx; i_++) {
+				rcvBuffer[i_] = null;
+			}
+		}
+		lastByteRecvd = -1;
+		nextByteExpected = 0;
+		rcvWindow = 65536;
+		lastBufferedIdx = -1;
+		recordedDepth = 0;
+	}
+
+	/**
+	 * Writes the state of this receiver, including the buffered
+	 * segments, into a checkpoint.
+	 * 
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		out_.writeInt(lastByteRecvd);
+		out_.writeInt(nextByteExpected);
+		out_.writeInt(rcvWindow);
+		out_.writeInt(lastBufferedIdx);
+		for (int i_ = 0; i_ <= lastBufferedIdx; i_++) {
+			TCPSegment.save(out_, rcvBuffer[i_]);
+		}
+	}
+
+	/**
+	 * Restores the state written by {@link #saveState(DataOutput)}.
+	 * 
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		lastByteRecvd = in_.readInt();
+		nextByteExpected = in_.readInt();
+		rcvWindow = in_.readInt();
+		lastBufferedIdx = in_.readInt();
+		int size_ = rcvBuffer.length;
+		while (size_ <= lastBufferedIdx) {
+			size_ *= 2;
+		}
+		rcvBuffer = new TCPSegment[size_];
+		for (int i_ = 0; i_ <= lastBufferedIdx; i_++) {
+			rcvBuffer[i_] = TCPSegment.restore(in_);
+		}
+		recordedDepth = lastBufferedIdx + 1;
+	}
 }
@@ -5,6 +5,10 @@
  * <P> Copyright (c) 2005 Rutgers University
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * TCP segment, which could carry either data, ACK, or both.
  * Notice that the segment has no <i>data</i> field since data
@@ -51,7 +55,7 @@ public class TCPSegment {
 
 		// This reporting is for debugging purposes only:
 		if (
-			(TCPSimulator.currentReportingLevel & TCPSimulator.REPORTING_LEVEL_2) != 0
+			(TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_2) != 0
 		) {
 			System.out.println(
 				"# " + ordinalNum
@@ -60,4 +64,46 @@ public class TCPSegment {
 			);
 		}
 	}
+
+	private TCPSegment() {
+	}
+
+	/**
+	 * Writes a segment, or <code>null</code>, into a checkpoint.
+	 * 
+	 * @param out_ The checkpoint.
+	 * @param segment_ The segment, or <code>null</code> for "no packet".
+	 * @throws IOException If the checkpoint cannot be written.
+	 */
+	static void save(DataOutput out_, TCPSegment segment_) throws IOException {
+		out_.writeBoolean(segment_ != null);
+		if (segment_ != null) {
+			out_.writeInt(segment_.seqNum);
+			out_.writeInt(segment_.length);
+			out_.writeBoolean(segment_.ack);
+			out_.writeBoolean(segment_.inError);
+		}
+	}
+
+	/**
+	 * Reads a segment written by {@link #save(DataOutput, TCPSegment)}.
+	 * Unlike the constructors, this does not report a new segment,
+	 * because the segment is not new.
+	 * 
+	 * @param in_ The checkpoint.
+	 * @return Returns the segment, or <code>null</code>.
+	 * @throws IOException If the checkpoint cannot be read.
+	 */
+	static TCPSegment restore(DataInput in_) throws IOException {
+		if (!in_.readBoolean()) {
+			return null;
+		}
+		TCPSegment segment_ = new TCPSegment();
+		segment_.seqNum = in_.readInt();
+		segment_.length = in_.readInt();
+		segment_.ack = in_.readBoolean();
+		segment_.inError = in_.readBoolean();
+		segment_.ordinalNum = segment_.seqNum / TCPSimulator.MSS + 1;
+		return segment_;
+	}
 }
@@ -5,6 +5,10 @@
  * <P> Copyright (c) 2005 Rutgers University
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * The base class for TCP senders.
  * <P>
@@ -12,6 +16,8 @@
  * your textbook, please check the ultimate sources:
  * <a href="http://www.apps.ietf.org/rfc/rfc2581.html">RFC 2581</a>
  * and <a href="http://www.apps.ietf.org/rfc/rfc2001.html">RFC 2001</a>.
+ * The larger initial windows are those of
+ * <a href="http://www.apps.ietf.org/rfc/rfc6928.html">RFC 6928</a>.
  * <BR><i>Do not rely on any textbooks for precise details!</i>
  * <BR> Read the textbook(s) for high-level understanding of
  * the material; read the RFCs for precise details.
@@ -63,6 +69,30 @@ public abstract class TCPSender {
      * subsequent RTT periods (iterations), not only in a single RTT
      * cycle because they still carry the same meaning. */
     protected int dupACKsGlobal = 0;
+
+    /** Number of bytes this sender has to transfer, or <code>-1</code>
+     * for an endless bulk transfer, which is the default. */
+    protected int flowSize = -1;
+
+    /** The initial window of RFC 6928, in segments. */
+    public static final int IW10 = 10;
+
+    /** The congestion window a connection starts with, in bytes;
+     * one segment by default, as in RFC 2581. */
+    protected int initialWindow = TCPSimulator.MSS;
+
+    /** Whether every connection starts with a SYN/SYN-ACK handshake;
+     * by default, data is sent in the very first round. */
+    protected boolean handshake = false;
+
+    /** Whether the handshake is still to come, so no data can be sent yet. */
+    protected boolean connecting = false;
+
+    /** The window, threshold and mode last reported to the flight
+     * recorder, to report only the changes. */
+    private int recordedWindow = congWindow;
+    private int recordedThresh = SSThresh;
+    private int recordedMode = sendMode;
  
     /**
      * Accessor for retrieving the statistics of the total number
@@ -78,6 +108,92 @@ public abstract class TCPSender {
         return (lastByteAcked + 1);
     }
 
+    /**
+     * Limits the transfer to the given number of bytes, which makes
+     * this a <i>short flow</i> rather than an endless bulk transfer.
+     * 
+     * @param flowSize_ The number of bytes to transfer, or <code>-1</code> for no limit.
+     */
+    public void setFlowSize(int flowSize_) {
+        flowSize = flowSize_;
+    }
+
+    /**
+     * Sets the congestion window the connection starts with, e.g.,
+     * {@link #IW10} segments.  After a timeout, the window still
+     * drops to one segment, the loss window of RFC 5681.  Takes
+     * effect now if nothing was sent yet, and at every {@link #reset()}.
+     * 
+     * @param segments_ The initial window, in segments of {@link TCPSimulator#MSS} bytes; at least one.
+     */
+    public void setInitialWindow(int segments_) {
+        if (segments_ < 1 || segments_ > TCPSimulator.MAX_WIN) {
+            throw new IllegalArgumentException("Not an initial window: " + segments_);
+        }
+        initialWindow = segments_ * TCPSimulator.MSS;
+        if (lastByteSent < 0) {
+            congWindow = initialWindow;
+            recordedWindow = congWindow;
+        }
+    }
+
+    /**
+     * Makes every connection start with a handshake: in its first
+     * round, the SYN goes out and the SYN-ACK comes back, and data
+     * is sent from the second round on, as in a real stack.  The SYN
+     * and the SYN-ACK are not queued at the router, so they are
+     * never lost.  Takes effect now if nothing was sent yet, and at
+     * every {@link #reset()}.
+     * 
+     * @param handshake_ Whether to model the handshake.
+     */
+    public void setHandshake(boolean handshake_) {
+        handshake = handshake_;
+        if (lastByteSent < 0) {
+            connecting = handshake;
+        }
+    }
+
+    /**
+     * Spends the round on the handshake if the connection is not set
+     * up yet: no data is sent, and the state is reported with an
+     * effective window of zero.  Subclasses call it first in
+     * {@link #send(TCPSegment[], int, int, int, TcpPlot)}, and return
+     * if it did.
+     * 
+     * @param segments_ The array of segments, emptied if the round is spent on the handshake.
+     * @param iter_ The current round, for the plot.
+     * @param tcpPlot_ The plot, or <code>null</code>.
+     * @return Returns <code>true</code> if the round was spent on the handshake.
+     */
+    protected boolean handshake(TCPSegment[] segments_, int iter_, TcpPlot tcpPlot_) {
+        if (!connecting) {
+            return false;
+        }
+        for (int i_ = 0; i_ < segments_.length; i_++) {
+            segments_[i_] = null;
+        }
+        if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_0) != 0) {
+            System.out.println(congWindow + "\t\t" + 0 + "\t\t" + 0 + "\t\t" + SSThresh);
+        }
+        if (tcpPlot_ != null) {
+            tcpPlot_.plotTcp(iter_, congWindow, 0, 0, SSThresh);
+        }
+        connecting = false;
+        return true;
+    }
+
+    /**
+     * Informs whether all the bytes of a limited transfer have been
+     * acknowledged.  An endless bulk transfer never finishes.
+     * 
+     * @return Returns <code>true</code> if the transfer is complete.
+     * @see #setFlowSize(int)
+     */
+    public boolean isFinished() {
+        return (flowSize >= 0) && (lastByteAcked + 1 >= flowSize);
+    }
+
     /**
      * Processes ACKs received from the receiver.
      * Checks for duplicate ACKs.  May detect timeout timer
@@ -106,4 +222,133 @@ public abstract class TCPSender {
      * @param lostPacket_ Informs whether or not a packet loss was detected for the previous transmission.
      */
     public abstract void send(TCPSegment[] segments_, int rcvWindow_, int outcome, int iter, TcpPlot tcpPlot);
+
+    /**
+     * Accessor for the name of a sending mode, as reported to the
+     * flight recorder.  Subclasses with more modes must extend it.
+     * 
+     * @param mode_ The sending mode, e.g., {@link int #SLOW_START}.
+     * @return Returns the name of the mode.
+     */
+    protected String getModeName(int mode_) {
+        switch (mode_) {
+            case SLOW_START: return "SLOW_START";
+            case CONG_AVOID: return "CONG_AVOID";
+            default: return Integer.toString(mode_);
+        }
+    }
+
+    /**
+     * Emits the flight recorder events for what changed since the
+     * last call: the congestion window and the threshold, the sending
+     * mode, and a detected loss.  Subclasses call it at the end of
+     * {@link #processAcks(TCPSegment[])} and of
+     * {@link #send(TCPSegment[], int, int, int, TcpPlot)}, where the
+     * state of the congestion control settles for the round.
+     * 
+     * @param outcome_ The outcome of the previous transmission, or {@link int TCPSimulator#SUCCESS} if already reported.
+     * @return Returns the given outcome, for the convenience of the caller.
+     * @see SimulatorEvents
+     */
+    protected int recordEvents(int outcome_) {
+        if (outcome_ != TCPSimulator.SUCCESS) {
+            SimulatorEvents.LossDetected event_ = new SimulatorEvents.LossDetected();
+            if (event_.shouldCommit()) {
+                event_.cause = (outcome_ == TCPSimulator.TIMEOUT) ? "timeout" : "3 dupACKs";
+                event_.congWindow = congWindow;
+                event_.ssThresh = SSThresh;
+                event_.commit();
+            }
+        }
+        if (sendMode != recordedMode) {
+            SimulatorEvents.ModeSwitch event_ = new SimulatorEvents.ModeSwitch();
+            if (event_.shouldCommit()) {
+                event_.from = getModeName(recordedMode);
+                event_.to = getModeName(sendMode);
+                event_.congWindow = congWindow;
+                event_.commit();
+            }
+        }
+        if (congWindow != recordedWindow || SSThresh != recordedThresh) {
+            SimulatorEvents.CongestionWindow event_ = new SimulatorEvents.CongestionWindow();
+            if (event_.shouldCommit()) {
+                event_.congWindow = congWindow;
+                event_.previous = recordedWindow;
+                event_.ssThresh = SSThresh;
+                event_.mode = getModeName(sendMode);
+                event_.commit();
+            }
+        }
+        recordedWindow = congWindow;
+        recordedThresh = SSThresh;
+        recordedMode = sendMode;
+        return outcome_;
+    }
+
+    /**
+     * Returns this sender to its initial state, with no flow size,
+     * so that it can carry another flow, which starts with the same
+     * initial window and handshake as the previous one.  Subclasses
+     * with more state must extend this method.
+     */
+    public void reset() {
+        lastByteSent = -1;
+        lastByteAcked = -1;
+        congWindow = initialWindow;
+        connecting = handshake;
+        SSThresh = 65535;
+        sendMode = SLOW_START;
+        timer = TIMER_DEFAULT;
+        dupACKsGlobal = 0;
+        flowSize = -1;
+        recordedWindow = congWindow;
+        recordedThresh = SSThresh;
+        recordedMode = sendMode;
+    }
+
+    /**
+     * Writes the state of this sender into a checkpoint, with its
+     * initial window and whether it models the handshake.
+     * Subclasses with more state must extend this method
+     * and {@link #restoreState(DataInput)} alike.
+     * 
+     * @param out_ The checkpoint.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public void saveState(DataOutput out_) throws IOException {
+        out_.writeInt(lastByteSent);
+        out_.writeInt(lastByteAcked);
+        out_.writeInt(congWindow);
+        out_.writeInt(SSThresh);
+        out_.writeInt(sendMode);
+        out_.writeInt(timer);
+        out_.writeInt(dupACKsGlobal);
+        out_.writeInt(flowSize);
+        out_.writeInt(initialWindow);
+        out_.writeBoolean(handshake);
+        out_.writeBoolean(connecting);
+    }
+
+    /**
+     * Restores the state written by {@link #saveState(DataOutput)}.
+     * 
+     * @param in_ The checkpoint.
+     * @throws IOException If the checkpoint cannot be read.
+     */
+    public void restoreState(DataInput in_) throws IOException {
+        lastByteSent = in_.readInt();
+        lastByteAcked = in_.readInt();
+        congWindow = in_.readInt();
+        SSThresh = in_.readInt();
+        sendMode = in_.readInt();
+        timer = in_.readInt();
+        dupACKsGlobal = in_.readInt();
+        flowSize = in_.readInt();
+        initialWindow = in_.readInt();
+        handshake = in_.readBoolean();
+        connecting = in_.readBoolean();
+        recordedWindow = congWindow;
+        recordedThresh = SSThresh;
+        recordedMode = sendMode;
+    }
 }
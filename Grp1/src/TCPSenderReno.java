@@ -17,6 +17,9 @@ public class TCPSenderReno extends TCPSender
 
     public void send(TCPSegment[] segments, int rcvWindow, int outcome, int iter, TcpPlot tcpPlot) 
     {
+        if (handshake(segments, iter, tcpPlot))
+            return;
+
         for (int i = 0; i < segments.length; i++) 
             segments[i] = null;
 
@@ -30,34 +33,56 @@ public class TCPSenderReno extends TCPSender
         	
         }
 
-        System.out.println(congWindow + "\t\t" + effecWin + "\t\t" + flightSize + "\t\t" + SSThresh);
+        if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_0) != 0)
+            System.out.println(congWindow + "\t\t" + effecWin + "\t\t" + flightSize + "\t\t" + SSThresh);
         //System.out.println("congWindow = " + congWindow + ", rcvWindow = " + rcvWindow);
 
-		tcpPlot.plotTcp(iter,congWindow,effecWin,flightSize,SSThresh);
+        if (tcpPlot != null)
+            tcpPlot.plotTcp(iter,congWindow,effecWin,flightSize,SSThresh);
 
         
         if (outcome == TCPSimulator.DUP_ACKx3)
         {
             // fast retransmit lost segment
-            segments[0] = new TCPSegment(lastByteAcked + 1, TCPSimulator.MSS);
+            segments[0] = new TCPSegment(lastByteAcked + 1, segmentLength(lastByteAcked + 1));
             sendMode = FAST_RECOVERY;
-            if ((TCPSimulator.currentReportingLevel & TCPSimulator.REPORTING_LEVEL_1) != 0) 
+            if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0) 
             {
                 System.out.println("############## Fast-retransmitted lost segment number " + ((lastByteAcked + 1)/TCPSimulator.MSS + 1));
                 System.out.println("############## Sender entering fast recovery.");
             }
+            recordEvents(TCPSimulator.SUCCESS);
             return;
         }
 
         int burst_size = effecWin/TCPSimulator.MSS;
+        if (flowSize >= 0)
+        {
+            int remaining = flowSize - (lastByteSent + 1);
+            if (remaining <= 0)
+            {
+                // Everything has been sent, so no dup ACKs can come for a
+                // lost tail: wait for the timer, and when it expires
+                // (see processAcks) retransmit the oldest segment.
+                if (outcome == TCPSimulator.TIMEOUT && lastByteSent > lastByteAcked)
+                {
+                    segments[0] = new TCPSegment(lastByteAcked + 1, segmentLength(lastByteAcked + 1));
+                    if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0) 
+                        System.out.println("############## Retransmitted lost segment number " + ((lastByteAcked + 1)/TCPSimulator.MSS + 1) + " after timeout.");
+                }
+                return;
+            }
+            burst_size = Math.min(burst_size, (remaining + TCPSimulator.MSS - 1) / TCPSimulator.MSS);
+        }
         if (burst_size > 0)
         {
             //System.out.println("sending " + burst_size + " segments.");
-            for (int i = 0; i < effecWin/TCPSimulator.MSS; i++)
+            for (int i = 0; i < burst_size; i++)
             {
-                segments[i] = new TCPSegment(lastByteSent + 1, TCPSimulator.MSS); 
+                int length = segmentLength(lastByteSent + 1);
+                segments[i] = new TCPSegment(lastByteSent + 1, length); 
                 //System.out.println("Length " +segments[i].length); //vaithi
-                if(effecWin>0)lastByteSent += TCPSimulator.MSS;
+                lastByteSent += length;
             }
         }
         else
@@ -89,7 +114,8 @@ public class TCPSenderReno extends TCPSender
         {
             int flightSize = lastByteSent - lastByteAcked;
             //System.out.println("lastByteSent = " + lastByteSent + ", lastByteAcked = " + lastByteAcked);
-            System.out.println("floor is " +Math.floor(flightSize/2));
+            if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0)
+                System.out.println("floor is " +Math.floor(flightSize/2));
             SSThresh = (int) Math.max(Math.floor(flightSize/2), 2 * TCPSimulator.MSS); //vaithi
             congWindow = SSThresh + dupACKsGlobal * TCPSimulator.MSS;      // "inflate" the window
             //System.out.println("inflated congWindow = " + congWindow + ", dupACKsGlobal = " + dupACKsGlobal);
@@ -104,6 +130,26 @@ public class TCPSenderReno extends TCPSender
 
         if (lastByteSent == lastByteAcked)
            resetMonitoringVariables(); 
+        else if (flowSize >= 0 && lastByteSent + 1 >= flowSize)
+        {
+            // The timer runs only for the tail of a short flow, where
+            // no further segments are sent to produce dup ACKs.  A bulk
+            // transfer always has new data to send, and keeps the
+            // original model, which has no timeouts.
+            timer--;
+            if (timer <= 0)
+            {
+                int flightSize = lastByteSent - lastByteAcked;
+                SSThresh = (int) Math.max(Math.floor(flightSize/2), 2 * TCPSimulator.MSS);
+                congWindow = TCPSimulator.MSS;
+                sendMode = SLOW_START;
+                dupACKsGlobal = 0;
+                timer = TIMER_DEFAULT;
+                retVal = TCPSimulator.TIMEOUT;
+                if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0) 
+                    System.out.println("############## Timeout, sender entering slow start.");
+            }
+        }
        /* else
         {
             timer--;
@@ -117,7 +163,14 @@ public class TCPSenderReno extends TCPSender
                 timer = TIMER_DEFAULT;
             }
         }*/
-        return retVal;
+        return recordEvents(retVal);
+    }
+
+    protected String getModeName(int mode)
+    {
+        if (mode == FAST_RECOVERY)
+            return "FAST_RECOVERY";
+        return super.getModeName(mode);
     }
 
     protected boolean processAcksSlowStart(TCPSegment ack)
@@ -129,7 +182,7 @@ public class TCPSenderReno extends TCPSender
             if ((sendMode == SLOW_START) && (congWindow > SSThresh)) 
             {
                 sendMode = CONG_AVOID;
-                if ((TCPSimulator.currentReportingLevel & TCPSimulator.REPORTING_LEVEL_1) != 0) 
+                if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0) 
                 {
                     System.out.println("############## Sender entering congestion avoidance.");
                 }
@@ -167,7 +220,7 @@ public class TCPSenderReno extends TCPSender
             resetMonitoringVariables();      // received non-duplicate ACK for higher byte #, so reset duplicate ACK counter
             sendMode = SLOW_START; //original
             //sendMode = CONG_AVOID; //vaithi
-            if ((TCPSimulator.currentReportingLevel & TCPSimulator.REPORTING_LEVEL_1) != 0) 
+            if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0) 
             {
                 System.out.println("############## Sender entering slow start.");
             }
@@ -179,9 +232,20 @@ public class TCPSenderReno extends TCPSender
             return false;
     }
 
+    /**
+     * Returns the length of a full segment starting at the given byte:
+     * one MSS, or less at the end of a short flow.
+     */
+    protected int segmentLength(int seqNum)
+    {
+        if (flowSize < 0)
+            return TCPSimulator.MSS;
+        return Math.min(TCPSimulator.MSS, flowSize - seqNum);
+    }
+
     protected void resetMonitoringVariables() 
     {
-        if ((TCPSimulator.currentReportingLevel & TCPSimulator.REPORTING_LEVEL_1) != 0) 
+        if ((TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0) 
         {
             System.out.println("############## Resetting dupACKsGlobal and timer.");
         }
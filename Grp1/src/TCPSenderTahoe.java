@@ -0,0 +1,350 @@
+/*
+ * Created on Sep 10, 2005
+ *
+ * Rutgers University, Department of Electrical and Computer Engineering
+ * <P> Copyright (c) 2005 Rutgers University
+ */
+/**
+ * TCP Tahoe implementation of a sender.
+ * <P>
+ * <b>Note</b>: If you are in doubt or some of this code is conflicting
+ * your textbook, please check the ultimate sources:
+ * <a href="http://www.apps.ietf.org/rfc/rfc2581.html">RFC 2581</a>
+ * and <a href="http://www.apps.ietf.org/rfc/rfc2001.html">RFC 2001</a>.
+ * <BR><i>Do not rely on any textbooks for precise details!</i>
+ * <BR> Read the textbook(s) for high-level understanding of
+ * the material; read the RFCs for precise details.
+ * 
+ * @author Ivan Marsic
+ */
+public class TCPSenderTahoe extends TCPSender {
+
+	/* (non-Javadoc)
+	 * @see TCPSender#processAcks(TCPSegment[])
+	 */
+	public int processAcks(TCPSegment[] acks_) {
+		// Summary of the transmission outcome, to be returned at the end.
+		int retVal_ = TCPSimulator.SUCCESS;
+
+		for (int i_ = 0; i_ < acks_.length; i_++) {
+			// Skip the gaps: the receiver puts each ACK at the index
+			// of the segment it acknowledges, and "null" means that
+			// the segment was lost.
+			if (acks_[i_] == null) { continue; }
+
+			// Indicator of a dupACK received in this segment only.
+			boolean dupACKlocal_ = false;
+
+			// If the current mode is "slow start":
+			if (sendMode == SLOW_START) {
+
+				dupACKlocal_ = processAcksSlowStart(acks_[i_]);
+
+			} else if (sendMode == CONG_AVOID) {
+
+				dupACKlocal_ = processAcksCongestionAvoidance(acks_[i_]);
+
+			} else {
+				System.out.println("TCPSenderTahoe.processAcks(): Wrong sending mode.");
+				// Perhaps exit or throw an exception here !?!
+			}
+
+			// Update the global count of duplicate ACKs.
+			dupACKsGlobal += dupACKlocal_ ? 1 : 0;
+
+			// If three or more duplicate ACKs are received so far:
+			if (dupACKsGlobal > 2) {
+				// Perform the necessary actions.
+				onThreeDuplicateACKs();
+
+				retVal_ = TCPSimulator.DUP_ACKx3;
+				break;
+			}
+		}
+
+		// Check if everything got ACKed:
+		if (lastByteSent == lastByteAcked) {
+			// Deactivate the timer and reset to the initial value.
+			// Reset also the global counter of duplicate ACKs.
+			resetMonitoringVariables();
+
+		} else {
+			// Some segment(s) are still outstanding,
+			// count-down the time:
+			timer--;
+
+			// The timer expires when it runs down to zero, i.e.,
+			// TIMER_DEFAULT rounds after it was (re)started.
+			if (timer <= 0) {
+
+				onExpiredTimeoutTimer();
+
+				retVal_ = TCPSimulator.TIMEOUT;
+			}
+		}
+		return recordEvents(retVal_);
+	}
+
+	/**
+	 * Helper method to process an individual acknowledgement segment
+	 * in the <i>slow start</i> transmission mode.
+	 * Determines if this is a <i>duplicate</i> acknowledgement and
+	 * reports it.
+	 * <P>
+	 * The method assumes that the input argument is never equal to
+	 * <code>null</code>.
+	 * 
+	 * @param ack_ The current acknowledgement segment, to be processed.
+	 * @return Returns <code>true</code> if this is a duplicate acknowledgement, <code>false</code> otherwise.
+	 */
+	protected boolean processAcksSlowStart(TCPSegment ack_) {
+
+		// Is this a regularly acknowledged segment (i.e., not a duplicate ACK)?
+		if (ack_.seqNum > (lastByteAcked + 1)) {
+			lastByteAcked = ack_.seqNum - 1;
+
+			// Update the congestion window size.
+			congWindow += TCPSimulator.MSS;
+
+			// The size of the congestion window relative to the
+			// size of the SSThresh determines the sending mode:
+			if (
+				(sendMode == SLOW_START) && (congWindow > SSThresh)
+			) {
+				// Congestion window exceeded the slow-start-threshold,
+				// change the sending mode
+				sendMode = CONG_AVOID;
+
+				if (
+					(TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_1) != 0
+				) {
+					System.out.println("############## Sender entering congestion avoidance.");
+				}
+			}
+
+			// Every time we receive an ACK for a full segment:
+			resetMonitoringVariables();
+
+			return false;
+
+		} else {	// duplicate ACK, report it:
+			return true;
+		}
+	}
+
+	/**
+	 * Helper method to process an individual acknowledgement segment
+	 * in the <i>congestion avoidance</i> transmission mode.
+	 * Determines if this is a <i>duplicate</i> acknowledgement and
+	 * reports it.
+	 * <P>
+	 * The method assumes that the input argument is never equal to
+	 * <code>null</code>.
+	 * 
+	 * @param ack_ The current acknowledgement segment, to be processed.
+	 * @return Returns <code>true</code> if this is a duplicate acknowledgement, <code>false</code> otherwise.
+	 */
+	protected boolean processAcksCongestionAvoidance(TCPSegment ack_) {
+
+		// Is this a regularly acknowledged segment (i.e., not a duplicate ACK)?
+		if (ack_.seqNum > (lastByteAcked + 1)) {
+			lastByteAcked = ack_.seqNum - 1;
+
+			// Increment the congestion window linearly, by about
+			// one MSS per RTT.  Older implementations (see Stevens)
+			// add MSS/8 to every increment; RFC 2581, section 3.1,
+			// calls that term incorrect, so it is left out.
+			congWindow +=
+				(TCPSimulator.MSS * TCPSimulator.MSS) / congWindow;
+
+			// Since we received an ACK for a full segment...
+			resetMonitoringVariables();
+
+			return false;
+
+		} else {	// duplicate ACK, report it:
+			return true;
+		}
+	}
+
+	/**
+	 * Helper method, called on three or more duplicate ACKs.
+	 * Tahoe sender doesn't care about the number of
+	 * duplicate ACKs as long as it's at least three.
+	 * Also, after this kinds of event, the sending mode in
+	 * TCP Tahoe is always reset to <i>slow-start</i>.
+	 */
+	protected void onThreeDuplicateACKs() {
+		if (dupACKsGlobal > 2) {
+			// reduce the slow start threshold
+			SSThresh = congWindow / 2;
+			SSThresh = Math.max(SSThresh, 2*TCPSimulator.MSS);
+
+			// congestion window = 1 x MSS:
+			congWindow = TCPSimulator.MSS;
+			// retransmit the oldest packet
+
+			// Reset the sending mode to "slow start" (TCP Tahoe).
+			sendMode = SLOW_START;
+
+			// Re-start the timer, for the outstanding segments.
+			// Reset also the global counter of duplicate ACKs.
+			resetMonitoringVariables();
+		}
+	}
+
+	/**
+	 * Helper method, called on the expired timeout timer.
+	 * Also, after this kinds of event, the sending mode in
+	 * any TCP is always reset to <i>slow-start</i>.
+	 */
+	protected void onExpiredTimeoutTimer() {
+		if (timer <= 0) {
+
+			// reduce the slow start threshold
+			SSThresh = congWindow / 2;
+			SSThresh = Math.max(SSThresh, 2*TCPSimulator.MSS); 			
+
+			// congestion window = 1 x MSS
+			congWindow = TCPSimulator.MSS;
+
+			// Reset the sending mode to "slow start".
+			sendMode = SLOW_START;
+
+			// Re-start the timer, for the outstanding segments.
+			resetMonitoringVariables();
+		}
+	}
+
+	/**
+	 * Helper method to reset the variables monitoring the
+	 * signs for packet loss.  The packet loss is detected
+	 * by observing one or both of these events:
+	 * <ul>
+	 * <li> Three (or more) duplicate acknowledgements,
+	 * monitored by the variable {@link int TCPSender#dupACKsGlobal}; </li>
+	 * <li> Timeout timer expiration, monitored by the
+	 * variable {@link int TCPSender#timer}. </li>
+	 * </ul>
+	 */
+	protected void resetMonitoringVariables() {
+		// Reset the global counter of duplicate ACKs.
+		dupACKsGlobal = 0;
+
+		// Re-start the timer, for the outstanding segments.
+		timer = TIMER_DEFAULT;
+	}
+
+	/**
+	 * TCP Tahoe implementation of the <code>send()</code> method.
+	 * 
+	 * @param segments_	The array of segments, to be filled in this method.
+	 * @param rcvWindow_ The size of the currently available space in the receiver's buffer.
+	 * @param outcome_ The outcome of the previous transmission.
+	 * @param iter_ The current iteration, for plotting.
+	 * @param tcpPlot_ The plot of the congestion control parameters, or <code>null</code>.
+	 * 
+	 * @see TCPSender#send(TCPSegment[], int, int, int, TcpPlot)
+	 */
+	public void send(TCPSegment[] segments_, int rcvWindow_, int outcome_, int iter_, TcpPlot tcpPlot_) {
+		// No data before the connection is set up.
+		if (handshake(segments_, iter_, tcpPlot_)) {
+			return;
+		}
+
+		// Was a segment lost, i.e., was there a timeout or 3 x dupACKs?
+		boolean lostPacket_ = (outcome_ != TCPSimulator.SUCCESS);
+
+		// Initialize the segment array before filling it with
+		// the segments to be transmitted.
+		for (int i_ = 0; i_ < segments_.length; i_++) {
+			segments_[i_] = null;
+		}
+
+		// Calculate the sending parameters.
+		int flightSize_ = lastByteSent - lastByteAcked;
+		int effectiveWindow_ =
+			Math.min(congWindow, rcvWindow_) - flightSize_;
+
+		// Enforce the constraint of the minimum size of the effective window.
+		if (effectiveWindow_ <= 0) {
+			effectiveWindow_ = 1;
+		}
+		// Print the relevant parameters for congestion control.
+		if (
+			(TCPSimulator.reportingLevel() & TCPSimulator.REPORTING_LEVEL_0) != 0
+		) {
+			System.out.println(
+	        	congWindow + "\t\t" + effectiveWindow_ +
+	        	"\t\t" + flightSize_ + "\t\t" + SSThresh
+	       	);
+		}
+		if (tcpPlot_ != null) {
+			tcpPlot_.plotTcp(iter_, congWindow, effectiveWindow_, flightSize_, SSThresh);
+		}
+
+		// If a segment was lost,
+		// i.e., there was a timeout or 3 x dupACKs:
+		if (lostPacket_) {
+			// Re-send the (presumably) lost segment.
+			// Recall that in this case the Tahoe sender, which
+			// sends only one segment when a loss is detected!
+			segments_[0] = new TCPSegment(
+				lastByteAcked + 1, segmentLength(lastByteAcked + 1)
+			);
+
+			return;
+		}
+
+		// Send only whole MSS segments,
+		// i.e., the Nagle algorithm is not employed here.
+		int burst_size_ = effectiveWindow_ / TCPSimulator.MSS;
+
+		// A short flow sends no more than what is left.
+		if (flowSize >= 0) {
+			int remaining_ = flowSize - (lastByteSent + 1);
+			if (remaining_ <= 0) {
+				// Everything has been sent; the ACKs for the tail
+				// did not come back, so re-send the oldest segment.
+				if (lastByteSent > lastByteAcked) {
+					segments_[0] = new TCPSegment(
+						lastByteAcked + 1, segmentLength(lastByteAcked + 1)
+					);
+				}
+				return;
+			}
+			burst_size_ = Math.min(
+				burst_size_, (remaining_ + TCPSimulator.MSS - 1) / TCPSimulator.MSS
+			);
+		}
+
+		if (burst_size_ > 0) {
+			// Send the "burst_size_" worth of segments:
+			for (int seg_ = 0; seg_ < burst_size_; seg_++) {
+				segments_[seg_] = new TCPSegment(
+					lastByteSent + 1, segmentLength(lastByteSent + 1)
+				);
+				lastByteSent += segments_[seg_].length;
+			}
+
+		} else {
+			// Send a single 1-byte segment to keep connection alive.
+			segments_[0] = new TCPSegment(lastByteSent + 1, 1);
+			lastByteSent += segments_[0].length;
+		}
+	}
+
+	/**
+	 * Helper method, returns the length of a full segment starting at
+	 * the given byte: one MSS, or less at the end of a short flow.
+	 * 
+	 * @param seqNum_ The sequence number of the segment's first byte.
+	 * @return Returns the segment length, in bytes.
+	 */
+	protected int segmentLength(int seqNum_) {
+		if (flowSize < 0) {
+			return TCPSimulator.MSS;
+		}
+		return Math.min(TCPSimulator.MSS, flowSize - seqNum_);
+	}
+}
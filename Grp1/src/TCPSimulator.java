@@ -1,4 +1,19 @@
 //import ch4.tcp.First;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
 
 /*
  * Created on Sep 10, 2005
@@ -29,10 +44,13 @@
  * <li> Slow start threshold size in this iteration</li>
  * </ol>
  * At the end of the simulation, the <i>utilization of the sender</i>
- * is reported.
+ * is reported, along with the observed loss rate and mean RTT, and
+ * the throughput that the analytical models of {@link ThroughputModel}
+ * predict for them.
  * <P>
  * You can turn ON or OFF different levels of reporting by setting
- * the variable {@link int #currentReportingLevel}.
+ * the variable {@link int #currentReportingLevel}, or, for one
+ * simulator, with {@link #setReportingLevel(int)}.
  * <P>
  * Obviously, there are almost no parameters that can be controlled
  * on this "simulator".  The reason is that its main purpose is to
@@ -43,6 +61,11 @@
  * @author Ivan Marsic
  */
 public class TCPSimulator {
+	/** Simulator's reporting level 0: <br>
+	 * Reports the values of the congestion control parameters
+	 * for every iteration, one line per iteration. */
+	public static final int REPORTING_LEVEL_0 = 1 << 0;
+
 	/** Simulator's reporting level 1. Reports: <br>
 	 * &nbsp; &#183; when TCP segment loss occurs (detected by three or more
 	 * duplicate acknowledgements or timeout timer expiration). <BR>
@@ -53,10 +76,19 @@ public class TCPSimulator {
 	 * Reports every new TCP segment that is created. */
 	public static final int REPORTING_LEVEL_2 = 1 << 2; 
 
-	/** This field specifies the current reporting level(s)
-	 * for this simulator. */
-	public static int currentReportingLevel =
-		(REPORTING_LEVEL_1 | REPORTING_LEVEL_2);
+	/** This field specifies the default reporting level(s).  New
+	 * simulators start with it (see {@link #setReportingLevel(int)}),
+	 * and the hosts use it when they are run without a simulator. */
+	public static volatile int currentReportingLevel =
+		(REPORTING_LEVEL_0 | REPORTING_LEVEL_1 | REPORTING_LEVEL_2);
+
+	/** The reporting level of the round that the current thread
+	 * simulates, or -1 outside of {@link #run(int)}. */
+	private static final ThreadLocal<int[]> roundLevel = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[] { -1 };
+		}
+	};
 
 	/** Maximum segment size, in bytes. */
 	public static final int MSS = 1024; 
@@ -79,6 +111,113 @@ public class TCPSimulator {
 	private Router router = null;
 	static TcpPlot tcpPlot;
 
+	/** Capture file for the simulated traffic, if any. */
+	private PcapWriter pcapWriter = null;
+
+	/** Steady-state detector for the goodput, if any. */
+	private SteadyState steadyState = null;
+
+	/** Seed of the background traffic given on the command line, so runs repeat. */
+	private static final long CROSS_TRAFFIC_SEED = 1L;
+
+	/** Chart updates per second in the live mode of {@link TcpPlot}. */
+	private static final int LIVE_FRAME_RATE = 25;
+
+	/** Rounds of history kept for measuring the RTT. */
+	private static final int RTT_HISTORY = 64;
+
+	/** Data segments sent, and those of them the router discarded. */
+	private long segmentsSent = 0;
+	private long segmentsLost = 0;
+
+	/** Number of timeouts at the sender. */
+	private int timeouts = 0;
+
+	/** Sum and number of the RTT samples, in rounds. */
+	private long rttSum = 0;
+	private int rttSamples = 0;
+
+	// The state of a run from one round to the next.  It is kept in
+	// fields, rather than in local variables of run(), so that it can
+	// be saved into a checkpoint.
+
+	/** The acknowledgements of the last round, still to be processed. */
+	private TCPSegment[] acks = new TCPSegment[MAX_WIN];
+
+	/** Receiver's available buffer size. */
+	private int rcvWindow;
+
+	/** For the RTT samples: the highest byte sent by the end of
+	 * each of the last rounds, the last round with a retransmission
+	 * (Karn's rule: such samples are ambiguous), and the highest
+	 * byte acknowledged. */
+	private int[] highestSentAt = new int[RTT_HISTORY];
+	private int highestSent;
+	private int lastRetransmit;
+	private int highestAcked;
+
+	/** Bytes acknowledged up to the last round, for the goodput. */
+	private int lastTotal;
+
+	/** The next round to run, starting with one. */
+	private int nextIter = 1;
+
+	/** Whether a checkpoint was restored, so the next run continues it. */
+	private boolean resumed = false;
+
+	/** Checkpoint file, and the number of rounds between checkpoints. */
+	private String checkpointFile = null;
+	private int checkpointInterval = 0;
+
+	/** Identifies a checkpoint file ("TCPC"), and its format version. */
+	private static final int CHECKPOINT_MAGIC = 0x54435043;
+	private static final int CHECKPOINT_VERSION = 8;
+
+	/** The metrics recorded into, if any, looked up once. */
+	private LongAdder sentCounter = null;
+	private LongAdder retransmittedCounter = null;
+	private LongAdder droppedCounter = null;
+	private LongAdder dupAckCounter = null;
+	private Histogram rttHistogram = null;
+	private Histogram fastRecoveryHistogram = null;
+	private Histogram timeoutRecoveryHistogram = null;
+
+	/** The loss recovery in progress, for the metrics: the round it
+	 * started in, or 0 if there is none, whether it started with a
+	 * timeout, and the highest byte sent when it started, which ends
+	 * it once acknowledged. */
+	private int recoveryStart = 0;
+	private boolean recoveryByTimeout;
+	private int recoveryPoint;
+
+	/** Live charts of the run, if any. */
+	private DashboardServer dashboard = null;
+
+	/** Table of the state of every round, if it is exported. */
+	private ColumnarWriter roundExport = null;
+
+	/** Background traffic through the router, if any. */
+	private CrossTraffic crossTraffic = null;
+
+	/** Compressed windows of every round, if they are kept. */
+	private CwndTrace cwndTrace = null;
+
+	/** Trace of the events of the run, if any, and the last sending mode in it. */
+	private TraceStore trace = null;
+	private int tracedMode;
+
+	/** Log of the router's decisions, if they are recorded. */
+	private DecisionLog decisionLog = null;
+
+	/** Rounds, as reported, to report in detail, and the reporting
+	 * level for them; the other rounds are not reported. */
+	private int windowFrom = 0;
+	private int windowTo = -1;
+	private int windowLevel = 0;
+
+	/** The reporting level(s) of this simulator. */
+	private volatile int reportingLevel = currentReportingLevel;
+
 
 	/**
 	 * Constructor of  the simple TCP congestion control simulator.
@@ -91,12 +230,511 @@ public class TCPSimulator {
 	 * @see Router
 	 */
 	public TCPSimulator(int mismatchRatio_, int bufferSize_) {
-		// Another option is: TCPSenderReno()
+		// Another option is: TCPSenderTahoe()
 		sender = new TCPSenderReno();
 		receiver = new TCPReceiver();
 		router = new Router(mismatchRatio_, bufferSize_);
 	}
 
+	/**
+	 * Constructor for a simulator with the given sender and router,
+	 * e.g., a {@link TCPSenderTahoe} or a {@link TraceRouter}.
+	 * 
+	 * @param sender_ The sending host.
+	 * @param router_ The router, which represents the bottleneck resource.
+	 */
+	public TCPSimulator(TCPSender sender_, Router router_) {
+		sender = sender_;
+		receiver = new TCPReceiver();
+		router = router_;
+	}
+
+	/**
+	 * Lets this simulator capture all the traffic into a pcap file.
+	 * The caller remains responsible for closing the writer after
+	 * the run.
+	 * 
+	 * @param pcapWriter_ The capture file writer, or <code>null</code> for no capture.
+	 */
+	public void setPcapWriter(PcapWriter pcapWriter_) {
+		pcapWriter = pcapWriter_;
+	}
+
+	/**
+	 * Lets this simulator measure the utilization in the steady state
+	 * only, without the warm-up, and stop as soon as the measurement
+	 * is precise enough.  The number of iterations given to
+	 * {@link #run(int)} is then the most that will be run.
+	 * 
+	 * @param steadyState_ The detector, fed with the goodput of every round, or <code>null</code> to measure over the whole run.
+	 */
+	public void setSteadyState(SteadyState steadyState_) {
+		steadyState = steadyState_;
+	}
+
+	/**
+	 * Lets this simulator, and its router, record into the given
+	 * metrics: the counters <code>segments_sent_total</code>,
+	 * <code>segments_retransmitted_total</code>,
+	 * <code>segments_dropped_total</code> and
+	 * <code>duplicate_acks_total</code>, and the histograms
+	 * <code>rtt_rounds</code>, <code>fast_recovery_rounds</code> (from
+	 * three duplicate ACKs until all the data outstanding then is
+	 * acknowledged), <code>timeout_recovery_rounds</code> (the same,
+	 * from a timeout) and <code>queue_delay_slots</code> (see
+	 * {@link Router#setMetrics(MetricsRegistry)}).  Several simulators
+	 * may record into the same metrics.  The metrics are not part of
+	 * a checkpoint.
+	 * 
+	 * @param metrics_ The metrics.
+	 */
+	public void setMetrics(MetricsRegistry metrics_) {
+		sentCounter = metrics_.counter("segments_sent_total");
+		retransmittedCounter = metrics_.counter("segments_retransmitted_total");
+		droppedCounter = metrics_.counter("segments_dropped_total");
+		dupAckCounter = metrics_.counter("duplicate_acks_total");
+		rttHistogram = metrics_.histogram("rtt_rounds");
+		fastRecoveryHistogram = metrics_.histogram("fast_recovery_rounds");
+		timeoutRecoveryHistogram = metrics_.histogram("timeout_recovery_rounds");
+		router.setMetrics(metrics_);
+	}
+
+	/**
+	 * Lets this simulator show the congestion window and the queue of
+	 * every round on a live web page.  The caller remains responsible
+	 * for closing the server after the run.
+	 * 
+	 * @param dashboard_ The server of the page, or <code>null</code> for none.
+	 */
+	public void setDashboard(DashboardServer dashboard_) {
+		dashboard = dashboard_;
+	}
+
+	/**
+	 * Lets this simulator write the state of every round into a
+	 * columnar file, for analysis tools.  The caller remains
+	 * responsible for closing the file after the run.
+	 * 
+	 * @param roundExport_ The table, created by {@link #createRoundExport(String, boolean)}, or <code>null</code> for none.
+	 */
+	public void setRoundExport(ColumnarWriter roundExport_) {
+		roundExport = roundExport_;
+	}
+
+	/**
+	 * Lets background traffic share the router with the sender's
+	 * segments.  A router that replays recorded decisions ignores it:
+	 * the decisions include its effect already.  If this simulator
+	 * has run or resumed rounds already, the traffic skips as many,
+	 * so it goes on as in the uninterrupted run.
+	 * 
+	 * @param crossTraffic_ The traffic, or <code>null</code> for none.
+	 * @see Router#setCrossTraffic(CrossTraffic)
+	 */
+	public void setCrossTraffic(CrossTraffic crossTraffic_) {
+		if (router instanceof ReplayRouter)
+			return;
+		crossTraffic = crossTraffic_;
+		if (crossTraffic_ != null && nextIter > 1)
+			crossTraffic_.skipTo(nextIter - 1);
+		router.setCrossTraffic(crossTraffic_);
+	}
+
+	/**
+	 * Lets this simulator keep the windows of every round, as the
+	 * sender prints them, compressed in memory.
+	 * 
+	 * @param cwndTrace_ The trace, or <code>null</code> for none.
+	 */
+	public void setCwndTrace(CwndTrace cwndTrace_) {
+		cwndTrace = cwndTrace_;
+	}
+
+	/**
+	 * Accessor for the round this simulator starts or resumes from.
+	 * 
+	 * @return Returns the round of the first row of the output, counting from zero.
+	 */
+	public int getFirstRound() {
+		return nextIter - 1;
+	}
+
+	/**
+	 * Lets this simulator record the events of the run into an
+	 * indexed trace, to find them later with {@link TraceQuery}: the
+	 * state at the end of every round, the losses the sender detects,
+	 * its switches of the sending mode, and the router's drops.  The
+	 * caller remains responsible for closing the trace after the run.
+	 * 
+	 * @param trace_ The trace, or <code>null</code> for none.
+	 */
+	public void setTrace(TraceStore trace_) {
+		trace = trace_;
+		tracedMode = sender.sendMode;
+		router.setTrace(trace_);
+	}
+
+	/** Records a switch of the sending mode into the trace, if there was one. */
+	private void traceMode() {
+		if (sender.sendMode != tracedMode) {
+			trace.record(TraceStore.MODE, tracedMode, sender.sendMode);
+			tracedMode = sender.sendMode;
+		}
+	}
+
+	/**
+	 * Creates a columnar file for the state of every round: the
+	 * round, the congestion window, the slow start threshold and the
+	 * flight size, in bytes, the sending mode, the router's queue
+	 * length, the segments sent and lost in the round, the outcome
+	 * of the ACKs that started it, and the bytes transmitted so far.
+	 * 
+	 * @param file_ The name of the file, overwritten if it exists, unless resuming.
+	 * @param resume_ Whether to continue the file of a saved run, see {@link #resume(String)}.
+	 * @return Returns the table, to pass to {@link #setRoundExport(ColumnarWriter)}.
+	 * @throws IOException If the file cannot be written, or holds another table.
+	 */
+	public static ColumnarWriter createRoundExport(String file_, boolean resume_)
+			throws IOException {
+		byte i_ = ColumnarWriter.INT32;
+		return new ColumnarWriter(file_, "rounds",
+			new String[] {
+				"round", "cong_window", "ss_thresh", "flight_size", "send_mode",
+				"queue_length", "sent", "lost", "outcome", "bytes_transmitted"
+			},
+			new byte[] { i_, i_, i_, i_, i_, i_, i_, i_, i_, ColumnarWriter.INT64 },
+			resume_
+		);
+	}
+
+	/**
+	 * Exposes this simulator, its sender, receiver and router through
+	 * JMX, to watch and steer a run from JConsole.
+	 * 
+	 * @param name_ The name of the simulation, unique within this virtual machine.
+	 * @return Returns the monitor, to close once the MXBeans are no longer needed.
+	 * @throws JMException If the MXBeans cannot be registered.
+	 * @see SimulationMonitor
+	 */
+	public SimulationMonitor monitor(String name_) throws JMException {
+		return new SimulationMonitor(name_, this, sender, receiver, router);
+	}
+
+	/**
+	 * Accessor for the progress of the run.
+	 * 
+	 * @return Returns the last round run, as numbered in the report, or -1 before the first.
+	 */
+	public int getRound() {
+		return nextIter - 2;
+	}
+
+	/**
+	 * Lets this simulator record the decisions of the router into a
+	 * log, so that a {@link ReplayRouter} can replay the run, or any
+	 * stretch of it, later.  The caller remains responsible for
+	 * closing the log after the run.
+	 * 
+	 * @param decisionLog_ The log, or <code>null</code> for no recording.
+	 */
+	public void setDecisionLog(DecisionLog decisionLog_) {
+		decisionLog = decisionLog_;
+	}
+
+	/**
+	 * The reporting level for the hosts and segments: the level of
+	 * the round that the current thread is simulating, which may be
+	 * restricted by a reporting window, or else
+	 * {@link #currentReportingLevel}.
+	 * @see #setReportingLevel(int)
+	 *
+	 * @return Returns the reporting level(s) in effect.
+	 */
+	public static int reportingLevel() {
+		int level_ = roundLevel.get()[0];
+		return (level_ >= 0) ? level_ : currentReportingLevel;
+	}
+
+	/**
+	 * Sets the reporting level of the current thread, for simulators
+	 * that drive the hosts themselves instead of through
+	 * {@link #run(int)}, such as {@link FlowThreadSimulator}.
+	 *
+	 * @param level_ The reporting level(s), or -1 for {@link #currentReportingLevel}.
+	 * @return Returns the level of the thread before, to be set again afterwards.
+	 */
+	static int setThreadReportingLevel(int level_) {
+		int[] roundLevel_ = roundLevel.get();
+		int outerLevel_ = roundLevel_[0];
+		roundLevel_[0] = level_;
+		return outerLevel_;
+	}
+
+	/**
+	 * Accessor for the reporting level of this simulator.
+	 *
+	 * @return Returns the reporting level(s), a combination of the <code>REPORTING_LEVEL_</code> flags.
+	 */
+	public int getReportingLevel() {
+		return reportingLevel;
+	}
+
+	/**
+	 * Sets the reporting level of this simulator only; other
+	 * simulators, e.g., the replications of a
+	 * {@link ReplicationRunner}, keep theirs.  It may be changed
+	 * while a simulation runs, from another thread (see
+	 * {@link SimulationMonitor}), and takes effect in the next round.
+	 *
+	 * @param level_ The reporting level(s), a combination of the <code>REPORTING_LEVEL_</code> flags.
+	 */
+	public void setReportingLevel(int level_) {
+		reportingLevel = level_;
+	}
+
+	/**
+	 * Reports the given stretch of rounds only, at the given level,
+	 * e.g., {@link #REPORTING_LEVEL_2} to see every segment of a loss
+	 * episode of a long run.  The summary at the end of the run is
+	 * reported as usual, if the reporting level is not zero.
+	 * 
+	 * @param from_ The first round to report, as numbered in the report.
+	 * @param to_ The last round to report.
+	 * @param level_ The reporting level for these rounds.
+	 */
+	public void setReportingWindow(int from_, int to_, int level_) {
+		windowFrom = from_;
+		windowTo = to_;
+		windowLevel = level_;
+	}
+
+	/**
+	 * Lets this simulator save its complete state into a checkpoint
+	 * file every given number of rounds, and at the end of the run.
+	 * Each checkpoint replaces the previous one; it is written under
+	 * a temporary name first, so the file always holds a complete
+	 * checkpoint, even if the simulator is stopped while writing.
+	 * 
+	 * @param fileName_ The checkpoint file, or <code>null</code> for no checkpoints.
+	 * @param interval_ The number of rounds between checkpoints.
+	 * @see #resume(String)
+	 */
+	public void setCheckpoint(String fileName_, int interval_) {
+		if (fileName_ != null && interval_ < 1) {
+			throw new IllegalArgumentException("The checkpoint interval must be positive: " + interval_);
+		}
+		checkpointFile = fileName_;
+		checkpointInterval = interval_;
+	}
+
+	/**
+	 * Writes the complete state of this simulator into a file:
+	 * the state of the run, of the sender, the receiver and the
+	 * router, and, if set, of the steady-state detector, the
+	 * positions in the capture file, in the event trace and in the
+	 * decision log, and the window trace so far.
+	 * <P>
+	 * The plot is not part of the state; after a resume, it shows
+	 * the resumed rounds only.
+	 * 
+	 * @param fileName_ The checkpoint file, overwritten if it exists.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void saveCheckpoint(String fileName_) throws IOException {
+		File temp_ = new File(fileName_ + ".tmp");
+		DataOutputStream out_ = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(temp_))
+		);
+		try {
+			out_.writeInt(CHECKPOINT_MAGIC);
+			out_.writeInt(CHECKPOINT_VERSION);
+			out_.writeUTF(sender.getClass().getName());
+			out_.writeUTF(router.getClass().getName());
+			out_.writeInt(nextIter);
+			out_.writeInt(rcvWindow);
+			out_.writeInt(highestSent);
+			out_.writeInt(lastRetransmit);
+			out_.writeInt(highestAcked);
+			out_.writeInt(lastTotal);
+			for (int j_ = 0; j_ < RTT_HISTORY; j_++)
+				out_.writeInt(highestSentAt[j_]);
+			out_.writeLong(segmentsSent);
+			out_.writeLong(segmentsLost);
+			out_.writeInt(timeouts);
+			out_.writeLong(rttSum);
+			out_.writeInt(rttSamples);
+			for (int j_ = 0; j_ < MAX_WIN; j_++)
+				TCPSegment.save(out_, acks[j_]);
+			sender.saveState(out_);
+			receiver.saveState(out_);
+			// With its length, so a replay can do without it.
+			ByteArrayOutputStream router_ = new ByteArrayOutputStream();
+			router.saveState(new DataOutputStream(router_));
+			out_.writeInt(router_.size());
+			router_.writeTo(out_);
+			out_.writeBoolean(steadyState != null);
+			if (steadyState != null)
+				steadyState.saveState(out_);
+			out_.writeBoolean(pcapWriter != null);
+			if (pcapWriter != null)
+				pcapWriter.saveState(out_);
+			out_.writeBoolean(trace != null);
+			if (trace != null)
+				trace.saveState(out_);
+			// With its length, so a run without it can skip it.
+			out_.writeBoolean(cwndTrace != null);
+			if (cwndTrace != null) {
+				ByteArrayOutputStream windows_ = new ByteArrayOutputStream();
+				cwndTrace.saveState(new DataOutputStream(windows_));
+				out_.writeInt(windows_.size());
+				windows_.writeTo(out_);
+			}
+			out_.writeBoolean(decisionLog != null);
+			if (decisionLog != null)
+				decisionLog.saveState(out_);
+			out_.writeBoolean(roundExport != null);
+			if (roundExport != null)
+				roundExport.saveState(out_);
+		} finally {
+			out_.close();
+		}
+		Files.move(temp_.toPath(), new File(fileName_).toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restores the state saved by {@link #saveCheckpoint(String)},
+	 * so that the next {@link #run(int)} continues where the saved
+	 * run stopped.  This simulator must have been set up like the
+	 * saved one: with the same kind of sender and router, and the
+	 * same router parameters and trace, if any.  The initial window
+	 * and the handshake of the sender are taken from the checkpoint
+	 * (see {@link TCPSender#setInitialWindow(int)}).  A steady-state
+	 * detector and a capture file are continued if they are set
+	 * here and were set in the saved run; the capture file must be
+	 * opened with {@link PcapWriter#PcapWriter(String, long, boolean)}
+	 * for resuming, and starts anew if the saved run had none.  An event trace (see {@link #setTrace(TraceStore)})
+	 * is continued too, opened with {@link TraceStore#TraceStore(String, boolean)}
+	 * for resuming; the saved run must have had one.  So is a window
+	 * trace (see {@link #setCwndTrace(CwndTrace)}), from the values
+	 * in the checkpoint, and a decision log (see
+	 * {@link #setDecisionLog(DecisionLog)}), opened with
+	 * {@link DecisionLog#DecisionLog(String, boolean)} for resuming; if
+	 * the saved run did not record, the log starts with the resumed
+	 * round.  The same goes for a table of the rounds (see
+	 * {@link #setRoundExport(ColumnarWriter)}), created with
+	 * {@link #createRoundExport(String, boolean)} for resuming.
+	 * <P>
+	 * With a {@link ReplayRouter}, the checkpoint may be of a run with
+	 * any router, provided that the run recorded its decisions: the
+	 * replay goes on from the same round of the log.
+	 * <P>
+	 * Restoring one checkpoint into several simulators, and changing
+	 * their settings, branches "what-if" experiments from the same
+	 * warm state.
+	 * 
+	 * @param fileName_ The checkpoint file.
+	 * @throws IOException If the file cannot be read, or does not fit this simulator.
+	 */
+	public void resume(String fileName_) throws IOException {
+		DataInputStream in_ = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(fileName_))
+		);
+		try {
+			if (in_.readInt() != CHECKPOINT_MAGIC)
+				throw new IOException(fileName_ + " is not a checkpoint");
+			int version_ = in_.readInt();
+			if (version_ != CHECKPOINT_VERSION)
+				throw new IOException(
+					fileName_ + " is a checkpoint of version " + version_
+					+ "; this simulator only reads version " + CHECKPOINT_VERSION
+				);
+			String sender_ = in_.readUTF();
+			String router_ = in_.readUTF();
+			if (!sender_.equals(sender.getClass().getName())
+					|| !(router_.equals(router.getClass().getName())
+						|| router instanceof ReplayRouter))
+				throw new IOException(
+					"The checkpoint is of a " + sender_ + " and a " + router_
+				);
+			nextIter = in_.readInt();
+			rcvWindow = in_.readInt();
+			highestSent = in_.readInt();
+			lastRetransmit = in_.readInt();
+			highestAcked = in_.readInt();
+			lastTotal = in_.readInt();
+			for (int j_ = 0; j_ < RTT_HISTORY; j_++)
+				highestSentAt[j_] = in_.readInt();
+			segmentsSent = in_.readLong();
+			segmentsLost = in_.readLong();
+			timeouts = in_.readInt();
+			rttSum = in_.readLong();
+			rttSamples = in_.readInt();
+			for (int j_ = 0; j_ < MAX_WIN; j_++)
+				acks[j_] = TCPSegment.restore(in_);
+			sender.restoreState(in_);
+			receiver.restoreState(in_);
+			byte[] routerState_ = new byte[in_.readInt()];
+			in_.readFully(routerState_);
+			// The background traffic depends on the rounds only.
+			if (crossTraffic != null)
+				crossTraffic.skipTo(nextIter - 1);
+			if (router instanceof ReplayRouter)
+				((ReplayRouter) router).skipTo(nextIter);
+			else
+				router.restoreState(
+					new DataInputStream(new ByteArrayInputStream(routerState_))
+				);
+			if (in_.readBoolean()) {
+				SteadyState saved_ = (steadyState != null) ? steadyState : new SteadyState(1.0);
+				saved_.restoreState(in_);
+			}
+			if (in_.readBoolean()) {
+				if (pcapWriter != null)
+					pcapWriter.restoreState(in_);
+				else
+					in_.skipBytes(16);
+			} else if (pcapWriter != null) {
+				pcapWriter.startAnew();
+			}
+			if (in_.readBoolean()) {
+				if (trace != null)
+					trace.restoreState(in_);
+				else
+					in_.readFully(new byte[12]);
+			} else if (trace != null) {
+				throw new IOException(
+					"The checkpoint has no event trace to continue in " + trace.getFileName()
+				);
+			}
+			if (in_.readBoolean()) {
+				int length_ = in_.readInt();
+				if (cwndTrace != null)
+					cwndTrace.restoreState(in_);
+				else
+					in_.readFully(new byte[length_]);
+			} else if (cwndTrace != null) {
+				throw new IOException("The checkpoint has no window trace to continue");
+			}
+			if (in_.readBoolean()) {
+				if (decisionLog != null)
+					decisionLog.restoreState(in_);
+				else
+					in_.readFully(new byte[16]);
+			}
+			if (in_.readBoolean()) {
+				if (roundExport != null)
+					roundExport.restoreState(in_);
+				else
+					in_.readFully(new byte[16]);
+			}
+			tracedMode = sender.sendMode;
+		} finally {
+			in_.close();
+		}
+		resumed = true;
+	}
+
 	/**
 	 * Runs the simulator for the given number of transmission rounds
 	 * (iterations).  Reports the outcomes of the individual
@@ -107,50 +745,236 @@ public class TCPSimulator {
 	 * segments (and it may drop some of them).  For the sake
 	 * of simplicity, the acknowledgement segments simply
 	 * bypass the router, so they are never dropped.
+	 * <P>
+	 * After {@link #resume(String)}, the run continues from the
+	 * round after the checkpoint, up to the given number of rounds
+	 * in total.
 	 * 
 	 * @param num_iter_ The number of iterations (transmission rounds) to run the simulator.
+	 * @return Returns the sender utilization, as a fraction of the bottleneck capacity; in the steady state, if it was reached.
 	 * @see Router
 	 */
-	public void run(int num_iter_) {	
+	public float run(int num_iter_) {	
+		// The reporting window only applies to this thread, and only
+		// while running, also if the run ends early or fails.
+		int[] roundLevel_ = roundLevel.get();
+		int outerLevel_ = roundLevel_[0];
+		try {
+			return simulate(num_iter_, roundLevel_);
+		} finally {
+			roundLevel_[0] = outerLevel_;
+		}
+	}
+
+	/** The body of {@link #run(int)}; sets the level of every round into the given holder. */
+	private float simulate(int num_iter_, int[] roundLevel_) {
 		TCPSegment[] segments_ = new TCPSegment[MAX_WIN];
-		TCPSegment[] acks_ = new TCPSegment[MAX_WIN];
+		TCPSegment[] acks_ = acks;
 
-		// Initialize the arrays with "no packet"
-		for (int i_ = 0; i_ < MAX_WIN; i_++) {
-			segments_[i_] = null;	// TCP packets, called segments
-			acks_[i_] = null;		// Acknowledgement segments
+		if (!resumed) {
+			// Initialize the arrays with "no packet"
+			for (int i_ = 0; i_ < MAX_WIN; i_++) {
+				segments_[i_] = null;	// TCP packets, called segments
+				acks_[i_] = null;		// Acknowledgement segments
+			}
+			rcvWindow = receiver.getRcvWindow();
+			highestSent = -1;
+			lastRetransmit = 0;
+			highestAcked = -1;
+			lastTotal = 0;
+			segmentsSent = segmentsLost = rttSum = 0;
+			timeouts = rttSamples = 0;
+			nextIter = 1;
+			// A log of a resumed run cannot be replayed from the start.
+			if (router instanceof ReplayRouter) {
+				try {
+					((ReplayRouter) router).skipTo(nextIter);
+				} catch (IOException e_) {
+					throw new IllegalStateException(e_.getMessage(), e_);
+				}
+			}
 		}
+		resumed = false;
+		recoveryStart = 0;
+		// The level for the table.
+		int tableLevel_ = (windowTo >= windowFrom) ? windowLevel : reportingLevel;
 
 		// Print the headline for the output columns:
-		System.out.println(
-			"Iter\tCongWindow\tEffctWindow\tFlightSize\tSSThresh"
-		);
-		System.out.println(
-			"================================================================"
-		);
-		// Receiver's available buffer size:
-		int rcvWindow = receiver.getRcvWindow();
+		if ((tableLevel_ & REPORTING_LEVEL_0) != 0) {
+			System.out.println(
+				"Iter\tCongWindow\tEffctWindow\tFlightSize\tSSThresh"
+			);
+			System.out.println(
+				"================================================================"
+			);
+		}
+		// The segments as sent, before the router discards some;
+		// only needed for the capture file and the decision log.
+		TCPSegment[] sent_ = new TCPSegment[MAX_WIN];
+
+		// The rounds actually run, fewer if the steady state is reached.
+		int numRun_ = num_iter_;
 
 		// Iterate for the given number of transmission rounds.
 		// Each transmission round is one RTT cycle long.
-		for (int i_ = 1; i_ <= num_iter_; i_++) 
+		for (int i_ = nextIter; i_ <= num_iter_; i_++) 
         {
+			int level_ = reportingLevel;
+			if (windowTo >= windowFrom)
+				level_ = (i_-1 >= windowFrom && i_-1 <= windowTo) ? windowLevel : 0;
+			roundLevel_[0] = level_;
+			SimulatorEvents.Round roundEvent_ = new SimulatorEvents.Round();
+			roundEvent_.begin();
 			int outcome_ = SUCCESS;
 			if (i_ != 1)
 				outcome_ = sender.processAcks(acks_); 
-			if ( (outcome_ == DUP_ACKx3) && ((currentReportingLevel  & REPORTING_LEVEL_1) != 0)) 
+			if (steadyState != null && i_ != 1) {
+				int total_ = sender.getTotalBytesTransmitted();
+				boolean converged_ = steadyState.add(total_ - lastTotal);
+				lastTotal = total_;
+				if (converged_) {
+					numRun_ = i_ - 1;
+					break;
+				}
+			}
+			if (outcome_ == TIMEOUT)
+				timeouts++;
+			if (trace != null) {
+				trace.setRound(i_-1);
+				if (outcome_ != SUCCESS)
+					trace.record((outcome_ == TIMEOUT) ? TraceStore.TIMEOUT : TraceStore.DUP_ACKS,
+						sender.congWindow, sender.SSThresh);
+				traceMode();
+			}
+			if (sentCounter != null && outcome_ != SUCCESS
+					&& (recoveryStart == 0 || (outcome_ == TIMEOUT && !recoveryByTimeout))) {
+				// A timeout during fast recovery starts over.
+				recoveryStart = i_;
+				recoveryByTimeout = (outcome_ == TIMEOUT);
+				recoveryPoint = highestSent;
+			}
+			if ( (outcome_ == DUP_ACKx3) && ((level_  & REPORTING_LEVEL_1) != 0)) 
 				System.out.println( "iter = " + (i_-1) + " ..... Three (or more) duplicate ACKs received! .....");
-            else if ( (outcome_ == TIMEOUT) && ((currentReportingLevel  & REPORTING_LEVEL_1) != 0)) 
+            else if ( (outcome_ == TIMEOUT) && ((level_  & REPORTING_LEVEL_1) != 0)) 
 				System.out.println( "iter = " + (i_-1) + " ***** Timeout occured! *****");
-			System.out.print((i_-1) + "\t");
+			if ((level_ & REPORTING_LEVEL_0) != 0)
+				System.out.print((i_-1) + "\t");
+			if (cwndTrace != null) {
+				// The same values as the sender prints.
+				int flightSize_ = sender.lastByteSent - sender.lastByteAcked;
+				cwndTrace.record(sender.congWindow, sender.SSThresh, flightSize_,
+					Math.max(1, Math.min(sender.congWindow, rcvWindow) - flightSize_));
+			}
 			sender.send(segments_, rcvWindow, outcome_, i_-1,tcpPlot);
+			if (pcapWriter != null || decisionLog != null)
+				System.arraycopy(segments_, 0, sent_, 0, MAX_WIN);
+			int sentNow_ = 0;
+			int retransmitted_ = 0;
+			for (int j_ = 0; j_ < MAX_WIN; j_++) {
+				TCPSegment seg_ = segments_[j_];
+				if (seg_ != null) {
+					sentNow_++;
+					if (seg_.seqNum <= highestSent) {
+						lastRetransmit = i_;
+						retransmitted_++;
+					}
+					highestSent = Math.max(highestSent, seg_.seqNum + seg_.length - 1);
+				}
+			}
+			highestSentAt[i_ % RTT_HISTORY] = highestSent;
+			segmentsSent += sentNow_;
+			int sentInRound_ = sentNow_;
 			router.relay(segments_);
+			if (decisionLog != null) {
+				try {
+					decisionLog.record(i_, sent_, segments_, router.getBottleneckCapacity());
+				} catch (IOException e_) {
+					System.err.println("Recording stopped: " + e_);
+					decisionLog = null;
+				}
+			}
+			for (int j_ = 0; j_ < MAX_WIN; j_++) {
+				if (segments_[j_] != null)
+					sentNow_--;
+			}
+			// Delayed segments may come out later than they went in.
+			segmentsLost += Math.max(0, sentNow_);
+			if (sentCounter != null) {
+				sentCounter.add(sentInRound_);
+				retransmittedCounter.add(retransmitted_);
+				droppedCounter.add(Math.max(0, sentNow_));
+			}
+			if (dashboard != null)
+				dashboard.record(i_-1, sender.congWindow, sender.SSThresh, router.getQueueLength());
+			if (trace != null) {
+				traceMode();
+				trace.record(TraceStore.ROUND, sender.congWindow, sender.SSThresh);
+			}
+			if (roundExport != null) {
+				roundExport.putInt(i_-1);
+				roundExport.putInt(sender.congWindow);
+				roundExport.putInt(sender.SSThresh);
+				roundExport.putInt(sender.lastByteSent - sender.lastByteAcked);
+				roundExport.putInt(sender.sendMode);
+				roundExport.putInt(router.getQueueLength());
+				roundExport.putInt(sentInRound_);
+				roundExport.putInt(Math.max(0, sentNow_));
+				roundExport.putInt(outcome_);
+				roundExport.putLong(sender.getTotalBytesTransmitted());
+				try {
+					roundExport.endRow();
+				} catch (IOException e_) {
+					System.err.println("Export stopped: " + e_);
+					roundExport = null;
+				}
+			}
 			rcvWindow = receiver.receive(segments_, acks_);
+			sampleRtt(acks_, i_, highestSentAt, highestAcked, lastRetransmit);
+			for (int j_ = 0; j_ < MAX_WIN; j_++) {
+				if (acks_[j_] == null)
+					continue;
+				if (dupAckCounter != null && acks_[j_].seqNum - 1 <= highestAcked)
+					dupAckCounter.increment();
+				highestAcked = Math.max(highestAcked, acks_[j_].seqNum - 1);
+			}
+			if (recoveryStart != 0 && highestAcked >= recoveryPoint) {
+				(recoveryByTimeout ? timeoutRecoveryHistogram : fastRecoveryHistogram)
+					.record(i_ - recoveryStart + 1);
+				recoveryStart = 0;
+			}
+			if (pcapWriter != null) {
+				try {
+					pcapWriter.writeRound(i_-1, 0, sent_, segments_, acks_, rcvWindow);
+				} catch (IOException e_) {
+					System.err.println("Capture stopped: " + e_);
+					pcapWriter = null;
+				}
+			}
+			nextIter = i_ + 1;
+			roundEvent_.end();
+			if (roundEvent_.shouldCommit()) {
+				roundEvent_.round = i_ - 1;
+				roundEvent_.sent = sentInRound_;
+				roundEvent_.lost = Math.max(0, sentNow_);
+				roundEvent_.commit();
+			}
+			if (checkpointFile != null
+					&& (i_ % checkpointInterval == 0 || i_ == num_iter_)) {
+				try {
+					saveCheckpoint(checkpointFile);
+				} catch (IOException e_) {
+					System.err.println("Checkpoints stopped: " + e_);
+					checkpointFile = null;
+				}
+			}
 		}
 
-		System.out.println(
-			"================================================================"
-		);
+		roundLevel_[0] = -1;
+		if ((tableLevel_ & REPORTING_LEVEL_0) != 0) {
+			System.out.println(
+				"================================================================"
+			);
+		}
 		// How many bytes were transmitted:
 		int actualTotalTransmitted_ = sender.getTotalBytesTransmitted();
 
@@ -158,19 +982,138 @@ public class TCPSimulator {
 		// bottleneck capacity, if there were no losses due to
 		// exceeding the bottleneck capacity:
 		int potentialTotalTransmitted_ =
-			router.getBottleneckCapacity() * num_iter_;
+			router.getBottleneckCapacity() * numRun_;
 
 		// Report the utilization of the sender:
 		float utilization_ =
 			(float) actualTotalTransmitted_ / (float) potentialTotalTransmitted_;
+		if (reportingLevel != 0) {
+			System.out.println(
+				"Sender utilization: " + Math.round(utilization_*100.0f) + " %"
+			);
+			reportModels(actualTotalTransmitted_ / (double) numRun_);
+		}
+		if (steadyState != null) {
+			double capacity_ = router.getBottleneckCapacity();
+			if (reportingLevel != 0 && !steadyState.hasEstimate()) {
+				System.out.println(
+					"Steady-state utilization: no estimate, the warm-up may not be over, "
+					+ numRun_ + " rounds run, precision NOT reached"
+				);
+			} else if (reportingLevel != 0) {
+				System.out.println(
+					"Steady-state utilization: "
+					+ Math.round(steadyState.getMean() / capacity_ * 1000.0) / 10.0
+					+ " % +/- "
+					+ Math.round(steadyState.getHalfWidth() / capacity_ * 1000.0) / 10.0
+					+ " % (95 % confidence), warm-up: " + steadyState.getWarmupRounds()
+					+ " rounds, " + numRun_ + " rounds run"
+					+ (steadyState.isConverged() ? "" : ", precision NOT reached")
+				);
+			}
+			if (steadyState.isConverged())
+				return (float) (steadyState.getMean() / capacity_);
+		}
+		return utilization_;
+	} //end the function run()
+
+	/**
+	 * Takes an RTT sample from the acknowledgements of a round:
+	 * how many rounds ago the highest newly acknowledged byte was
+	 * sent.  There is no sample if nothing new is acknowledged, if
+	 * the byte was sent too long ago, or if there was a retransmission
+	 * since it was sent.
+	 */
+	private void sampleRtt(TCPSegment[] acks_, int iter_, int[] highestSentAt_,
+			int highestAcked_, int lastRetransmit_) {
+		int acked_ = highestAcked_;
+		for (int j_ = 0; j_ < acks_.length; j_++) {
+			if (acks_[j_] != null)
+				acked_ = Math.max(acked_, acks_[j_].seqNum - 1);
+		}
+		if (acked_ <= highestAcked_)
+			return;
+		int oldest_ = Math.max(Math.max(1, iter_ - RTT_HISTORY + 1), lastRetransmit_ + 1);
+		for (int r_ = oldest_; r_ <= iter_; r_++) {
+			if (highestSentAt_[r_ % RTT_HISTORY] >= acked_) {
+				// Sent at the start of round r_, acknowledged at the end of round iter_.
+				rttSum += iter_ - r_ + 1;
+				rttSamples++;
+				if (rttHistogram != null)
+					rttHistogram.record(iter_ - r_ + 1);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reports the observed loss rate and mean RTT, and the throughput
+	 * predicted for them by the Mathis and the Padhye models, next to
+	 * the measured throughput.  The percentages tell how much of each
+	 * prediction the sender achieved.
+	 *
+	 * @param measured_ The measured throughput, in bytes per round.
+	 */
+	private void reportModels(double measured_) {
+		double lossRate_ = getLossRate();
+		double rtt_ = getMeanRtt();
 		System.out.println(
-			"Sender utilization: " + Math.round(utilization_*100.0f) + " %"
+			"Loss rate: " + Math.round(lossRate_ * 10000.0) / 100.0 + " %"
+			+ ", mean RTT: " + Math.round(rtt_ * 100.0) / 100.0 + " rounds"
+			+ ", timeouts: " + timeouts
 		);
-	} //end the function run()
+		if (lossRate_ <= 0.0 || rttSamples == 0) {
+			System.out.println(
+				"Throughput: " + Math.round(measured_) + " bytes/round"
+				+ " (no losses or no RTT samples, so no model predictions)"
+			);
+			return;
+		}
+		double mathis_ = ThroughputModel.mathis(MSS, rtt_, lossRate_);
+		double padhye_ = ThroughputModel.padhye(
+			MSS, rtt_, lossRate_, TCPSender.TIMER_DEFAULT, 1, MAX_WIN
+		);
+		System.out.println(
+			"Throughput: " + Math.round(measured_) + " bytes/round"
+			+ ", Mathis: " + Math.round(mathis_)
+			+ " (" + Math.round(measured_ / mathis_ * 100.0) + " %)"
+			+ ", Padhye: " + Math.round(padhye_)
+			+ " (" + Math.round(measured_ / padhye_ * 100.0) + " %)"
+		);
+	}
+
+	/**
+	 * Accessor for the loss rate observed in the last run.
+	 *
+	 * @return Returns the fraction of the data segments that the router discarded.
+	 */
+	public double getLossRate() {
+		return (segmentsSent > 0) ? segmentsLost / (double) segmentsSent : 0.0;
+	}
+
+	/**
+	 * Accessor for the mean RTT observed in the last run.
+	 *
+	 * @return Returns the mean round-trip time, in rounds.
+	 */
+	public double getMeanRtt() {
+		return (rttSamples > 0) ? rttSum / (double) rttSamples : 1.0;
+	}
+
+	/** The command line options, printed when one is not understood. */
+	private static final String USAGE =
+		"Usage: TCPSimulator <iterations> [-steady <precision>]"
+		+ " [-checkpoint <file> <interval>] [-resume <file>]"
+		+ " [-record <file>] [-replay <file>] [-window <from> <to>]"
+		+ " [-live <rounds>] [-cbr <rate>] [-poisson <rate>]"
+		+ " [-onoff <sources> <rate> <mean on> <mean off>]"
+		+ " [-iw <segments>] [-handshake] [-cwnd <file>] [-trace <file>]"
+		+ " [-export <file>] [-http <port>] [-jmx <name>]"
+		+ " [-metrics <prefix>] [-pcap <file>]";
 
 	/** The main method. Takes the number of iterations as
 	 * the input and runs the simulator.
-	 * @param argv_ Input argument(s) should contain the number of iterations to run.
+	 * @param argv_ Input argument(s) should contain the number of iterations to run, and optionally <code>-steady &lt;precision&gt;</code> to stop once the steady-state utilization is known within the given fraction, <code>-checkpoint &lt;file&gt; &lt;interval&gt;</code> to save a checkpoint every given number of rounds, <code>-resume &lt;file&gt;</code> to continue from a checkpoint, <code>-record &lt;file&gt;</code> to record the router's decisions, <code>-replay &lt;file&gt;</code> to replay recorded decisions instead of routing, <code>-window &lt;from&gt; &lt;to&gt;</code> to report the given rounds only, <code>-live &lt;rounds&gt;</code> to draw the chart while the simulation runs, with the given number of last rounds, <code>-cbr &lt;rate&gt;</code>, <code>-poisson &lt;rate&gt;</code> and <code>-onoff &lt;sources&gt; &lt;rate&gt; &lt;mean on&gt; &lt;mean off&gt;</code> to add background traffic to the router, in packets and rounds (see {@link CrossTraffic}), <code>-iw &lt;segments&gt;</code> to start with a larger congestion window, e.g., 10 (see {@link TCPSender#setInitialWindow(int)}), <code>-handshake</code> to spend the first round on setting up the connection, <code>-cwnd &lt;file&gt;</code> to save the windows of every round, compressed (see {@link CwndTrace}), <code>-trace &lt;file&gt;</code> to record the events of the run into an indexed trace (see {@link TraceQuery}), <code>-export &lt;file&gt;</code> to write the state of every round into a columnar file (see {@link ColumnarWriter}), <code>-http &lt;port&gt;</code> to show live charts on a web page at that port of the local host (0 for any free port), <code>-jmx &lt;name&gt;</code> to expose the run through JMX, <code>-metrics &lt;prefix&gt;</code> to write the metrics into <code>&lt;prefix&gt;.json</code> and <code>&lt;prefix&gt;.prom</code>, and <code>-pcap &lt;file&gt;</code> to capture the traffic into a pcap file.  Any other argument is rejected with a usage message.
 	 */
 	public static void main(String[] argv_) {	
 		if (argv_.length < 1) {
@@ -183,17 +1126,266 @@ public class TCPSimulator {
 		int mismatch_ratio_ = 10;
 		int buffer_size_ = 7;
 
-		// Create the simulator.
-		TCPSimulator simulator =
-			new TCPSimulator(mismatch_ratio_, buffer_size_);
+		// Create the simulator; its router replays the decisions of
+		// a recorded run, if a log was given.
+		TCPSimulator simulator = null;
+		for (int a_ = 1; a_ + 1 < argv_.length; a_++) {
+			if (argv_[a_].equals("-replay")) {
+				try {
+					simulator = new TCPSimulator(
+						new TCPSenderReno(), new ReplayRouter(argv_[a_ + 1])
+					);
+				} catch (IOException e_) {
+					System.err.println("Cannot replay " + argv_[a_ + 1] + ": " + e_);
+					System.exit(1);
+				}
+			}
+		}
+		if (simulator == null)
+			simulator = new TCPSimulator(mismatch_ratio_, buffer_size_);
 		tcpPlot = new TcpPlot();
 
 		// Extract the number of iterations (transmission rounds) to run
 		// from the command line argument.
 		Integer numIter_ = new Integer(argv_[0]);
 
+		// Measure in the steady state, if a precision was given,
+		// save checkpoints or resume from one, or record the router's
+		// decisions, if a file was given, report only the given rounds,
+		// and capture the traffic, if a file name was given.
+		String pcapFile_ = null;
+		String resumeFile_ = null;
+		String recordFile_ = null;
+		String metricsFile_ = null;
+		String jmxName_ = null;
+		String exportFile_ = null;
+		String traceFile_ = null;
+		String cwndFile_ = null;
+		CrossTraffic crossTraffic_ = null;
+		int httpPort_ = -1;
+		for (int a_ = 1; a_ < argv_.length; a_++) {
+			if (argv_[a_].equals("-steady") && a_ + 1 < argv_.length) {
+				simulator.setSteadyState(
+					new SteadyState(Double.parseDouble(argv_[++a_]))
+				);
+			} else if (argv_[a_].equals("-checkpoint") && a_ + 2 < argv_.length) {
+				simulator.setCheckpoint(argv_[a_ + 1], Integer.parseInt(argv_[a_ + 2]));
+				a_ += 2;
+			} else if (argv_[a_].equals("-resume") && a_ + 1 < argv_.length) {
+				resumeFile_ = argv_[++a_];
+			} else if (argv_[a_].equals("-http") && a_ + 1 < argv_.length) {
+				httpPort_ = Integer.parseInt(argv_[++a_]);
+			} else if (argv_[a_].equals("-live") && a_ + 1 < argv_.length) {
+				int liveRounds_ = Integer.parseInt(argv_[++a_]);
+				if (TcpPlot.canShowLive()) {
+					tcpPlot.startLive(liveRounds_, LIVE_FRAME_RATE);
+				} else {
+					System.err.println("No display; the chart is drawn at the end");
+				}
+			} else if ((argv_[a_].equals("-cbr") || argv_[a_].equals("-poisson")) && a_ + 1 < argv_.length) {
+				if (crossTraffic_ == null)
+					crossTraffic_ = new CrossTraffic(new SplittableRandom(CROSS_TRAFFIC_SEED));
+				if (argv_[a_].equals("-cbr"))
+					crossTraffic_.addConstant(Double.parseDouble(argv_[++a_]));
+				else
+					crossTraffic_.addPoisson(Double.parseDouble(argv_[++a_]));
+			} else if (argv_[a_].equals("-onoff") && a_ + 4 < argv_.length) {
+				if (crossTraffic_ == null)
+					crossTraffic_ = new CrossTraffic(new SplittableRandom(CROSS_TRAFFIC_SEED));
+				int sources_ = Integer.parseInt(argv_[a_ + 1]);
+				for (int s_ = 0; s_ < sources_; s_++) {
+					crossTraffic_.addOnOff(Double.parseDouble(argv_[a_ + 2]),
+						Double.parseDouble(argv_[a_ + 3]), Double.parseDouble(argv_[a_ + 4]));
+				}
+				a_ += 4;
+			} else if (argv_[a_].equals("-iw") && a_ + 1 < argv_.length) {
+				simulator.sender.setInitialWindow(Integer.parseInt(argv_[++a_]));
+			} else if (argv_[a_].equals("-handshake")) {
+				simulator.sender.setHandshake(true);
+			} else if (argv_[a_].equals("-cwnd") && a_ + 1 < argv_.length) {
+				cwndFile_ = argv_[++a_];
+			} else if (argv_[a_].equals("-trace") && a_ + 1 < argv_.length) {
+				traceFile_ = argv_[++a_];
+			} else if (argv_[a_].equals("-export") && a_ + 1 < argv_.length) {
+				exportFile_ = argv_[++a_];
+			} else if (argv_[a_].equals("-jmx") && a_ + 1 < argv_.length) {
+				jmxName_ = argv_[++a_];
+			} else if (argv_[a_].equals("-metrics") && a_ + 1 < argv_.length) {
+				metricsFile_ = argv_[++a_];
+			} else if (argv_[a_].equals("-record") && a_ + 1 < argv_.length) {
+				recordFile_ = argv_[++a_];
+			} else if (argv_[a_].equals("-replay") && a_ + 1 < argv_.length) {
+				a_++;		// the router is set up already
+			} else if (argv_[a_].equals("-window") && a_ + 2 < argv_.length) {
+				simulator.setReportingWindow(
+					Integer.parseInt(argv_[a_ + 1]), Integer.parseInt(argv_[a_ + 2]),
+					simulator.getReportingLevel()
+				);
+				a_ += 2;
+			} else if (argv_[a_].equals("-pcap") && a_ + 1 < argv_.length) {
+				pcapFile_ = argv_[++a_];
+			} else {
+				System.err.println("Unknown option or missing value: " + argv_[a_]);
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+		}
+		PcapWriter pcapWriter_ = null;
+		if (pcapFile_ != null) {
+			try {
+				pcapWriter_ = new PcapWriter(pcapFile_, 100000L, resumeFile_ != null);
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + pcapFile_ + ": " + e_);
+				System.exit(1);
+			}
+			simulator.setPcapWriter(pcapWriter_);
+		}
+		SimulationMonitor monitor_ = null;
+		if (jmxName_ != null) {
+			try {
+				monitor_ = simulator.monitor(jmxName_);
+			} catch (JMException e_) {
+				System.err.println("Cannot register the MXBeans: " + e_);
+			}
+		}
+		DashboardServer dashboard_ = null;
+		if (httpPort_ >= 0) {
+			try {
+				dashboard_ = new DashboardServer(httpPort_);
+				System.err.println("Dashboard: http://localhost:" + dashboard_.getPort() + "/");
+				simulator.setDashboard(dashboard_);
+			} catch (IOException e_) {
+				System.err.println("Cannot start the dashboard: " + e_);
+			}
+		}
+		MetricsRegistry metrics_ = null;
+		if (metricsFile_ != null) {
+			metrics_ = new MetricsRegistry();
+			simulator.setMetrics(metrics_);
+		}
+		ColumnarWriter roundExport_ = null;
+		if (exportFile_ != null) {
+			try {
+				roundExport_ = createRoundExport(exportFile_, resumeFile_ != null);
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + exportFile_ + ": " + e_);
+				System.exit(1);
+			}
+			simulator.setRoundExport(roundExport_);
+		}
+		TraceStore trace_ = null;
+		if (traceFile_ != null) {
+			try {
+				trace_ = new TraceStore(traceFile_, resumeFile_ != null);
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + traceFile_ + ": " + e_);
+				System.exit(1);
+			}
+			simulator.setTrace(trace_);
+		}
+		DecisionLog decisionLog_ = null;
+		if (recordFile_ != null) {
+			try {
+				decisionLog_ = new DecisionLog(recordFile_, resumeFile_ != null);
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + recordFile_ + ": " + e_);
+				System.exit(1);
+			}
+			simulator.setDecisionLog(decisionLog_);
+		}
+		CwndTrace cwndTrace_ = null;
+		if (cwndFile_ != null) {
+			cwndTrace_ = new CwndTrace(simulator.getFirstRound());
+			simulator.setCwndTrace(cwndTrace_);
+		}
+		if (crossTraffic_ != null)
+			simulator.setCrossTraffic(crossTraffic_);
+		if (resumeFile_ != null) {
+			try {
+				simulator.resume(resumeFile_);
+			} catch (IOException e_) {
+				System.err.println("Cannot resume from " + resumeFile_ + ": " + e_);
+				System.exit(1);
+			}
+		} else if (simulator.router instanceof ReplayRouter) {
+			ReplayRouter replay_ = (ReplayRouter) simulator.router;
+			if (replay_.getFirstRound() != 1) {
+				System.err.println(
+					"Cannot replay: the log starts with round " + replay_.getFirstRound()
+					+ "; use -resume with a checkpoint of round "
+					+ (replay_.getFirstRound() - 1) + " or later"
+				);
+				System.exit(1);
+			}
+		}
+
 		// Run the simulator for the given number of transmission rounds.
 		simulator.run(numIter_.intValue());
+		if (simulator.crossTraffic != null) {
+			long offered_ = simulator.crossTraffic.getOffered();
+			System.out.println(
+				"Cross traffic: " + offered_ + " packets offered, "
+				+ simulator.crossTraffic.getDelivered() + " delivered ("
+				+ Math.round(100.0 * simulator.crossTraffic.getDelivered() / Math.max(1L, offered_))
+				+ " %)"
+			);
+		}
+		if (cwndTrace_ != null) {
+			try {
+				cwndTrace_.save(cwndFile_);
+				System.err.println(
+					"Window trace: " + cwndTrace_.getCompressedBytes() + " bytes, "
+					+ cwndTrace_.getRawBytes() + " uncompressed"
+				);
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + cwndFile_ + ": " + e_);
+			}
+		}
+		if (pcapWriter_ != null) {
+			try {
+				pcapWriter_.close();
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + pcapFile_ + ": " + e_);
+			}
+		}
+		if (dashboard_ != null)
+			dashboard_.close();
+		if (trace_ != null) {
+			try {
+				trace_.close();
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + traceFile_ + ": " + e_);
+			}
+		}
+		if (roundExport_ != null) {
+			try {
+				roundExport_.close();
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + exportFile_ + ": " + e_);
+			}
+		}
+		if (metrics_ != null) {
+			try {
+				metrics_.writeJson(new File(metricsFile_ + ".json"));
+				metrics_.writePrometheus(new File(metricsFile_ + ".prom"));
+			} catch (IOException e_) {
+				System.err.println("Cannot write the metrics: " + e_);
+			}
+		}
+		if (decisionLog_ != null) {
+			try {
+				decisionLog_.close();
+			} catch (IOException e_) {
+				System.err.println("Cannot write " + recordFile_ + ": " + e_);
+			}
+		}
+		if (monitor_ != null) {
+			try {
+				monitor_.close();
+			} catch (JMException e_) {
+				System.err.println("Cannot unregister the MXBeans: " + e_);
+			}
+		}
 		tcpPlot.plotGraph();
 
     }
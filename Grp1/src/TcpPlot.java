@@ -8,6 +8,12 @@ import org.jfree.data.general.DefaultPieDataset;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 /** * A simple introduction to using JFreeChart.This demo is described in the * JFreeChart Developer Guide. */ 
 public class TcpPlot 
 { 
@@ -17,6 +23,24 @@ public class TcpPlot
 	XYSeries eff;
 	XYSeries ssthresh;
 	XYSeries flight;
+
+	/** In the live mode, the points the simulation added since the
+	 * last frame, in a ring of the size of the window, one array per
+	 * value; guarded by <code>this</code>. */
+	private int[][] pending = null;
+	private int pendingStart = 0;
+	private int pendingCount = 0;
+
+	/** In the live mode, the points being moved into the series on
+	 * the event dispatch thread, and the timer that does it. */
+	private int[][] drained = null;
+	private Timer frameTimer = null;
+
+	/** Whether the live mode is on; set by the simulation thread at
+	 * once, while the chart and the timer start later, on the event
+	 * dispatch thread. */
+	private volatile boolean live = false;
+
 	public TcpPlot()
 	{
 	congWindow = new XYSeries("congWindow");
@@ -26,8 +50,125 @@ public class TcpPlot
 	}
 
 
+	/**
+	 * Shows the chart at once, and updates it while the simulation
+	 * runs, with the given number of last rounds only.
+	 * <P>
+	 * The simulation only puts the points into a buffer; a Swing
+	 * timer moves them into the series at the given frame rate, all
+	 * the points of a frame at once, with the notifications off, so
+	 * the chart is redrawn once per frame rather than once per point.
+	 * If the chart cannot keep up, the buffer keeps the last window
+	 * of points only, so the memory stays bounded either way.  The
+	 * series are only changed on the event dispatch thread.
+	 * 
+	 * @param windowRounds_ The number of last rounds to show.
+	 * @param framesPerSecond_ The number of chart updates per second.
+	 */
+	public void startLive(int windowRounds_, int framesPerSecond_)
+	{
+		if (windowRounds_ < 1 || framesPerSecond_ < 1) {
+			throw new IllegalArgumentException(
+				"The window and the frame rate must be positive: "
+				+ windowRounds_ + ", " + framesPerSecond_
+			);
+		}
+		frameTimer = new Timer(1000 / framesPerSecond_, new ActionListener() {
+			public void actionPerformed(ActionEvent e_) {
+				flushLive();
+			}
+		});
+		bufferLive(windowRounds_);
+		final int maximum_ = windowRounds_;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				XYSeries[] series_ = { congWindow, eff, ssthresh, flight };
+				for (int s_ = 0; s_ < series_.length; s_++) {
+					series_[s_].clear();
+					series_[s_].setMaximumItemCount(maximum_);
+				}
+				showChart();
+				frameTimer.start();
+			}
+		});
+	}
+
+	/**
+	 * Lets {@link #plotTcp(int, int, int, int, int)} put the points
+	 * into the buffer of the live mode, without showing the chart.
+	 * 
+	 * @param windowRounds_ The number of last rounds to keep.
+	 */
+	void bufferLive(int windowRounds_)
+	{
+		synchronized (this) {
+			pending = new int[5][windowRounds_];
+			pendingStart = pendingCount = 0;
+		}
+		drained = new int[5][windowRounds_];
+		live = true;
+	}
+
+	/**
+	 * Moves the buffered points into the series; on the event
+	 * dispatch thread only.
+	 */
+	void flushLive()
+	{
+		int count_;
+		synchronized (this) {
+			count_ = pendingCount;
+			for (int k_ = 0; k_ < count_; k_++) {
+				int i_ = (pendingStart + k_) % pending[0].length;
+				for (int v_ = 0; v_ < 5; v_++) {
+					drained[v_][k_] = pending[v_][i_];
+				}
+			}
+			pendingStart = pendingCount = 0;
+		}
+		if (count_ == 0) {
+			return;
+		}
+		XYSeries[] series_ = { congWindow, eff, ssthresh, flight };
+		for (int s_ = 0; s_ < series_.length; s_++) {
+			series_[s_].setNotify(false);
+			for (int k_ = 0; k_ < count_; k_++) {
+				series_[s_].add(drained[0][k_], drained[s_ + 1][k_], false);
+			}
+			// Turning the notifications on redraws the chart once.
+			series_[s_].setNotify(true);
+		}
+	}
+
+	/**
+	 * Tells whether the live mode is possible: it needs a desktop.
+	 * 
+	 * @return Returns <code>true</code> if a window can be shown.
+	 */
+	public static boolean canShowLive()
+	{
+		return !GraphicsEnvironment.isHeadless();
+	}
+
 	public void plotTcp(int iter, int congWindowSize, int effWindow, int flightSize, int ssThreshold) 
 	{ // create a dataset...
+		if (live) {
+			synchronized (this) {
+				int size_ = pending[0].length;
+				int i_ = (pendingStart + pendingCount) % size_;
+				if (pendingCount == size_) {
+					pendingStart = (pendingStart + 1) % size_;	// drop the oldest
+				} else {
+					pendingCount++;
+				}
+				pending[0][i_] = iter;
+				pending[1][i_] = congWindowSize;
+				pending[2][i_] = effWindow;
+				pending[3][i_] = ssThreshold;
+				pending[4][i_] = flightSize;
+			}
+			return;
+		}
 
 		congWindow.add(iter, congWindowSize);
         ssthresh.add(iter, ssThreshold);
@@ -38,6 +179,24 @@ public class TcpPlot
 
         
 public void plotGraph()
+{
+        // In the live mode, the chart is shown already, or will be
+        // before this runs; only the last points remain to be drawn.
+        if (live) {
+            live = false;
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    frameTimer.stop();
+                    flushLive();
+                }
+            });
+            return;
+        }
+        showChart();
+}
+
+/** Creates the chart of the series and shows it in a frame. */
+private void showChart()
 {
         //         Add the series to your data set
         XYSeriesCollection dataset = new XYSeriesCollection();
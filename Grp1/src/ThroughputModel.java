@@ -0,0 +1,60 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+/**
+ * Analytical models of the steady-state throughput of a TCP sender,
+ * as a function of its loss rate and round-trip time.  They give the
+ * ceiling that a correct congestion control could reach on the same
+ * path, so a simulated sender that stays well below them is suspect.
+ * <P>
+ * The throughput comes out in bytes per the unit of time of the RTT;
+ * with the RTT in rounds, as in {@link TCPSimulator}, it is in bytes
+ * per round.
+ */
+public class ThroughputModel {
+	private ThroughputModel() {
+	}
+
+	/**
+	 * The model of Mathis, Semke, Mahdavi and Ott (1997), for a sender
+	 * that recovers from every loss with fast retransmit:
+	 * <P><CENTER>
+	 * <code> MSS / RTT &#215; sqrt(3 / (2p)) </code>
+	 * </CENTER>
+	 *
+	 * @param mss_ The segment size, in bytes.
+	 * @param rtt_ The mean round-trip time.
+	 * @param lossRate_ The fraction of segments lost; must be positive.
+	 * @return Returns the predicted throughput.
+	 */
+	public static double mathis(double mss_, double rtt_, double lossRate_) {
+		return mss_ / rtt_ * Math.sqrt(3.0 / (2.0 * lossRate_));
+	}
+
+	/**
+	 * The model of Padhye, Firoiu, Towsley and Kurose (1998), which
+	 * also accounts for retransmission timeouts and for the limit of
+	 * the receive window:
+	 * <P><CENTER>
+	 * <code> MSS &#215; min(W<sub>max</sub> / RTT, 1 / (RTT sqrt(2bp/3)
+	 * + T<sub>0</sub> min(1, 3 sqrt(3bp/8)) p (1 + 32p<sup>2</sup>))) </code>
+	 * </CENTER>
+	 *
+	 * @param mss_ The segment size, in bytes.
+	 * @param rtt_ The mean round-trip time.
+	 * @param lossRate_ The fraction of segments lost; must be positive.
+	 * @param timeout_ The retransmission timeout T<sub>0</sub>, in the unit of the RTT.
+	 * @param segmentsPerAck_ The number of segments acknowledged by one ACK (b).
+	 * @param maxWindow_ The largest window, in segments.
+	 * @return Returns the predicted throughput.
+	 */
+	public static double padhye(double mss_, double rtt_, double lossRate_,
+			double timeout_, int segmentsPerAck_, double maxWindow_) {
+		double bp_ = segmentsPerAck_ * lossRate_;
+		double denominator_ = rtt_ * Math.sqrt(2.0 * bp_ / 3.0)
+			+ timeout_ * Math.min(1.0, 3.0 * Math.sqrt(3.0 * bp_ / 8.0))
+			* lossRate_ * (1.0 + 32.0 * lossRate_ * lossRate_);
+		return mss_ * Math.min(maxWindow_ / rtt_, 1.0 / denominator_);
+	}
+}
@@ -0,0 +1,643 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A network of several {@link Router}s connected by {@link Link}s,
+ * carrying any number of {@link Flow}s over static routes.  This
+ * generalizes the fixed chain of {@link TCPSimulator}
+ * <P><CENTER>
+ * <code> SENDER <-> ROUTER <-> RECEIVER </code>
+ * </CENTER>
+ * <P>to chains of routers with one bottleneck per hop, so that
+ * "parking-lot" and other multi-bottleneck scenarios can be studied.
+ * <P>
+ * The simulation still advances in transmission rounds.  In every
+ * round, each router drains its queue once, and admits the packets
+ * from all flows in the order in which they arrive, using the same
+ * dropping rule as before (see {@link Router#forward(TCPSegment[])}).
+ * Within a round, the packets that were delayed by a link arrive
+ * first, ordered by flow; then every flow sends its new segments,
+ * starting with a different flow in every round so that no flow
+ * is always first in the queues.
+ * <P>
+ * A flow's segments travel along the path in a single array, which
+ * every router modifies in place, so nothing is copied per hop.
+ * <P>
+ * Large topologies can be simulated on several threads, see
+ * {@link #run(int, int)}.
+ *
+ * @see Flow
+ * @see Link
+ */
+public class Topology {
+	/** The routers, indexed in the order of {@link #addRouter(int, int)}. */
+	protected final ArrayList<Router> routers = new ArrayList<Router>();
+
+	/** The links, keyed by {@link #linkKey(int, int)}. */
+	protected final HashMap<Long, Link> links = new HashMap<Long, Link>();
+
+	/** The flows, indexed in the order of {@link #addFlow(TCPSender, TCPReceiver, int[])}. */
+	protected final ArrayList<Flow> flows = new ArrayList<Flow>();
+
+	/** For each router, the batches that are delayed by a link,
+	 * in a calendar indexed by the round of their arrival. */
+	private ArrayList<Calendar> calendars = new ArrayList<Calendar>();
+
+	/** The logical process of every router, as last partitioned. */
+	private int[] owner;
+
+	/** Longest link delay added so far, in rounds. */
+	private int maxDelay = 0;
+
+	/** The reporting level of the hosts and the routers. */
+	private volatile int reportingLevel = TCPSimulator.currentReportingLevel;
+
+	/**
+	 * Adds a router to this topology.
+	 *
+	 * @param mismatchRatio_ The given mismatch ratio between the transmission speeds on the input and output links.
+	 * @param bufferSize_ The given buffer size for the router's queue.
+	 * @return Returns the index of the new router.
+	 * @see Router
+	 */
+	public int addRouter(int mismatchRatio_, int bufferSize_) {
+		routers.add(new Router(mismatchRatio_, bufferSize_));
+		return routers.size() - 1;
+	}
+
+	/**
+	 * Accessor for a router of this topology.
+	 *
+	 * @param index_ The index of the router.
+	 * @return Returns the router.
+	 */
+	public Router getRouter(int index_) {
+		return routers.get(index_);
+	}
+
+	/**
+	 * Connects two routers by a unidirectional link.
+	 *
+	 * @param from_ Index of the upstream router.
+	 * @param to_ Index of the downstream router.
+	 * @param delay_ Propagation delay of the link, in rounds.
+	 */
+	public void connect(int from_, int to_, int delay_) {
+		checkRouter(from_);
+		checkRouter(to_);
+		links.put(linkKey(from_, to_), new Link(from_, to_, delay_));
+		maxDelay = Math.max(maxDelay, delay_);
+	}
+
+	/**
+	 * Adds a flow that is routed over the given path.  Every two
+	 * consecutive routers of the path must have been connected by
+	 * {@link #connect(int, int, int)}, and no router may be visited
+	 * twice.
+	 *
+	 * @param sender_ The sending host of the flow.
+	 * @param receiver_ The receiving host of the flow.
+	 * @param path_ Router indices, from the sender to the receiver.
+	 * @return Returns the new flow.
+	 */
+	public Flow addFlow(TCPSender sender_, TCPReceiver receiver_, int[] path_) {
+		if (path_.length == 0) {
+			throw new IllegalArgumentException("Empty path");
+		}
+		int[] hopDelay_ = new int[path_.length];
+		for (int k_ = 0; k_ < path_.length; k_++) {
+			checkRouter(path_[k_]);
+			for (int j_ = 0; j_ < k_; j_++) {
+				if (path_[j_] == path_[k_]) {
+					throw new IllegalArgumentException(
+						"Router " + path_[k_] + " visited twice"
+					);
+				}
+			}
+			if (k_ > 0) {
+				Link link_ = links.get(linkKey(path_[k_ - 1], path_[k_]));
+				if (link_ == null) {
+					throw new IllegalArgumentException(
+						"No link from router " + path_[k_ - 1]
+						+ " to router " + path_[k_]
+					);
+				}
+				hopDelay_[k_] = link_.delay;
+			}
+		}
+		Flow flow_ = new Flow(
+			flows.size(), sender_, receiver_, path_.clone(), hopDelay_
+		);
+		flows.add(flow_);
+		return flow_;
+	}
+
+	/**
+	 * Sets the reporting level of this topology only; other
+	 * simulators keep theirs.
+	 *
+	 * @param level_ The reporting level(s), a combination of the <code>TCPSimulator.REPORTING_LEVEL_</code> flags.
+	 */
+	public void setReportingLevel(int level_) {
+		reportingLevel = level_;
+	}
+
+	/**
+	 * Runs all the flows of this topology for the given number of
+	 * transmission rounds (iterations).  At the end, reports each
+	 * flow's utilization of the tightest bottleneck on its path.
+	 *
+	 * @param num_iter_ The number of iterations (transmission rounds) to run the simulator.
+	 */
+	public void run(int num_iter_) {
+		run(num_iter_, 1);
+	}
+
+	/**
+	 * Runs all the flows of this topology for the given number of
+	 * transmission rounds, on up to the given number of threads.
+	 * The routers are partitioned into {@link LogicalProcess}es that
+	 * are only connected by links with a delay, and every logical
+	 * process is simulated by its own thread.  The result is the
+	 * same as with a single thread.
+	 * <P>
+	 * <b>Notice:</b> All threads take the reporting level of this
+	 * topology as the run starts (see {@link #setReportingLevel(int)});
+	 * changing it while running takes effect in the next run.
+	 *
+	 * @param num_iter_ The number of iterations (transmission rounds) to run the simulator.
+	 * @param numWorkers_ The maximum number of threads to use.
+	 */
+	public void run(int num_iter_, int numWorkers_) {
+		int level_ = reportingLevel;
+		int outerLevel_ = TCPSimulator.setThreadReportingLevel(level_);
+		try {
+			simulate(num_iter_, numWorkers_, level_);
+		} finally {
+			TCPSimulator.setThreadReportingLevel(outerLevel_);
+		}
+	}
+
+	/** The body of {@link #run(int, int)}, with the threads at the given reporting level. */
+	private void simulate(final int num_iter_, int numWorkers_, final int level_) {
+		final LogicalProcess[] lps_ = partition(numWorkers_);
+		final int lookahead_ = lookahead(num_iter_);
+
+		// While a window is being simulated, the calendars may already
+		// take in the batches sent during that same window.
+		calendars = new ArrayList<Calendar>();
+		for (int r_ = 0; r_ < routers.size(); r_++) {
+			calendars.add(new Calendar(maxDelay + (lps_.length == 1 ? 1 : lookahead_)));
+		}
+
+		if (lps_.length == 1) {
+			for (int i_ = 1; i_ <= num_iter_; i_++) {
+				runRound(i_, lps_[0]);
+			}
+		} else {
+			final CyclicBarrier barrier_ = new CyclicBarrier(lps_.length);
+			final AtomicReference<Throwable> failure_ =
+				new AtomicReference<Throwable>();
+			Thread[] workers_ = new Thread[lps_.length];
+			for (int p_ = 0; p_ < lps_.length; p_++) {
+				final LogicalProcess lp_ = lps_[p_];
+				workers_[p_] = new Thread("lp-" + p_) {
+					public void run() {
+						TCPSimulator.setThreadReportingLevel(level_);
+						for (int t_ = 1; t_ <= num_iter_; t_ += lookahead_) {
+							// After a failure anywhere, only keep meeting
+							// the others at the barrier, so that all quit.
+							if (failure_.get() == null) {
+								try {
+									receiveBatches(lp_);
+									int end_ = Math.min(t_ + lookahead_ - 1, num_iter_);
+									for (int i_ = t_; i_ <= end_; i_++) {
+										runRound(i_, lp_);
+									}
+								} catch (RuntimeException e_) {
+									failure_.compareAndSet(null, e_);
+								}
+							}
+							try {
+								barrier_.await();
+							} catch (Exception e_) {
+								failure_.compareAndSet(null, e_);
+								return;
+							}
+						}
+					}
+				};
+				workers_[p_].start();
+			}
+			for (int p_ = 0; p_ < workers_.length; p_++) {
+				try {
+					workers_[p_].join();
+				} catch (InterruptedException e_) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while running", e_);
+				}
+			}
+			if (failure_.get() != null) {
+				throw new IllegalStateException("Logical process failed", failure_.get());
+			}
+		}
+		report(num_iter_);
+	}
+
+	/**
+	 * Simulates one transmission round of one logical process.
+	 *
+	 * @param iter_ The current round, starting with one.
+	 * @param lp_ The logical process, i.e., the routers and flows to simulate.
+	 */
+	protected void runRound(int iter_, LogicalProcess lp_) {
+		for (int r_ = 0; r_ < lp_.routers.length; r_++) {
+			routers.get(lp_.routers[r_]).beginRound();
+		}
+
+		// First the packets that were delayed by a link...
+		for (int r_ = 0; r_ < lp_.routers.length; r_++) {
+			int router_ = lp_.routers[r_];
+			ArrayList<Batch> due_ = calendars.get(router_).due(iter_);
+			for (int b_ = 0; b_ < due_.size(); b_++) {
+				Batch batch_ = due_.get(b_);
+				routers.get(router_).forward(batch_.segments);
+				advance(batch_.flow, batch_.hop, batch_.segments, iter_, lp_);
+			}
+			due_.clear();
+		}
+
+		// ... then the newly sent ones.
+		int numFlows_ = lp_.flows.length;
+		int first_ = lp_.firstFlow(iter_, flows.size());
+		for (int f_ = 0; f_ < numFlows_; f_++) {
+			Flow flow_ = lp_.flows[(first_ + f_) % numFlows_];
+			TCPSegment[] segments_ = flow_.send(iter_);
+			routers.get(flow_.path[0]).forward(segments_);
+			advance(flow_, 0, segments_, iter_, lp_);
+		}
+	}
+
+	/**
+	 * Moves the segments that just left the given hop towards the
+	 * receiver, through all the following hops that are reached
+	 * within the current round.  Segments for a router of another
+	 * logical process are queued for it; they always travel over a
+	 * link with a delay, so they are not due before the next window.
+	 *
+	 * @param flow_ The flow to which the segments belong.
+	 * @param hop_ The position on the path of the router the segments just left.
+	 * @param segments_ The segments, as relayed by that router.
+	 * @param iter_ The current round.
+	 * @param lp_ The logical process that is moving the segments.
+	 */
+	protected void advance(Flow flow_, int hop_, TCPSegment[] segments_,
+			int iter_, LogicalProcess lp_) {
+		for (int k_ = hop_ + 1; k_ < flow_.path.length; k_++) {
+			if (flow_.hopDelay[k_] > 0) {
+				Batch batch_ = flow_.batch(k_, segments_, iter_ + flow_.hopDelay[k_]);
+				int owner_ = owner[flow_.path[k_]];
+				if (owner_ == lp_.index) {
+					calendars.get(flow_.path[k_]).schedule(batch_);
+				} else if (!lp_.outbox[owner_].offer(batch_)) {
+					throw new IllegalStateException(
+						"Queue from LP " + lp_.index + " to LP " + owner_ + " is full"
+					);
+				}
+				return;
+			}
+			routers.get(flow_.path[k_]).forward(segments_);
+		}
+		flow_.receive(segments_, iter_);
+	}
+
+	/**
+	 * Takes in the segments that the other logical processes sent
+	 * to the given one during the previous window.
+	 *
+	 * @param lp_ The receiving logical process.
+	 */
+	private void receiveBatches(LogicalProcess lp_) {
+		for (int p_ = 0; p_ < lp_.inbox.length; p_++) {
+			if (lp_.inbox[p_] == null) {
+				continue;
+			}
+			Batch batch_;
+			while ((batch_ = lp_.inbox[p_].poll()) != null) {
+				calendars.get(batch_.flow.path[batch_.hop]).schedule(batch_);
+			}
+		}
+	}
+
+	/**
+	 * Partitions the routers into at most the given number of
+	 * logical processes.  Routers connected by a link without delay
+	 * are kept together; the resulting groups are then spread over
+	 * the logical processes, heaviest first, each to the one with
+	 * the least work so far.  The work of a router is one, plus one
+	 * for every flow that passes it.
+	 *
+	 * @param numWorkers_ The maximum number of logical processes.
+	 * @return Returns the logical processes.
+	 */
+	protected LogicalProcess[] partition(int numWorkers_) {
+		int numRouters_ = routers.size();
+
+		// Group the routers connected without delay (union-find).
+		int[] group_ = new int[numRouters_];
+		for (int r_ = 0; r_ < numRouters_; r_++) {
+			group_[r_] = r_;
+		}
+		for (Link link_ : links.values()) {
+			if (link_.delay == 0) {
+				group_[find(group_, link_.from)] = find(group_, link_.to);
+			}
+		}
+		int[] work_ = new int[numRouters_];
+		for (int r_ = 0; r_ < numRouters_; r_++) {
+			work_[find(group_, r_)]++;
+		}
+		for (int f_ = 0; f_ < flows.size(); f_++) {
+			int[] path_ = flows.get(f_).path;
+			for (int k_ = 0; k_ < path_.length; k_++) {
+				work_[find(group_, path_[k_])]++;
+			}
+		}
+		ArrayList<Integer> roots_ = new ArrayList<Integer>();
+		for (int r_ = 0; r_ < numRouters_; r_++) {
+			if (group_[r_] == r_) {
+				roots_.add(Integer.valueOf(r_));
+			}
+		}
+		final int[] rootWork_ = work_;
+		Collections.sort(roots_, new Comparator<Integer>() {
+			public int compare(Integer a_, Integer b_) {
+				return rootWork_[b_.intValue()] - rootWork_[a_.intValue()];
+			}
+		});
+
+		// Assign the groups, heaviest first, to the least loaded process.
+		int numLps_ = Math.max(1, Math.min(numWorkers_, roots_.size()));
+		long[] load_ = new long[numLps_];
+		int[] lpOfRoot_ = new int[numRouters_];
+		for (int g_ = 0; g_ < roots_.size(); g_++) {
+			int least_ = 0;
+			for (int p_ = 1; p_ < numLps_; p_++) {
+				if (load_[p_] < load_[least_]) {
+					least_ = p_;
+				}
+			}
+			int root_ = roots_.get(g_).intValue();
+			lpOfRoot_[root_] = least_;
+			load_[least_] += work_[root_];
+		}
+		owner = new int[numRouters_];
+		int[] count_ = new int[numLps_];
+		for (int r_ = 0; r_ < numRouters_; r_++) {
+			owner[r_] = lpOfRoot_[find(group_, r_)];
+			count_[owner[r_]]++;
+		}
+
+		LogicalProcess[] lps_ = new LogicalProcess[numLps_];
+		for (int p_ = 0; p_ < numLps_; p_++) {
+			lps_[p_] = new LogicalProcess(p_);
+			lps_[p_].routers = new int[count_[p_]];
+			count_[p_] = 0;
+			lps_[p_].collectFlows(flows, owner);
+			lps_[p_].inbox = newQueues(numLps_);
+			lps_[p_].outbox = newQueues(numLps_);
+		}
+		for (int r_ = 0; r_ < numRouters_; r_++) {
+			lps_[owner[r_]].routers[count_[owner[r_]]++] = r_;
+		}
+
+		// Size every queue for the segments two windows can send over it:
+		// one batch per round for every crossing of every flow.  (The
+		// receiver takes in the previous window while the sender may
+		// already be sending in the next one.)
+		int lookahead_ = lookahead(Integer.MAX_VALUE);
+		int[][] crossings_ = new int[numLps_][numLps_];
+		for (int f_ = 0; f_ < flows.size(); f_++) {
+			int[] path_ = flows.get(f_).path;
+			for (int k_ = 1; k_ < path_.length; k_++) {
+				int from_ = owner[path_[k_ - 1]];
+				int to_ = owner[path_[k_]];
+				if (from_ != to_) {
+					crossings_[from_][to_]++;
+				}
+			}
+		}
+		for (int a_ = 0; a_ < numLps_; a_++) {
+			for (int b_ = 0; b_ < numLps_; b_++) {
+				if (crossings_[a_][b_] > 0) {
+					SpscQueue<Batch> queue_ = new SpscQueue<Batch>(
+						(int) Math.min(1 << 30, 2L * crossings_[a_][b_] * lookahead_)
+					);
+					lps_[a_].outbox[b_] = queue_;
+					lps_[b_].inbox[a_] = queue_;
+				}
+			}
+		}
+		return lps_;
+	}
+
+	/**
+	 * The lookahead of the current partitioning: the smallest delay
+	 * of a link between routers of different logical processes.
+	 *
+	 * @param num_iter_ The value to return if no link crosses logical processes.
+	 * @return Returns the lookahead, in rounds.
+	 */
+	private int lookahead(int num_iter_) {
+		int lookahead_ = Math.max(1, num_iter_);
+		for (Link link_ : links.values()) {
+			if (owner[link_.from] != owner[link_.to]) {
+				lookahead_ = Math.min(lookahead_, link_.delay);
+			}
+		}
+		return lookahead_;
+	}
+
+	/** An array for the queues of a logical process, one per peer. */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static SpscQueue<Batch>[] newQueues(int numLps_) {
+		return new SpscQueue[numLps_];
+	}
+
+	private static int find(int[] group_, int r_) {
+		while (group_[r_] != r_) {
+			group_[r_] = group_[group_[r_]];
+			r_ = group_[r_];
+		}
+		return r_;
+	}
+
+	/**
+	 * Reports, for every flow, its utilization of the bottleneck
+	 * with the smallest capacity on its path.
+	 *
+	 * @param num_iter_ The number of iterations that were run.
+	 */
+	protected void report(int num_iter_) {
+		System.out.println(
+			"================================================================"
+		);
+		System.out.println("Flow\tPath\t\tUtilization");
+		for (int f_ = 0; f_ < flows.size(); f_++) {
+			Flow flow_ = flows.get(f_);
+			int capacity_ = Integer.MAX_VALUE;
+			StringBuilder path_ = new StringBuilder();
+			for (int k_ = 0; k_ < flow_.path.length; k_++) {
+				Router router_ = routers.get(flow_.path[k_]);
+				capacity_ = Math.min(capacity_, router_.getBottleneckCapacity());
+				path_.append(k_ == 0 ? "" : "-").append(flow_.path[k_]);
+			}
+			float utilization_ = (float) flow_.sender.getTotalBytesTransmitted()
+				/ ((float) capacity_ * num_iter_);
+			System.out.println(
+				f_ + "\t" + path_ + "\t\t" + Math.round(utilization_*100.0f) + " %"
+			);
+		}
+	}
+
+	/**
+	 * Writes a summary of every flow into a columnar file, for
+	 * analysis tools: the flow, its number of hops, the capacity of
+	 * the tightest bottleneck on its path, the bytes it transmitted,
+	 * and its utilization of that bottleneck.
+	 *
+	 * @param file_ The name of the file, overwritten if it exists.
+	 * @param num_iter_ The number of iterations that were run.
+	 * @throws IOException If the file cannot be written.
+	 * @see ColumnarWriter
+	 */
+	public void exportFlows(String file_, int num_iter_) throws IOException {
+		byte i_ = ColumnarWriter.INT32;
+		ColumnarWriter out_ = new ColumnarWriter(file_, "flows",
+			new String[] { "flow", "hops", "bottleneck_capacity", "bytes_transmitted", "utilization" },
+			new byte[] { i_, i_, i_, ColumnarWriter.INT64, ColumnarWriter.FLOAT64 }
+		);
+		try {
+			for (int f_ = 0; f_ < flows.size(); f_++) {
+				Flow flow_ = flows.get(f_);
+				int capacity_ = Integer.MAX_VALUE;
+				for (int k_ = 0; k_ < flow_.path.length; k_++) {
+					capacity_ = Math.min(capacity_, routers.get(flow_.path[k_]).getBottleneckCapacity());
+				}
+				long bytes_ = flow_.sender.getTotalBytesTransmitted();
+				out_.putInt(flow_.id);
+				out_.putInt(flow_.path.length);
+				out_.putInt(capacity_);
+				out_.putLong(bytes_);
+				out_.putDouble(bytes_ / ((double) capacity_ * num_iter_));
+				out_.endRow();
+			}
+		} finally {
+			out_.close();
+		}
+	}
+
+	private void checkRouter(int index_) {
+		if (index_ < 0 || index_ >= routers.size()) {
+			throw new IllegalArgumentException("No such router: " + index_);
+		}
+	}
+
+	private static Long linkKey(int from_, int to_) {
+		return Long.valueOf(((long) from_ << 32) | (to_ & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * A flow's segments, waiting for the given hop of its path.
+	 * Every flow keeps its own batches and refills them, see
+	 * {@link Flow#batch(int, TCPSegment[], int)}.
+	 */
+	static class Batch {
+		final Flow flow;
+		final int hop;
+		TCPSegment[] segments;
+
+		/** The round in which the segments arrive at the hop. */
+		int due;
+
+		Batch(Flow flow_, int hop_) {
+			flow = flow_;
+			hop = hop_;
+		}
+	}
+
+	/**
+	 * The batches on their way to one router, indexed by the
+	 * round of arrival modulo the longest link delay.  The batches
+	 * due in a round are handed out ordered by flow, so the order
+	 * of arrival does not depend on the order of scheduling.
+	 */
+	static class Calendar {
+		private final ArrayList<ArrayList<Batch>> slots;
+
+		Calendar(int size_) {
+			slots = new ArrayList<ArrayList<Batch>>(size_);
+			for (int i_ = 0; i_ < size_; i_++) {
+				slots.add(new ArrayList<Batch>());
+			}
+		}
+
+		void schedule(Batch batch_) {
+			ArrayList<Batch> slot_ = slots.get(batch_.due % slots.size());
+			int i_ = slot_.size();
+			while (i_ > 0 && slot_.get(i_ - 1).flow.id > batch_.flow.id) {
+				i_--;
+			}
+			slot_.add(i_, batch_);
+		}
+
+		ArrayList<Batch> due(int iter_) {
+			return slots.get(iter_ % slots.size());
+		}
+	}
+
+	/**
+	 * Runs a "parking-lot" scenario: a chain of routers, one long
+	 * flow crossing all of them, and one short cross-traffic flow
+	 * through each router.
+	 *
+	 * @param argv_ Input arguments: the number of iterations, and optionally the number of routers (default 3), the link delay in rounds (default 0), and the number of threads (default 1).
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 1) {
+			System.err.println("Please enter the number of iterations!");
+			System.exit(1);
+		}
+		int numIter_ = Integer.parseInt(argv_[0]);
+		int numRouters_ = (argv_.length > 1) ? Integer.parseInt(argv_[1]) : 3;
+		int delay_ = (argv_.length > 2) ? Integer.parseInt(argv_[2]) : 0;
+		int numWorkers_ = (argv_.length > 3) ? Integer.parseInt(argv_[3]) : 1;
+
+		Topology topology_ = new Topology();
+		// The per-iteration tables of many flows would be unreadable.
+		topology_.setReportingLevel(0);
+		int[] longPath_ = new int[numRouters_];
+		for (int r_ = 0; r_ < numRouters_; r_++) {
+			longPath_[r_] = topology_.addRouter(10, 7);
+			if (r_ > 0) {
+				topology_.connect(longPath_[r_ - 1], longPath_[r_], delay_);
+			}
+		}
+		topology_.addFlow(new TCPSenderReno(), new TCPReceiver(), longPath_);
+		for (int r_ = 0; r_ < numRouters_; r_++) {
+			topology_.addFlow(
+				new TCPSenderReno(), new TCPReceiver(), new int[] { longPath_[r_] }
+			);
+		}
+		topology_.run(numIter_, numWorkers_);
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Finds the events of a trace written by {@link TraceStore}: those of
+ * a window of rounds, or the episodes of one type of event, such as
+ * the timeouts or the drops.  A window reads the blocks of its rounds
+ * only, and the episodes of a type are found in the postings of the
+ * type alone, so a query takes a fraction of a second even in a trace
+ * of many gigabytes.
+ * <P>
+ * From the command line:
+ * <pre>
+ * java TraceQuery &lt;trace&gt; window &lt;from&gt; &lt;to&gt;
+ * java TraceQuery &lt;trace&gt; episodes &lt;type&gt; [&lt;gap&gt;]
+ * </pre>
+ * where the type is one of {@link TraceStore#TYPES}, and the events
+ * of an episode are at most the given number of rounds apart (one by
+ * default, and at least one).
+ * <P>
+ * A trace without an index, because its run was cut short, or with
+ * the index of an older version, is indexed when it is opened, which
+ * reads all of it once.
+ */
+public class TraceQuery {
+	private final FileChannel channel;
+
+	/** Number of records in the trace. */
+	private final long numRecords;
+
+	/** The first and the last round of every block, as in {@link TraceStore}. */
+	private final int[] blocks;
+
+	/** Where the postings of every type start in the file; unused if rebuilt. */
+	private final long[] postingStart = new long[TraceStore.TYPES.length];
+
+	/** The number of bytes of the postings of every type. */
+	private final long[] postingBytes = new long[TraceStore.TYPES.length];
+
+	/** The index rebuilt from the records, if the trace had none. */
+	private final TraceStore.Index rebuilt;
+
+	/** The block last read. */
+	private final ByteBuffer block = ByteBuffer.allocate(
+		TraceStore.BLOCK_RECORDS * TraceStore.RECORD_BYTES
+	).order(ByteOrder.LITTLE_ENDIAN);
+
+	/** Gives the names of the sending modes. */
+	private final TCPSender modes = new TCPSenderReno();
+
+	/**
+	 * Constructor; opens a trace, and reads its index, or rebuilds it
+	 * if the trace was cut short or its index is of an older version.
+	 *
+	 * @param file_ The name of the trace file.
+	 * @throws IOException If the file cannot be read, or is not a trace.
+	 */
+	public TraceQuery(String file_) throws IOException {
+		channel = new FileInputStream(new File(file_)).getChannel();
+		try {
+			ByteBuffer head_ = read(0, 8);
+			if (head_.remaining() < 8 || head_.getLong() != TraceStore.MAGIC) {
+				throw new IOException("Not a trace: " + file_);
+			}
+			long size_ = channel.size();
+			ByteBuffer foot_ = read(Math.max(8, size_ - TraceStore.FOOTER_BYTES), TraceStore.FOOTER_BYTES);
+			if (foot_.remaining() == TraceStore.FOOTER_BYTES
+					&& foot_.getLong(TraceStore.FOOTER_BYTES - 8) == TraceStore.INDEX_MAGIC) {
+				int numBlocks_ = foot_.getInt(0);
+				numRecords = foot_.getLong(4);
+				long start_ = 8 + numRecords * TraceStore.RECORD_BYTES
+					+ (long) numBlocks_ * TraceStore.INDEX_ENTRY_BYTES;
+				for (int t_ = 0; t_ < TraceStore.TYPES.length; t_++) {
+					postingStart[t_] = start_;
+					postingBytes[t_] = foot_.getLong(12 + 8 * t_);
+					start_ += postingBytes[t_];
+				}
+				ByteBuffer entries_ = read(
+					8 + numRecords * TraceStore.RECORD_BYTES,
+					numBlocks_ * TraceStore.INDEX_ENTRY_BYTES
+				);
+				blocks = new int[2 * numBlocks_];
+				entries_.asIntBuffer().get(blocks);
+				rebuilt = null;
+			} else {
+				ByteBuffer oldFoot_ = read(Math.max(8, size_ - TraceStore.FOOTER_BYTES_1), TraceStore.FOOTER_BYTES_1);
+				if (oldFoot_.remaining() == TraceStore.FOOTER_BYTES_1
+						&& oldFoot_.getLong(12) == TraceStore.INDEX_MAGIC_1) {
+					numRecords = oldFoot_.getLong(4);
+				} else {
+					numRecords = (size_ - 8) / TraceStore.RECORD_BYTES;
+				}
+				rebuilt = rebuildIndex();
+				blocks = Arrays.copyOf(rebuilt.blocks, 2 * rebuilt.numBlocks);
+				for (int t_ = 0; t_ < TraceStore.TYPES.length; t_++) {
+					postingBytes[t_] = rebuilt.postingBytes[t_];
+				}
+			}
+		} catch (IOException e_) {
+			channel.close();
+			throw e_;
+		}
+	}
+
+	/**
+	 * Reads the given bytes of the file.
+	 *
+	 * @return Returns a buffer with the bytes, fewer at the end of the file.
+	 */
+	private ByteBuffer read(long position_, int length_) throws IOException {
+		ByteBuffer buffer_ = (length_ <= block.capacity()) ? block : ByteBuffer.allocate(length_);
+		buffer_.clear();
+		buffer_.limit(length_);
+		while (buffer_.hasRemaining() && channel.read(buffer_, position_ + buffer_.position()) >= 0) {
+			// until full, or at the end of the file
+		}
+		buffer_.flip();
+		return buffer_.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** Scans all the records of a trace without an index. */
+	private TraceStore.Index rebuildIndex() throws IOException {
+		int numBlocks_ = (int) ((numRecords + TraceStore.BLOCK_RECORDS - 1) / TraceStore.BLOCK_RECORDS);
+		TraceStore.Index index_ = new TraceStore.Index();
+		long record_ = 0;
+		for (int b_ = 0; b_ < numBlocks_; b_++) {
+			ByteBuffer records_ = readBlock(b_);
+			for (int r_ = 0; r_ < records_.limit(); r_ += TraceStore.RECORD_BYTES) {
+				int type_ = records_.getInt(r_ + 4);
+				if (type_ < 0 || type_ >= TraceStore.TYPES.length) {
+					throw new IOException("Not a trace: record " + record_ + " is of type " + type_);
+				}
+				index_.add(record_++, records_.getInt(r_), type_);
+			}
+		}
+		index_.finish();
+		return index_;
+	}
+
+	/** Reads the postings of a type. */
+	private ByteBuffer postings(int type_) throws IOException {
+		if (rebuilt != null) {
+			return ByteBuffer.wrap(rebuilt.postings[type_], 0, rebuilt.postingBytes[type_]);
+		}
+		if (postingBytes[type_] > Integer.MAX_VALUE) {
+			throw new IOException("The postings of " + TraceStore.TYPES[type_] + " are too long to read");
+		}
+		ByteBuffer postings_ = read(postingStart[type_], (int) postingBytes[type_]);
+		if (postings_.remaining() != postingBytes[type_]) {
+			throw new IOException("The index is cut short");
+		}
+		return postings_;
+	}
+
+	/** Reads the complete records of a block. */
+	private ByteBuffer readBlock(int block_) throws IOException {
+		long first_ = (long) block_ * TraceStore.BLOCK_RECORDS;
+		int count_ = (int) Math.min(TraceStore.BLOCK_RECORDS, numRecords - first_);
+		return read(8 + first_ * TraceStore.RECORD_BYTES, count_ * TraceStore.RECORD_BYTES);
+	}
+
+	/**
+	 * Accessor for the number of events in the trace.
+	 *
+	 * @return Returns the number of records.
+	 */
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Prints the events of the given rounds.
+	 *
+	 * @param from_ The first round.
+	 * @param to_ The last round.
+	 * @param out_ Where to print the events, one per line.
+	 * @return Returns the number of events printed.
+	 * @throws IOException If the trace cannot be read.
+	 */
+	public long window(int from_, int to_, PrintStream out_) throws IOException {
+		int numBlocks_ = blocks.length / 2;
+		// The first block that ends at or after the window starts.
+		int low_ = 0, high_ = numBlocks_;
+		while (low_ < high_) {
+			int mid_ = (low_ + high_) >>> 1;
+			if (blocks[2 * mid_ + 1] < from_) {
+				low_ = mid_ + 1;
+			} else {
+				high_ = mid_;
+			}
+		}
+		long count_ = 0;
+		for (int b_ = low_; b_ < numBlocks_ && blocks[2 * b_] <= to_; b_++) {
+			ByteBuffer records_ = readBlock(b_);
+			for (int r_ = 0; r_ < records_.limit(); r_ += TraceStore.RECORD_BYTES) {
+				int round_ = records_.getInt(r_);
+				if (round_ >= from_ && round_ <= to_) {
+					print(records_, r_, out_);
+					count_++;
+				}
+			}
+		}
+		return count_;
+	}
+
+	/**
+	 * Prints the episodes of one type of event: the runs of such
+	 * events that are at most the given number of rounds apart, with
+	 * their first and last round and their number of events.  Only
+	 * the postings of the type are read, not the records.
+	 *
+	 * @param type_ The type, e.g., {@link TraceStore#TIMEOUT}.
+	 * @param gap_ The most rounds between two events of one episode; at least one.
+	 * @param out_ Where to print the episodes, one per line.
+	 * @return Returns the number of episodes.
+	 * @throws IOException If the trace cannot be read.
+	 */
+	public long episodes(int type_, int gap_, PrintStream out_) throws IOException {
+		if (type_ < 0 || type_ >= TraceStore.TYPES.length) {
+			throw new IllegalArgumentException("No type " + type_);
+		}
+		if (gap_ < 1) {
+			throw new IllegalArgumentException("The gap must be at least one round: " + gap_);
+		}
+		ByteBuffer postings_ = postings(type_);
+		long numEpisodes_ = 0;
+		long events_ = 0;
+		long first_ = 0, last_ = 0, previous_ = 0;
+		while (postings_.hasRemaining()) {
+			// The ranges are more than one round apart, the episodes
+			// more than the gap.
+			long rangeFirst_ = previous_ + TraceStore.Index.getVarLong(postings_);
+			long rangeLast_ = rangeFirst_ + TraceStore.Index.getVarLong(postings_);
+			long rangeEvents_ = TraceStore.Index.getVarLong(postings_) + 1;
+			previous_ = rangeLast_;
+			if (events_ > 0 && rangeFirst_ - last_ > gap_) {
+				printEpisode(first_, last_, events_, out_);
+				numEpisodes_++;
+				events_ = 0;
+			}
+			if (events_ == 0) {
+				first_ = rangeFirst_;
+			}
+			last_ = rangeLast_;
+			events_ += rangeEvents_;
+		}
+		if (events_ > 0) {
+			printEpisode(first_, last_, events_, out_);
+			numEpisodes_++;
+		}
+		return numEpisodes_;
+	}
+
+	private static void printEpisode(long first_, long last_, long events_, PrintStream out_) {
+		out_.println(first_ + "\t" + last_ + "\t" + events_);
+	}
+
+	private void print(ByteBuffer records_, int r_, PrintStream out_) {
+		int type_ = records_.getInt(r_ + 4);
+		int a_ = records_.getInt(r_ + 8);
+		int b_ = records_.getInt(r_ + 12);
+		String values_;
+		switch (type_) {
+			case TraceStore.MODE:
+				values_ = modes.getModeName(a_) + "\t" + modes.getModeName(b_);
+				break;
+			case TraceStore.DROP:
+				values_ = a_ + "\t" + ((b_ >= 0) ? TraceStore.CAUSES[b_] : "?");
+				break;
+			default:
+				values_ = a_ + "\t" + b_;
+		}
+		String name_ = (type_ >= 0 && type_ < TraceStore.TYPES.length)
+			? TraceStore.TYPES[type_] : Integer.toString(type_);
+		out_.println(records_.getInt(r_) + "\t" + name_ + "\t" + values_);
+	}
+
+	/**
+	 * Closes the trace.
+	 *
+	 * @throws IOException If the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Runs a query of a trace; see the class description.
+	 *
+	 * @param argv_ Input arguments: the trace file, and the query.
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 3) {
+			System.err.println("Usage: TraceQuery <trace> window <from> <to>");
+			System.err.println("       TraceQuery <trace> episodes <type> [<gap>]");
+			System.exit(1);
+		}
+		PrintStream out_ = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+		try {
+			TraceQuery query_ = new TraceQuery(argv_[0]);
+			try {
+				if (argv_[1].equals("window") && argv_.length > 3) {
+					query_.window(Integer.parseInt(argv_[2]), Integer.parseInt(argv_[3]), out_);
+				} else if (argv_[1].equals("episodes")) {
+					int type_ = TraceStore.TYPES.length - 1;
+					while (type_ >= 0 && !TraceStore.TYPES[type_].equalsIgnoreCase(argv_[2])) {
+						type_--;
+					}
+					if (type_ < 0) {
+						System.err.println("Unknown type " + argv_[2] + "; one of "
+							+ Arrays.toString(TraceStore.TYPES));
+						System.exit(1);
+					}
+					int gap_ = (argv_.length > 3) ? Integer.parseInt(argv_[3]) : 1;
+					if (gap_ < 1) {
+						System.err.println("The gap must be at least one round: " + gap_);
+						System.exit(1);
+					}
+					out_.println("First\tLast\tEvents");
+					query_.episodes(type_, gap_, out_);
+				} else {
+					System.err.println("Unknown query: " + argv_[1]);
+					System.exit(1);
+				}
+			} finally {
+				query_.close();
+				out_.flush();
+			}
+		} catch (IOException e_) {
+			System.err.println("Cannot read " + argv_[0] + ": " + e_);
+			System.exit(1);
+		}
+	}
+}
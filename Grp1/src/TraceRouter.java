@@ -0,0 +1,240 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.PriorityQueue;
+
+/**
+ * A router whose output link replays a recorded loss and delay
+ * pattern (see {@link LossTrace}), e.g., one captured on a
+ * production link.
+ * <P>
+ * The router's queue is still the bottleneck, with the same
+ * dropping rule as in {@link Router}.  Every packet that gets
+ * through the queue then meets the fate of the next packet in the
+ * trace: it is lost, delayed, or delivered at once.  A delay is
+ * rounded to whole rounds (RTTs), because that is the resolution of
+ * the simulation; a delayed packet is delivered in a later round,
+ * in the first free place of that round's array, i.e., after the
+ * packets that were sent in that round.
+ * <P>
+ * <b>Notice:</b> A delayed packet is handed to the next caller of
+ * {@link #forward(TCPSegment[])}, so this router is meant for a
+ * single flow, as in {@link TCPSimulator}.
+ */
+public class TraceRouter extends Router {
+	/** The loss and delay pattern. */
+	private final LossTrace trace;
+
+	/** Length of one round, in microseconds. */
+	private final long rttMicros;
+
+	/** The current round; it is advanced by {@link #beginRound()}. */
+	private int round = 0;
+
+	/** Packets delayed by the trace, ordered by their due round. */
+	private final PriorityQueue<Delayed> delayed = new PriorityQueue<Delayed>();
+
+	/** Number of packets delayed so far; it orders those due in the same round. */
+	private long numDelayed = 0;
+
+	/** Number of packets lost and delayed according to the trace. */
+	private long traceLosses = 0;
+	private long traceDelays = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mismatchRatio_ The given mismatch ratio between the transmission speeds on the input and output links.
+	 * @param bufferSize_ The given buffer size for the router's queue.
+	 * @param trace_ The loss and delay pattern to replay.
+	 * @param rttMicros_ The length of one round, in microseconds, to convert the delays of the trace.
+	 */
+	public TraceRouter(int mismatchRatio_, int bufferSize_, LossTrace trace_, long rttMicros_) {
+		super(mismatchRatio_, bufferSize_);
+		trace = trace_;
+		rttMicros = rttMicros_;
+	}
+
+	/* (non-Javadoc)
+	 * @see Router#beginRound()
+	 */
+	public void beginRound() {
+		super.beginRound();
+		round++;
+	}
+
+	/**
+	 * Relays the packets through the queue, then applies the trace
+	 * to the packets that got through, and finally delivers the
+	 * packets whose delay is over.
+	 *
+	 * @param packets_ The array of packets to be "routed".
+	 */
+	public void forward(TCPSegment[] packets_) {
+		super.forward(packets_);
+		for (int i_ = 0; i_ < packets_.length; i_++) {
+			if (packets_[i_] == null) {
+				continue;
+			}
+			trace.advance();
+			if (trace.isLost()) {
+				traceLosses++;
+				discarded(packets_[i_], "trace");
+				packets_[i_] = null;
+			} else if (trace.getDelayMicros() >= rttMicros) {
+				traceDelays++;
+				delayed.add(new Delayed(
+					round + (int) (trace.getDelayMicros() / rttMicros), numDelayed++,
+					packets_[i_]
+				));
+				packets_[i_] = null;
+			}
+		}
+		int free_ = 0;
+		while (!delayed.isEmpty() && delayed.peek().due <= round) {
+			while (free_ < packets_.length && packets_[free_] != null) {
+				free_++;
+			}
+			if (free_ == packets_.length) {
+				break;		// no room left, try again in the next round
+			}
+			packets_[free_] = delayed.poll().segment;
+		}
+	}
+
+	/**
+	 * Accessor for the number of packets the trace made lost.
+	 *
+	 * @return Returns the number of packets lost according to the trace.
+	 */
+	public long getTraceLosses() {
+		return traceLosses;
+	}
+
+	/**
+	 * Accessor for the number of packets the trace delayed by at
+	 * least one round.
+	 *
+	 * @return Returns the number of packets delayed according to the trace.
+	 */
+	public long getTraceDelays() {
+		return traceDelays;
+	}
+
+	/* (non-Javadoc)
+	 * @see Router#saveState(java.io.DataOutput)
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		super.saveState(out_);
+		out_.writeInt(round);
+		out_.writeLong(traceLosses);
+		out_.writeLong(traceDelays);
+		out_.writeLong(numDelayed);
+		out_.writeInt(delayed.size());
+		for (Delayed d_ : delayed) {
+			out_.writeInt(d_.due);
+			out_.writeLong(d_.order);
+			TCPSegment.save(out_, d_.segment);
+		}
+		trace.saveState(out_);
+	}
+
+	/* (non-Javadoc)
+	 * @see Router#restoreState(java.io.DataInput)
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		super.restoreState(in_);
+		round = in_.readInt();
+		traceLosses = in_.readLong();
+		traceDelays = in_.readLong();
+		numDelayed = in_.readLong();
+		delayed.clear();
+		int size_ = in_.readInt();
+		for (int i_ = 0; i_ < size_; i_++) {
+			int due_ = in_.readInt();
+			long order_ = in_.readLong();
+			delayed.add(new Delayed(due_, order_, TCPSegment.restore(in_)));
+		}
+		trace.restoreState(in_);
+	}
+
+	/**
+	 * A packet held back until the given round.  Packets due in the
+	 * same round leave in the order in which they were delayed.
+	 */
+	static class Delayed implements Comparable<Delayed> {
+		final int due;
+		final long order;
+		final TCPSegment segment;
+
+		Delayed(int due_, long order_, TCPSegment segment_) {
+			due = due_;
+			order = order_;
+			segment = segment_;
+		}
+
+		public int compareTo(Delayed other_) {
+			if (due != other_.due) {
+				return (due < other_.due) ? -1 : 1;
+			}
+			return (order < other_.order) ? -1 : ((order == other_.order) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Creates a sender by the name given on the command line.
+	 *
+	 * @param name_ The sender: <code>reno</code> or <code>tahoe</code>, in any case.
+	 * @return Returns a new sender.
+	 * @throws IllegalArgumentException If the name is of no sender.
+	 */
+	static TCPSender newSender(String name_) {
+		if (name_.equalsIgnoreCase("reno")) {
+			return new TCPSenderReno();
+		}
+		if (name_.equalsIgnoreCase("tahoe")) {
+			return new TCPSenderTahoe();
+		}
+		throw new IllegalArgumentException("Unknown sender: " + name_ + " (reno or tahoe)");
+	}
+
+	/**
+	 * Replays a trace against a Reno or a Tahoe sender.
+	 *
+	 * @param argv_ Input arguments: the number of iterations, the trace file, and optionally the sender (<code>reno</code> or <code>tahoe</code>, default <code>reno</code>) and the RTT in microseconds (default 100000).
+	 */
+	public static void main(String[] argv_) {
+		if (argv_.length < 2) {
+			System.err.println("Please enter the number of iterations and the trace file!");
+			System.exit(1);
+		}
+		int numIter_ = Integer.parseInt(argv_[0]);
+		TCPSender sender_ = null;
+		try {
+			sender_ = newSender((argv_.length > 2) ? argv_[2] : "reno");
+		} catch (IllegalArgumentException e_) {
+			System.err.println(e_.getMessage());
+			System.exit(1);
+		}
+		long rttMicros_ = (argv_.length > 3) ? Long.parseLong(argv_[3]) : 100000L;
+
+		LossTrace trace_ = null;
+		try {
+			trace_ = new LossTrace(argv_[1]);
+		} catch (IOException e_) {
+			System.err.println("Cannot read " + argv_[1] + ": " + e_);
+			System.exit(1);
+		}
+		TraceRouter router_ = new TraceRouter(10, 7, trace_, rttMicros_);
+		TCPSimulator simulator_ = new TCPSimulator(sender_, router_);
+		simulator_.run(numIter_);
+		System.out.println(
+			"Lost by the trace: " + router_.getTraceLosses()
+			+ ", delayed by the trace: " + router_.getTraceDelays()
+		);
+	}
+}
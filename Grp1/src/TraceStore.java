@@ -0,0 +1,417 @@
+/*
+ * Rutgers University, Department of Electrical and Computer Engineering
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the events of a run into a trace file with an index, so that
+ * a window of rounds, or all the events of one type, can be found in
+ * a trace of many gigabytes without reading all of it (see
+ * {@link TraceQuery}).
+ * <P>
+ * Every event is a record of four little-endian <code>int</code>s:
+ * the round, the type, and two values that depend on the type:
+ * <ul>
+ * <li> {@link #ROUND}: the congestion window and the slow start threshold at the end of the round; </li>
+ * <li> {@link #DUP_ACKS} and {@link #TIMEOUT}: the same, after the sender reacted; </li>
+ * <li> {@link #MODE}: the previous and the new sending mode; </li>
+ * <li> {@link #DROP}: the sequence number of the segment, and the cause (see {@link #CAUSES}). </li>
+ * </ul>
+ * The records are in the order of the rounds, in blocks of
+ * {@value #BLOCK_RECORDS}.  After the last block comes the index.
+ * First, for every block, its first and last round, to find the
+ * blocks of a window.  Then, for every type, its postings: the
+ * ranges of rounds that hold events of the type, each with its first
+ * and last round and its number of events, where two ranges are more
+ * than one round apart.  Events like the losses come in most blocks,
+ * but in few ranges, so their episodes are found from the postings
+ * alone.  A range is three variable-length numbers (seven bits per
+ * byte, lowest first): its first round minus the last round of the
+ * range before, its last round minus its first, and its number of
+ * events minus one.  Last come the number of blocks, of records and
+ * of bytes of the postings of every type, and a magic number.  A
+ * trace whose run was cut short has no index; {@link TraceQuery} then
+ * rebuilds it from the records.
+ * <P>
+ * A trace can be continued from a checkpoint of its run; it then
+ * ends as if the run had not been interrupted.
+ * <P>
+ * Recording an event does not allocate, except now and then to grow
+ * the index, which takes a few bytes per block and per range.  Since
+ * it happens in the middle of a round, where nothing can be thrown, a
+ * write error only stops the trace, and is thrown by {@link #close()}.
+ *
+ * @see TCPSimulator#setTrace(TraceStore)
+ */
+public class TraceStore {
+	/** Type of the state at the end of a round. */
+	public static final int ROUND = 0;
+
+	/** Type of a loss detected through three duplicate ACKs. */
+	public static final int DUP_ACKS = 1;
+
+	/** Type of a loss detected through a timeout. */
+	public static final int TIMEOUT = 2;
+
+	/** Type of a switch of the sending mode. */
+	public static final int MODE = 3;
+
+	/** Type of a segment discarded by a router. */
+	public static final int DROP = 4;
+
+	/** Names of the types, by type. */
+	public static final String[] TYPES = { "ROUND", "DUP_ACKx3", "TIMEOUT", "MODE", "DROP" };
+
+	/** Causes of a {@link #DROP}, by their code in the record. */
+	public static final String[] CAUSES = { "queue", "random", "trace", "no room", "replay" };
+
+	/** Bytes in a record. */
+	static final int RECORD_BYTES = 16;
+
+	/** Records in a block of the index. */
+	static final int BLOCK_RECORDS = 4096;
+
+	/** Bytes in an entry of the block index: the first and the last round. */
+	static final int INDEX_ENTRY_BYTES = 8;
+
+	/** Bytes after the index: the numbers of blocks and records, the bytes of the postings of every type, and the magic number. */
+	static final int FOOTER_BYTES = 4 + 8 + 8 * TYPES.length + 8;
+
+	/** Magic number at the start of a trace. */
+	static final long MAGIC = 0x3130435254504354L;		// "TCPTRC01"
+
+	/** Magic number at the end of a trace that has an index. */
+	static final long INDEX_MAGIC = 0x3258495254504354L;	// "TCPTRIX2"
+
+	/** Magic number at the end of a trace with the first index, a type mask per block. */
+	static final long INDEX_MAGIC_1 = 0x3158495254504354L;	// "TCPTRIX1"
+
+	/** Bytes after the first index: the numbers of blocks and records, and the magic number. */
+	static final int FOOTER_BYTES_1 = 4 + 8 + 8;
+
+	private final String fileName;
+	private final FileChannel channel;
+
+	/** Blocks buffered before they are written. */
+	private final ByteBuffer buffer =
+		ByteBuffer.allocate(16 * BLOCK_RECORDS * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+	private Index index = new Index();
+
+	private long numRecords = 0;
+	private int round = 0;
+
+	/** The first write error, which stopped the trace. */
+	private IOException failure = null;
+
+	/**
+	 * Constructor; creates the trace file.
+	 *
+	 * @param file_ The name of the file, overwritten if it exists.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public TraceStore(String file_) throws IOException {
+		this(file_, false);
+	}
+
+	/**
+	 * Constructor; opens a trace file, either a new one or one to be
+	 * continued from a checkpoint.
+	 *
+	 * @param file_ The name of the file.
+	 * @param resume_ If <code>true</code>, the file is kept as it is, for {@link #restoreState(DataInput)}; otherwise it is overwritten.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public TraceStore(String file_, boolean resume_) throws IOException {
+		fileName = file_;
+		channel = new RandomAccessFile(file_, "rw").getChannel();
+		if (resume_) {
+			return;
+		}
+		channel.truncate(0);
+		buffer.putLong(MAGIC);
+	}
+
+	/**
+	 * Accessor for the name of the file.
+	 *
+	 * @return Returns the name of the file.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Sets the round of the events that follow.  Rounds must not
+	 * go back.
+	 *
+	 * @param round_ The round.
+	 */
+	public void setRound(int round_) {
+		round = round_;
+	}
+
+	/**
+	 * Records an event of the current round.
+	 *
+	 * @param type_ The type, e.g., {@link #TIMEOUT}.
+	 * @param a_ The first value.
+	 * @param b_ The second value.
+	 */
+	public void record(int type_, int a_, int b_) {
+		if (failure != null) {
+			return;
+		}
+		index.add(numRecords, round, type_);
+		if (buffer.remaining() < RECORD_BYTES) {
+			write();
+		}
+		buffer.putInt(round);
+		buffer.putInt(type_);
+		buffer.putInt(a_);
+		buffer.putInt(b_);
+		numRecords++;
+	}
+
+	/**
+	 * Records a segment discarded by a router in the current round.
+	 *
+	 * @param segment_ The segment.
+	 * @param cause_ Why it was discarded, one of {@link #CAUSES}.
+	 */
+	public void drop(TCPSegment segment_, String cause_) {
+		int code_ = CAUSES.length - 1;
+		while (code_ >= 0 && !CAUSES[code_].equals(cause_)) {
+			code_--;
+		}
+		record(DROP, segment_.seqNum, code_);
+	}
+
+	/** Writes the buffer out; a failure stops the trace. */
+	private void write() {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e_) {
+			failure = e_;
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes out the buffered records, and writes the number of
+	 * records and the current round into a checkpoint.
+	 *
+	 * @param out_ The checkpoint.
+	 * @throws IOException If the trace or the checkpoint cannot be written.
+	 */
+	public void saveState(DataOutput out_) throws IOException {
+		write();
+		if (failure != null) {
+			throw failure;
+		}
+		out_.writeLong(numRecords);
+		out_.writeInt(round);
+	}
+
+	/**
+	 * Returns to the records written by {@link #saveState(DataOutput)},
+	 * discarding whatever was recorded after the checkpoint, including
+	 * an index, and indexes the records again.
+	 *
+	 * @param in_ The checkpoint.
+	 * @throws IOException If the checkpoint cannot be read, or does not fit the file.
+	 */
+	public void restoreState(DataInput in_) throws IOException {
+		long numRecords_ = in_.readLong();
+		int round_ = in_.readInt();
+		long end_ = 8 + numRecords_ * RECORD_BYTES;
+		ByteBuffer head_ = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		while (head_.hasRemaining() && channel.read(head_, head_.position()) >= 0) {
+			// until full, or at the end of the file
+		}
+		if (head_.position() < 8 || head_.getLong(0) != MAGIC) {
+			throw new IOException(fileName + " is not a trace");
+		}
+		if (channel.size() < end_) {
+			throw new IOException("The trace " + fileName + " is shorter than at the checkpoint");
+		}
+		buffer.clear();
+		channel.truncate(end_);
+		index = new Index();
+		// The records of the checkpoint, block by block.
+		ByteBuffer block_ = ByteBuffer.allocate(BLOCK_RECORDS * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (long record_ = 0; record_ < numRecords_; ) {
+			block_.clear();
+			block_.limit((int) Math.min(BLOCK_RECORDS, numRecords_ - record_) * RECORD_BYTES);
+			long position_ = 8 + record_ * RECORD_BYTES;
+			while (block_.hasRemaining()) {
+				if (channel.read(block_, position_ + block_.position()) < 0) {
+					throw new IOException("The trace " + fileName + " is shorter than at the checkpoint");
+				}
+			}
+			for (int r_ = 0; r_ < block_.limit(); r_ += RECORD_BYTES) {
+				int type_ = block_.getInt(r_ + 4);
+				if (type_ < 0 || type_ >= TYPES.length) {
+					throw new IOException(fileName + " is not a trace: record " + record_ + " is of type " + type_);
+				}
+				index.add(record_++, block_.getInt(r_), type_);
+			}
+		}
+		channel.position(end_);
+		numRecords = numRecords_;
+		round = round_;
+	}
+
+	/**
+	 * Writes the buffered records and the index, and closes the file.
+	 *
+	 * @throws IOException If the trace could not be written, now or earlier.
+	 */
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			index.finish();
+			for (int i_ = 0; i_ < 2 * index.numBlocks; i_++) {
+				if (!buffer.hasRemaining()) {
+					write();
+				}
+				buffer.putInt(index.blocks[i_]);
+			}
+			for (int t_ = 0; t_ < TYPES.length; t_++) {
+				for (int done_ = 0; done_ < index.postingBytes[t_]; ) {
+					if (!buffer.hasRemaining()) {
+						write();
+					}
+					int length_ = Math.min(buffer.remaining(), index.postingBytes[t_] - done_);
+					buffer.put(index.postings[t_], done_, length_);
+					done_ += length_;
+				}
+			}
+			if (buffer.remaining() < FOOTER_BYTES) {
+				write();
+			}
+			buffer.putInt(index.numBlocks);
+			buffer.putLong(numRecords);
+			for (int t_ = 0; t_ < TYPES.length; t_++) {
+				buffer.putLong(index.postingBytes[t_]);
+			}
+			buffer.putLong(INDEX_MAGIC);
+			write();
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * The index of a trace, built record by record: the first and the
+	 * last round of every block, and the postings of every type.
+	 */
+	static final class Index {
+		/** The first and the last round of every block. */
+		int[] blocks = new int[2 * 1024];
+		int numBlocks = 0;
+
+		/** The postings of every type, as in the file, and their lengths. */
+		final byte[][] postings = new byte[TYPES.length][64];
+		final int[] postingBytes = new int[TYPES.length];
+
+		/** The range of every type that may still grow; none while it has no events. */
+		private final int[] first = new int[TYPES.length];
+		private final int[] last = new int[TYPES.length];
+		private final long[] events = new long[TYPES.length];
+
+		/** The last round of the range before, per type. */
+		private final int[] previous = new int[TYPES.length];
+
+		/**
+		 * Adds the next record.
+		 *
+		 * @param record_ The number of the record, counting from zero.
+		 * @param round_ Its round, not less than that of the record before.
+		 * @param type_ Its type.
+		 */
+		void add(long record_, int round_, int type_) {
+			if (record_ % BLOCK_RECORDS == 0) {
+				if (2 * numBlocks == blocks.length) {
+					int[] larger_ = new int[2 * blocks.length];
+					System.arraycopy(blocks, 0, larger_, 0, blocks.length);
+					blocks = larger_;
+				}
+				blocks[2 * numBlocks++] = round_;
+			}
+			blocks[2 * numBlocks - 1] = round_;
+			if (events[type_] > 0 && round_ <= last[type_] + 1) {
+				last[type_] = round_;
+				events[type_]++;
+				return;
+			}
+			if (events[type_] > 0) {
+				closeRange(type_);
+			}
+			first[type_] = last[type_] = round_;
+			events[type_] = 1;
+		}
+
+		/** Adds the ranges that may still grow to the postings. */
+		void finish() {
+			for (int t_ = 0; t_ < TYPES.length; t_++) {
+				if (events[t_] > 0) {
+					closeRange(t_);
+				}
+			}
+		}
+
+		private void closeRange(int type_) {
+			putVarLong(type_, (long) first[type_] - previous[type_]);
+			putVarLong(type_, (long) last[type_] - first[type_]);
+			putVarLong(type_, events[type_] - 1);
+			previous[type_] = last[type_];
+			events[type_] = 0;
+		}
+
+		private void putVarLong(int type_, long value_) {
+			if (postingBytes[type_] + 10 > postings[type_].length) {
+				byte[] larger_ = new byte[2 * postings[type_].length];
+				System.arraycopy(postings[type_], 0, larger_, 0, postingBytes[type_]);
+				postings[type_] = larger_;
+			}
+			while ((value_ & ~0x7FL) != 0) {
+				postings[type_][postingBytes[type_]++] = (byte) ((value_ & 0x7F) | 0x80);
+				value_ >>>= 7;
+			}
+			postings[type_][postingBytes[type_]++] = (byte) value_;
+		}
+
+		/**
+		 * Reads a number of the postings.
+		 *
+		 * @param in_ The postings, at the number.
+		 * @return Returns the number.
+		 */
+		static long getVarLong(ByteBuffer in_) {
+			long value_ = 0;
+			for (int shift_ = 0; ; shift_ += 7) {
+				byte b_ = in_.get();
+				value_ |= (long) (b_ & 0x7F) << shift_;
+				if (b_ >= 0) {
+					return value_;
+				}
+			}
+		}
+	}
+}
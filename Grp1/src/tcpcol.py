@@ -0,0 +1,129 @@
+#
+# Rutgers University, Department of Electrical and Computer Engineering
+#
+"""Loads a table written by ColumnarWriter, with the standard library only.
+
+The format, "TCPCOL01", is described in ColumnarWriter.java; in short,
+all numbers are little-endian:
+
+    file   = magic schema chunk* end
+    magic  = "TCPCOL01"                       (8 bytes)
+    schema = string(table) int32(columns) column*
+    column = int8(type) string(name)          (type: 1 int32, 2 int64, 3 float64)
+    string = int32(bytes) UTF-8 bytes
+    chunk  = int32(rows > 0), then for each column, rows values of its type
+    end    = int32(0) int64(total rows)
+
+A file without the end marker was cut short; its complete chunks are
+loaded, and the result tells so.
+
+    >>> table = tcpcol.load("rounds.col")
+    >>> table.columns["cong_window"][:3]
+    array('i', [1024, 2048, 4096])
+
+The columns are array.array objects, which numpy.asarray() or
+pandas.DataFrame(table.columns) take as they are, where those exist.
+Run as a script, it prints the table as CSV:
+
+    python3 tcpcol.py rounds.col > rounds.csv
+"""
+
+import array
+import struct
+import sys
+
+MAGIC = b"TCPCOL01"
+
+# Type of a column: (array typecode, width in bytes).
+TYPES = {1: ("i", 4), 2: ("q", 8), 3: ("d", 8)}
+
+
+class Table(object):
+    """A loaded table: its name, its columns in order, and whether the
+    file ended with its end marker."""
+
+    def __init__(self, name, names, columns, complete):
+        self.name = name
+        self.names = names
+        self.columns = columns
+        self.complete = complete
+
+    def __len__(self):
+        return len(self.columns[self.names[0]])
+
+    def rows(self):
+        """Iterates over the rows, as tuples in the order of the columns."""
+        return zip(*[self.columns[n] for n in self.names])
+
+
+def _string(data, at):
+    (length,) = struct.unpack_from("<i", data, at)
+    at += 4
+    if length < 0 or at + length > len(data):
+        raise ValueError("no string of %d bytes" % length)
+    return data[at:at + length].decode("utf-8"), at + length
+
+
+def load(path):
+    """Loads the table in the given file."""
+    with open(path, "rb") as f:
+        data = f.read()
+    if data[:len(MAGIC)] != MAGIC:
+        raise ValueError("%s is not a columnar table" % path)
+    at = len(MAGIC)
+    name, at = _string(data, at)
+    (count,) = struct.unpack_from("<i", data, at)
+    at += 4
+    names, types = [], []
+    for _ in range(count):
+        (kind,) = struct.unpack_from("<b", data, at)
+        if kind not in TYPES:
+            raise ValueError("%s: unknown type %d" % (path, kind))
+        column, at = _string(data, at + 1)
+        names.append(column)
+        types.append(TYPES[kind])
+
+    columns = dict((n, array.array(t[0])) for n, t in zip(names, types))
+    width = sum(t[1] for t in types)
+    total, complete = 0, False
+    while at + 4 <= len(data):
+        (rows,) = struct.unpack_from("<i", data, at)
+        if rows == 0:
+            if at + 12 <= len(data):
+                (written,) = struct.unpack_from("<q", data, at + 4)
+                if written != total:
+                    raise ValueError("%s ends with %d rows, but has %d"
+                                     % (path, written, total))
+                complete = True
+            break
+        if rows < 0 or at + 4 + rows * width > len(data):
+            break                       # cut short within the chunk
+        at += 4
+        for column, (code, size) in zip(names, types):
+            values = array.array(code)
+            values.frombytes(data[at:at + rows * size])
+            if sys.byteorder == "big":
+                values.byteswap()
+            columns[column].extend(values)
+            at += rows * size
+        total += rows
+    return Table(name, names, columns, complete)
+
+
+def main(argv):
+    if len(argv) != 2:
+        sys.stderr.write("Usage: tcpcol.py <file>\n")
+        return 1
+    table = load(argv[1])
+    out = sys.stdout
+    out.write(",".join(table.names) + "\n")
+    for row in table.rows():
+        out.write(",".join(repr(v) for v in row) + "\n")
+    if not table.complete:
+        sys.stderr.write("%s was cut short; read its %d complete rows\n"
+                         % (argv[1], len(table)))
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main(sys.argv))